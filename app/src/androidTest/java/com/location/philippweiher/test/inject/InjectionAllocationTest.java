@@ -0,0 +1,243 @@
+package com.location.philippweiher.test.inject;
+
+import android.content.Context;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GooglePlayServicesClient.ConnectionCallbacks;
+import com.google.android.gms.common.GooglePlayServicesClient.OnConnectionFailedListener;
+import com.google.android.gms.location.LocationClient;
+import com.location.philippweiher.test.MapsActivity;
+import com.location.philippweiher.test.elevation.ElevationModel;
+import com.location.philippweiher.test.elevation.HgtTile;
+import com.location.philippweiher.test.scenario.ScenarioCompiler;
+import com.location.philippweiher.test.scenario.ScenarioPlayer;
+import com.location.philippweiher.test.track.Track;
+import com.location.philippweiher.test.track.Trajectory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that an injection tick doesn't allocate once it has warmed up. The tick runs the way
+ * SendMockLocationService runs it: a Playback of a scenario over a track, through the scenario's
+ * loss filter into a ProviderFanOut with seeded noise, an elevation model that fills in the
+ * heights and an NMEA stream with a client connected.
+ *
+ * Every provider has to be injected for real, through a connected LocationClient in mock mode
+ * and through registered test providers, so the device or emulator must allow mock locations
+ * for the test app. Otherwise the fan-out would quietly leave providers out and the test would
+ * only measure the fix derivation; it fails instead.
+ */
+public class InjectionAllocationTest extends AndroidTestCase {
+
+    private static final int WARM_UP_TICKS = 1000;
+    private static final int MEASURED_TICKS = 10000;
+
+    // 2014-07-31T12:34:56Z
+    private static final long BASE_TIME = 1406810096000L;
+
+    // every instruction that changes the fixes, looping for longer than the ticks run
+    private static final String SCENARIO = "seed 3\n"
+            + "jitter 5m 10min\n"
+            + "accuracy 4m 20m 1min\n"
+            + "repeat 1000\n"
+            + "    track 20s\n"
+            + "    loss 2s\n"
+            + "    hold 1s\n"
+            + "end\n";
+
+    // samples per side of the test tile, a tenth of SRTM3
+    private static final int TILE_SIZE = 121;
+
+    private File tiles;
+    private LocationManager locationManager;
+    private LocationClient locationClient;
+    private ProviderFanOut fanOut;
+    private NmeaServer server;
+    private Socket client;
+    private InjectionMetrics metrics;
+    private Playback playback;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tiles = new File(getContext().getCacheDir(), "allocation-test-tiles");
+        tiles.mkdirs();
+        writeTile(new File(tiles, HgtTile.nameFor(52, 13)));
+
+        // no altitudes, so the elevation model has to fill them in
+        Track track = new Track();
+        for (int i = 0; i < 5000; i++) {
+            track.add(i * 1000L, 52.5 + i * 1e-5, 13.4 + i * 1e-5);
+        }
+        ScenarioPlayer player = new ScenarioPlayer(ScenarioCompiler.compile(SCENARIO),
+                new Trajectory(track));
+
+        metrics = new InjectionMetrics();
+        locationManager = (LocationManager) getContext().getSystemService(Context.LOCATION_SERVICE);
+        fanOut = new ProviderFanOut(locationManager, new MockLocationBuilder(3.0f),
+                MapsActivity.LOCATION_PROVIDER);
+        connectLocationClient();
+        fanOut.setLocationClient(locationClient);
+        fanOut.setMetrics(metrics);
+        fanOut.setNoiseSeed(42);
+        fanOut.setElevation(new ElevationModel(tiles));
+        fanOut.setProfiles(new ProviderProfile[] {
+                ProviderProfile.forName(ProviderProfile.FUSED),
+                ProviderProfile.forName(ProviderProfile.GPS),
+                ProviderProfile.forName(ProviderProfile.NETWORK)});
+        assertEquals("test providers not registered, are mock locations allowed?",
+                3, fanOut.getProfiles().length);
+
+        server = new NmeaServer(new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        fanOut.setStream(server);
+        connectClient();
+
+        TickScheduler scheduler = new TickScheduler(50, TickScheduler.LatePolicy.SKIP);
+        scheduler.start(0);
+        playback = new Playback(player, scheduler, player.filter(fanOut));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        fanOut.release();
+        if (locationClient.isConnected()) {
+            locationClient.setMockMode(false);
+        }
+        locationClient.disconnect();
+        server.close();
+        client.close();
+        for (File tile : tiles.listFiles()) {
+            tile.delete();
+        }
+        tiles.delete();
+        super.tearDown();
+    }
+
+    /*
+     * Connects to Location Services the way the service does and switches on mock mode, which
+     * throws if mock locations aren't allowed. The callbacks arrive on the main thread.
+     */
+    private void connectLocationClient() throws InterruptedException {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final ConnectionResult[] failure = new ConnectionResult[1];
+        locationClient = new LocationClient(getContext(), new ConnectionCallbacks() {
+            @Override
+            public void onConnected(Bundle bundle) {
+                connected.countDown();
+            }
+
+            @Override
+            public void onDisconnected() {
+            }
+        }, new OnConnectionFailedListener() {
+            @Override
+            public void onConnectionFailed(ConnectionResult result) {
+                failure[0] = result;
+                connected.countDown();
+            }
+        });
+        locationClient.connect();
+        assertTrue("Location Services didn't connect", connected.await(10, TimeUnit.SECONDS));
+        assertNull("Location Services connection failed: " + failure[0], failure[0]);
+        locationClient.setMockMode(true);
+    }
+
+    /*
+     * A client that reads and throws away everything, so the server has to encode every fix.
+     * Its thread allocates, but only this thread's allocations are counted.
+     */
+    private void connectClient() throws Exception {
+        client = new Socket("127.0.0.1", server.getPort());
+        final InputStream in = client.getInputStream();
+        Thread reader = new Thread("NMEA client") {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[8192];
+                try {
+                    while (in.read(buffer) >= 0) {
+                        // discard
+                    }
+                } catch (IOException e) {
+                    // closed by tearDown
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getClientCount() == 0) {
+            assertTrue("NMEA client not accepted", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    // heights rising from west to east and north to south
+    private static void writeTile(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (int row = 0; row < TILE_SIZE; row++) {
+                for (int column = 0; column < TILE_SIZE; column++) {
+                    out.writeShort(30 + row + column);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void tick(long now) {
+        long start = System.nanoTime();
+        playback.tick(now, now * 1000000L, BASE_TIME + now);
+        metrics.recordTick((System.nanoTime() - start) / 1000, false, 0);
+    }
+
+    public void testTickAllocatesNothingAfterWarmUp() {
+        long now = 0;
+        for (int i = 0; i < WARM_UP_TICKS; i++) {
+            tick(now);
+            now += 50;
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < MEASURED_TICKS; i++) {
+                tick(now);
+                now += 50;
+            }
+            int bytes = Debug.getThreadAllocSize();
+            int count = Debug.getThreadAllocCount();
+            assertEquals("bytes allocated over " + MEASURED_TICKS + " ticks", 0, bytes);
+            assertEquals("objects allocated over " + MEASURED_TICKS + " ticks", 0, count);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        assertEquals(WARM_UP_TICKS + MEASURED_TICKS, metrics.getTicks());
+        assertEquals(1, server.getClientCount());
+
+        // the loss windows drop some ticks, every other one reached every provider
+        InjectionMetrics.ProviderMetrics[] providers = metrics.getProviders();
+        assertEquals(3, providers.length);
+        for (InjectionMetrics.ProviderMetrics provider : providers) {
+            assertTrue(provider.getName() + " never injected",
+                    provider.getCallTime().getCount() > MEASURED_TICKS / 2);
+        }
+        assertTrue(locationClient.isConnected());
+        assertNotNull(locationManager.getLastKnownLocation(ProviderProfile.GPS));
+        assertNotNull(locationManager.getLastKnownLocation(ProviderProfile.NETWORK));
+    }
+}
@@ -43,7 +43,7 @@ public class AddressAdapter extends BaseAdapter{
     public View getView(int position, View convertView, ViewGroup viewGroup) {
         Address addressToDisplay = matches.get(position);
         String address = "";
-        for (int i = 0; i < addressToDisplay.getMaxAddressLineIndex(); i++)
+        for (int i = 0; i <= addressToDisplay.getMaxAddressLineIndex(); i++)
             address += addressToDisplay.getAddressLine(i);
 
         View v = convertView;
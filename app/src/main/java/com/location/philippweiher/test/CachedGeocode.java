@@ -0,0 +1,49 @@
+package com.location.philippweiher.test;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * Geocoder answer for one normalized search query, kept so the same search does not go to the
+ * network again until it expires.
+ */
+@DatabaseTable(tableName = CachedGeocode.TABLE_NAME)
+public class CachedGeocode {
+
+    public static final String TABLE_NAME = "cachedgeocode";
+
+    // column names, for building queries
+    public static final String QUERY_FIELD_NAME = "query";
+    public static final String CREATED_FIELD_NAME = "created";
+    public static final String MATCHES_FIELD_NAME = "matches";
+
+    @DatabaseField(id = true, columnName = QUERY_FIELD_NAME)
+    String query;
+    // System.currentTimeMillis() when the geocoder answered
+    @DatabaseField(columnName = CREATED_FIELD_NAME, index = true)
+    long created;
+    // matches in the form written by GeocodeCache
+    @DatabaseField(columnName = MATCHES_FIELD_NAME)
+    String matches;
+
+    public CachedGeocode() {
+    }
+
+    public CachedGeocode(String query, long created, String matches) {
+        this.query = query;
+        this.created = created;
+        this.matches = matches;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public String getMatches() {
+        return matches;
+    }
+}
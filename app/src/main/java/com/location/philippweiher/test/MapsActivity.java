@@ -6,12 +6,13 @@ import android.app.FragmentManager;
 import android.content.Context;
 import android.content.Intent;
 import android.location.Address;
-import android.location.Geocoder;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.FragmentActivity;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.inputmethod.InputMethodManager;
@@ -38,6 +39,9 @@ import com.j256.ormlite.dao.RuntimeExceptionDao;
 
 import com.location.philippweiher.test.fragments.MyListFragment;
 import com.location.philippweiher.test.utils.DatabaseHelper;
+import com.location.philippweiher.test.utils.GeocodeCache;
+import com.location.philippweiher.test.utils.HistoryLayer;
+import com.location.philippweiher.test.utils.StoredAddressWriter;
 
 import java.io.IOException;
 import java.util.List;
@@ -77,9 +81,116 @@ public class MapsActivity extends OrmLiteBaseFragmentActivity<DatabaseHelper>
     public static final String EXTRA_SEND_INTERVAL =
             "com.example.android.mocklocation.EXTRA_SEND_INTERVAL";
 
+    //Keys for an optional track the service plays back instead of a single point. Times are in
+    //milliseconds, latitudes and longitudes in degrees, all three arrays have the same length.
+    public static final String EXTRA_TRACK_TIMES =
+            "com.example.android.mocklocation.EXTRA_TRACK_TIMES";
+    public static final String EXTRA_TRACK_LATITUDES =
+            "com.example.android.mocklocation.EXTRA_TRACK_LATITUDES";
+    public static final String EXTRA_TRACK_LONGITUDES =
+            "com.example.android.mocklocation.EXTRA_TRACK_LONGITUDES";
+
+    //Key for the path of a GPX, KML or NMEA file to play back; it is streamed, so playback
+    //starts before the file has been read completely. The format is guessed from the name and
+    //content unless EXTRA_TRACK_FORMAT ("GPX", "KML" or "NMEA") is given. Binary ".mtrk" tracks
+    //are memory-mapped instead.
+    public static final String EXTRA_TRACK_FILE =
+            "com.example.android.mocklocation.EXTRA_TRACK_FILE";
+    public static final String EXTRA_TRACK_FORMAT =
+            "com.example.android.mocklocation.EXTRA_TRACK_FORMAT";
+
+    //Key for the number of mock locations per second sent while playing back a track (1-50).
+    public static final String EXTRA_UPDATE_RATE =
+            "com.example.android.mocklocation.EXTRA_UPDATE_RATE";
+
+    //Key for how much faster than recorded a track is played back (0.5-100, a float). The rate of
+    //mock locations stays the same; each one moves further along the track and is stamped with
+    //times on the sped-up timeline.
+    public static final String EXTRA_PLAYBACK_SPEED =
+            "com.example.android.mocklocation.EXTRA_PLAYBACK_SPEED";
+
+    //Key for a local TCP port on which the service streams every injected fix as $GPRMC and
+    //$GPGGA sentences, e.g. NmeaServer.DEFAULT_PORT (10110). Off unless a start command sets it.
+    public static final String EXTRA_NMEA_PORT =
+            "com.example.android.mocklocation.EXTRA_NMEA_PORT";
+
+    //Key (a boolean) that makes the service play SendMockLocationService.LIVE_POSITION instead of
+    //a track, holding whatever position was published into it last. Sent once when a marker drag
+    //starts; the drag itself only publishes.
+    public static final String EXTRA_LIVE_POSITION =
+            "com.example.android.mocklocation.EXTRA_LIVE_POSITION";
+
+    //Keys for a scenario to run on the track, as text or as the path of a file in the language
+    //described by ScenarioCompiler. It starts at the first point of the track and follows it
+    //where it says "track". A scenario that doesn't compile rejects the whole start command.
+    public static final String EXTRA_SCENARIO =
+            "com.example.android.mocklocation.EXTRA_SCENARIO";
+    public static final String EXTRA_SCENARIO_FILE =
+            "com.example.android.mocklocation.EXTRA_SCENARIO_FILE";
+
+    //Keys for the providers mock locations are sent to: names ("fused", "gps", "network"), and
+    //optionally the accuracy each one reports and the standard deviation of the error added to
+    //its positions, both in meters. Without names only the fused provider is used.
+    public static final String EXTRA_PROVIDERS =
+            "com.example.android.mocklocation.EXTRA_PROVIDERS";
+    public static final String EXTRA_PROVIDER_ACCURACIES =
+            "com.example.android.mocklocation.EXTRA_PROVIDER_ACCURACIES";
+    public static final String EXTRA_PROVIDER_NOISE =
+            "com.example.android.mocklocation.EXTRA_PROVIDER_NOISE";
+
+    //Keys for realistic errors instead: per provider the name of a NoiseProfile preset ("none",
+    //"open_sky", "suburban", "urban_canyon"), whose drifting error, multipath and matching
+    //accuracy replace the noise and accuracy above, and a seed (a long) that makes the errors the
+    //same on every run. Without a seed every start command gets new errors.
+    public static final String EXTRA_PROVIDER_NOISE_MODELS =
+            "com.example.android.mocklocation.EXTRA_PROVIDER_NOISE_MODELS";
+    public static final String EXTRA_NOISE_SEED =
+            "com.example.android.mocklocation.EXTRA_NOISE_SEED";
+
+    //Key for a directory of SRTM tiles (N52E013.hgt and so on, SRTM1 or SRTM3) from which fixes
+    //without an altitude get the terrain height. Defaults to files/srtm in the app's data.
+    public static final String EXTRA_ELEVATION_DIR =
+            "com.example.android.mocklocation.EXTRA_ELEVATION_DIR";
+
+    //Key for what the service does with ticks that are already overdue: "SKIP" (default) or
+    //"CATCH_UP".
+    public static final String EXTRA_LATE_TICK_POLICY =
+            "com.example.android.mocklocation.EXTRA_LATE_TICK_POLICY";
+
+    //Key for the SystemClock.elapsedRealtime() at which the user picked the position to send, so
+    //the service can report how long it took until the first mock location went out.
+    public static final String EXTRA_REQUEST_TIME =
+            "com.example.android.mocklocation.EXTRA_REQUEST_TIME";
+
+    //Key for the milliseconds from EXTRA_REQUEST_TIME to the first injected mock location, sent
+    //along with ACTION_SERVICE_MESSAGE once playback of a new request has started.
+    public static final String EXTRA_FIRST_FIX_LATENCY =
+            "com.example.android.mocklocation.EXTRA_FIRST_FIX_LATENCY";
+
+    //Key for a Bundle with a summary of the injection timing metrics, sent along with
+    //ACTION_SERVICE_MESSAGE every few seconds while the service injects. See InjectionMetrics for
+    //its keys.
+    public static final String EXTRA_METRICS =
+            "com.example.android.mocklocation.EXTRA_METRICS";
+
+    // Mock locations per second while a marker is dragged
+    private static final int DRAG_UPDATE_RATE = 10;
+
     public Intent mRequestIntent;
     private Bundle savedInstanceState;
 
+    // Stores addresses on a background thread
+    private StoredAddressWriter mAddressWriter;
+
+    // Geocodes searches in the background, with memory and database caches in front
+    private GeocodeCache mGeocodeCache;
+
+    // Clusters the stored addresses around the viewport in the background
+    private HistoryLayer mHistoryLayer;
+
+    // The marker of the position being sent, null until there is one
+    private Marker mPin;
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -95,11 +206,25 @@ public class MapsActivity extends OrmLiteBaseFragmentActivity<DatabaseHelper>
         myMap.setOnMapClickListener(this);
         myMap.setOnMapLongClickListener(this);
         myMap.setOnMarkerDragListener(this);
+        mHistoryLayer = new HistoryLayer(this, myMap);
+        myMap.setOnCameraChangeListener(mHistoryLayer);
 
         mLocationClient = new LocationClient(this, this, this);
         mLocationClient.connect();
         mRequestIntent = new Intent(this, SendMockLocationService.class);
         searchQueryTextView = (TextView) findViewById(R.id.inputSearchField);
+        mAddressWriter = new StoredAddressWriter(this);
+        mGeocodeCache = new GeocodeCache(this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        // writes what is still queued in the background, then lets go of the database
+        mAddressWriter.close();
+        mGeocodeCache.close();
+        mHistoryLayer.close();
+        mLocationClient.disconnect();
+        super.onDestroy();
     }
 
     @Override
@@ -109,6 +234,27 @@ public class MapsActivity extends OrmLiteBaseFragmentActivity<DatabaseHelper>
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_record).setChecked(TrackRecordingService.isRecording());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_record) {
+            // the recording runs in TrackRecordingService, so it outlives this activity
+            if (TrackRecordingService.isRecording()) {
+                TrackRecordingService.stop(this);
+            } else {
+                TrackRecordingService.start(this);
+            }
+            invalidateOptionsMenu();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     @Override
     public void onMapClick(LatLng point) {
         myMap.animateCamera(CameraUpdateFactory.newLatLng(point));
@@ -119,14 +265,17 @@ public class MapsActivity extends OrmLiteBaseFragmentActivity<DatabaseHelper>
         mRequestIntent.setAction(ACTION_START);
         mRequestIntent.putExtra(LAT_FOR_POINT, point.latitude);
         mRequestIntent.putExtra(LON_FOR_POINT, point.longitude);
+        // no pause before injecting, the tap is answered on the next tick
+        mRequestIntent.putExtra(EXTRA_PAUSE_VALUE, 0);
+        mRequestIntent.putExtra(EXTRA_REQUEST_TIME, SystemClock.elapsedRealtime());
 
         // Start SendMockLocationService
         startService(mRequestIntent);
     }
 
     @Override
-    public List<StoredAddress> getStoredAddresses() {
-        return getHelper().getStoredAddressRuntimeExceptionDao().queryForAll();
+    public RuntimeExceptionDao<StoredAddress, Integer> getStoredAddressDao() {
+        return getHelper().getStoredAddressRuntimeExceptionDao();
     }
 
     public static class ExampleFragment extends Fragment {
@@ -140,6 +289,9 @@ public class MapsActivity extends OrmLiteBaseFragmentActivity<DatabaseHelper>
                 return;
             }
 
+            // Write out queued addresses so the list shows them
+            mAddressWriter.flush();
+
             // Create a new Fragment to be placed in the activity layout
             MyListFragment firstFragment = new MyListFragment();
 
@@ -158,62 +310,52 @@ public class MapsActivity extends OrmLiteBaseFragmentActivity<DatabaseHelper>
             Toast.makeText(this, "Query is empty", Toast.LENGTH_SHORT).show();
             return;
         }
-        Geocoder geoCoder = new Geocoder(this);
-        List<Address> matches = null;
-        try {
-            matches = geoCoder.getFromLocationName(query, 5);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return;
-        }
+        // answered from the cache or in the background; a newer search cancels this one
+        mGeocodeCache.search(query, new GeocodeCache.Callback() {
+            @Override
+            public void onGeocoded(String query, List<Address> matches) {
+                showMatches(query, matches);
+            }
+
+            @Override
+            public void onGeocodeFailed(String query, IOException e) {
+                Log.w("Geocoder", "Search for " + query + " failed", e);
+                Toast.makeText(MapsActivity.this, "Search failed", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
 
+    private void showMatches(final String query, List<Address> matches) {
         if (matches.isEmpty()) {
             Toast.makeText(this, "No matches found", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        if (matches.size() >= 0) {
-
-            // display list dialog
-            AddressAdapter adapter = new AddressAdapter(matches, this);
-            final Dialog dialog = new Dialog(this);
-            dialog.setContentView(R.layout.dialog_listview);
-            ListView listView = (ListView) dialog.findViewById(R.id.listViewForAddresses);
-            listView.setAdapter(adapter);
-            final List<Address> finalMatches = matches;
-            listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-
-                @Override
-                public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-                    LatLng point = new LatLng(finalMatches.get(i).getLatitude(), finalMatches.get(i).getLongitude());
-                    myMap.animateCamera(CameraUpdateFactory.newLatLng(point));
-                    myMap.clear();
-                    myMap.addMarker(new MarkerOptions()
-                                    .position(point)
-                                    .draggable(true)
-                                    .title(query));
-                    onLocationReceived(point);
-                    storeLocationToDatabase(new StoredAddress(((TextView) view).getText().toString(),
-                            finalMatches.get(i).getLatitude(), finalMatches.get(i).getLongitude()));
-                    dialog.dismiss();
-                }
-            });
-            dialog.show();
-
-            return;
-        }
+        // display list dialog
+        AddressAdapter adapter = new AddressAdapter(matches, this);
+        final Dialog dialog = new Dialog(this);
+        dialog.setContentView(R.layout.dialog_listview);
+        ListView listView = (ListView) dialog.findViewById(R.id.listViewForAddresses);
+        listView.setAdapter(adapter);
+        final List<Address> finalMatches = matches;
+        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+
+            @Override
+            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
+                LatLng point = new LatLng(finalMatches.get(i).getLatitude(), finalMatches.get(i).getLongitude());
+                myMap.animateCamera(CameraUpdateFactory.newLatLng(point));
+                showPin(point, query);
+                onLocationReceived(point);
+                storeLocationToDatabase(new StoredAddress(((TextView) view).getText().toString(),
+                        finalMatches.get(i).getLatitude(), finalMatches.get(i).getLongitude()));
+                dialog.dismiss();
+            }
+        });
+        dialog.show();
     }
     @Override
     public void onMapLongClick(LatLng point) {
-        // just one marker is shown at the same time (if we want more just delete this line)
-        myMap.clear();
-
-        myMap.addMarker(new MarkerOptions()
-                        .position(point)
-                        .draggable(true)
-                        .title("" + point.latitude + "" + point.longitude)
-        );
-
+        showPin(point, "" + point.latitude + "" + point.longitude);
 
         //store markers koordinates to database
         StoredAddress mAddress = new StoredAddress();
@@ -225,32 +367,64 @@ public class MapsActivity extends OrmLiteBaseFragmentActivity<DatabaseHelper>
         onLocationReceived(point);
  }
 
-    public void storeLocationToDatabase(StoredAddress storedAddress) {
-        RuntimeExceptionDao<StoredAddress, Integer> storedAddressDao = getHelper().getStoredAddressRuntimeExceptionDao();
-        storedAddressDao.create(storedAddress);
-
-        List<StoredAddress> addressList = storedAddressDao.queryForAll();
-
-        for (StoredAddress a : addressList) {
-            Log.d("DB", "DB entry: " + a.toString());
+    /*
+     * Moves the one draggable marker; the history markers stay where they are.
+     */
+    private void showPin(LatLng point, String title) {
+        if (mPin != null) {
+            mPin.remove();
         }
+        mPin = myMap.addMarker(new MarkerOptions()
+                .position(point)
+                .draggable(true)
+                .title(title));
+    }
 
+    public void storeLocationToDatabase(StoredAddress storedAddress) {
+        // queued and written in a batch on a background thread, never on the UI thread
+        mAddressWriter.store(storedAddress);
+        mHistoryLayer.add(storedAddress);
+        Log.d("DB", "Queued DB entry: " + storedAddress.getText());
     }
-@Override
+    @Override
     public void onMarkerDrag(Marker marker) {
+        // the injector samples the latest position on its next tick; nothing else to do per move
+        LatLng point = marker.getPosition();
+        SendMockLocationService.LIVE_POSITION.publish(point.latitude, point.longitude);
     }
 
     @Override
     public void onMarkerDragEnd(Marker marker) {
+        LatLng point = marker.getPosition();
+        SendMockLocationService.LIVE_POSITION.publish(point.latitude, point.longitude);
+        marker.setTitle("" + point.latitude + "" + point.longitude);
+
+        // only where the marker was dropped goes to the database
+        StoredAddress mAddress = new StoredAddress();
+        mAddress.setText("lat " + point.latitude + " lng " + point.longitude);
+        mAddress.setLatitude(point.latitude);
+        mAddress.setLongitude(point.longitude);
+        storeLocationToDatabase(mAddress);
     }
 
     @Override
     public void onMarkerDragStart(Marker marker) {
+        LatLng point = marker.getPosition();
+        SendMockLocationService.LIVE_POSITION.publish(point.latitude, point.longitude);
+
+        // One start command for the whole drag, without the pause before injecting. A fresh
+        // Intent, since mRequestIntent keeps the extras of earlier requests.
+        Intent liveIntent = new Intent(this, SendMockLocationService.class);
+        liveIntent.setAction(ACTION_START);
+        liveIntent.putExtra(EXTRA_LIVE_POSITION, true);
+        liveIntent.putExtra(EXTRA_PAUSE_VALUE, 0);
+        liveIntent.putExtra(EXTRA_UPDATE_RATE, DRAG_UPDATE_RATE);
+        liveIntent.putExtra(EXTRA_REQUEST_TIME, SystemClock.elapsedRealtime());
+        startService(liveIntent);
     }
 
     @Override
     public void onConnected(Bundle bundle) {
-
     }
 
     @Override
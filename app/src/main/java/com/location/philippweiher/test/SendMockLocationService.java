@@ -18,46 +18,177 @@ package com.location.philippweiher.test;
 
 import android.app.Service;
 import android.content.Intent;
-import android.location.Location;
+import android.location.LocationManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
+import android.os.Messenger;
 import android.os.Process;
+import android.os.RemoteException;
 import android.os.SystemClock;
 import android.support.v4.content.LocalBroadcastManager;
 import android.text.TextUtils;
+import android.util.Log;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesClient.ConnectionCallbacks;
 import com.google.android.gms.common.GooglePlayServicesClient.OnConnectionFailedListener;
 import com.google.android.gms.location.LocationClient;
+import com.location.philippweiher.test.inject.InjectionMetrics;
+import com.location.philippweiher.test.inject.InjectionProtocol;
+import com.location.philippweiher.test.inject.MockLocationBuilder;
+import com.location.philippweiher.test.inject.NmeaServer;
+import com.location.philippweiher.test.inject.NoiseProfile;
+import com.location.philippweiher.test.inject.Playback;
+import com.location.philippweiher.test.inject.ProviderFanOut;
+import com.location.philippweiher.test.inject.ProviderProfile;
+import com.location.philippweiher.test.elevation.ElevationModel;
+import com.location.philippweiher.test.inject.FixRingBuffer;
+import com.location.philippweiher.test.inject.FixSink;
+import com.location.philippweiher.test.inject.FixRingBuffer.OverflowPolicy;
+import com.location.philippweiher.test.inject.TickScheduler;
+import com.location.philippweiher.test.inject.TickScheduler.LatePolicy;
+import com.location.philippweiher.test.scenario.Scenario;
+import com.location.philippweiher.test.scenario.ScenarioCompiler;
+import com.location.philippweiher.test.scenario.ScenarioPlayer;
+import com.location.philippweiher.test.track.ConvertedTrackCache;
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.LivePosition;
+import com.location.philippweiher.test.track.MappedTrack;
+import com.location.philippweiher.test.track.PositionSource;
+import com.location.philippweiher.test.track.StreamingTrajectory;
+import com.location.philippweiher.test.track.Track;
+import com.location.philippweiher.test.track.TrackConverter;
+import com.location.philippweiher.test.track.TrackFormat;
+import com.location.philippweiher.test.track.Trajectory;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class SendMockLocationService extends Service implements
         ConnectionCallbacks, OnConnectionFailedListener {
 
-    private double latitude;
-    private double longitude;
+    private static final String TAG = "SendMockLocationService";
+
+    // Messages handled by the UpdateHandler
+    private static final int MSG_START = 1;
+    private static final int MSG_TICK = 2;
+    private static final int MSG_DRAIN = 3;
+    private static final int MSG_CONNECTED = 4;
+    private static final int MSG_SNAPSHOT = 5;
+
+    // How often a metrics snapshot is broadcast while injecting
+    private static final long SNAPSHOT_INTERVAL = 5000;
+
+    // Fixes pushed through the bound interface that may wait for injection
+    private static final int PUSH_QUEUE_CAPACITY = 16384;
+
+    // What happens to pushed fixes when the queue is full, unless the push says otherwise
+    private static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_NEWEST;
+
+    // Pushed fixes injected per MSG_DRAIN, so acknowledgements aren't held up by a long queue
+    private static final int DRAIN_BATCH = 64;
+
+    // How often to check whether a track file has produced its first point
+    private static final long SOURCE_POLL_INTERVAL = 10;
+
+    // Bounds for the number of mock locations sent per second during track playback
+    private static final int MIN_UPDATE_RATE = 1;
+    private static final int MAX_UPDATE_RATE = 50;
+
+    // Bounds for the playback speed of a track
+    private static final float MIN_PLAYBACK_SPEED = 0.5f;
+    private static final float MAX_PLAYBACK_SPEED = 100f;
+
+    // Backoff for getting a lost Location Services connection back
+    private static final long RECONNECT_DELAY = 1000;
+    private static final long MAX_RECONNECT_DELAY = 30 * 1000;
+
+    // Failed connection attempts in a row before the service gives up
+    private static final int MAX_CONNECTION_FAILURES = 5;
+
+    // Accuracy reported for positions that don't carry their own
+    private static final float DEFAULT_ACCURACY = 3.0f;
+
+    // Where a dragged marker is right now. The activity runs in the same process and publishes
+    // into it on every drag event; a start command with EXTRA_LIVE_POSITION plays it back.
+    public static final LivePosition LIVE_POSITION = new LivePosition();
+
+    // The track being played back; a single point if the start Intent didn't carry one
+    private PositionSource mTrajectory;
 
     private class TestParam {
 
         public final String TestAction;
         public final int TestPause;
         public final int InjectionPause;
-
-        public TestParam(String action, int testPause, int injectionPause) {
+        public final int UpdateRate;
+        public final float PlaybackSpeed;
+        public final LatePolicy LateTickPolicy;
+        public final PositionSource TestRoute;
+        public final ProviderProfile[] Providers;
+        public final long NoiseSeed;
+        public final ElevationModel Elevation;
+        public final long RequestTime;
+
+        public TestParam(String action, int testPause, int injectionPause, int updateRate,
+                         float playbackSpeed, LatePolicy lateTickPolicy, PositionSource route,
+                         ProviderProfile[] providers, long noiseSeed, ElevationModel elevation,
+                         long requestTime) {
 
             TestAction = action;
             TestPause = testPause;
             InjectionPause = injectionPause;
+            UpdateRate = updateRate;
+            PlaybackSpeed = playbackSpeed;
+            LateTickPolicy = lateTickPolicy;
+            TestRoute = route;
+            Providers = providers;
+            NoiseSeed = noiseSeed;
+            Elevation = elevation;
+            RequestTime = requestTime;
+        }
+
+        /*
+         * Milliseconds between two mock locations. An explicit update rate wins, otherwise the
+         * injection pause (in seconds) sets the pace.
+         */
+        public long getTickInterval() {
+            if (UpdateRate > 0) {
+                return 1000 / UpdateRate;
+            }
+            return Math.max(1, InjectionPause) * 1000L;
         }
     }
 
+    // Connected once and kept across start commands; reconnected when Play Services drops it
     LocationClient mLocationClient;
 
+    // Main thread handler for reconnect attempts
+    private Handler mMainHandler;
+
+    private int mConnectionFailures;
+
+    private long mReconnectDelay = RECONNECT_DELAY;
+
+    // The latest start request, waiting for the connection; main thread only
+    private TestParam mPendingTest;
+
+    private final Runnable mReconnect = new Runnable() {
+        @Override
+        public void run() {
+            connectLocationClient();
+        }
+    };
+
     HandlerThread mWorkThread;
 
     private boolean mTestStarted;
@@ -74,53 +205,474 @@ public class SendMockLocationService extends Service implements
 
     private String mTestRequest;
 
+    private int mUpdateRate;
+
+    private float mPlaybackSpeed;
+
+    private LatePolicy mLatePolicy;
+
+    private ProviderProfile[] mProviders;
+
+    // Terrain heights for tracks without altitudes; kept across start commands with the same
+    // tile directory, so its tiles stay mapped. Read on the UpdateThread for pushed fixes.
+    private volatile ElevationModel mElevation;
+
+    // Seed of the errors of the last start command; pushed fixes and bound scenarios get the
+    // same errors
+    private volatile long mNoiseSeed = System.nanoTime();
+
+    // Binary copies of imported track files
+    private ConvertedTrackCache mTrackCache;
+
+    // Bound interface for test harnesses, see InjectionProtocol. Its messages are handled on
+    // the PushThread, which only queues fixes, so acknowledgements don't wait for injection.
+    private HandlerThread mPushThread;
+    private PushHandler mPushHandler;
+    private Messenger mMessenger;
+
+    // Pushed fixes on their way from the PushThread to the UpdateThread
+    private final FixRingBuffer mPushQueue = new FixRingBuffer(PUSH_QUEUE_CAPACITY);
+
+    // Set while a MSG_DRAIN is pending or running, so producers post at most one
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    // Told when the push queue has run empty
+    private volatile Messenger mLastPusher;
+
+    // Timing of the injection loop, shown by dumpsys and broadcast as snapshots
+    private final InjectionMetrics mMetrics = new InjectionMetrics();
+
+    // Streams injected fixes as NMEA sentences over TCP once a start command asked for it
+    private volatile NmeaServer mNmeaServer;
+
+    /*
+     * Runs on the UpdateThread. Nothing in here may block: every tick is posted with
+     * sendMessageAtTime() for its deadline on an absolute uptime timeline, so the looper stays
+     * free between ticks and a slow tick doesn't push back the ones after it.
+     *
+     * Once playback has started a tick allocates nothing: the fix and the mock Locations are
+     * recycled and tick messages come from the global Message pool.
+     *
+     * Fixes pushed by a bound harness are taken from the push queue in chunks of DRAIN_BATCH,
+     * so ticks and other messages get their turn in between.
+     */
     public class UpdateHandler extends Handler {
 
+        private final Fix fix = new Fix();
+        private final ProviderFanOut fanOut;
+
+        // whether the providers are set up for pushed fixes
+        private boolean pushConfigured;
+
+        private PositionSource trajectory;
+        private TickScheduler scheduler;
+        private Playback playback;
+
+        // elapsedRealtime() of the request whose first fix hasn't gone out yet, or -1
+        private long pendingRequestTime = -1;
 
         public UpdateHandler(Looper inputLooper) {
 
             super(inputLooper);
 
+            fanOut = new ProviderFanOut(
+                    (LocationManager) getSystemService(LOCATION_SERVICE),
+                    new MockLocationBuilder(DEFAULT_ACCURACY),
+                    MapsActivity.LOCATION_PROVIDER);
+            fanOut.setMetrics(mMetrics);
         }
 
         @Override
         public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_START:
+                    startInjection((TestParam) msg.obj);
+                    break;
+                case MSG_TICK:
+                    injectTick();
+                    break;
+                case MSG_DRAIN:
+                    drainPushed();
+                    break;
+                case MSG_CONNECTED:
+                    resumeMockMode();
+                    break;
+                case MSG_SNAPSHOT:
+                    broadcastMetrics();
+                    if (scheduler != null || mPushQueue.size() > 0) {
+                        scheduleSnapshot();
+                    }
+                    break;
+            }
+        }
 
-            Location mockLocation = new Location(MapsActivity.LOCATION_PROVIDER);
+        /*
+         * (Re)starts playback. Ticks left over from a previous test are dropped, then the first
+         * tick is scheduled after the requested pause; if playback was already running the new
+         * route takes over at once. A track that is still being read is polled until its first
+         * point is known, without blocking the looper.
+         */
+        private void startInjection(TestParam testParams) {
+            boolean running = scheduler != null;
+            removeMessages(MSG_TICK);
+            logSchedule();
 
-            long elapsedTimeNanos;
-            long currentTime;
+            if (trajectory != null && trajectory != testParams.TestRoute) {
+                trajectory.close();
+            }
+            trajectory = testParams.TestRoute;
 
-            int pauseInterval = 1;
-            int injectionInterval = 10;
+            if (trajectory.hasFailed()) {
+                Log.e(TAG, "Track could not be loaded");
+                scheduler = null;
+                sendBroadcastMessage();
+                stopSelf();
+                return;
+            }
+            if (!trajectory.isReady()) {
+                sendMessageDelayed(obtainMessage(MSG_START, testParams), SOURCE_POLL_INTERVAL);
+                return;
+            }
 
             mTestStarted = true;
+            pushConfigured = false;
 
             mLocationClient.setMockMode(true);
+            fanOut.setLocationClient(mLocationClient);
+            fanOut.setNoiseSeed(testParams.NoiseSeed);
+            fanOut.setElevation(testParams.Elevation);
+            fanOut.setProfiles(testParams.Providers);
+            fanOut.setStream(mNmeaServer);
+
+            pendingRequestTime = testParams.RequestTime;
+            long pause = running ? 0 : Math.max(0, testParams.TestPause) * 1000L;
+            scheduler = new TickScheduler(testParams.getTickInterval(), testParams.LateTickPolicy);
+            scheduler.start(SystemClock.uptimeMillis() + pause);
+            // a scenario drops the fixes that fall into its signal losses
+            FixSink sink = trajectory instanceof ScenarioPlayer
+                    ? ((ScenarioPlayer) trajectory).filter(fanOut) : fanOut;
+            Playback next = new Playback(trajectory, scheduler, sink, testParams.PlaybackSpeed);
+            // stamps carry on from the last fix even if a sped-up playback ran ahead of the clocks
+            if (playback != null) {
+                next.continueAfter(playback);
+            }
+            playback = next;
+            // a new drag starts without the speed and bearing of where the last one ended; set
+            // here, where the replaced playback can't look the slot up anymore
+            LIVE_POSITION.restart();
+
+            sendMessageAtTime(obtainMessage(MSG_TICK), scheduler.getNextTick());
+            scheduleSnapshot();
+        }
 
+        /*
+         * Injects the position for the pending deadline and posts the next tick. The track time
+         * follows the deadline rather than the moment the tick actually ran, so lateness shows
+         * up as jitter but never accumulates. Once the track ends the last position is held and
+         * re-sent every tick. At a playback speed other than 1 the live clocks only anchor the
+         * warped timeline the fixes are stamped on.
+         */
+        private void injectTick() {
+            long start = System.nanoTime();
+            long now = SystemClock.uptimeMillis();
+            // uptimeMillis() and nanoTime() both read CLOCK_MONOTONIC
+            long deadlineNanos = scheduler.getNextTick() * 1000000L;
 
-            try {
-                Thread.sleep((long) (pauseInterval * 1000));
-            } catch (InterruptedException e) {
+            long skipped = scheduler.getSkippedTicks();
+
+            long nextTick = playback.tick(now, SystemClock.elapsedRealtimeNanos(),
+                    System.currentTimeMillis());
+            sendMessageAtTime(obtainMessage(MSG_TICK), nextTick);
+
+            if (pendingRequestTime >= 0) {
+                reportFirstFix(SystemClock.elapsedRealtime() - pendingRequestTime);
+                pendingRequestTime = -1;
+            }
+
+            // late means the position was more than half an interval old when it went out
+            boolean late = start - deadlineNanos > scheduler.getInterval() * 500000L;
+            mMetrics.recordTick((System.nanoTime() - start) / 1000, late,
+                    scheduler.getSkippedTicks() - skipped);
+        }
+
+        private void scheduleSnapshot() {
+            if (!hasMessages(MSG_SNAPSHOT)) {
+                sendEmptyMessageDelayed(MSG_SNAPSHOT, SNAPSHOT_INTERVAL);
+            }
+        }
+
+        /*
+         * Mock mode belongs to a connection, so it has to be switched on again after Location
+         * Services reconnected.
+         */
+        private void resumeMockMode() {
+            if ((scheduler != null || pushConfigured) && mLocationClient.isConnected()) {
+                mLocationClient.setMockMode(true);
+            }
+        }
+
+        /*
+         * Injects up to DRAIN_BATCH pushed fixes and comes back for the rest. Pushed fixes take
+         * over from track playback. Waits for the location client if it isn't connected yet;
+         * onConnected() resumes draining.
+         */
+        private void drainPushed() {
+            int depth = mPushQueue.size();
+            if (depth == 0) {
+                finishDrain();
                 return;
             }
+            mMetrics.recordQueueDepth(depth);
+            scheduleSnapshot();
+            if (scheduler != null) {
+                removeMessages(MSG_TICK);
+                logSchedule();
+                scheduler = null;
+            }
+            if (!pushConfigured) {
+                if (mLocationClient == null || !mLocationClient.isConnected()) {
+                    mDrainScheduled.set(false);
+                    return;
+                }
+                mLocationClient.setMockMode(true);
+                fanOut.setLocationClient(mLocationClient);
+                // the same errors and terrain as the last start command
+                fanOut.setNoiseSeed(mNoiseSeed);
+                fanOut.setElevation(mElevation);
+                fanOut.setProfiles(mProviders != null
+                        ? mProviders : new ProviderProfile[] {ProviderProfile.forName(ProviderProfile.FUSED)});
+                fanOut.setStream(mNmeaServer);
+                pushConfigured = true;
+            }
+
+            for (int i = 0; i < DRAIN_BATCH && mPushQueue.poll(fix); i++) {
+                long now = System.currentTimeMillis();
+                fanOut.inject(fix, SystemClock.elapsedRealtimeNanos(), fix.time > 0 ? fix.time : now, 0);
+            }
 
-            elapsedTimeNanos = SystemClock.elapsedRealtimeNanos();
-            currentTime = System.currentTimeMillis();
+            if (mPushQueue.size() > 0) {
+                sendEmptyMessage(MSG_DRAIN);
+            } else {
+                finishDrain();
+            }
+        }
+
+        /*
+         * Lets producers schedule the next drain, unless something arrived in the meantime.
+         */
+        private void finishDrain() {
+            mDrainScheduled.set(false);
+            if (mPushQueue.size() > 0) {
+                scheduleDrain();
+            } else {
+                replyToHarness(mLastPusher, InjectionProtocol.MSG_QUEUE_EMPTY, 0, 0);
+            }
+        }
+
+        /*
+         * Stops playback and unregisters the test providers, then ends the UpdateThread.
+         */
+        private void shutDown() {
+            removeCallbacksAndMessages(null);
+            logSchedule();
+            broadcastMetrics();
+            fanOut.release();
+            getLooper().quit();
+        }
+
+        private void logSchedule() {
+            if (scheduler != null) {
+                Log.d(TAG, "Playback schedule " + scheduler);
+            }
+        }
+    }
 
-            mockLocation.setElapsedRealtimeNanos(elapsedTimeNanos);
-            mockLocation.setTime(currentTime);
+    /*
+     * Runs on the PushThread, the single producer of the push queue. A push with the BLOCK
+     * overflow policy holds this thread until the UpdateThread makes room, which holds back
+     * further pushes as well.
+     */
+    public class PushHandler extends Handler {
 
-            mockLocation.setAccuracy(3.0f);
-            mockLocation.setLatitude(latitude);
-            mockLocation.setLongitude(longitude);
+        public PushHandler(Looper looper) {
+            super(looper);
+        }
 
-            mLocationClient.setMockLocation(mockLocation);
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case InjectionProtocol.MSG_PUSH_FIXES:
+                    pushFixes(msg);
+                    break;
+                case InjectionProtocol.MSG_GET_STATUS:
+                    replyToHarness(msg.replyTo, InjectionProtocol.MSG_STATUS, msg.arg1, 0);
+                    break;
+                case InjectionProtocol.MSG_CLEAR:
+                    mPushQueue.clear();
+                    replyToHarness(msg.replyTo, InjectionProtocol.MSG_STATUS, msg.arg1, 0);
+                    break;
+                case InjectionProtocol.MSG_RUN_SCENARIO:
+                    runScenario(msg);
+                    break;
+            }
+        }
 
+        /*
+         * Compiles here, so a long scenario doesn't hold up the main thread, and hands it over
+         * to the main thread to be started like a start command.
+         */
+        private void runScenario(Message msg) {
+            Bundle data = msg.getData();
+            final Scenario scenario;
+            Track route;
             try {
-                Thread.sleep((long) (injectionInterval * 1000));
-            } catch (InterruptedException e) {
+                String text = data.getString(InjectionProtocol.KEY_SCENARIO);
+                if (text == null) {
+                    throw new IOException("no " + InjectionProtocol.KEY_SCENARIO);
+                }
+                scenario = ScenarioCompiler.compile(text);
+                double[] latitudes = data.getDoubleArray(InjectionProtocol.KEY_LATITUDES);
+                double[] longitudes = data.getDoubleArray(InjectionProtocol.KEY_LONGITUDES);
+                route = latitudes != null && longitudes != null && latitudes.length > 0
+                        ? Track.fromArrays(data.getLongArray(InjectionProtocol.KEY_TIMES), latitudes, longitudes)
+                        : Track.singlePoint(0, 0);
+            } catch (IOException e) {
+                rejectScenario(msg, e.getMessage());
                 return;
+            } catch (IllegalArgumentException e) {
+                rejectScenario(msg, e.getMessage());
+                return;
+            }
+
+            final Trajectory trajectory = new Trajectory(route);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    startScenario(new ScenarioPlayer(scenario, trajectory));
+                }
+            });
+            replyToHarness(msg.replyTo, InjectionProtocol.MSG_ACK, msg.arg1,
+                    scenario.getInstructionCount());
+        }
+
+        private void rejectScenario(Message msg, String error) {
+            Log.w(TAG, "Rejected scenario: " + error);
+            if (msg.replyTo == null) {
+                return;
+            }
+            Message reply = Message.obtain(null, InjectionProtocol.MSG_SCENARIO_REJECTED, msg.arg1, 0);
+            reply.getData().putString(InjectionProtocol.KEY_ERROR, error);
+            try {
+                msg.replyTo.send(reply);
+            } catch (RemoteException e) {
+                // the harness went away
+            }
+        }
+
+        private void pushFixes(Message msg) {
+            Bundle data = msg.getData();
+            double[] latitudes = data.getDoubleArray(InjectionProtocol.KEY_LATITUDES);
+            double[] longitudes = data.getDoubleArray(InjectionProtocol.KEY_LONGITUDES);
+            int accepted = 0;
+            if (latitudes != null && longitudes != null) {
+                accepted = mPushQueue.offer(data.getLongArray(InjectionProtocol.KEY_TIMES),
+                        latitudes, longitudes,
+                        data.getDoubleArray(InjectionProtocol.KEY_ALTITUDES),
+                        data.getFloatArray(InjectionProtocol.KEY_ACCURACIES),
+                        readOverflowPolicy(data));
+            }
+            if (msg.replyTo != null) {
+                mLastPusher = msg.replyTo;
+            }
+            replyToHarness(msg.replyTo, InjectionProtocol.MSG_ACK, msg.arg1, accepted);
+            if (accepted > 0) {
+                scheduleDrain();
+            }
+        }
+
+        private OverflowPolicy readOverflowPolicy(Bundle data) {
+            String policy = data.getString(InjectionProtocol.KEY_OVERFLOW_POLICY);
+            if (policy != null) {
+                try {
+                    return OverflowPolicy.valueOf(policy);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Unknown overflow policy " + policy);
+                }
+            }
+            return DEFAULT_OVERFLOW_POLICY;
+        }
+    }
+
+    /*
+     * Logs and broadcasts how long the user waited for the first mock location of a request.
+     */
+    private void reportFirstFix(long latency) {
+        Log.i(TAG, "First mock location " + latency + "ms after the request");
+        Intent sendIntent = new Intent(MapsActivity.ACTION_SERVICE_MESSAGE);
+        sendIntent.putExtra(MapsActivity.EXTRA_FIRST_FIX_LATENCY, latency);
+        mLocalBroadcastManager.sendBroadcast(sendIntent);
+    }
+
+    /*
+     * Broadcasts a summary of the injection metrics with ACTION_SERVICE_MESSAGE.
+     */
+    private void broadcastMetrics() {
+        Bundle snapshot = new Bundle();
+        snapshot.putLong(InjectionMetrics.KEY_TICKS, mMetrics.getTicks());
+        snapshot.putLong(InjectionMetrics.KEY_LATE_TICKS, mMetrics.getLateTicks());
+        snapshot.putLong(InjectionMetrics.KEY_DROPPED_TICKS, mMetrics.getDroppedTicks());
+        snapshot.putLongArray(InjectionMetrics.KEY_HANDLER_TIME,
+                InjectionMetrics.summarize(mMetrics.getHandlerTime()));
+        snapshot.putLongArray(InjectionMetrics.KEY_QUEUE_DEPTH,
+                InjectionMetrics.summarize(mMetrics.getQueueDepth()));
+        InjectionMetrics.ProviderMetrics[] providers = mMetrics.getProviders();
+        String[] names = new String[providers.length];
+        for (int i = 0; i < providers.length; i++) {
+            names[i] = providers[i].getName();
+            snapshot.putLongArray(InjectionMetrics.KEY_DELAY_PREFIX + names[i],
+                    InjectionMetrics.summarize(providers[i].getDelay()));
+            snapshot.putLongArray(InjectionMetrics.KEY_CALL_TIME_PREFIX + names[i],
+                    InjectionMetrics.summarize(providers[i].getCallTime()));
+        }
+        snapshot.putStringArray(InjectionMetrics.KEY_PROVIDERS, names);
+
+        Intent sendIntent = new Intent(MapsActivity.ACTION_SERVICE_MESSAGE);
+        sendIntent.putExtra(MapsActivity.EXTRA_METRICS, snapshot);
+        mLocalBroadcastManager.sendBroadcast(sendIntent);
+    }
+
+    /*
+     * Posts a MSG_DRAIN to the UpdateThread unless one is already pending.
+     */
+    private void scheduleDrain() {
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mUpdateHandler.sendEmptyMessage(MSG_DRAIN);
+        }
+    }
+
+    /*
+     * Sends an acknowledgement or status to a bound harness, with the push queue counters.
+     * Called from both the PushThread and the UpdateThread.
+     */
+    private void replyToHarness(Messenger target, int what, int sequence, int accepted) {
+        if (target == null) {
+            return;
+        }
+        Message reply = Message.obtain(null, what, sequence, accepted);
+        Bundle data = new Bundle();
+        data.putInt(InjectionProtocol.KEY_QUEUE_DEPTH, mPushQueue.size());
+        data.putInt(InjectionProtocol.KEY_QUEUE_CAPACITY, mPushQueue.capacity());
+        data.putLong(InjectionProtocol.KEY_ACCEPTED_TOTAL, mPushQueue.getAcceptedTotal());
+        data.putLong(InjectionProtocol.KEY_REJECTED_TOTAL, mPushQueue.getRejectedTotal());
+        data.putLong(InjectionProtocol.KEY_OVERWRITTEN_TOTAL, mPushQueue.getOverwrittenTotal());
+        data.putLong(InjectionProtocol.KEY_INJECTED_TOTAL, mPushQueue.getConsumedTotal());
+        reply.setData(data);
+        try {
+            target.send(reply);
+        } catch (RemoteException e) {
+            // the harness went away; nothing left to tell it
+            if (target == mLastPusher) {
+                mLastPusher = null;
             }
         }
     }
@@ -141,9 +693,10 @@ public class SendMockLocationService extends Service implements
         /*
          * Create a new background thread with an associated Looper that processes Message objects
          * from a MessageQueue. The Looper allows test Activities to send repeated requests to
-         * inject mock locations from this Service.
+         * inject mock locations from this Service. It runs at foreground priority because
+         * background threads are throttled enough to make ticks miss their deadlines.
          */
-        mWorkThread = new HandlerThread("UpdateThread", Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkThread = new HandlerThread("UpdateThread", Process.THREAD_PRIORITY_FOREGROUND);
 
         /*
          * Start the thread. Nothing actually runs until the Looper for this thread dispatches a
@@ -160,17 +713,101 @@ public class SendMockLocationService extends Service implements
          */
         mUpdateHandler = new UpdateHandler(mUpdateLooper);
 
+        // Bound clients are served on their own thread, see PushHandler
+        mPushThread = new HandlerThread("PushThread", Process.THREAD_PRIORITY_FOREGROUND);
+        mPushThread.start();
+        mPushHandler = new PushHandler(mPushThread.getLooper());
+        mMessenger = new Messenger(mPushHandler);
+
+        mTrackCache = new ConvertedTrackCache(new File(getCacheDir(), "tracks"));
+
+        mMainHandler = new Handler(Looper.getMainLooper());
+
         // Indicate that testing has not yet started
         mTestStarted = false;
       }
 
     /*
-     * Since onBind is a static method, any subclass of Service must override it.
-     * However, since this Service is not designed to be a bound Service, it returns null.
+     * Stop the injection loop and the thread it runs on.
+     */
+    @Override
+    public void onDestroy() {
+        mMainHandler.removeCallbacks(mReconnect);
+
+        // A producer blocked on a full queue is woken by the interrupt and gives up
+        mPushThread.interrupt();
+        mPushThread.quit();
+
+        // Drop pending ticks, then let the UpdateThread clean up after itself and quit
+        mUpdateHandler.removeCallbacksAndMessages(null);
+        mUpdateHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mUpdateHandler.shutDown();
+            }
+        });
+        if (mTrajectory != null) {
+            mTrajectory.close();
+        }
+        if (mPendingTest != null && mPendingTest.TestRoute != mTrajectory) {
+            mPendingTest.TestRoute.close();
+        }
+        // The UpdateThread may still be using the client; a disconnected one is skipped
+        if (mLocationClient != null) {
+            mLocationClient.disconnect();
+        }
+        // and the server, which ignores fixes once it is closed
+        if (mNmeaServer != null) {
+            mNmeaServer.close();
+        }
+        super.onDestroy();
+    }
+
+    /*
+     * "adb shell dumpsys activity service SendMockLocationService" prints the injection metrics;
+     * adding "reset" clears them afterwards.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Location client: " + (mLocationClient == null ? "none"
+                : mLocationClient.isConnected() ? "connected" : "disconnected"));
+        writer.println("Push queue: " + mPushQueue.size() + "/" + mPushQueue.capacity()
+                + " accepted " + mPushQueue.getAcceptedTotal()
+                + " rejected " + mPushQueue.getRejectedTotal()
+                + " overwritten " + mPushQueue.getOverwrittenTotal()
+                + " injected " + mPushQueue.getConsumedTotal());
+        NmeaServer nmeaServer = mNmeaServer;
+        if (nmeaServer != null) {
+            writer.println("NMEA server: port " + nmeaServer.getPort()
+                    + " clients " + nmeaServer.getClientCount()
+                    + " dropped " + nmeaServer.getDroppedTotal()
+                    + " skipped " + nmeaServer.getSkippedTotal()
+                    + " disconnected " + nmeaServer.getDisconnectedTotal()
+                    + (nmeaServer.getFailure() != null ? " failed: " + nmeaServer.getFailure() : ""));
+        }
+        ElevationModel elevation = mElevation;
+        if (elevation != null) {
+            writer.println("Elevation: " + elevation);
+        }
+        mMetrics.dump(writer);
+        if (args != null) {
+            for (String arg : args) {
+                if ("reset".equals(arg)) {
+                    mMetrics.reset();
+                    writer.println("Metrics reset");
+                }
+            }
+        }
+    }
+
+    /*
+     * Test harnesses bind to push fixes directly, see InjectionProtocol. Binding connects to
+     * Location Services if no test has done so yet; pushed fixes wait until it is connected.
      */
     @Override
     public IBinder onBind(Intent inputIntent) {
-        return null;
+        connectLocationClient();
+        return mMessenger.getBinder();
     }
 
     /*
@@ -184,9 +821,6 @@ public class SendMockLocationService extends Service implements
         // Get the type of test to run
         mTestRequest = startIntent.getAction();
 
-        latitude = startIntent.getDoubleExtra(MapsActivity.LAT_FOR_POINT, 0);
-        longitude = startIntent.getDoubleExtra(MapsActivity.LON_FOR_POINT, 0);
-
         /*
          * If the incoming Intent was a request to run a one-time or continuous test
          */
@@ -196,11 +830,44 @@ public class SendMockLocationService extends Service implements
             mPauseInterval = startIntent.getIntExtra(MapsActivity.EXTRA_PAUSE_VALUE, 2);
             mInjectionInterval = startIntent.getIntExtra(MapsActivity.EXTRA_SEND_INTERVAL, 1);
 
-            // Create a location client
-            mLocationClient = new LocationClient(this, this, this);
-
-            // Start connecting to Location Services
-            mLocationClient.connect();
+            // Get the playback rate and the track to play back
+            int updateRate = startIntent.getIntExtra(MapsActivity.EXTRA_UPDATE_RATE, 0);
+            mUpdateRate = updateRate <= 0
+                    ? 0 : Math.max(MIN_UPDATE_RATE, Math.min(MAX_UPDATE_RATE, updateRate));
+            float playbackSpeed = startIntent.getFloatExtra(MapsActivity.EXTRA_PLAYBACK_SPEED, 1f);
+            mPlaybackSpeed = Float.isNaN(playbackSpeed)
+                    ? 1f : Math.max(MIN_PLAYBACK_SPEED, Math.min(MAX_PLAYBACK_SPEED, playbackSpeed));
+            PositionSource route = readPositionSource(startIntent);
+            PositionSource source = readScenario(startIntent, route);
+            if (source == null) {
+                // nothing changes; the activity hears that the request is over
+                route.close();
+                sendBroadcastMessage();
+                return Service.START_STICKY;
+            }
+            mTrajectory = source;
+            mLatePolicy = readLatePolicy(startIntent);
+            mProviders = readProviders(startIntent);
+            mElevation = readElevation(startIntent);
+            mNoiseSeed = startIntent.getLongExtra(MapsActivity.EXTRA_NOISE_SEED, System.nanoTime());
+            startNmeaServer(startIntent.getIntExtra(MapsActivity.EXTRA_NMEA_PORT, 0));
+
+            // A request that never got to the UpdateThread is replaced by this one
+            if (mPendingTest != null && mPendingTest.TestRoute != mTrajectory) {
+                mPendingTest.TestRoute.close();
+            }
+            mPendingTest = new TestParam(mTestRequest, mPauseInterval, mInjectionInterval,
+                    mUpdateRate, mPlaybackSpeed, mLatePolicy, mTrajectory, mProviders,
+                    mNoiseSeed, mElevation,
+                    startIntent.getLongExtra(MapsActivity.EXTRA_REQUEST_TIME,
+                            SystemClock.elapsedRealtime()));
+
+            // Reuse the connection if it is up, otherwise the test starts in onConnected()
+            if (mLocationClient != null && mLocationClient.isConnected()) {
+                startPendingTest();
+            } else {
+                connectLocationClient();
+            }
 
         } else if (TextUtils.equals(mTestRequest, MapsActivity.ACTION_STOP_TEST)) {
             // Send a message back to the main activity that the test is stopping
@@ -217,6 +884,247 @@ public class SendMockLocationService extends Service implements
         return Service.START_STICKY;
     }
 
+    /*
+     * Opens the NMEA stream on the given port, or keeps the one that is open. It only listens on
+     * the loopback interface; tools on a desktop reach it through "adb forward tcp:N tcp:N". A
+     * port of 0 leaves things as they are, so later start commands don't have to repeat it.
+     */
+    private void startNmeaServer(int port) {
+        if (port <= 0 || (mNmeaServer != null && mNmeaServer.getPort() == port
+                && mNmeaServer.getFailure() == null)) {
+            return;
+        }
+        if (mNmeaServer != null) {
+            mNmeaServer.close();
+        }
+        NmeaServer server = new NmeaServer(new InetSocketAddress("127.0.0.1", port));
+        try {
+            server.start();
+            mNmeaServer = server;
+            Log.i(TAG, "Streaming NMEA on port " + port);
+        } catch (IOException e) {
+            mNmeaServer = null;
+            Log.e(TAG, "Can't stream NMEA on port " + port, e);
+        }
+    }
+
+    /*
+     * A binary track file named in the start Intent is memory-mapped. A text track file is
+     * mapped from its converted copy if there is one; otherwise it is streamed while it plays and
+     * converted in the background for the next run. Without a file, the track arrays or the single
+     * point from the Intent are played back from memory. A live request plays LIVE_POSITION.
+     */
+    private PositionSource readPositionSource(Intent startIntent) {
+        if (startIntent.getBooleanExtra(MapsActivity.EXTRA_LIVE_POSITION, false)) {
+            return LIVE_POSITION;
+        }
+        String trackFile = startIntent.getStringExtra(MapsActivity.EXTRA_TRACK_FILE);
+        if (trackFile != null) {
+            File file = new File(trackFile);
+            TrackFormat format = readTrackFormat(startIntent);
+
+            if (TrackConverter.isBinaryTrack(file)) {
+                try {
+                    return MappedTrack.open(file);
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't map track " + file, e);
+                }
+            } else {
+                MappedTrack converted = mTrackCache.open(file);
+                if (converted != null) {
+                    return converted;
+                }
+                mTrackCache.convertInBackground(file, format);
+            }
+
+            StreamingTrajectory streamingTrajectory = new StreamingTrajectory(file, format);
+            streamingTrajectory.start();
+            return streamingTrajectory;
+        }
+        return new Trajectory(readTrack(startIntent));
+    }
+
+    /*
+     * Wraps the track in the scenario named by the start Intent, if any. Returns null if the
+     * scenario can't be loaded, since playing something other than what was asked for would make
+     * a test pass or fail for the wrong reason.
+     */
+    private PositionSource readScenario(Intent startIntent, PositionSource route) {
+        String scenarioFile = startIntent.getStringExtra(MapsActivity.EXTRA_SCENARIO_FILE);
+        String scenarioText = startIntent.getStringExtra(MapsActivity.EXTRA_SCENARIO);
+        if (scenarioFile == null && scenarioText == null) {
+            return route;
+        }
+        try {
+            Scenario scenario = scenarioFile != null
+                    ? ScenarioCompiler.compile(new File(scenarioFile))
+                    : ScenarioCompiler.compile(scenarioText);
+            Log.i(TAG, "Running " + scenario);
+            return new ScenarioPlayer(scenario, route);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't load scenario " + (scenarioFile != null ? scenarioFile : ""), e);
+            return null;
+        }
+    }
+
+    /*
+     * Plays a scenario that came through the bound interface with the settings of the last start
+     * command, or the defaults if there was none, without the initial pause. Main thread only.
+     */
+    private void startScenario(ScenarioPlayer player) {
+        if (mPendingTest != null && mPendingTest.TestRoute != mTrajectory) {
+            mPendingTest.TestRoute.close();
+        }
+        mTrajectory = player;
+        mPendingTest = new TestParam(MapsActivity.ACTION_START, 0, mInjectionInterval, mUpdateRate,
+                mPlaybackSpeed > 0 ? mPlaybackSpeed : 1f,
+                mLatePolicy != null ? mLatePolicy : LatePolicy.SKIP, player,
+                mProviders != null
+                        ? mProviders : new ProviderProfile[] {ProviderProfile.forName(ProviderProfile.FUSED)},
+                mNoiseSeed, mElevation, SystemClock.elapsedRealtime());
+        Log.i(TAG, "Running " + player.getScenario() + " from a bound client");
+
+        if (mLocationClient != null && mLocationClient.isConnected()) {
+            startPendingTest();
+        } else {
+            connectLocationClient();
+        }
+    }
+
+    private TrackFormat readTrackFormat(Intent startIntent) {
+        String format = startIntent.getStringExtra(MapsActivity.EXTRA_TRACK_FORMAT);
+        if (format != null) {
+            try {
+                return TrackFormat.valueOf(format);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown track format " + format);
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Use the track sent along with the start Intent, or fall back to the single point given by
+     * the latitude and longitude extras.
+     */
+    private Track readTrack(Intent startIntent) {
+        double[] latitudes = startIntent.getDoubleArrayExtra(MapsActivity.EXTRA_TRACK_LATITUDES);
+        double[] longitudes = startIntent.getDoubleArrayExtra(MapsActivity.EXTRA_TRACK_LONGITUDES);
+
+        if (latitudes == null || longitudes == null || latitudes.length == 0) {
+            return Track.singlePoint(
+                    startIntent.getDoubleExtra(MapsActivity.LAT_FOR_POINT, 0),
+                    startIntent.getDoubleExtra(MapsActivity.LON_FOR_POINT, 0));
+        }
+        long[] times = startIntent.getLongArrayExtra(MapsActivity.EXTRA_TRACK_TIMES);
+        return Track.fromArrays(times, latitudes, longitudes);
+    }
+
+    /*
+     * The providers to inject into, by default just the fused provider. Accuracy and noise, or a
+     * noise model, can be given per provider; missing values fall back to the provider's usual
+     * profile.
+     */
+    private ProviderProfile[] readProviders(Intent startIntent) {
+        String[] names = startIntent.getStringArrayExtra(MapsActivity.EXTRA_PROVIDERS);
+        if (names == null || names.length == 0) {
+            names = new String[] {ProviderProfile.FUSED};
+        }
+        float[] accuracies = startIntent.getFloatArrayExtra(MapsActivity.EXTRA_PROVIDER_ACCURACIES);
+        float[] noise = startIntent.getFloatArrayExtra(MapsActivity.EXTRA_PROVIDER_NOISE);
+        String[] noiseModels = startIntent.getStringArrayExtra(MapsActivity.EXTRA_PROVIDER_NOISE_MODELS);
+
+        ProviderProfile[] providers = new ProviderProfile[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ProviderProfile profile = ProviderProfile.forName(names[i]);
+            if ((accuracies != null && i < accuracies.length)
+                    || (noise != null && i < noise.length)) {
+                profile = new ProviderProfile(names[i],
+                        accuracies != null && i < accuracies.length ? accuracies[i] : profile.getAccuracy(),
+                        noise != null && i < noise.length ? noise[i] : profile.getNoise());
+            }
+            if (noiseModels != null && i < noiseModels.length && noiseModels[i] != null) {
+                NoiseProfile noiseProfile = NoiseProfile.forName(noiseModels[i]);
+                if (noiseProfile != null) {
+                    profile = new ProviderProfile(names[i], profile.getAccuracy(), noiseProfile);
+                } else {
+                    Log.w(TAG, "Unknown noise model " + noiseModels[i]);
+                }
+            }
+            providers[i] = profile;
+        }
+        return providers;
+    }
+
+    /*
+     * SRTM tiles come from the directory named in the start Intent, or from files/srtm if that
+     * exists. Without tiles fixes keep whatever altitude the track has.
+     */
+    private ElevationModel readElevation(Intent startIntent) {
+        String path = startIntent.getStringExtra(MapsActivity.EXTRA_ELEVATION_DIR);
+        File directory = path != null ? new File(path) : new File(getFilesDir(), "srtm");
+        if (!directory.isDirectory()) {
+            if (path != null) {
+                Log.w(TAG, "No elevation tiles in " + directory);
+            }
+            return null;
+        }
+        if (mElevation != null && mElevation.getDirectory().equals(directory)) {
+            return mElevation;
+        }
+        return new ElevationModel(directory);
+    }
+
+    /*
+     * Ticks that are already late are skipped unless the start Intent asks for catching up.
+     */
+    private LatePolicy readLatePolicy(Intent startIntent) {
+        String policy = startIntent.getStringExtra(MapsActivity.EXTRA_LATE_TICK_POLICY);
+        if (policy != null) {
+            try {
+                return LatePolicy.valueOf(policy);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown late tick policy " + policy);
+            }
+        }
+        return LatePolicy.SKIP;
+    }
+
+    /*
+     * Creates the location client on first use and connects it unless it is connected or
+     * already connecting. Main thread only.
+     */
+    private void connectLocationClient() {
+        mMainHandler.removeCallbacks(mReconnect);
+        if (mLocationClient == null) {
+            mLocationClient = new LocationClient(this, this, this);
+        }
+        if (!mLocationClient.isConnected() && !mLocationClient.isConnecting()) {
+            mLocationClient.connect();
+        }
+    }
+
+    /*
+     * Tries again after a growing delay.
+     */
+    private void scheduleReconnect() {
+        mMainHandler.removeCallbacks(mReconnect);
+        mMainHandler.postDelayed(mReconnect, mReconnectDelay);
+        mReconnectDelay = Math.min(MAX_RECONNECT_DELAY, mReconnectDelay * 2);
+    }
+
+    /*
+     * Hands the latest start request to the UpdateThread. Main thread only, connection up.
+     */
+    private void startPendingTest() {
+        if (mPendingTest == null) {
+            return;
+        }
+        Message msg = mUpdateHandler.obtainMessage(MSG_START, mPendingTest);
+        mPendingTest = null;
+        mUpdateHandler.sendMessage(msg);
+    }
+
     /*
      * Invoked by Location Services if a connection could not be established.
      */
@@ -225,6 +1133,12 @@ public class SendMockLocationService extends Service implements
         // Send connection failure broadcast to main activityl
         sendBroadcastMessage();
 
+        if (++mConnectionFailures < MAX_CONNECTION_FAILURES) {
+            Log.w(TAG, "Connection to Location Services failed, retrying: " + result);
+            scheduleReconnect();
+            return;
+        }
+
         // Shut down. Testing can't continue until the problem is fixed.
         stopSelf();
     }
@@ -244,31 +1158,32 @@ public class SendMockLocationService extends Service implements
 
     /*
      * When the client is connected, Location Services calls this method, which in turn
-     * starts the testing cycle by sending a message to the Handler that injects the test locations.
+     * starts the waiting test, if any, by sending a message to the Handler that injects the test
+     * locations. The connection is kept for later start commands.
      */
     @Override
     public void onConnected(Bundle arg0) {
+        mConnectionFailures = 0;
+        mReconnectDelay = RECONNECT_DELAY;
+
         // Send message to main activity
         sendBroadcastMessage();
-        // Start injecting mock locations into Location Services
-        // Get the HandlerThread's Looper and use it for our Handler
-        mUpdateLooper = mWorkThread.getLooper();
-        mUpdateHandler = new UpdateHandler(mUpdateLooper);
 
-        // Get a message object from the global pool
-        Message msg = mUpdateHandler.obtainMessage();
+        // A running test lost mock mode with the old connection
+        mUpdateHandler.sendEmptyMessage(MSG_CONNECTED);
 
-        TestParam testParams = new TestParam(mTestRequest, mPauseInterval, mInjectionInterval);
+        // Fixes pushed before the connection was up can be injected now
+        scheduleDrain();
 
-        msg.obj = testParams;
-
-        // Fire off the injection loop
-        mUpdateHandler.sendMessage(msg);
+        // Start injecting mock locations into Location Services, using the Handler created in
+        // onCreate() so that a restart replaces the running playback instead of adding a second one
+        startPendingTest();
     }
 
     /*
      * If the client becomes disconnected without a call to LocationClient.disconnect(), Location
      * Services calls this method. If the test didn't finish, send a message to the main Activity.
+     * The connection is brought back so the next start command doesn't wait for it.
      */
     @Override
     public void onDisconnected() {
@@ -276,6 +1191,7 @@ public class SendMockLocationService extends Service implements
         if (mTestStarted) {
             sendBroadcastMessage();
         }
+        scheduleReconnect();
     }
 
 }
@@ -6,22 +6,36 @@ package com.location.philippweiher.test;
 
 
 import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import com.location.philippweiher.test.utils.MortonCode;
 
 import java.util.List;
 
 
+@DatabaseTable(tableName = StoredAddress.TABLE_NAME)
 public class StoredAddress {
 
+    public static final String TABLE_NAME = "storedaddress";
+
+    // column names, for building queries
+    public static final String ID_FIELD_NAME = "id";
+    public static final String TEXT_FIELD_NAME = "text";
+    public static final String LATITUDE_FIELD_NAME = "latitude";
+    public static final String LONGITUDE_FIELD_NAME = "longitude";
+    public static final String MORTON_FIELD_NAME = "morton";
 
     // id is generated by the database and set on the object automagically
-    @DatabaseField(generatedId = true)
+    @DatabaseField(generatedId = true, columnName = ID_FIELD_NAME)
     Integer id;
-    @DatabaseField
+    @DatabaseField(columnName = TEXT_FIELD_NAME)
     String text;
-    @DatabaseField
+    @DatabaseField(columnName = LATITUDE_FIELD_NAME)
     double latitude;
-    @DatabaseField
+    @DatabaseField(columnName = LONGITUDE_FIELD_NAME)
     double longitude;
+    // Z-order code of the position, kept in step with latitude/longitude for spatial queries
+    @DatabaseField(columnName = MORTON_FIELD_NAME, index = true)
+    long morton;
 
 
     public StoredAddress() {
@@ -47,20 +61,28 @@ public class StoredAddress {
 
     public void setLatitude(double latitude) {
         this.latitude = latitude;
+        this.morton = MortonCode.encode(latitude, longitude);
     }
 
     public double getLongitude() {
         return longitude;
     }
 
-    public void setLongitude(double longitude) { this.longitude = longitude; }
+    public void setLongitude(double longitude) {
+        this.longitude = longitude;
+        this.morton = MortonCode.encode(latitude, longitude);
+    }
+
+    public long getMorton() {
+        return morton;
+    }
 
 
     public StoredAddress(String string, double latitude, double longitude) {
         this.text = string;
         this.latitude = latitude;
         this.longitude = longitude;
-
+        this.morton = MortonCode.encode(latitude, longitude);
     }
     @Override
     public String toString() {
@@ -0,0 +1,268 @@
+package com.location.philippweiher.test;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.j256.ormlite.dao.RuntimeExceptionDao;
+import com.j256.ormlite.stmt.QueryBuilder;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * List adapter over the stored addresses that loads them a page at a time on a background
+ * thread, so opening the history costs the same with 100 or 100000 rows. Only the pages around
+ * what is on screen are kept; rows whose page hasn't arrived yet show a placeholder.
+ *
+ * A page is fetched with a keyset query (id greater than the last id of the page before it)
+ * when that page is cached, and with LIMIT/OFFSET when the user jumps further.
+ */
+public class StoredAddressAdapter extends BaseAdapter {
+
+    private static final String TAG = "StoredAddressAdapter";
+
+    public static final int PAGE_SIZE = 100;
+    private static final int MAX_CACHED_PAGES = 8;
+
+    public interface Callback {
+        /**
+         * Called on the main thread with the row, or null if it is gone or can't be read.
+         */
+        void onItemLoaded(int position, StoredAddress address);
+    }
+
+    private final LayoutInflater inflater;
+    private final RuntimeExceptionDao<StoredAddress, Integer> dao;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // everything below is only touched on the main thread
+    private int count;
+    private final Set<Integer> loadingPages = new HashSet<Integer>();
+    // least recently shown page first; getItem moves a page to the end
+    private final Map<Integer, List<StoredAddress>> pages =
+            new LinkedHashMap<Integer, List<StoredAddress>>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, List<StoredAddress>> eldest) {
+                    return size() > MAX_CACHED_PAGES;
+                }
+            };
+    private boolean closed;
+
+    public StoredAddressAdapter(Context context, RuntimeExceptionDao<StoredAddress, Integer> dao) {
+        this.dao = dao;
+        inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+    }
+
+    /**
+     * Counts the rows in the background; the list fills in once the count is known. If they
+     * can't be counted the list stays empty.
+     */
+    public void load() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long rows;
+                try {
+                    rows = dao.countOf();
+                } catch (RuntimeException e) {
+                    // RuntimeExceptionDao wraps the SQLException
+                    Log.e(TAG, "Can't count the stored addresses", e);
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!closed) {
+                            count = (int) rows;
+                            notifyDataSetChanged();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops loading. Pages that are still being fetched are discarded.
+     */
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * The address at the position, or null if its page hasn't been loaded yet (loading is
+     * started then).
+     */
+    @Override
+    public StoredAddress getItem(int position) {
+        int page = position / PAGE_SIZE;
+        int offset = position % PAGE_SIZE;
+        List<StoredAddress> rows = pages.remove(page);
+        if (rows == null) {
+            requestPage(page);
+            return null;
+        }
+        pages.put(page, rows);
+        // read ahead once the user is well into a page
+        if (offset > PAGE_SIZE * 3 / 4 && (page + 1) * PAGE_SIZE < count) {
+            requestPage(page + 1);
+        }
+        return offset < rows.size() ? rows.get(offset) : null;
+    }
+
+    /**
+     * The address at the position if its page is cached, else null. Unlike {@link #getItem} it
+     * neither loads pages nor counts as a use of the page.
+     */
+    public StoredAddress peekItem(int position) {
+        List<StoredAddress> rows = pages.get(position / PAGE_SIZE);
+        int offset = position % PAGE_SIZE;
+        return rows != null && offset < rows.size() ? rows.get(offset) : null;
+    }
+
+    /**
+     * Hands the address at the position to the callback: right away if its page is cached,
+     * otherwise once it was read on the background thread, by id if that is known (not -1)
+     * and by position if not. Nothing is called after {@link #close}.
+     */
+    public void loadItem(final int position, final long id, final Callback callback) {
+        StoredAddress cached = peekItem(position);
+        if (cached != null) {
+            callback.onItemLoaded(position, cached);
+            return;
+        }
+        if (closed) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                StoredAddress loaded;
+                try {
+                    loaded = id >= 0 ? dao.queryForId((int) id) : queryRow(position);
+                } catch (SQLException e) {
+                    Log.e(TAG, "Can't load row " + position, e);
+                    loaded = null;
+                } catch (RuntimeException e) {
+                    // RuntimeExceptionDao wraps the SQLException
+                    Log.e(TAG, "Can't load row " + position, e);
+                    loaded = null;
+                }
+                final StoredAddress address = loaded;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!closed) {
+                            callback.onItemLoaded(position, address);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public long getItemId(int position) {
+        StoredAddress address = peekItem(position);
+        return address != null ? address.getId() : -1;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup viewGroup) {
+        View v = convertView;
+        Holder holder;
+
+        if (convertView == null) {
+            v = inflater.inflate(R.layout.database_entries, viewGroup, false);
+            holder = new Holder();
+            holder.text = (TextView) v;
+            v.setTag(holder);
+        } else {
+            holder = (Holder) v.getTag();
+        }
+
+        StoredAddress address = getItem(position);
+        holder.text.setText(address != null ? address.toString() : "...");
+
+        return v;
+    }
+
+    private void requestPage(final int page) {
+        if (closed || !loadingPages.add(page)) {
+            return;
+        }
+        List<StoredAddress> previous = pages.get(page - 1);
+        final Integer afterId = previous != null && previous.size() == PAGE_SIZE
+                ? previous.get(PAGE_SIZE - 1).getId() : null;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<StoredAddress> rows;
+                try {
+                    rows = queryPage(page, afterId);
+                } catch (SQLException e) {
+                    Log.e(TAG, "Can't load page " + page, e);
+                    // let the page be asked for again the next time it is shown
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            loadingPages.remove(page);
+                        }
+                    });
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadingPages.remove(page);
+                        if (!closed) {
+                            pages.put(page, rows);
+                            notifyDataSetChanged();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private List<StoredAddress> queryPage(int page, Integer afterId) throws SQLException {
+        QueryBuilder<StoredAddress, Integer> builder = dao.queryBuilder();
+        builder.orderBy(StoredAddress.ID_FIELD_NAME, true).limit((long) PAGE_SIZE);
+        if (afterId != null) {
+            builder.where().gt(StoredAddress.ID_FIELD_NAME, afterId);
+        } else {
+            builder.offset((long) page * PAGE_SIZE);
+        }
+        return builder.query();
+    }
+
+    private StoredAddress queryRow(int position) throws SQLException {
+        return dao.queryBuilder().orderBy(StoredAddress.ID_FIELD_NAME, true)
+                .offset((long) position).limit(1L).queryForFirst();
+    }
+
+    public class Holder {
+        public TextView text;
+    }
+}
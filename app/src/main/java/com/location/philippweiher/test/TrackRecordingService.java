@@ -0,0 +1,131 @@
+package com.location.philippweiher.test;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GooglePlayServicesClient.ConnectionCallbacks;
+import com.google.android.gms.common.GooglePlayServicesClient.OnConnectionFailedListener;
+import com.google.android.gms.location.LocationClient;
+import com.google.android.gms.location.LocationRequest;
+import com.location.philippweiher.test.track.TrackRecorder;
+
+import java.io.File;
+
+/**
+ * Record mode: real updates go to a TrackRecorder, which writes them to files/recordings in the
+ * binary track format so they can be sent back through EXTRA_TRACK_FILE.
+ *
+ * The recording runs in this foreground service rather than in the activity, so it goes on
+ * through rotations and while the app is in the background. Starting the service starts a
+ * recording, stopping it saves the recording.
+ */
+public class TrackRecordingService extends Service
+        implements ConnectionCallbacks, OnConnectionFailedListener {
+
+    private static final String TAG = "TrackRecordingService";
+
+    // Real updates for record mode, once per second
+    private static final long RECORD_INTERVAL = 1000;
+
+    private static final int NOTIFICATION_ID = 1;
+
+    // Whether a recording is running, for the activity's menu; main thread only
+    private static boolean sRecording;
+
+    private LocationClient mLocationClient;
+
+    private TrackRecorder mTrackRecorder;
+
+    public static boolean isRecording() {
+        return sRecording;
+    }
+
+    /**
+     * Starts a recording. It counts as running right away, before the service is created.
+     */
+    public static void start(Context context) {
+        sRecording = true;
+        context.startService(new Intent(context, TrackRecordingService.class));
+    }
+
+    /**
+     * Stops the recording; what is still buffered is written in the background.
+     */
+    public static void stop(Context context) {
+        sRecording = false;
+        context.stopService(new Intent(context, TrackRecordingService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        sRecording = true;
+        mTrackRecorder = new TrackRecorder(new File(getFilesDir(), "recordings"));
+        // updates are requested in onConnected
+        mLocationClient = new LocationClient(this, this, this);
+        mLocationClient.connect();
+
+        Intent activityIntent = new Intent(this, MapsActivity.class);
+        Notification notification = new Notification.Builder(this)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(getString(R.string.record_track))
+                .setContentText(getString(R.string.recording_started))
+                .setContentIntent(PendingIntent.getActivity(this, 0, activityIntent, 0))
+                .setOngoing(true)
+                .build();
+        startForeground(NOTIFICATION_ID, notification);
+        Toast.makeText(this, R.string.recording_started, Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public int onStartCommand(Intent startIntent, int flags, int startId) {
+        // restarted after the process was killed: a new recording begins
+        return Service.START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mLocationClient.isConnected()) {
+            mLocationClient.removeLocationUpdates(mTrackRecorder);
+        }
+        mLocationClient.disconnect();
+        mTrackRecorder.close();
+        Toast.makeText(this, getString(R.string.recording_stopped,
+                mTrackRecorder.getDirectory().getPath()), Toast.LENGTH_SHORT).show();
+        stopForeground(true);
+        sRecording = false;
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onConnected(Bundle bundle) {
+        // first connection, or Play Services reconnected the client
+        LocationRequest request = LocationRequest.create()
+                .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
+                .setInterval(RECORD_INTERVAL)
+                .setFastestInterval(RECORD_INTERVAL);
+        mLocationClient.requestLocationUpdates(request, mTrackRecorder);
+    }
+
+    @Override
+    public void onDisconnected() {
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+        Log.e(TAG, "Can't connect to Location Services, error " + connectionResult.getErrorCode());
+    }
+}
@@ -1,36 +1,27 @@
 package com.location.philippweiher.test.fragments;
 
 import android.app.Activity;
-import android.app.FragmentManager;
 import android.app.ListFragment;
-import android.content.Intent;
 import android.os.Bundle;
-import android.support.v4.app.FragmentActivity;
-import android.view.LayoutInflater;
 import android.view.View;
-import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ListView;
 
-import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
-import com.location.philippweiher.test.MapsActivity;
-import com.location.philippweiher.test.R;
+import com.j256.ormlite.dao.RuntimeExceptionDao;
 import com.location.philippweiher.test.StoredAddress;
-
-import java.util.List;
-import java.util.Map;
+import com.location.philippweiher.test.StoredAddressAdapter;
 
 public class  MyListFragment extends ListFragment {
 
     MyListFragmentInterface mCallback;
     public Activity activity;
 
+    private StoredAddressAdapter mAdapter;
 
 
     public interface MyListFragmentInterface {
 
-        public List<StoredAddress> getStoredAddresses ();
+        public RuntimeExceptionDao<StoredAddress, Integer> getStoredAddressDao();
 
         public void onMapLongClick(LatLng point);
     }
@@ -52,30 +43,39 @@ public class  MyListFragment extends ListFragment {
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
-        List<StoredAddress> storedAddresses = mCallback.getStoredAddresses();
-        String[] addresses = new String[storedAddresses.size()];
+        // rows are loaded page by page in the background, nothing is queried here
+        mAdapter = new StoredAddressAdapter(getActivity(), mCallback.getStoredAddressDao());
+        setListAdapter(mAdapter);
+        mAdapter.load();
+    }
 
-        int i = 0;
-        for (StoredAddress s : storedAddresses){
-            addresses[i] = s.toString();
-            i ++;
+    @Override
+    public void onDestroyView() {
+        if (mAdapter != null) {
+            mAdapter.close();
         }
-
-        ArrayAdapter<String> adapter = new ArrayAdapter<String>(getActivity(),
-                R.layout.database_entries, addresses);
-        setListAdapter(adapter);
+        super.onDestroyView();
     }
+
     @Override
     public void onListItemClick (ListView l, View v, int position, long id){
 
-        StoredAddress storedAddress = mCallback.getStoredAddresses().get(position);
+        // the row's page may not be loaded or may have been evicted since it was shown; then the
+        // row is read in the background and the map is shown once it is there
+        mAdapter.loadItem(position, id, new StoredAddressAdapter.Callback() {
+            @Override
+            public void onItemLoaded(int position, StoredAddress storedAddress) {
+                if (storedAddress == null || !isAdded()) {
+                    return;
+                }
 
-        LatLng latlng = new LatLng(storedAddress.getLatitude(), storedAddress.getLongitude());
+                LatLng latlng = new LatLng(storedAddress.getLatitude(), storedAddress.getLongitude());
 
-        mCallback.onMapLongClick(latlng);
+                mCallback.onMapLongClick(latlng);
 
-        getActivity().getFragmentManager().popBackStack();
+                getActivity().getFragmentManager().popBackStack();
+            }
+        });
     }
 
 }
-
@@ -0,0 +1,306 @@
+package com.location.philippweiher.test.gazetteer;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.dao.RuntimeExceptionDao;
+import com.location.philippweiher.test.StoredAddress;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The on-device gazetteer: place lists imported into {@code files/places/} (see
+ * {@link GazetteerBuilder#addPlaceList}) indexed in {@code files/gazetteer/places.gaz}, and the
+ * text of every stored address indexed on its own in {@code files/gazetteer/history.gaz}, so a
+ * new address only re-indexes the history and not the place lists.
+ *
+ * Nothing happens until the first search, which maps the indexes; only if one has never been
+ * written does that search wait for it to be built. Every {@link #RECHECK_INTERVAL_MS} a search
+ * has the sources checked on a background thread, and an index whose sources changed is rebuilt
+ * there while searches go on in the old one. Searches still block on the first build, so they
+ * belong on a background thread.
+ */
+public class OfflineGazetteer {
+
+    private static final String TAG = "OfflineGazetteer";
+
+    public static final String PLACES_DIRECTORY = "places";
+    public static final String INDEX_DIRECTORY = "gazetteer";
+    public static final String INDEX_FILE = "places.gaz";
+    public static final String HISTORY_FILE = "history.gaz";
+
+    public static final long RECHECK_INTERVAL_MS = 5 * 60 * 1000;
+
+    private final File placesDir;
+    private final File indexFile;
+    private final File historyFile;
+    private final RuntimeExceptionDao<StoredAddress, Integer> addressDao;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, TAG);
+        }
+    });
+
+    // guarded by this; replaced, never changed, so a search can go on in an old one
+    private Gazetteer places;
+    private Gazetteer history;
+    private boolean opened;
+    private long lastCheck;
+    private boolean refreshing;
+
+    public OfflineGazetteer(Context context, RuntimeExceptionDao<StoredAddress, Integer> addressDao) {
+        File filesDir = context.getFilesDir();
+        this.placesDir = new File(filesDir, PLACES_DIRECTORY);
+        File indexDir = new File(filesDir, INDEX_DIRECTORY);
+        this.indexFile = new File(indexDir, INDEX_FILE);
+        this.historyFile = new File(indexDir, HISTORY_FILE);
+        this.addressDao = addressDao;
+    }
+
+    /**
+     * Up to {@code max} places whose name or one of its words starts with {@code query}; places
+     * from the place lists come before stored addresses.
+     */
+    public List<Place> search(String query, int max) {
+        Gazetteer places;
+        Gazetteer history;
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            if (!opened) {
+                opened = true;
+                lastCheck = now;
+                open();
+                if (this.places == null || this.history == null) {
+                    // nothing to search yet, so this search has to wait
+                    refresh();
+                } else {
+                    scheduleRefresh();
+                }
+            } else if (now - lastCheck >= RECHECK_INTERVAL_MS) {
+                lastCheck = now;
+                scheduleRefresh();
+            }
+            places = this.places;
+            history = this.history;
+        }
+
+        List<Place> found = new ArrayList<Place>(max);
+        if (places != null) {
+            places.search(query, max, found);
+        }
+        if (history != null && found.size() < max) {
+            List<Place> addresses = new ArrayList<Place>(max);
+            history.search(query, max, addresses);
+            for (Place address : addresses) {
+                if (found.size() < max && !contains(found, address)) {
+                    found.add(address);
+                }
+            }
+        }
+        return found.isEmpty() ? Collections.<Place>emptyList() : found;
+    }
+
+    /**
+     * Stops checking for changes, waiting for a rebuild that is running to finish so the
+     * database can be released afterwards.
+     */
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the same place in a place list and in the history
+    private static boolean contains(List<Place> found, Place place) {
+        for (Place other : found) {
+            if (other.latitude == place.latitude && other.longitude == place.longitude
+                    && other.name.equals(place.name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // guarded by this
+    private void open() {
+        places = openIfExists(indexFile);
+        history = openIfExists(historyFile);
+    }
+
+    private static Gazetteer openIfExists(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return Gazetteer.open(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring broken gazetteer " + file, e);
+            return null;
+        }
+    }
+
+    // guarded by this
+    private void scheduleRefresh() {
+        if (refreshing || executor.isShutdown()) {
+            return;
+        }
+        refreshing = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } finally {
+                    synchronized (OfflineGazetteer.this) {
+                        refreshing = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /*
+     * Rebuilds whichever index is missing or out of date. Runs on the background thread, or on
+     * the searching one for the first build.
+     */
+    private void refresh() {
+        try {
+            refreshPlaces();
+        } catch (IOException e) {
+            Log.w(TAG, "Can't index place lists", e);
+        }
+        try {
+            refreshHistory();
+        } catch (IOException e) {
+            Log.w(TAG, "Can't index address history", e);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Can't read address history", e);
+        }
+    }
+
+    private void refreshPlaces() throws IOException {
+        File[] lists = placesDir.listFiles();
+        long stamp = 0;
+        if (lists != null) {
+            for (File list : lists) {
+                stamp = 31 * stamp + list.lastModified() + list.length();
+            }
+        }
+        synchronized (this) {
+            if (places != null && places.getSourceStamp() == stamp) {
+                return;
+            }
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        GazetteerBuilder builder = new GazetteerBuilder();
+        if (lists != null) {
+            for (File list : lists) {
+                Reader reader = new InputStreamReader(new FileInputStream(list), "UTF-8");
+                try {
+                    builder.addPlaceList(reader);
+                } finally {
+                    reader.close();
+                }
+            }
+        }
+        Gazetteer rebuilt = write(builder, indexFile, stamp);
+        synchronized (this) {
+            places = rebuilt;
+        }
+        Log.d(TAG, "Indexed " + builder.getPlaceCount() + " listed places in "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    /*
+     * The history is stamped with its row count and highest id, which changes with every
+     * address stored or deleted.
+     */
+    private void refreshHistory() throws IOException {
+        long stamp;
+        GenericRawResults<String[]> summary = addressDao.queryRaw("SELECT COUNT(*), MAX("
+                + StoredAddress.ID_FIELD_NAME + ") FROM " + StoredAddress.TABLE_NAME);
+        try {
+            String[] row = summary.getFirstResult();
+            long count = Long.parseLong(row[0]);
+            long maxId = row[1] != null ? Long.parseLong(row[1]) : 0;
+            stamp = maxId << 32 | count;
+        } catch (SQLException e) {
+            throw new IOException("Can't count stored addresses", e);
+        } finally {
+            try {
+                summary.close();
+            } catch (SQLException e) {
+                Log.w(TAG, "Can't close address history", e);
+            }
+        }
+        synchronized (this) {
+            if (history != null && history.getSourceStamp() == stamp) {
+                return;
+            }
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        GazetteerBuilder builder = new GazetteerBuilder();
+        addHistory(builder);
+        Gazetteer rebuilt = write(builder, historyFile, stamp);
+        synchronized (this) {
+            history = rebuilt;
+        }
+        Log.d(TAG, "Indexed " + builder.getPlaceCount() + " stored addresses in "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    // the old file stays mapped for searches that are still running in it
+    private static Gazetteer write(GazetteerBuilder builder, File file, long stamp)
+            throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        builder.write(file, stamp);
+        return Gazetteer.open(file);
+    }
+
+    private void addHistory(GazetteerBuilder builder) throws IOException {
+        GenericRawResults<String[]> rows = addressDao.queryRaw("SELECT "
+                + StoredAddress.TEXT_FIELD_NAME + ", " + StoredAddress.LATITUDE_FIELD_NAME + ", "
+                + StoredAddress.LONGITUDE_FIELD_NAME + " FROM " + StoredAddress.TABLE_NAME);
+        try {
+            for (String[] row : rows) {
+                if (row[1] == null || row[2] == null) {
+                    continue;
+                }
+                try {
+                    builder.add(row[0], Double.parseDouble(row[1]), Double.parseDouble(row[2]));
+                } catch (NumberFormatException e) {
+                    // no position, nothing to find
+                }
+            }
+        } finally {
+            try {
+                rows.close();
+            } catch (SQLException e) {
+                Log.w(TAG, "Can't close address history", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.location.philippweiher.test.inject;
+
+/**
+ * Messages understood by the {@link android.os.Messenger} that {@code SendMockLocationService}
+ * returns from {@code onBind}. A test harness binds once and then pushes fixes in batches, one
+ * binder call per batch instead of one start Intent per point.
+ *
+ * <p>{@link #MSG_PUSH_FIXES} carries parallel arrays in its data Bundle: {@link #KEY_LATITUDES}
+ * and {@link #KEY_LONGITUDES} are required, {@link #KEY_TIMES}, {@link #KEY_ALTITUDES} and
+ * {@link #KEY_ACCURACIES} optional (NaN for a missing altitude or accuracy, 0 for "now"). arg1 is
+ * a sequence number chosen by the caller and echoed in the acknowledgement.
+ *
+ * <p>Fixes are queued and injected in order as fast as the providers accept them; playback of a
+ * started track stops while fixes are pushed. {@link #KEY_OVERFLOW_POLICY} names a
+ * {@link FixRingBuffer.OverflowPolicy} for a full queue. The default, DROP_NEWEST, rejects the
+ * excess of a batch and says in the acknowledgement how many were accepted, so the harness can
+ * resend the rest once the queue has drained; DROP_OLDEST keeps the newest positions; BLOCK
+ * answers only once the whole batch is queued.
+ *
+ * <p>{@link #MSG_RUN_SCENARIO} compiles the scenario text in {@link #KEY_SCENARIO} (see
+ * {@code ScenarioCompiler}) and plays it with the settings of the last start command. It starts
+ * at the first point of the optional route given by {@link #KEY_LATITUDES},
+ * {@link #KEY_LONGITUDES} and {@link #KEY_TIMES}, which its track instructions follow, and
+ * otherwise at 0,0 until it teleports. The reply is an {@link #MSG_ACK} with the number of
+ * instructions in arg2, or a {@link #MSG_SCENARIO_REJECTED} with the compiler's complaint in
+ * {@link #KEY_ERROR}.
+ *
+ * <p>Replies go to {@code replyTo} of the request. {@link #MSG_ACK} and {@link #MSG_STATUS} have
+ * the sequence number in arg1, the number of fixes accepted in arg2 and the counters below in
+ * their data; {@link #MSG_QUEUE_EMPTY} goes to the last sender once everything is injected.
+ */
+public final class InjectionProtocol {
+
+    // requests
+    public static final int MSG_PUSH_FIXES = 100;
+    public static final int MSG_GET_STATUS = 101;
+    public static final int MSG_CLEAR = 102;
+    public static final int MSG_RUN_SCENARIO = 103;
+
+    // replies
+    public static final int MSG_ACK = 200;
+    public static final int MSG_STATUS = 201;
+    public static final int MSG_QUEUE_EMPTY = 202;
+    public static final int MSG_SCENARIO_REJECTED = 203;
+
+    // request data
+    public static final String KEY_TIMES = "times";
+    public static final String KEY_LATITUDES = "latitudes";
+    public static final String KEY_LONGITUDES = "longitudes";
+    public static final String KEY_ALTITUDES = "altitudes";
+    public static final String KEY_ACCURACIES = "accuracies";
+    public static final String KEY_OVERFLOW_POLICY = "overflowPolicy";
+    public static final String KEY_SCENARIO = "scenario";
+
+    // reply data
+    public static final String KEY_QUEUE_DEPTH = "queueDepth";
+    public static final String KEY_QUEUE_CAPACITY = "queueCapacity";
+    public static final String KEY_ACCEPTED_TOTAL = "acceptedTotal";
+    public static final String KEY_REJECTED_TOTAL = "rejectedTotal";
+    public static final String KEY_OVERWRITTEN_TOTAL = "overwrittenTotal";
+    public static final String KEY_INJECTED_TOTAL = "injectedTotal";
+    public static final String KEY_ERROR = "error";
+
+    private InjectionProtocol() {
+    }
+}
@@ -0,0 +1,77 @@
+package com.location.philippweiher.test.inject;
+
+import android.location.Location;
+
+import com.location.philippweiher.test.track.Fix;
+
+/**
+ * Turns {@link Fix}es into mock {@link Location}s without allocating: every provider gets one
+ * Location object that is reset and refilled on each call.
+ *
+ * This is safe because LocationClient.setMockLocation() and LocationManager.setTestProviderLocation()
+ * copy the Location before they return, so the caller must hand the result over right away and
+ * not keep a reference to it past the next call for the same provider.
+ */
+public class MockLocationBuilder {
+
+    private final float defaultAccuracy;
+
+    private String[] providers = new String[0];
+    private Location[] locations = new Location[0];
+
+    public MockLocationBuilder(float defaultAccuracy) {
+        this.defaultAccuracy = defaultAccuracy;
+    }
+
+    /**
+     * Creates the recycled Location for a provider up front. Providers that aren't registered
+     * are added on first use, which allocates once.
+     */
+    public void register(String provider) {
+        indexOf(provider);
+    }
+
+    /**
+     * Fills the recycled Location of the given provider with the fix and the given timestamps.
+     *
+     * @param elapsedRealtimeNanos value for Location.getElapsedRealtimeNanos()
+     * @param time                 wall clock time of the fix in milliseconds
+     */
+    public Location build(String provider, Fix fix, long elapsedRealtimeNanos, long time) {
+        Location location = locations[indexOf(provider)];
+        location.reset();
+        location.setProvider(provider);
+
+        location.setElapsedRealtimeNanos(elapsedRealtimeNanos);
+        location.setTime(time);
+
+        location.setAccuracy(fix.hasAccuracy() ? fix.accuracy : defaultAccuracy);
+        location.setLatitude(fix.latitude);
+        location.setLongitude(fix.longitude);
+        location.setSpeed(fix.speed);
+        location.setBearing(fix.bearing);
+        if (fix.hasAltitude()) {
+            location.setAltitude(fix.altitude);
+        }
+        return location;
+    }
+
+    private int indexOf(String provider) {
+        // only a handful of providers, a linear scan beats hashing
+        for (int i = 0; i < providers.length; i++) {
+            if (providers[i].equals(provider)) {
+                return i;
+            }
+        }
+        int count = providers.length;
+        String[] newProviders = new String[count + 1];
+        Location[] newLocations = new Location[count + 1];
+        System.arraycopy(providers, 0, newProviders, 0, count);
+        System.arraycopy(locations, 0, newLocations, 0, count);
+        newProviders[count] = provider;
+        newLocations[count] = new Location(provider);
+        providers = newProviders;
+        locations = newLocations;
+        return count;
+    }
+}
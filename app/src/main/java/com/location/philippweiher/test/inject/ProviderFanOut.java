@@ -0,0 +1,270 @@
+package com.location.philippweiher.test.inject;
+
+import android.location.Criteria;
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Log;
+
+import com.google.android.gms.location.LocationClient;
+import com.location.philippweiher.test.elevation.ElevationModel;
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.utils.GeoMath;
+
+/**
+ * Sends one shared fix to several location providers per tick. The fused provider is fed
+ * through LocationClient, every other provider is registered as a LocationManager test provider.
+ *
+ * The shared fix is built once; the per-provider fixes are derived from it in one pass (the
+ * meters to degrees factors are computed once for all providers) and then handed out in a second
+ * pass, so adding a provider adds a copy, one step of its {@link NoiseModel} and one binder call
+ * to a tick.
+ *
+ * The noise of every provider is seeded from {@link #setNoiseSeed}, so a test run with the same
+ * seed and tick times gets the same errors.
+ */
+public class ProviderFanOut implements FixSink {
+
+    private static final String TAG = "ProviderFanOut";
+
+    // degrees of latitude per meter
+    private static final double DEGREES_PER_METER = Math.toDegrees(1.0 / GeoMath.EARTH_RADIUS_METERS);
+
+    private final LocationManager locationManager;
+    private final MockLocationBuilder locationBuilder;
+    // name the fused provider's Locations carry
+    private final String fusedProviderName;
+    private long noiseSeed = System.nanoTime();
+
+    private LocationClient locationClient;
+    private InjectionMetrics metrics;
+    // also gets every shared fix, after the providers
+    private FixSink stream;
+    // heights for fixes that come without one
+    private ElevationModel elevation;
+
+    private ProviderProfile[] profiles = new ProviderProfile[0];
+    private String[] locationProviders = new String[0];
+    private Fix[] fixes = new Fix[0];
+    private NoiseModel[] noise = new NoiseModel[0];
+
+    public ProviderFanOut(LocationManager locationManager, MockLocationBuilder locationBuilder,
+                          String fusedProviderName) {
+        this.locationManager = locationManager;
+        this.locationBuilder = locationBuilder;
+        this.fusedProviderName = fusedProviderName;
+    }
+
+    public void setLocationClient(LocationClient locationClient) {
+        this.locationClient = locationClient;
+    }
+
+    /**
+     * Sends every shared fix to {@code stream} as well, without provider noise, or to no extra
+     * sink if null.
+     */
+    public void setStream(FixSink stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Fills in the altitude of shared fixes that have none from {@code elevation}, or leaves
+     * them without if null. The shared fix is changed in place, which is fine as long as the
+     * position sources set the altitude on every lookup, as they all do.
+     */
+    public void setElevation(ElevationModel elevation) {
+        this.elevation = elevation;
+    }
+
+    /**
+     * Starts the noise of every provider over from the given seed; providers set up later start
+     * from it as well.
+     */
+    public void setNoiseSeed(long seed) {
+        noiseSeed = seed;
+        for (int i = 0; i < noise.length; i++) {
+            noise[i].reset(providerSeed(profiles[i]));
+        }
+    }
+
+    /**
+     * Records per-provider timing into {@code metrics}, or stops recording if null.
+     */
+    public void setMetrics(InjectionMetrics metrics) {
+        this.metrics = metrics;
+        if (metrics != null) {
+            metrics.setProviders(locationProviders);
+        }
+    }
+
+    /**
+     * Switches to a new set of providers, registering the test providers that are new and
+     * removing the ones that are no longer used. Providers that can't be registered (mock
+     * locations not allowed, for example) are left out.
+     */
+    public void setProfiles(ProviderProfile[] newProfiles) {
+        for (ProviderProfile old : profiles) {
+            if (!old.isFused() && indexOf(newProfiles, old.getName()) < 0) {
+                removeTestProvider(old.getName());
+            }
+        }
+
+        ProviderProfile[] accepted = new ProviderProfile[newProfiles.length];
+        int count = 0;
+        for (ProviderProfile profile : newProfiles) {
+            if (indexOf(accepted, profile.getName()) >= 0) {
+                continue;
+            }
+            boolean registered = profile.isFused() || indexOf(profiles, profile.getName()) >= 0
+                    || addTestProvider(profile);
+            if (registered) {
+                accepted[count++] = profile;
+            }
+        }
+
+        profiles = new ProviderProfile[count];
+        locationProviders = new String[count];
+        fixes = new Fix[count];
+        noise = new NoiseModel[count];
+        for (int i = 0; i < count; i++) {
+            profiles[i] = accepted[i];
+            locationProviders[i] = accepted[i].isFused() ? fusedProviderName : accepted[i].getName();
+            fixes[i] = new Fix();
+            noise[i] = new NoiseModel(accepted[i].getNoiseProfile(), providerSeed(accepted[i]));
+            locationBuilder.register(locationProviders[i]);
+        }
+        if (metrics != null) {
+            metrics.setProviders(locationProviders);
+        }
+        Log.d(TAG, "Injecting into " + count + " providers");
+    }
+
+    public ProviderProfile[] getProfiles() {
+        return profiles;
+    }
+
+    /**
+     * Derives every provider's fix from the shared one and injects them. The deadline is only
+     * used for the metrics.
+     */
+    @Override
+    public void inject(Fix shared, long elapsedRealtimeNanos, long time, long deadlineNanos) {
+        int count = profiles.length;
+
+        if (elevation != null && !shared.hasAltitude()) {
+            shared.altitude = elevation.elevationAt(shared.latitude, shared.longitude);
+        }
+
+        // pass 1: per-provider deltas, using conversion factors shared by all providers
+        double latPerMeter = DEGREES_PER_METER;
+        double lngPerMeter = DEGREES_PER_METER / Math.max(0.01, Math.cos(Math.toRadians(shared.latitude)));
+        for (int i = 0; i < count; i++) {
+            ProviderProfile profile = profiles[i];
+            Fix fix = fixes[i];
+            fix.set(shared);
+            if (!Float.isNaN(profile.getAccuracy())) {
+                fix.accuracy = profile.getAccuracy();
+            }
+            // may replace the accuracy with one that goes with the error
+            noise[i].apply(fix, elapsedRealtimeNanos, latPerMeter, lngPerMeter);
+        }
+
+        // pass 2: hand them out
+        for (int i = 0; i < count; i++) {
+            Location location = locationBuilder.build(locationProviders[i], fixes[i],
+                    elapsedRealtimeNanos, time);
+            long callStart = System.nanoTime();
+            try {
+                if (profiles[i].isFused()) {
+                    // while Play Services reconnects the fused provider just misses fixes
+                    if (locationClient != null && locationClient.isConnected()) {
+                        locationClient.setMockLocation(location);
+                    }
+                } else {
+                    locationManager.setTestProviderLocation(locationProviders[i], location);
+                }
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Provider " + locationProviders[i] + " rejected mock location", e);
+            } catch (SecurityException e) {
+                Log.w(TAG, "Provider " + locationProviders[i] + " rejected mock location", e);
+            }
+            if (metrics != null) {
+                metrics.recordProvider(i,
+                        deadlineNanos > 0 ? (callStart - deadlineNanos) / 1000 : -1,
+                        (System.nanoTime() - callStart) / 1000);
+            }
+        }
+
+        if (stream != null) {
+            stream.inject(shared, elapsedRealtimeNanos, time, deadlineNanos);
+        }
+    }
+
+    /**
+     * Removes all test providers this fan-out registered.
+     */
+    public void release() {
+        for (ProviderProfile profile : profiles) {
+            if (!profile.isFused()) {
+                removeTestProvider(profile.getName());
+            }
+        }
+        profiles = new ProviderProfile[0];
+        locationProviders = new String[0];
+        fixes = new Fix[0];
+        noise = new NoiseModel[0];
+    }
+
+    // different sequences for the providers, which don't depend on which others there are
+    private long providerSeed(ProviderProfile profile) {
+        return noiseSeed * 31 + profile.getName().hashCode();
+    }
+
+    private boolean addTestProvider(ProviderProfile profile) {
+        String name = profile.getName();
+        boolean gps = ProviderProfile.GPS.equals(name);
+        boolean network = ProviderProfile.NETWORK.equals(name);
+        try {
+            locationManager.addTestProvider(name,
+                    network,                 // requiresNetwork
+                    gps,                     // requiresSatellite
+                    network,                 // requiresCell
+                    false,                   // hasMonetaryCost
+                    !network,                // supportsAltitude
+                    true,                    // supportsSpeed
+                    true,                    // supportsBearing
+                    gps ? Criteria.POWER_HIGH : Criteria.POWER_LOW,
+                    network ? Criteria.ACCURACY_COARSE : Criteria.ACCURACY_FINE);
+        } catch (IllegalArgumentException e) {
+            // already registered as a test provider, e.g. by an earlier run that crashed
+        } catch (SecurityException e) {
+            Log.e(TAG, "Not allowed to mock provider " + name, e);
+            return false;
+        }
+        try {
+            locationManager.setTestProviderEnabled(name, true);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Can't enable test provider " + name, e);
+            return false;
+        }
+        return true;
+    }
+
+    private void removeTestProvider(String name) {
+        try {
+            locationManager.removeTestProvider(name);
+        } catch (IllegalArgumentException e) {
+            // not registered, nothing to remove
+        } catch (SecurityException e) {
+            Log.w(TAG, "Can't remove test provider " + name, e);
+        }
+    }
+
+    private static int indexOf(ProviderProfile[] profiles, String name) {
+        for (int i = 0; i < profiles.length; i++) {
+            if (profiles[i] != null && profiles[i].getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
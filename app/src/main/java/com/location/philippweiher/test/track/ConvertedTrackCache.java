@@ -0,0 +1,117 @@
+package com.location.philippweiher.test.track;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps binary copies of imported track files, so a GPX, KML or NMEA route is parsed once and
+ * memory-mapped on every later run. A cached copy is keyed by the name, size and modification
+ * time of the original and goes stale as soon as the original changes; the stale copies of a
+ * name are deleted once the new one is written, so the cache holds one copy per name.
+ */
+public class ConvertedTrackCache {
+
+    private static final String TAG = "ConvertedTrackCache";
+
+    private final File directory;
+
+    // originals that are being converted right now
+    private final Set<String> converting = new HashSet<String>();
+
+    public ConvertedTrackCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getCachedFile(File track) {
+        String name = track.getName() + "-" + track.length() + "-" + track.lastModified()
+                + TrackConverter.BINARY_EXTENSION;
+        return new File(directory, name);
+    }
+
+    /*
+     * Deletes the copies of earlier versions of the track: same name, any size and time.
+     */
+    private void deleteStale(File track, File current) {
+        String prefix = track.getName() + "-";
+        String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.equals(current.getName()) || !name.startsWith(prefix)
+                    || !name.endsWith(TrackConverter.BINARY_EXTENSION)) {
+                continue;
+            }
+            // only "<size>-<time>" between them, so "a.gpx" leaves "a.gpx-2.gpx" alone
+            String key = name.substring(prefix.length(),
+                    name.length() - TrackConverter.BINARY_EXTENSION.length());
+            if (!key.matches("\\d+-\\d+")) {
+                continue;
+            }
+            File stale = new File(directory, name);
+            // a copy that is still mapped stays readable until it is unmapped
+            if (stale.delete()) {
+                Log.i(TAG, "Deleted stale cached track " + stale);
+            }
+        }
+    }
+
+    /**
+     * Maps the cached copy of a track, or returns null if there is none yet.
+     */
+    public MappedTrack open(File track) {
+        File cached = getCachedFile(track);
+        if (!cached.exists()) {
+            return null;
+        }
+        try {
+            return MappedTrack.open(cached);
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cached track " + cached, e);
+            cached.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Converts a track into the cache on a background thread, unless that is already happening.
+     *
+     * @param format the format of the track, or null to guess it
+     */
+    public void convertInBackground(final File track, final TrackFormat format) {
+        final String key = track.getAbsolutePath();
+        synchronized (converting) {
+            if (!converting.add(key)) {
+                return;
+            }
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File cached = getCachedFile(track);
+                try {
+                    if (!directory.isDirectory() && !directory.mkdirs()) {
+                        throw new IOException("Can't create " + directory);
+                    }
+                    int points = TrackConverter.convert(track, format, cached);
+                    Log.i(TAG, "Converted " + track + " (" + points + " points) to " + cached);
+                    deleteStale(track, cached);
+                } catch (IOException e) {
+                    Log.w(TAG, "Can't convert " + track, e);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Can't convert " + track, e);
+                } finally {
+                    synchronized (converting) {
+                        converting.remove(key);
+                    }
+                }
+            }
+        }, "TrackConverter");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+}
@@ -0,0 +1,226 @@
+package com.location.philippweiher.test.track;
+
+import android.util.Log;
+
+import com.location.philippweiher.test.utils.GeoMath;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Plays back a track file while it is still being read. A background thread pulls fixes from a
+ * {@link TrackReader} into a fixed size window of upcoming points; playback consumes the window
+ * from the front and the reader waits whenever it runs ahead by more than the window holds. Memory
+ * use is therefore the same for a 1 MB and a 1 GB file, and the first position is available as
+ * soon as the first point has been parsed.
+ *
+ * If playback catches up with the reader it holds the last known position until more points
+ * arrive.
+ */
+public class StreamingTrajectory implements PositionSource, Runnable {
+
+    private static final String TAG = "StreamingTrajectory";
+
+    // points read ahead of the playback position
+    private static final int WINDOW_SIZE = 4096;
+
+    private final File file;
+    private final TrackFormat format;
+
+    // ring buffer of upcoming points, guarded by this
+    private final long[] times = new long[WINDOW_SIZE];
+    private final double[] latitudes = new double[WINDOW_SIZE];
+    private final double[] longitudes = new double[WINDOW_SIZE];
+    private final double[] altitudes = new double[WINDOW_SIZE];
+    private final float[] accuracies = new float[WINDOW_SIZE];
+    private int head;
+    private int count;
+
+    private volatile boolean ready;
+    private volatile boolean failed;
+    private volatile boolean finished;
+    private volatile boolean closed;
+    private volatile long startTime;
+
+    private Thread readerThread;
+
+    // speed and bearing of the segment starting at segmentTime, only touched by playback
+    private long segmentTime = Long.MIN_VALUE;
+    private float segmentSpeed;
+    private float segmentBearing;
+
+    /**
+     * @param format the file format, or null to guess it from the name and content
+     */
+    public StreamingTrajectory(File file, TrackFormat format) {
+        this.file = file;
+        this.format = format;
+    }
+
+    /**
+     * Starts reading the file in the background.
+     */
+    public synchronized void start() {
+        if (readerThread == null) {
+            readerThread = new Thread(this, "TrackReader");
+            readerThread.setPriority(Thread.MIN_PRIORITY);
+            readerThread.start();
+        }
+    }
+
+    @Override
+    public void run() {
+        TrackReader reader = null;
+        Fix fix = new Fix();
+        long lastTime = Long.MIN_VALUE;
+        long pointCount = 0;
+        try {
+            reader = TrackFormat.open(file, format);
+
+            while (!closed && reader.next(fix)) {
+                if (fix.time < lastTime) {
+                    // playback needs a monotonic timeline
+                    continue;
+                }
+                lastTime = fix.time;
+                if (!put(fix)) {
+                    break;
+                }
+                pointCount++;
+            }
+            Log.i(TAG, "Read " + pointCount + " points from " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't read track " + file, e);
+        } catch (InterruptedException e) {
+            // closed while waiting for room
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // nothing left to do with it
+                }
+            }
+            failed = !ready;
+            finished = true;
+        }
+    }
+
+    /*
+     * Appends a point, waiting while the window is full. Returns false if the source was closed.
+     */
+    private synchronized boolean put(Fix fix) throws InterruptedException {
+        while (count == WINDOW_SIZE && !closed) {
+            wait();
+        }
+        if (closed) {
+            return false;
+        }
+        int index = (head + count) % WINDOW_SIZE;
+        times[index] = fix.time;
+        latitudes[index] = fix.latitude;
+        longitudes[index] = fix.longitude;
+        altitudes[index] = fix.altitude;
+        accuracies[index] = fix.accuracy;
+        count++;
+        if (!ready) {
+            startTime = fix.time;
+            ready = true;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Whether the whole file has been read (or reading stopped because of an error).
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public synchronized void positionAt(long time, Fix out) {
+        out.time = time;
+        if (count == 0) {
+            return;
+        }
+
+        // drop the points playback has passed, keeping the start of the current segment
+        boolean dropped = false;
+        while (count >= 2 && times[(head + 1) % WINDOW_SIZE] <= time) {
+            head = (head + 1) % WINDOW_SIZE;
+            count--;
+            dropped = true;
+        }
+        if (dropped) {
+            notifyAll();
+        }
+
+        int from = head;
+        if (count < 2 || time < times[from]) {
+            // before the track or waiting for the reader, stand still at the known point
+            copyPoint(from, out);
+            out.speed = 0f;
+            out.bearing = segmentBearing;
+            return;
+        }
+
+        int to = (head + 1) % WINDOW_SIZE;
+        if (segmentTime != times[from]) {
+            updateSegment(from, to);
+        }
+
+        double f = (double) (time - times[from]) / (times[to] - times[from]);
+        double lat0 = latitudes[from];
+        double lng0 = longitudes[from];
+        out.latitude = lat0 + (latitudes[to] - lat0) * f;
+        out.longitude = GeoMath.normalizeLongitude(
+                lng0 + GeoMath.deltaLongitude(lng0, longitudes[to]) * f);
+        out.altitude = Double.isNaN(altitudes[from]) || Double.isNaN(altitudes[to])
+                ? altitudes[from] : altitudes[from] + (altitudes[to] - altitudes[from]) * f;
+        out.accuracy = Float.isNaN(accuracies[from]) || Float.isNaN(accuracies[to])
+                ? accuracies[from] : (float) (accuracies[from] + (accuracies[to] - accuracies[from]) * f);
+        out.speed = segmentSpeed;
+        out.bearing = segmentBearing;
+    }
+
+    private void updateSegment(int from, int to) {
+        double meters = GeoMath.distance(latitudes[from], longitudes[from], latitudes[to], longitudes[to]);
+        long dt = times[to] - times[from];
+        segmentTime = times[from];
+        segmentSpeed = dt > 0 ? (float) (meters * 1000.0 / dt) : 0f;
+        if (meters > 0) {
+            segmentBearing = (float) GeoMath.bearing(latitudes[from], longitudes[from],
+                    latitudes[to], longitudes[to]);
+        }
+    }
+
+    private void copyPoint(int index, Fix out) {
+        out.latitude = latitudes[index];
+        out.longitude = longitudes[index];
+        out.altitude = altitudes[index];
+        out.accuracy = accuracies[index];
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+}
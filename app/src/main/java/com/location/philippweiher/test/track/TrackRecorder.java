@@ -0,0 +1,190 @@
+package com.location.philippweiher.test.track;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.android.gms.location.LocationListener;
+import com.location.philippweiher.test.inject.FixRingBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records real location updates as binary tracks that can be played back later. Updates arrive
+ * on the UI thread and only go into a preallocated ring buffer; a background thread drains it in
+ * batches into {@link BinaryTrackWriter}s. Neither side allocates per fix, so memory stays flat
+ * however long the recording runs.
+ *
+ * A recording is split into segments of {@link #SEGMENT_POINTS} points, each a complete
+ * {@code .mtrk} file, so a crash loses at most the segment being written.
+ */
+public class TrackRecorder implements LocationListener {
+
+    private static final String TAG = "TrackRecorder";
+
+    // about 17 minutes at 1 Hz before anything is dropped
+    public static final int BUFFER_CAPACITY = 1024;
+    // the writer is woken early once this many fixes are waiting
+    private static final int FLUSH_THRESHOLD = BUFFER_CAPACITY / 2;
+    // otherwise it drains on this period
+    public static final long FLUSH_INTERVAL = 10000;
+    // one hour at 1 Hz per file
+    public static final int SEGMENT_POINTS = 3600;
+
+    private static final int MSG_FLUSH = 1;
+    private static final int MSG_PERIODIC_FLUSH = 2;
+    private static final int MSG_CLOSE = 3;
+
+    private final File directory;
+    private final long sessionStart;
+    private final FixRingBuffer buffer = new FixRingBuffer(BUFFER_CAPACITY);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final HandlerThread thread;
+    private final Handler handler;
+    private volatile boolean closed;
+
+    // writer thread only
+    private final Fix fix = new Fix();
+    private BinaryTrackWriter writer;
+    private File segment;
+    private int segmentCount;
+    private long lastTime = Long.MIN_VALUE;
+    private volatile long recordedTotal;
+    private volatile long outOfOrderTotal;
+
+    /**
+     * Starts the writer thread. Segments are written to {@code directory} as they fill up.
+     */
+    public TrackRecorder(File directory) {
+        this.directory = directory;
+        sessionStart = System.currentTimeMillis();
+        thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_FLUSH:
+                        drain();
+                        break;
+                    case MSG_PERIODIC_FLUSH:
+                        drain();
+                        sendEmptyMessageDelayed(MSG_PERIODIC_FLUSH, FLUSH_INTERVAL);
+                        break;
+                    case MSG_CLOSE:
+                        removeMessages(MSG_PERIODIC_FLUSH);
+                        drain();
+                        closeSegment();
+                        Log.i(TAG, "Stopped after " + recordedTotal + " fixes, "
+                                + buffer.getRejectedTotal() + " dropped, "
+                                + outOfOrderTotal + " out of order");
+                        getLooper().quit();
+                        break;
+                }
+            }
+        };
+        handler.sendEmptyMessageDelayed(MSG_PERIODIC_FLUSH, FLUSH_INTERVAL);
+    }
+
+    /**
+     * Called on the UI thread for every real update. Copies the fix into the ring buffer and
+     * returns; if the writer has fallen a whole buffer behind, the fix is dropped instead.
+     */
+    @Override
+    public void onLocationChanged(Location location) {
+        if (closed) {
+            return;
+        }
+        buffer.offer(location.getTime(), location.getLatitude(), location.getLongitude(),
+                location.hasAltitude() ? location.getAltitude() : Double.NaN,
+                location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                FixRingBuffer.OverflowPolicy.DROP_NEWEST);
+        if (buffer.size() >= FLUSH_THRESHOLD && flushScheduled.compareAndSet(false, true)) {
+            handler.sendEmptyMessage(MSG_FLUSH);
+        }
+    }
+
+    /**
+     * Writes what is still buffered, finishes the current segment and stops the writer thread,
+     * all in the background. Updates that arrive afterwards are ignored.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        handler.sendEmptyMessage(MSG_CLOSE);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getRecordedTotal() {
+        return recordedTotal;
+    }
+
+    /**
+     * Fixes lost because the buffer was full.
+     */
+    public long getDroppedTotal() {
+        return buffer.getRejectedTotal();
+    }
+
+    /*
+     * Runs on the writer thread: moves everything buffered into the current segment.
+     */
+    private void drain() {
+        flushScheduled.set(false);
+        while (buffer.poll(fix)) {
+            // a track file must be in time order; the odd late fix isn't worth a new segment
+            if (fix.time < lastTime) {
+                outOfOrderTotal++;
+                continue;
+            }
+            try {
+                if (writer == null) {
+                    openSegment();
+                }
+                writer.add(fix);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't write to " + segment, e);
+                closeSegment();
+                continue;
+            }
+            lastTime = fix.time;
+            recordedTotal++;
+            if (writer.getPointCount() >= SEGMENT_POINTS) {
+                closeSegment();
+            }
+        }
+    }
+
+    private void openSegment() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        segment = new File(directory, "recording-" + sessionStart + "-" + segmentCount
+                + TrackConverter.BINARY_EXTENSION);
+        segmentCount++;
+        writer = new BinaryTrackWriter(segment);
+    }
+
+    private void closeSegment() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+            Log.i(TAG, "Recorded " + writer.getPointCount() + " points to " + segment);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't finish " + segment, e);
+        }
+        writer = null;
+    }
+}
@@ -4,7 +4,9 @@ package com.location.philippweiher.test.utils;
  * Created by philippweiher on 31.07.14.
  */
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 import java.sql.SQLException;
 import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
@@ -13,6 +15,7 @@ import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.RuntimeExceptionDao;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
+import com.location.philippweiher.test.CachedGeocode;
 import com.location.philippweiher.test.StoredAddress;
 
 
@@ -25,11 +28,14 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     // name of the database file for your application -- change to something appropriate for your app
     private static final String DATABASE_NAME = "Location.db";
     // any time you make changes to your database objects, you may have to increase the database version
-    private static final int DATABASE_VERSION = 1;
+    // 2: morton column and index on storedaddress
+    // 3: cachedgeocode table
+    private static final int DATABASE_VERSION = 3;
 
     // the DAO object we use to access the SimpleData table
     private Dao<StoredAddress,Integer> storedAddressDao = null;
     private RuntimeExceptionDao<StoredAddress, Integer> storedAddressRuntimeDao = null;
+    private RuntimeExceptionDao<CachedGeocode, String> cachedGeocodeRuntimeDao = null;
 
 
     public DatabaseHelper(Context context) {
@@ -44,6 +50,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         try {
             Log.i(DatabaseHelper.class.getName(), "onCreate");
             TableUtils.createTable(connectionSource, StoredAddress.class);
+            TableUtils.createTable(connectionSource, CachedGeocode.class);
 
 
         } catch (SQLException e) {
@@ -62,7 +69,15 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     public void onUpgrade(SQLiteDatabase db, ConnectionSource connectionSource, int oldVersion, int newVersion) {
         try {
             Log.i(DatabaseHelper.class.getName(), "onUpgrade");
+            if (oldVersion == 1 || oldVersion == 2) {
+                if (oldVersion == 1) {
+                    addMortonColumn(db);
+                }
+                TableUtils.createTable(connectionSource, CachedGeocode.class);
+                return;
+            }
             TableUtils.dropTable(connectionSource, StoredAddress.class, true);
+            TableUtils.dropTable(connectionSource, CachedGeocode.class, true);
             // after we drop the old databases, we create the new ones
             onCreate(db, connectionSource);
 
@@ -73,6 +88,32 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         }
     }
 
+    /*
+     * Version 1 -> 2 keeps the stored addresses: adds the column, fills it from the existing
+     * coordinates and creates the same index TableUtils would.
+     */
+    private static void addMortonColumn(SQLiteDatabase db) {
+        String table = StoredAddress.TABLE_NAME;
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + StoredAddress.MORTON_FIELD_NAME + " BIGINT");
+        SQLiteStatement update = db.compileStatement("UPDATE " + table + " SET "
+                + StoredAddress.MORTON_FIELD_NAME + " = ? WHERE " + StoredAddress.ID_FIELD_NAME + " = ?");
+        Cursor cursor = db.rawQuery("SELECT " + StoredAddress.ID_FIELD_NAME + ", "
+                + StoredAddress.LATITUDE_FIELD_NAME + ", " + StoredAddress.LONGITUDE_FIELD_NAME
+                + " FROM " + table, null);
+        try {
+            while (cursor.moveToNext()) {
+                update.bindLong(1, MortonCode.encode(cursor.getDouble(1), cursor.getDouble(2)));
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + table + "_" + StoredAddress.MORTON_FIELD_NAME
+                + "_idx ON " + table + " (" + StoredAddress.MORTON_FIELD_NAME + ")");
+    }
+
     /**
      * Returns the Database Access Object (DAO) for our SimpleData class. It will create it or just give the cached
      * value.
@@ -98,6 +139,16 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     }
 
 
+    /**
+     * Returns the RuntimeExceptionDao for the geocoder cache, keyed by normalized query.
+     */
+    public RuntimeExceptionDao<CachedGeocode, String> getCachedGeocodeRuntimeExceptionDao() {
+        if (cachedGeocodeRuntimeDao == null) {
+            cachedGeocodeRuntimeDao = getRuntimeExceptionDao(CachedGeocode.class);
+        }
+        return cachedGeocodeRuntimeDao;
+    }
+
     /**
      * Close the database connections and clear any cached DAOs.
      */
@@ -106,5 +157,6 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         super.close();
         storedAddressDao = null;
         storedAddressRuntimeDao = null;
+        cachedGeocodeRuntimeDao = null;
     }
 }
\ No newline at end of file
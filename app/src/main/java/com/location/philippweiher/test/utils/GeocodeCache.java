@@ -0,0 +1,291 @@
+package com.location.philippweiher.test.utils;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import com.j256.ormlite.dao.RuntimeExceptionDao;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.location.philippweiher.test.CachedGeocode;
+import com.location.philippweiher.test.gazetteer.OfflineGazetteer;
+import com.location.philippweiher.test.gazetteer.Place;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Geocodes search queries off the UI thread. Answers come from, in this order: an in-memory LRU
+ * keyed by the normalized query, the {@link OfflineGazetteer} (so searches work without a
+ * network), the {@link CachedGeocode} table (entries older than {@link #TTL_MS} are ignored and
+ * deleted), and finally {@link Geocoder}. Only the newest search
+ * is delivered: starting a search cancels the one still running, and a result that arrives after
+ * it was superseded is dropped.
+ *
+ * Results are delivered on the main thread; memory hits are delivered before
+ * {@link #search} returns.
+ */
+public class GeocodeCache {
+
+    private static final String TAG = "GeocodeCache";
+
+    public static final int MAX_RESULTS = 5;
+    public static final int MEMORY_ENTRIES = 64;
+    public static final long TTL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    // separators of the stored form; stripped from the address text itself
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final char ADDRESS_SEPARATOR = '\n';
+
+    public interface Callback {
+        void onGeocoded(String query, List<Address> matches);
+
+        void onGeocodeFailed(String query, IOException e);
+    }
+
+    private final Context context;
+    private final DatabaseHelper helper;
+    private final RuntimeExceptionDao<CachedGeocode, String> dao;
+    private final OfflineGazetteer gazetteer;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor;
+
+    // main thread only
+    private final Map<String, List<Address>> memory =
+            new LinkedHashMap<String, List<Address>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<Address>> eldest) {
+                    return size() > MEMORY_ENTRIES;
+                }
+            };
+    private Future<?> running;
+    private int generation;
+    private boolean closed;
+
+    public GeocodeCache(Context context) {
+        this.context = context.getApplicationContext();
+        helper = OpenHelperManager.getHelper(this.context, DatabaseHelper.class);
+        dao = helper.getCachedGeocodeRuntimeExceptionDao();
+        // loads its index on the first search, not here
+        gazetteer = new OfflineGazetteer(this.context, helper.getStoredAddressRuntimeExceptionDao());
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG);
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                evictExpired();
+            }
+        });
+    }
+
+    /**
+     * Lower case, trimmed, runs of whitespace collapsed: "  Berlin   Mitte" and "berlin mitte"
+     * are the same search.
+     */
+    public static String normalize(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Starts geocoding {@code query}, cancelling whatever search is still running. Must be called
+     * on the main thread.
+     */
+    public void search(final String query, final Callback callback) {
+        if (closed) {
+            throw new IllegalStateException("cache is closed");
+        }
+        final String key = normalize(query);
+        final int token = ++generation;
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+
+        List<Address> cached = memory.get(key);
+        if (cached != null) {
+            callback.onGeocoded(query, cached);
+            return;
+        }
+
+        running = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                List<Address> matches = null;
+                IOException failure = null;
+                try {
+                    matches = load(key);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                deliver(token, query, key, matches, failure, callback);
+            }
+        });
+    }
+
+    private void deliver(final int token, final String query, final String key,
+                         final List<Address> matches, final IOException failure,
+                         final Callback callback) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (closed || token != generation) {
+                    // superseded by a newer search
+                    return;
+                }
+                running = null;
+                if (failure != null) {
+                    callback.onGeocodeFailed(query, failure);
+                    return;
+                }
+                if (!matches.isEmpty()) {
+                    memory.put(key, matches);
+                }
+                callback.onGeocoded(query, matches);
+            }
+        });
+    }
+
+    /*
+     * Background thread: the gazetteer first, then the table, the geocoder if neither has an
+     * answer.
+     */
+    private List<Address> load(String key) throws IOException {
+        List<Place> places = gazetteer.search(key, MAX_RESULTS);
+        if (!places.isEmpty()) {
+            return toAddresses(places);
+        }
+
+        long now = System.currentTimeMillis();
+        try {
+            CachedGeocode row = dao.queryForId(key);
+            if (row != null) {
+                if (now - row.getCreated() < TTL_MS) {
+                    return decode(row.getMatches());
+                }
+                dao.deleteById(key);
+            }
+        } catch (RuntimeException e) {
+            // a broken cache only costs a geocoder round trip
+            Log.w(TAG, "Can't read cached geocode for " + key, e);
+        }
+
+        if (!Geocoder.isPresent()) {
+            throw new IOException("No geocoder backend and no offline match for " + key);
+        }
+        List<Address> matches = new Geocoder(context).getFromLocationName(key, MAX_RESULTS);
+        if (matches == null) {
+            matches = Collections.emptyList();
+        }
+        if (!matches.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            try {
+                dao.createOrUpdate(new CachedGeocode(key, now, encode(matches)));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Can't cache geocode for " + key, e);
+            }
+        }
+        return matches;
+    }
+
+    private void evictExpired() {
+        try {
+            DeleteBuilder<CachedGeocode, String> builder = dao.deleteBuilder();
+            builder.where().lt(CachedGeocode.CREATED_FIELD_NAME, System.currentTimeMillis() - TTL_MS);
+            int deleted = builder.delete();
+            Log.d(TAG, "Evicted " + deleted + " expired geocodes");
+        } catch (Exception e) {
+            Log.w(TAG, "Can't evict expired geocodes", e);
+        }
+    }
+
+    /**
+     * Cancels the running search and releases the database once the background thread is idle.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // a gazetteer rebuild still reads stored addresses
+                gazetteer.close();
+                OpenHelperManager.releaseHelper();
+            }
+        });
+        executor.shutdown();
+    }
+
+    private static List<Address> toAddresses(List<Place> places) {
+        List<Address> matches = new ArrayList<Address>(places.size());
+        for (Place place : places) {
+            Address address = new Address(Locale.getDefault());
+            address.setFeatureName(place.name);
+            address.setAddressLine(0, place.name);
+            address.setLatitude(place.latitude);
+            address.setLongitude(place.longitude);
+            matches.add(address);
+        }
+        return matches;
+    }
+
+    /*
+     * One line per address: latitude, longitude and the address lines, tab separated.
+     */
+    static String encode(List<Address> matches) {
+        StringBuilder sb = new StringBuilder();
+        for (Address address : matches) {
+            if (sb.length() > 0) {
+                sb.append(ADDRESS_SEPARATOR);
+            }
+            sb.append(address.getLatitude()).append(FIELD_SEPARATOR).append(address.getLongitude());
+            for (int i = 0; i <= address.getMaxAddressLineIndex(); i++) {
+                String line = address.getAddressLine(i);
+                sb.append(FIELD_SEPARATOR).append(line == null ? "" : line
+                        .replace(FIELD_SEPARATOR, ' ').replace(ADDRESS_SEPARATOR, ' '));
+            }
+        }
+        return sb.toString();
+    }
+
+    static List<Address> decode(String stored) {
+        List<Address> matches = new ArrayList<Address>();
+        if (stored == null || stored.isEmpty()) {
+            return matches;
+        }
+        for (String line : stored.split(String.valueOf(ADDRESS_SEPARATOR))) {
+            String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), -1);
+            Address address = new Address(Locale.getDefault());
+            address.setLatitude(Double.parseDouble(fields[0]));
+            address.setLongitude(Double.parseDouble(fields[1]));
+            for (int i = 2; i < fields.length; i++) {
+                address.setAddressLine(i - 2, fields[i]);
+            }
+            matches.add(address);
+        }
+        return matches;
+    }
+}
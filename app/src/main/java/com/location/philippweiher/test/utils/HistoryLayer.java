@@ -0,0 +1,301 @@
+package com.location.philippweiher.test.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.dao.RuntimeExceptionDao;
+import com.location.philippweiher.test.R;
+import com.location.philippweiher.test.StoredAddress;
+import com.location.philippweiher.test.cluster.Clusters;
+import com.location.philippweiher.test.cluster.GridClusterer;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shows the stored addresses on the map as clusters. Every camera change clusters the points
+ * around the viewport with a {@link GridClusterer} on a background thread; the history is read
+ * from the database once, on the first one. Only the newest viewport is rendered, a result that
+ * arrives after it was superseded is dropped.
+ *
+ * Rendering compares the clusters with the markers already on the map by key: markers that
+ * are still right stay where they are, only the ones that appeared or went away are added or
+ * removed, so a pan touches the markers at the edges and nothing else.
+ */
+public class HistoryLayer implements GoogleMap.OnCameraChangeListener {
+
+    private static final String TAG = "HistoryLayer";
+
+    // grid cells are a quarter of a map tile, about 64 dp
+    private static final int LEVELS_BELOW_ZOOM = 2;
+
+    // the viewport grows by this share of its size on every side, so a short pan finds its
+    // markers in place
+    private static final double MARGIN = 0.25;
+
+    private final Context context;
+    private final GoogleMap map;
+    private final DatabaseHelper helper;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor;
+    private final BitmapDescriptor icon = BitmapDescriptorFactory.defaultMarker(
+            BitmapDescriptorFactory.HUE_AZURE);
+
+    // background thread only
+    private final GridClusterer clusterer = new GridClusterer();
+    private final List<String> texts = new ArrayList<String>();
+    // ids of the addresses read from the database
+    private final BitSet loadedIds = new BitSet();
+    private boolean loaded;
+
+    // newest viewport; the background thread skips any other
+    private volatile int generation;
+
+    // main thread only
+    private LongSparseArray<Shown> shown = new LongSparseArray<Shown>();
+    private LongSparseArray<Shown> next = new LongSparseArray<Shown>();
+    private double south;
+    private double west;
+    private double north;
+    private double east;
+    private int level = -1;
+    private boolean closed;
+
+    // a marker and the number of addresses it stands for, which fixes its position and title
+    private static class Shown {
+        final Marker marker;
+        final int count;
+
+        Shown(Marker marker, int count) {
+            this.marker = marker;
+            this.count = count;
+        }
+    }
+
+    public HistoryLayer(Context context, GoogleMap map) {
+        this.context = context.getApplicationContext();
+        this.map = map;
+        helper = OpenHelperManager.getHelper(this.context, DatabaseHelper.class);
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Reclusters for the map's current viewport. Main thread only.
+     */
+    @Override
+    public void onCameraChange(CameraPosition position) {
+        if (closed) {
+            return;
+        }
+        LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
+        double latitudeMargin = (bounds.northeast.latitude - bounds.southwest.latitude) * MARGIN;
+        south = Math.max(-90.0, bounds.southwest.latitude - latitudeMargin);
+        north = Math.min(90.0, bounds.northeast.latitude + latitudeMargin);
+        double width = bounds.northeast.longitude - bounds.southwest.longitude;
+        if (width < 0) {
+            width += 360.0;
+        }
+        if (width * (1 + 2 * MARGIN) >= 360.0) {
+            west = -180.0;
+            east = 180.0;
+        } else {
+            west = GeoMath.normalizeLongitude(bounds.southwest.longitude - width * MARGIN);
+            east = GeoMath.normalizeLongitude(bounds.northeast.longitude + width * MARGIN);
+        }
+        level = Math.max(0, Math.min(GridClusterer.MAX_LEVEL,
+                (int) position.zoom + LEVELS_BELOW_ZOOM));
+        requestFrame();
+    }
+
+    /**
+     * Adds a newly stored address to the map. Main thread only.
+     */
+    public void add(final StoredAddress address) {
+        if (closed) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadIfNeeded();
+                // the writer may have stored it before the history was read. Its id is set
+                // inside the insert transaction, so a row the load saw has its id here; one not
+                // written yet still has id 0, which the database never hands out
+                if (loadedIds.get(address.getId())) {
+                    return;
+                }
+                addPoint(address.getText(), address.getLatitude(), address.getLongitude());
+            }
+        });
+        if (level >= 0) {
+            requestFrame();
+        }
+    }
+
+    private void requestFrame() {
+        final int token = ++generation;
+        final double s = south;
+        final double w = west;
+        final double n = north;
+        final double e = east;
+        final int l = level;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (token != generation) {
+                    // the camera moved on before this got its turn
+                    return;
+                }
+                loadIfNeeded();
+                Clusters frame = new Clusters();
+                clusterer.cluster(s, w, n, e, l, frame);
+                String[] titles = new String[frame.size()];
+                for (int i = 0; i < titles.length; i++) {
+                    titles[i] = frame.count(i) == 1
+                            ? texts.get(frame.member(i))
+                            : context.getString(R.string.history_cluster, frame.count(i));
+                }
+                deliver(token, frame, titles);
+            }
+        });
+    }
+
+    private void deliver(final int token, final Clusters frame, final String[] titles) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (closed || token != generation) {
+                    return;
+                }
+                render(frame, titles);
+            }
+        });
+    }
+
+    /*
+     * Main thread: keeps the markers whose key is still there, adds the new ones and removes the
+     * rest.
+     */
+    private void render(Clusters frame, String[] titles) {
+        int added = 0;
+        for (int i = 0; i < frame.size(); i++) {
+            long key = frame.key(i);
+            int count = frame.count(i);
+            Shown marker = shown.get(key);
+            if (marker != null) {
+                shown.remove(key);
+                if (marker.count != count) {
+                    LatLng position = new LatLng(frame.latitude(i), frame.longitude(i));
+                    marker.marker.setPosition(position);
+                    marker.marker.setTitle(titles[i]);
+                    marker = new Shown(marker.marker, count);
+                }
+            } else {
+                marker = new Shown(map.addMarker(new MarkerOptions()
+                        .position(new LatLng(frame.latitude(i), frame.longitude(i)))
+                        .title(titles[i])
+                        .icon(icon)), count);
+                added++;
+            }
+            next.put(key, marker);
+        }
+        int removed = shown.size();
+        for (int i = 0; i < removed; i++) {
+            shown.valueAt(i).marker.remove();
+        }
+        shown.clear();
+        LongSparseArray<Shown> swap = shown;
+        shown = next;
+        next = swap;
+        Log.v(TAG, frame.size() + " markers, " + added + " added, " + removed + " removed");
+    }
+
+    // background thread
+    private void loadIfNeeded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        RuntimeExceptionDao<StoredAddress, Integer> dao = helper.getStoredAddressRuntimeExceptionDao();
+        GenericRawResults<String[]> rows = dao.queryRaw("SELECT "
+                + StoredAddress.ID_FIELD_NAME + ", " + StoredAddress.TEXT_FIELD_NAME + ", "
+                + StoredAddress.LATITUDE_FIELD_NAME + ", " + StoredAddress.LONGITUDE_FIELD_NAME
+                + " FROM " + StoredAddress.TABLE_NAME);
+        try {
+            for (String[] row : rows) {
+                if (row[2] == null || row[3] == null) {
+                    continue;
+                }
+                try {
+                    int id = Integer.parseInt(row[0]);
+                    addPoint(row[1], Double.parseDouble(row[2]), Double.parseDouble(row[3]));
+                    loadedIds.set(id);
+                } catch (NumberFormatException e) {
+                    // no position, nothing to show
+                }
+            }
+        } finally {
+            try {
+                rows.close();
+            } catch (SQLException e) {
+                Log.w(TAG, "Can't close address history", e);
+            }
+        }
+        Log.d(TAG, "Loaded " + clusterer.size() + " addresses");
+    }
+
+    // background thread
+    private void addPoint(String text, double latitude, double longitude) {
+        if (clusterer.size() == GridClusterer.MAX_POINTS) {
+            return;
+        }
+        clusterer.add(latitude, longitude);
+        texts.add(text);
+    }
+
+    /**
+     * Removes the markers and releases the database once the background thread is idle.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (int i = 0; i < shown.size(); i++) {
+            shown.valueAt(i).marker.remove();
+        }
+        shown.clear();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OpenHelperManager.releaseHelper();
+            }
+        });
+        executor.shutdown();
+    }
+}
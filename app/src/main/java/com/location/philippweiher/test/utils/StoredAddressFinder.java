@@ -0,0 +1,49 @@
+package com.location.philippweiher.test.utils;
+
+import com.j256.ormlite.dao.RuntimeExceptionDao;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.Where;
+import com.location.philippweiher.test.StoredAddress;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Spatial queries over the stored addresses, see {@link MortonSearch}. The code ranges become
+ * BETWEEN clauses on the indexed morton column, so only the rows in them are loaded.
+ */
+public class StoredAddressFinder extends MortonSearch<StoredAddress> {
+
+    // upper bound on BETWEEN clauses per query; more ranges read fewer false positives
+    private static final int MAX_RANGES = 16;
+
+    private final RuntimeExceptionDao<StoredAddress, Integer> dao;
+
+    public StoredAddressFinder(RuntimeExceptionDao<StoredAddress, Integer> dao) {
+        super(MAX_RANGES);
+        this.dao = dao;
+    }
+
+    @Override
+    protected List<StoredAddress> query(long[] ranges, int count) throws SQLException {
+        QueryBuilder<StoredAddress, Integer> builder = dao.queryBuilder();
+        Where<StoredAddress, Integer> where = builder.where();
+        for (int i = 0; i < count; i++) {
+            where.between(StoredAddress.MORTON_FIELD_NAME, ranges[2 * i], ranges[2 * i + 1]);
+        }
+        if (count > 1) {
+            where.or(count);
+        }
+        return builder.query();
+    }
+
+    @Override
+    protected double latitudeOf(StoredAddress address) {
+        return address.getLatitude();
+    }
+
+    @Override
+    protected double longitudeOf(StoredAddress address) {
+        return address.getLongitude();
+    }
+}
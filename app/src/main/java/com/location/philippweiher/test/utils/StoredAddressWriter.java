@@ -0,0 +1,172 @@
+package com.location.philippweiher.test.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import com.j256.ormlite.dao.RuntimeExceptionDao;
+import com.location.philippweiher.test.StoredAddress;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for {@link StoredAddress} inserts. Callers only append to an in-memory list;
+ * a single background thread writes everything that piled up in one transaction, either once
+ * {@link #MAX_PENDING} addresses are waiting or {@link #FLUSH_DELAY_MS} after the first one
+ * arrived, whichever comes first.
+ *
+ * The writer holds its own reference to the {@link DatabaseHelper}, so it can finish the last
+ * flush after the activity that created it is gone.
+ */
+public class StoredAddressWriter {
+
+    private static final String TAG = "StoredAddressWriter";
+
+    // flush as soon as this many addresses are waiting
+    public static final int MAX_PENDING = 500;
+    // otherwise flush this long after the first address was queued
+    public static final long FLUSH_DELAY_MS = 500;
+
+    private final DatabaseHelper helper;
+    private final ScheduledExecutorService executor;
+
+    // guarded by this
+    private List<StoredAddress> pending = new ArrayList<StoredAddress>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushPending();
+        }
+    };
+
+    public StoredAddressWriter(Context context) {
+        helper = OpenHelperManager.getHelper(context.getApplicationContext(), DatabaseHelper.class);
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues an address for insertion. Never touches the database on the calling thread.
+     */
+    public void store(StoredAddress address) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("writer is closed");
+            }
+            pending.add(address);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Queues a number of addresses at once; they end up in the same transaction.
+     */
+    public void storeAll(Collection<StoredAddress> addresses) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("writer is closed");
+            }
+            pending.addAll(addresses);
+            scheduleFlush();
+        }
+    }
+
+    // called with the lock held
+    private void scheduleFlush() {
+        if (pending.size() >= MAX_PENDING) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+            }
+            scheduledFlush = null;
+            executor.execute(flushTask);
+        } else if (scheduledFlush == null) {
+            scheduledFlush = executor.schedule(flushTask, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes whatever is waiting now instead of at the next deadline.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            executor.execute(flushTask);
+        }
+    }
+
+    /**
+     * Writes the remaining addresses and releases the database helper, both on the background
+     * thread, so this returns right away. The writer can't be used afterwards.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flushPending();
+                OpenHelperManager.releaseHelper();
+            }
+        });
+        executor.shutdown();
+    }
+
+    /*
+     * Runs on the writer thread: swaps out the pending list and inserts it in one transaction.
+     */
+    private void flushPending() {
+        final List<StoredAddress> batch;
+        synchronized (this) {
+            scheduledFlush = null;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<StoredAddress>();
+        }
+
+        final RuntimeExceptionDao<StoredAddress, Integer> dao = helper.getStoredAddressRuntimeExceptionDao();
+        try {
+            dao.callBatchTasks(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (StoredAddress address : batch) {
+                        dao.create(address);
+                    }
+                    return null;
+                }
+            });
+            Log.d(TAG, "Stored " + batch.size() + " addresses in one transaction");
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Can't store " + batch.size() + " addresses", e);
+        }
+    }
+}
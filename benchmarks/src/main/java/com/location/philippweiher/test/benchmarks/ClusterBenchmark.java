@@ -0,0 +1,89 @@
+package com.location.philippweiher.test.benchmarks;
+
+import com.location.philippweiher.test.cluster.Clusters;
+import com.location.philippweiher.test.cluster.GridClusterer;
+import com.location.philippweiher.test.inject.FastRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One camera change of the history layer: clustering an address book for a phone-sized viewport
+ * panned around central Europe, zoomed in on a town and zoomed out to the whole region. The
+ * viewports are padded the way the layer pads them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterBenchmark {
+
+    private static final int VIEWPORTS = 256;
+
+    @Param({"50000", "500000"})
+    public int points;
+
+    private final GridClusterer clusterer = new GridClusterer();
+    private final Clusters clusters = new Clusters();
+    private final double[] centerLatitudes = new double[VIEWPORTS];
+    private final double[] centerLongitudes = new double[VIEWPORTS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // clustered around a few hundred towns, like SpatialIndexBenchmark
+        FastRandom random = new FastRandom(25);
+        double[] townLatitudes = new double[300];
+        double[] townLongitudes = new double[300];
+        for (int i = 0; i < townLatitudes.length; i++) {
+            townLatitudes[i] = 45.0 + random.nextDouble() * 10.0;
+            townLongitudes[i] = 5.0 + random.nextDouble() * 15.0;
+        }
+        for (int i = 0; i < points; i++) {
+            int town = (int) (random.nextDouble() * townLatitudes.length);
+            clusterer.add(townLatitudes[town] + random.nextGaussian() * 0.05,
+                    townLongitudes[town] + random.nextGaussian() * 0.08);
+        }
+        for (int i = 0; i < VIEWPORTS; i++) {
+            int town = (int) (random.nextDouble() * townLatitudes.length);
+            centerLatitudes[i] = townLatitudes[town];
+            centerLongitudes[i] = townLongitudes[town];
+        }
+        // sorts the points, which the layer does once after loading
+        clusterer.cluster(-90, -180, 90, 180, 0, clusters);
+    }
+
+    @Benchmark
+    public int town() {
+        // zoom 13 with the margin: 0.12 x 0.2 degrees
+        return cluster(0.06, 0.1, 15);
+    }
+
+    @Benchmark
+    public int region() {
+        // zoom 6 with the margin: 16 x 24 degrees
+        return cluster(8.0, 12.0, 8);
+    }
+
+    // a box twice the given size around a town
+    private int cluster(double height, double width, int level) {
+        int v = next++ & (VIEWPORTS - 1);
+        double south = centerLatitudes[v] - height;
+        double west = centerLongitudes[v] - width;
+        clusterer.cluster(south, west, south + 2 * height, west + 2 * width, level, clusters);
+        return clusters.size();
+    }
+}
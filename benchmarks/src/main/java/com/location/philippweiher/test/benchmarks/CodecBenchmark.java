@@ -0,0 +1,120 @@
+package com.location.philippweiher.test.benchmarks;
+
+import com.location.philippweiher.test.track.BinaryTrackWriter;
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.MappedTrack;
+import com.location.philippweiher.test.track.Track;
+import com.location.philippweiher.test.track.TrackFormat;
+import com.location.philippweiher.test.track.TrackReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-track encode and decode: writing and mapping the binary format, and parsing GPX and
+ * NMEA from memory so disk speed stays out of it. Scores are per track of {@link #POINTS} fixes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    static final int POINTS = 10000;
+
+    private final Fix fix = new Fix();
+    private Track track;
+    private File binary;
+    private File scratch;
+    private byte[] gpx;
+    private byte[] nmea;
+
+    @Setup
+    public void setUp() throws IOException {
+        track = SyntheticTracks.drive(POINTS, 13);
+        binary = SyntheticTracks.writeBinary(track);
+        scratch = File.createTempFile("bench", ".mtrk");
+        scratch.deleteOnExit();
+        gpx = SyntheticTracks.toGpx(track);
+        nmea = SyntheticTracks.toNmea(track);
+    }
+
+    @TearDown
+    public void tearDown() {
+        binary.delete();
+        scratch.delete();
+    }
+
+    @Benchmark
+    public int binaryEncode() throws IOException {
+        BinaryTrackWriter writer = new BinaryTrackWriter(scratch);
+        try {
+            for (int i = 0; i < POINTS; i++) {
+                fix.time = track.getTime(i);
+                fix.latitude = track.getLatitude(i);
+                fix.longitude = track.getLongitude(i);
+                fix.altitude = track.getAltitude(i);
+                fix.accuracy = track.getAccuracy(i);
+                writer.add(fix);
+            }
+        } finally {
+            writer.close();
+        }
+        return writer.getPointCount();
+    }
+
+    @Benchmark
+    public double binaryDecode() throws IOException {
+        MappedTrack mapped = MappedTrack.open(binary);
+        try {
+            double sum = 0;
+            long end = mapped.getEndTime();
+            for (long t = mapped.getStartTime(); t <= end; t += SyntheticTracks.INTERVAL_MS) {
+                mapped.positionAt(t, fix);
+                sum += fix.latitude;
+            }
+            return sum;
+        } finally {
+            mapped.close();
+        }
+    }
+
+    @Benchmark
+    public double gpxParse() throws IOException {
+        return parse(TrackFormat.GPX, gpx);
+    }
+
+    @Benchmark
+    public double nmeaParse() throws IOException {
+        return parse(TrackFormat.NMEA, nmea);
+    }
+
+    private double parse(TrackFormat format, byte[] data) throws IOException {
+        TrackReader reader = format.newReader(new ByteArrayInputStream(data));
+        try {
+            double sum = 0;
+            while (reader.next(fix)) {
+                sum += fix.latitude;
+            }
+            return sum;
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.location.philippweiher.test.benchmarks;
+
+import com.location.philippweiher.test.elevation.ElevationModel;
+import com.location.philippweiher.test.elevation.HgtTile;
+import com.location.philippweiher.test.inject.FastRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Terrain height lookups on synthetic SRTM3 tiles: a drive that mostly stays in one tile, a
+ * zigzag across a tile corner so every lookup switches tiles within the cache, and
+ * random positions all over the tile, which miss the CPU caches on the mapping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElevationBenchmark {
+
+    private static final int SIZE = 1201;
+    private static final int STEPS = 4096;
+
+    private File directory;
+    private ElevationModel elevation;
+    private final double[] driveLatitudes = new double[STEPS];
+    private final double[] driveLongitudes = new double[STEPS];
+    private final double[] randomLatitudes = new double[STEPS];
+    private final double[] randomLongitudes = new double[STEPS];
+    private int step;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = File.createTempFile("srtm", "");
+        directory.delete();
+        directory.mkdirs();
+        for (int lat = 52; lat <= 53; lat++) {
+            for (int lng = 13; lng <= 14; lng++) {
+                writeTile(new File(directory, HgtTile.nameFor(lat, lng)), lat, lng);
+            }
+        }
+        elevation = new ElevationModel(directory);
+
+        // 25 m per step, a 1 Hz drive on a fast road; it crosses into the tile to the north once
+        FastRandom random = new FastRandom(23);
+        for (int i = 0; i < STEPS; i++) {
+            driveLatitudes[i] = 52.5 + i * 0.0002;
+            driveLongitudes[i] = 13.4 + i * 0.00014;
+            randomLatitudes[i] = 52 + random.nextDouble();
+            randomLongitudes[i] = 13 + random.nextDouble();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public double drive() {
+        int i = step++ & (STEPS - 1);
+        return elevation.elevationAt(driveLatitudes[i], driveLongitudes[i]);
+    }
+
+    @Benchmark
+    public double acrossCorner() {
+        int i = step++ & (STEPS - 1);
+        // alternates between the four tiles around 53N 14E
+        double lat = 53.0 + ((i & 1) == 0 ? -0.001 : 0.001);
+        double lng = 14.0 + ((i & 2) == 0 ? -0.001 : 0.001);
+        return elevation.elevationAt(lat, lng);
+    }
+
+    @Benchmark
+    public double randomInTile() {
+        int i = step++ & (STEPS - 1);
+        return elevation.elevationAt(randomLatitudes[i], randomLongitudes[i]);
+    }
+
+    // rolling hills with a few voids, like a real tile
+    private static void writeTile(File file, int latitude, int longitude) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (int row = 0; row < SIZE; row++) {
+                double lat = latitude + 1.0 - row / (double) (SIZE - 1);
+                for (int column = 0; column < SIZE; column++) {
+                    double lng = longitude + column / (double) (SIZE - 1);
+                    if ((row * 7 + column * 13) % 9973 == 0) {
+                        out.writeShort(HgtTile.VOID);
+                    } else {
+                        out.writeShort((int) (200 + 150 * Math.sin(lat * 40) * Math.cos(lng * 25)));
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.location.philippweiher.test.benchmarks;
+
+import com.location.philippweiher.test.inject.FastRandom;
+import com.location.philippweiher.test.inject.FixSink;
+import com.location.philippweiher.test.inject.GaussianTable;
+import com.location.philippweiher.test.inject.NoiseModel;
+import com.location.philippweiher.test.inject.NoiseProfile;
+import com.location.philippweiher.test.inject.Playback;
+import com.location.philippweiher.test.inject.TickScheduler;
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.Trajectory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One playback tick end to end minus the platform calls: scheduler bookkeeping, interpolation
+ * and handing the fix to a sink, plus the noise the providers add to it: one step of the
+ * urban canyon model and the two ways of drawing a Gaussian.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FixGenerationBenchmark {
+
+    private static final long TICK_MS = 100;
+
+    private Playback playback;
+    private TickScheduler scheduler;
+    private long duration;
+    private long now;
+    private final FastRandom random = new FastRandom(3);
+    private double latitude;
+    private double longitude;
+    private long deadlineNanos;
+    private final NoiseModel noise = new NoiseModel(NoiseProfile.forName(NoiseProfile.URBAN_CANYON), 3);
+    private final Fix noisyFix = new Fix();
+    private long noiseNanos;
+
+    @Setup
+    public void setUp() {
+        Trajectory trajectory = new Trajectory(SyntheticTracks.drive(3600, 5));
+        duration = trajectory.getDuration();
+        scheduler = new TickScheduler(TICK_MS, TickScheduler.LatePolicy.SKIP);
+        scheduler.start(now);
+        playback = new Playback(trajectory, scheduler, new FixSink() {
+            @Override
+            public void inject(Fix fix, long elapsedRealtimeNanos, long time, long deadlineNanos) {
+                latitude = fix.latitude;
+                longitude = fix.longitude;
+                FixGenerationBenchmark.this.deadlineNanos = deadlineNanos;
+            }
+        });
+    }
+
+    @Benchmark
+    public void tick(Blackhole blackhole) {
+        if (scheduler.getElapsed() > duration) {
+            scheduler.start(now);
+        }
+        now = playback.tick(now, now * 1000000L, SyntheticTracks.START_TIME + now);
+        blackhole.consume(latitude);
+        blackhole.consume(longitude);
+        blackhole.consume(deadlineNanos);
+    }
+
+    @Benchmark
+    public double gaussian() {
+        return random.nextGaussian();
+    }
+
+    @Benchmark
+    public double tableGaussian() {
+        return GaussianTable.draw(random);
+    }
+
+    @Benchmark
+    public void noise(Blackhole blackhole) {
+        noisyFix.latitude = 52.52;
+        noisyFix.longitude = 13.405;
+        noiseNanos += TICK_MS * 1000000L;
+        noise.apply(noisyFix, noiseNanos, 9e-6, 1.5e-5);
+        blackhole.consume(noisyFix.latitude);
+        blackhole.consume(noisyFix.longitude);
+        blackhole.consume(noisyFix.accuracy);
+    }
+}
@@ -0,0 +1,56 @@
+package com.location.philippweiher.test.benchmarks;
+
+import com.location.philippweiher.test.inject.FastRandom;
+import com.location.philippweiher.test.utils.GeoMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Great-circle distance and initial bearing between random pairs of points. The pairs cycle
+ * through a table that fits in L1 so the numbers are about the trigonometry, not memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoMathBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    private final double[] coordinates = new double[PAIRS * 4];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        FastRandom random = new FastRandom(42);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            coordinates[i] = random.nextDouble() * 170.0 - 85.0;
+            coordinates[i + 1] = random.nextDouble() * 360.0 - 180.0;
+        }
+    }
+
+    @Benchmark
+    public double distance() {
+        int i = (next++ & (PAIRS - 1)) * 4;
+        return GeoMath.distance(coordinates[i], coordinates[i + 1], coordinates[i + 2], coordinates[i + 3]);
+    }
+
+    @Benchmark
+    public double bearing() {
+        int i = (next++ & (PAIRS - 1)) * 4;
+        return GeoMath.bearing(coordinates[i], coordinates[i + 1], coordinates[i + 2], coordinates[i + 3]);
+    }
+}
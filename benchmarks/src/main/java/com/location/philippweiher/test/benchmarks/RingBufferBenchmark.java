@@ -0,0 +1,84 @@
+package com.location.philippweiher.test.benchmarks;
+
+import com.location.philippweiher.test.inject.FixRingBuffer;
+import com.location.philippweiher.test.track.Fix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The push queue between the binder thread and the injector. The group benchmark runs one
+ * producer against one consumer and reports both sides' throughput; a failed offer or poll still
+ * counts as an operation, so compare the two scores rather than reading either alone. The
+ * single-threaded round trip samples latency without cross-core traffic.
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+
+    private static final int CAPACITY = 16384;
+
+    @State(Scope.Group)
+    public static class Shared {
+        final FixRingBuffer buffer = new FixRingBuffer(CAPACITY);
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        long time;
+    }
+
+    @State(Scope.Thread)
+    public static class Consumer {
+        final Fix fix = new Fix();
+    }
+
+    @State(Scope.Thread)
+    public static class Local {
+        final FixRingBuffer buffer = new FixRingBuffer(CAPACITY);
+        final Fix fix = new Fix();
+        long time;
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean offer(Shared shared, Producer producer) {
+        long t = producer.time++;
+        return shared.buffer.offer(t, 52.52, 13.40, 35.0, 5.0f,
+                FixRingBuffer.OverflowPolicy.DROP_NEWEST);
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean poll(Shared shared, Consumer consumer) {
+        return shared.buffer.poll(consumer.fix);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Fix roundTrip(Local local) {
+        long t = local.time++;
+        local.buffer.offer(t, 52.52, 13.40, 35.0, 5.0f, FixRingBuffer.OverflowPolicy.DROP_NEWEST);
+        local.buffer.poll(local.fix);
+        return local.fix;
+    }
+}
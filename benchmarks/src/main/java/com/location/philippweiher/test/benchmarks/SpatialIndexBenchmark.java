@@ -0,0 +1,211 @@
+package com.location.philippweiher.test.benchmarks;
+
+import com.location.philippweiher.test.inject.FastRandom;
+import com.location.philippweiher.test.utils.GeoMath;
+import com.location.philippweiher.test.utils.MortonCode;
+import com.location.philippweiher.test.utils.NearestNeighbours;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stored-address query plan without SQLite: points sorted by morton code stand in for the
+ * indexed column, and each covering range is a pair of binary searches the way the index would
+ * seek. Box and nearest-neighbour queries run against the same points as a full scan, which is
+ * what the table did before it had the column.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark {
+
+    private static final int MAX_RANGES = 16;
+    private static final int QUERIES = 256;
+    private static final int K = 10;
+    // query boxes about 2 km across
+    private static final double BOX_DEGREES = 0.02;
+    private static final double INITIAL_RADIUS_METERS = 500.0;
+
+    @Param({"100000", "1000000"})
+    public int points;
+
+    private long[] codes;
+    private double[] latitudes;
+    private double[] longitudes;
+    private final double[] queryLatitudes = new double[QUERIES];
+    private final double[] queryLongitudes = new double[QUERIES];
+    private final long[] ranges = new long[2 * MAX_RANGES];
+    private final double[] bounds = new double[4];
+    private final NearestNeighbours nearest = new NearestNeighbours(K);
+    private final int[] order = new int[K];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // clustered around a few hundred towns in central Europe, like a real address book
+        FastRandom random = new FastRandom(17);
+        double[] townLatitudes = new double[300];
+        double[] townLongitudes = new double[300];
+        for (int i = 0; i < townLatitudes.length; i++) {
+            townLatitudes[i] = 45.0 + random.nextDouble() * 10.0;
+            townLongitudes[i] = 5.0 + random.nextDouble() * 15.0;
+        }
+        long[] sortKeys = new long[points];
+        double[] lat = new double[points];
+        double[] lng = new double[points];
+        for (int i = 0; i < points; i++) {
+            int town = (int) (random.nextDouble() * townLatitudes.length);
+            lat[i] = townLatitudes[town] + random.nextGaussian() * 0.05;
+            lng[i] = townLongitudes[town] + random.nextGaussian() * 0.08;
+            sortKeys[i] = MortonCode.encode(lat[i], lng[i]);
+        }
+        // sort the three columns together by code
+        Integer[] permutation = new Integer[points];
+        for (int i = 0; i < points; i++) {
+            permutation[i] = i;
+        }
+        final long[] keys = sortKeys;
+        Arrays.sort(permutation, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return keys[a] < keys[b] ? -1 : keys[a] == keys[b] ? 0 : 1;
+            }
+        });
+        codes = new long[points];
+        latitudes = new double[points];
+        longitudes = new double[points];
+        for (int i = 0; i < points; i++) {
+            int from = permutation[i];
+            codes[i] = sortKeys[from];
+            latitudes[i] = lat[from];
+            longitudes[i] = lng[from];
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            int from = (int) (random.nextDouble() * points);
+            queryLatitudes[i] = latitudes[from];
+            queryLongitudes[i] = longitudes[from];
+        }
+    }
+
+    @Benchmark
+    public int boundsIndexed() {
+        int q = next++ & (QUERIES - 1);
+        double south = queryLatitudes[q] - BOX_DEGREES / 2;
+        double west = queryLongitudes[q] - BOX_DEGREES / 2;
+        return countIndexed(south, west, south + BOX_DEGREES, west + BOX_DEGREES);
+    }
+
+    @Benchmark
+    public int boundsScan() {
+        int q = next++ & (QUERIES - 1);
+        double south = queryLatitudes[q] - BOX_DEGREES / 2;
+        double west = queryLongitudes[q] - BOX_DEGREES / 2;
+        double north = south + BOX_DEGREES;
+        double east = west + BOX_DEGREES;
+        int hits = 0;
+        for (int i = 0; i < points; i++) {
+            if (latitudes[i] >= south && latitudes[i] <= north
+                    && longitudes[i] >= west && longitudes[i] <= east) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int nearestIndexed() {
+        int q = next++ & (QUERIES - 1);
+        double latitude = queryLatitudes[q];
+        double longitude = queryLongitudes[q];
+        double radius = INITIAL_RADIUS_METERS;
+        while (true) {
+            NearestNeighbours.boundsAround(latitude, longitude, radius, bounds);
+            nearest.clear();
+            int count = MortonCode.cover(bounds[0], bounds[1], bounds[2], bounds[3], MAX_RANGES, ranges);
+            for (int r = 0; r < count; r++) {
+                int end = upperBound(ranges[2 * r + 1]);
+                for (int i = lowerBound(ranges[2 * r]); i < end; i++) {
+                    nearest.offer(i, GeoMath.distance(latitude, longitude, latitudes[i], longitudes[i]));
+                }
+            }
+            if (nearest.worstDistance() <= radius) {
+                break;
+            }
+            radius = nearest.isFull() ? Math.max(nearest.worstDistance(), 2 * radius) : 4 * radius;
+        }
+        return nearest.drainSorted(order);
+    }
+
+    @Benchmark
+    public int nearestScan() {
+        int q = next++ & (QUERIES - 1);
+        double latitude = queryLatitudes[q];
+        double longitude = queryLongitudes[q];
+        nearest.clear();
+        for (int i = 0; i < points; i++) {
+            nearest.offer(i, GeoMath.distance(latitude, longitude, latitudes[i], longitudes[i]));
+        }
+        return nearest.drainSorted(order);
+    }
+
+    private int countIndexed(double south, double west, double north, double east) {
+        int count = MortonCode.cover(south, west, north, east, MAX_RANGES, ranges);
+        int hits = 0;
+        for (int r = 0; r < count; r++) {
+            int end = upperBound(ranges[2 * r + 1]);
+            for (int i = lowerBound(ranges[2 * r]); i < end; i++) {
+                if (latitudes[i] >= south && latitudes[i] <= north
+                        && longitudes[i] >= west && longitudes[i] <= east) {
+                    hits++;
+                }
+            }
+        }
+        return hits;
+    }
+
+    // first index with a code >= value
+    private int lowerBound(long value) {
+        int low = 0;
+        int high = codes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (codes[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // first index with a code > value
+    private int upperBound(long value) {
+        int low = 0;
+        int high = codes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (codes[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,118 @@
+package com.location.philippweiher.test.benchmarks;
+
+import com.location.philippweiher.test.inject.FastRandom;
+import com.location.philippweiher.test.track.BinaryTrackWriter;
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.Track;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+
+/**
+ * Reproducible test data: a drive at about 15 m/s with one point per second, wandering
+ * north-east from Berlin.
+ */
+final class SyntheticTracks {
+
+    static final long INTERVAL_MS = 1000;
+    // 2014-08-01T00:00:00Z
+    static final long START_TIME = 1406851200000L;
+
+    private SyntheticTracks() {
+    }
+
+    static Track drive(int points, long seed) {
+        FastRandom random = new FastRandom(seed);
+        Track track = new Track(points);
+        double latitude = 52.52;
+        double longitude = 13.40;
+        double heading = Math.PI / 4;
+        for (int i = 0; i < points; i++) {
+            track.add(START_TIME + i * INTERVAL_MS, latitude, longitude,
+                    35.0 + 10.0 * Math.sin(i / 100.0), (float) (3.0 + random.nextDouble() * 5.0));
+            heading += random.nextGaussian() * 0.05;
+            latitude += Math.cos(heading) * 15.0 / 111320.0;
+            longitude += Math.sin(heading) * 15.0 / (111320.0 * Math.cos(Math.toRadians(latitude)));
+        }
+        return track;
+    }
+
+    static File writeBinary(Track track) throws IOException {
+        File file = File.createTempFile("bench", ".mtrk");
+        file.deleteOnExit();
+        BinaryTrackWriter writer = new BinaryTrackWriter(file);
+        Fix fix = new Fix();
+        try {
+            for (int i = 0; i < track.size(); i++) {
+                fix.time = track.getTime(i);
+                fix.latitude = track.getLatitude(i);
+                fix.longitude = track.getLongitude(i);
+                fix.altitude = track.getAltitude(i);
+                fix.accuracy = track.getAccuracy(i);
+                writer.add(fix);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    static byte[] toGpx(Track track) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n")
+                .append("<trk><trkseg>\n");
+        for (int i = 0; i < track.size(); i++) {
+            long seconds = (track.getTime(i) - START_TIME) / 1000;
+            sb.append(String.format(Locale.US,
+                    "<trkpt lat=\"%.7f\" lon=\"%.7f\"><ele>%.1f</ele>"
+                            + "<time>2014-08-%02dT%02d:%02d:%02dZ</time></trkpt>\n",
+                    track.getLatitude(i), track.getLongitude(i), track.getAltitude(i),
+                    1 + seconds / 86400, seconds / 3600 % 24, seconds / 60 % 60, seconds % 60));
+        }
+        sb.append("</trkseg></trk></gpx>\n");
+        return bytes(sb.toString());
+    }
+
+    static byte[] toNmea(Track track) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < track.size(); i++) {
+            long seconds = (track.getTime(i) - START_TIME) / 1000;
+            int day = (int) (1 + seconds / 86400);
+            String time = String.format(Locale.US, "%02d%02d%02d.00",
+                    seconds / 3600 % 24, seconds / 60 % 60, seconds % 60);
+            String body = String.format(Locale.US, "GPRMC,%s,A,%s,%s,29.2,45.0,%02d0814,,,A",
+                    time, coordinate(track.getLatitude(i), 2, 'N', 'S'),
+                    coordinate(track.getLongitude(i), 3, 'E', 'W'), day);
+            sb.append('$').append(body).append('*')
+                    .append(String.format(Locale.US, "%02X", checksum(body))).append("\r\n");
+        }
+        return bytes(sb.toString());
+    }
+
+    private static String coordinate(double degrees, int width, char positive, char negative) {
+        double abs = Math.abs(degrees);
+        int whole = (int) abs;
+        double minutes = (abs - whole) * 60.0;
+        return String.format(Locale.US, "%0" + width + "d%07.4f,%c", whole, minutes,
+                degrees >= 0 ? positive : negative);
+    }
+
+    private static int checksum(String body) {
+        int sum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            sum ^= body.charAt(i);
+        }
+        return sum;
+    }
+
+    private static byte[] bytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.location.philippweiher.test.benchmarks;
+
+import com.location.philippweiher.test.inject.FastRandom;
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.MappedTrack;
+import com.location.philippweiher.test.track.PositionSource;
+import com.location.philippweiher.test.track.Track;
+import com.location.philippweiher.test.track.Trajectory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Position lookup on a track, in memory and memory-mapped. Sequential lookups advance a quarter
+ * of the fix interval per call like playback does; random lookups jump anywhere on the track.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrajectoryBenchmark {
+
+    private static final int RANDOM_TIMES = 4096;
+
+    @Param({"1000", "100000"})
+    public int points;
+
+    private final Fix fix = new Fix();
+    private final long[] randomTimes = new long[RANDOM_TIMES];
+    private Trajectory trajectory;
+    private MappedTrack mapped;
+    private File file;
+    private long start;
+    private long duration;
+    private long elapsed;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Track track = SyntheticTracks.drive(points, 7);
+        trajectory = new Trajectory(track);
+        file = SyntheticTracks.writeBinary(track);
+        mapped = MappedTrack.open(file);
+        start = track.getStartTime();
+        duration = track.getDuration();
+        FastRandom random = new FastRandom(11);
+        for (int i = 0; i < RANDOM_TIMES; i++) {
+            randomTimes[i] = start + (long) (random.nextDouble() * duration);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        trajectory.close();
+        mapped.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public Fix trajectorySequential() {
+        return sequential(trajectory);
+    }
+
+    @Benchmark
+    public Fix trajectoryRandom() {
+        return random(trajectory);
+    }
+
+    @Benchmark
+    public Fix mappedSequential() {
+        return sequential(mapped);
+    }
+
+    @Benchmark
+    public Fix mappedRandom() {
+        return random(mapped);
+    }
+
+    private Fix sequential(PositionSource source) {
+        elapsed += SyntheticTracks.INTERVAL_MS / 4;
+        if (elapsed > duration) {
+            elapsed = 0;
+        }
+        source.positionAt(start + elapsed, fix);
+        return fix;
+    }
+
+    private Fix random(PositionSource source) {
+        source.positionAt(randomTimes[next++ & (RANDOM_TIMES - 1)], fix);
+        return fix;
+    }
+}
@@ -0,0 +1,132 @@
+package com.location.philippweiher.test.cluster;
+
+import java.util.Arrays;
+
+/**
+ * What {@link GridClusterer#cluster} found in a viewport: one entry per occupied grid cell, with
+ * the number of points in it and their mean position. A cell with a single point is keyed by the
+ * point instead of the cell, so that point keeps its key when the zoom changes and a map can keep
+ * its marker.
+ *
+ * Kept in flat arrays that grow as needed and are reused after {@link #clear}. Not thread safe;
+ * hand a filled instance to another thread only if the clusterer won't fill it again meanwhile.
+ */
+public final class Clusters {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private double[] latitudeSums = new double[INITIAL_CAPACITY];
+    private double[] longitudeSums = new double[INITIAL_CAPACITY];
+    private int[] members = new int[INITIAL_CAPACITY];
+    private int size;
+
+    // open addressing from cell key (never 0) to entry + 1, 0 marks a free slot
+    private long[] tableKeys = new long[2 * INITIAL_CAPACITY];
+    private int[] tableEntries = new int[2 * INITIAL_CAPACITY];
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(tableKeys, 0L);
+            Arrays.fill(tableEntries, 0);
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Identifies the entry across calls: equal keys mean the same cell at the same level, or the
+     * same single point at any level.
+     */
+    public long key(int i) {
+        return keys[i];
+    }
+
+    public int count(int i) {
+        return counts[i];
+    }
+
+    public double latitude(int i) {
+        return latitudeSums[i] / counts[i];
+    }
+
+    public double longitude(int i) {
+        return longitudeSums[i] / counts[i];
+    }
+
+    /**
+     * Id of one of the points in the entry, the point itself if it is alone.
+     */
+    public int member(int i) {
+        return members[i];
+    }
+
+    void add(long cell, int id, double latitude, double longitude) {
+        int mask = tableKeys.length - 1;
+        int slot = mix(cell) & mask;
+        while (tableKeys[slot] != 0) {
+            if (tableKeys[slot] == cell) {
+                int entry = tableEntries[slot] - 1;
+                counts[entry]++;
+                latitudeSums[entry] += latitude;
+                longitudeSums[entry] += longitude;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == keys.length) {
+            grow();
+            add(cell, id, latitude, longitude);
+            return;
+        }
+        tableKeys[slot] = cell;
+        tableEntries[slot] = size + 1;
+        keys[size] = cell;
+        counts[size] = 1;
+        latitudeSums[size] = latitude;
+        longitudeSums[size] = longitude;
+        members[size] = id;
+        size++;
+    }
+
+    /*
+     * Rekeys the cells that hold only one point by that point.
+     */
+    void finish() {
+        for (int i = 0; i < size; i++) {
+            if (counts[i] == 1) {
+                keys[i] = -1L - members[i];
+            }
+        }
+    }
+
+    // doubles the entries and rehashes the table, which stays at most half full
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        latitudeSums = Arrays.copyOf(latitudeSums, capacity);
+        longitudeSums = Arrays.copyOf(longitudeSums, capacity);
+        members = Arrays.copyOf(members, capacity);
+        tableKeys = new long[2 * capacity];
+        tableEntries = new int[2 * capacity];
+        int mask = tableKeys.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = mix(keys[i]) & mask;
+            while (tableKeys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            tableKeys[slot] = keys[i];
+            tableEntries[slot] = i + 1;
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
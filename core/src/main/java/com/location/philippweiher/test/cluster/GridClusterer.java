@@ -0,0 +1,175 @@
+package com.location.philippweiher.test.cluster;
+
+import com.location.philippweiher.test.utils.MortonCode;
+
+import java.util.Arrays;
+
+/**
+ * Clusters a large set of points for a map viewport. Points are binned into the cells of a
+ * Web Mercator grid that is anchored to the world rather than to the viewport, so panning moves
+ * the same clusters across the screen instead of regrouping them, and only points inside the
+ * viewport are looked at: they are sorted by {@link MortonCode}, so the viewport is a few
+ * binary searches and range scans, not a pass over every point.
+ *
+ * Points added after the last sort are scanned one by one until there are enough of them to
+ * make sorting again worth it. Not thread safe.
+ */
+public class GridClusterer {
+
+    // the low bits of a sort key hold the point id; the morton code above them is good to about
+    // 30 m, and the exact box check does the rest
+    private static final int ID_BITS = 21;
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+
+    public static final int MAX_POINTS = 1 << ID_BITS;
+
+    // cells per side are 2^level; a cell key has 28 bits per axis
+    public static final int MAX_LEVEL = 28;
+
+    // upper bound on covering ranges per viewport
+    private static final int MAX_RANGES = 16;
+
+    // unsorted points scanned one by one before everything is sorted again
+    private static final int MAX_UNSORTED = 1024;
+
+    // Web Mercator stops here; the map doesn't show anything further north or south
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    private double[] latitudes = new double[1024];
+    private double[] longitudes = new double[1024];
+    // Web Mercator position of every point, both in [0, 1)
+    private double[] xs = new double[1024];
+    private double[] ys = new double[1024];
+    private int count;
+
+    // morton code with the id in the low bits for the first sortedCount points, sorted
+    private long[] sortKeys = new long[0];
+    private int sortedCount;
+
+    private final long[] ranges = new long[2 * MAX_RANGES];
+
+    /**
+     * Adds a point and returns its id, which is the number of points added before it.
+     */
+    public int add(double latitude, double longitude) {
+        if (count == MAX_POINTS) {
+            throw new IllegalStateException("can't cluster more than " + MAX_POINTS + " points");
+        }
+        if (count == latitudes.length) {
+            int capacity = Math.min(MAX_POINTS, 2 * count);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+        }
+        latitudes[count] = latitude;
+        longitudes[count] = longitude;
+        xs[count] = mercatorX(longitude);
+        ys[count] = mercatorY(latitude);
+        return count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public double latitude(int id) {
+        return latitudes[id];
+    }
+
+    public double longitude(int id) {
+        return longitudes[id];
+    }
+
+    /**
+     * Replaces the contents of {@code out} with the clusters of the points inside the box, on a
+     * grid of 2^level cells a side. West greater than east means the box crosses the
+     * antimeridian.
+     */
+    public void cluster(double south, double west, double north, double east, int level,
+                        Clusters out) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level out of range: " + level);
+        }
+        out.clear();
+        if (count - sortedCount > MAX_UNSORTED) {
+            sort();
+        }
+        double cells = 1L << level;
+        long levelBits = (long) (level + 1) << 56;
+
+        int rangeCount = sortedCount == 0
+                ? 0 : MortonCode.cover(south, west, north, east, MAX_RANGES, ranges);
+        // widened to whole sort keys, neighbouring ranges can overlap; nothing is visited twice
+        int scanned = 0;
+        for (int r = 0; r < rangeCount; r++) {
+            int i = Math.max(scanned, lowerBound(ranges[2 * r] & ~ID_MASK));
+            long hi = ranges[2 * r + 1] | ID_MASK;
+            for (; i < sortedCount && sortKeys[i] <= hi; i++) {
+                int id = (int) (sortKeys[i] & ID_MASK);
+                addIfInside(id, south, west, north, east, cells, levelBits, out);
+            }
+            scanned = i;
+        }
+        for (int id = sortedCount; id < count; id++) {
+            addIfInside(id, south, west, north, east, cells, levelBits, out);
+        }
+        out.finish();
+    }
+
+    private void addIfInside(int id, double south, double west, double north, double east,
+                             double cells, long levelBits, Clusters out) {
+        double latitude = latitudes[id];
+        double longitude = longitudes[id];
+        if (latitude < south || latitude > north) {
+            return;
+        }
+        if (west <= east ? longitude < west || longitude > east
+                : longitude < west && longitude > east) {
+            return;
+        }
+        long cx = (long) (xs[id] * cells);
+        long cy = (long) (ys[id] * cells);
+        out.add(levelBits | (cx << 28) | cy, id, latitude, longitude);
+    }
+
+    private void sort() {
+        if (sortKeys.length < count) {
+            sortKeys = new long[latitudes.length];
+        }
+        for (int id = 0; id < count; id++) {
+            sortKeys[id] = (MortonCode.encode(latitudes[id], longitudes[id]) & ~ID_MASK) | id;
+        }
+        Arrays.sort(sortKeys, 0, count);
+        sortedCount = count;
+    }
+
+    // first sorted index whose key is at least the given one
+    private int lowerBound(long key) {
+        int lo = 0;
+        int hi = sortedCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortKeys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    static double mercatorX(double longitude) {
+        return clampUnit((longitude + 180.0) / 360.0);
+    }
+
+    static double mercatorY(double latitude) {
+        double lat = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        // 0 at the north edge of the map, like tile rows
+        return clampUnit(0.5 - Math.log(Math.tan(Math.PI / 4 + lat / 2)) / (2 * Math.PI));
+    }
+
+    private static double clampUnit(double v) {
+        return v < 0.0 ? 0.0 : v >= 1.0 ? Math.nextAfter(1.0, 0.0) : v;
+    }
+}
@@ -0,0 +1,134 @@
+package com.location.philippweiher.test.elevation;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Terrain height for any position, from a directory of SRTM tiles named like
+ * {@code N52E013.hgt}. Tiles are mapped when a lookup first needs them and kept in a small
+ * least-recently-used set, so a drive back and forth across a tile boundary opens every file
+ * once; tiles that aren't there are remembered as well, so a drive off the map doesn't look for
+ * them on every fix. A lookup in the tile of the previous one is a comparison and four reads from
+ * the mapping.
+ *
+ * An evicted tile is unmapped once it has been garbage collected. Not thread safe.
+ */
+public class ElevationModel {
+
+    // a 2x2 block of tiles, enough for a route along a corner
+    public static final int DEFAULT_CAPACITY = 4;
+
+    private final File directory;
+
+    // tile key, tile (null if missing) and last use of every cached entry
+    private final int[] keys;
+    private final HgtTile[] tiles;
+    private final long[] lastUse;
+    private int count;
+    private long clock;
+
+    // entry of the previous lookup
+    private int lastKey = -1;
+    private HgtTile lastTile;
+
+    private long openedTotal;
+    private long failedTotal;
+
+    public ElevationModel(File directory) {
+        this(directory, DEFAULT_CAPACITY);
+    }
+
+    public ElevationModel(File directory, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.directory = directory;
+        keys = new int[capacity];
+        tiles = new HgtTile[capacity];
+        lastUse = new long[capacity];
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Tiles mapped so far, including ones mapped again after they were evicted.
+     */
+    public long getOpenedTotal() {
+        return openedTotal;
+    }
+
+    /**
+     * Tiles that were there but couldn't be mapped.
+     */
+    public long getFailedTotal() {
+        return failedTotal;
+    }
+
+    /**
+     * Height above sea level in meters, or NaN where there is no tile or only voids.
+     */
+    public double elevationAt(double latitude, double longitude) {
+        if (!(latitude >= -90.0 && latitude <= 90.0 && longitude >= -180.0 && longitude <= 180.0)) {
+            return Double.NaN;
+        }
+        // the north pole and the antimeridian belong to the tiles south and west of them
+        int tileLatitude = Math.min(89, (int) Math.floor(latitude));
+        int tileLongitude = Math.min(179, (int) Math.floor(longitude));
+        int key = (tileLatitude + 90) * 360 + tileLongitude + 180;
+
+        HgtTile tile = key == lastKey ? lastTile : lookUp(key, tileLatitude, tileLongitude);
+        return tile != null ? tile.elevationAt(latitude, longitude) : Double.NaN;
+    }
+
+    private HgtTile lookUp(int key, int tileLatitude, int tileLongitude) {
+        int entry = -1;
+        for (int i = 0; i < count; i++) {
+            if (keys[i] == key) {
+                entry = i;
+                break;
+            }
+        }
+        if (entry < 0) {
+            entry = count < keys.length ? count++ : leastRecentlyUsed();
+            keys[entry] = key;
+            tiles[entry] = open(tileLatitude, tileLongitude);
+        }
+        lastUse[entry] = ++clock;
+        lastKey = key;
+        lastTile = tiles[entry];
+        return lastTile;
+    }
+
+    private int leastRecentlyUsed() {
+        int oldest = 0;
+        for (int i = 1; i < count; i++) {
+            if (lastUse[i] < lastUse[oldest]) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    private HgtTile open(int tileLatitude, int tileLongitude) {
+        File file = new File(directory, HgtTile.nameFor(tileLatitude, tileLongitude));
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            HgtTile tile = HgtTile.open(file, tileLatitude, tileLongitude);
+            openedTotal++;
+            return tile;
+        } catch (IOException e) {
+            failedTotal++;
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ElevationModel[" + directory + ", " + count + " cached, " + openedTotal + " opened, "
+                + failedTotal + " failed]";
+    }
+}
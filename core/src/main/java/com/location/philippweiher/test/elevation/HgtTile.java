@@ -0,0 +1,189 @@
+package com.location.philippweiher.test.elevation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One SRTM {@code .hgt} tile, memory-mapped: a square of big-endian 16 bit heights in meters
+ * covering one degree, from the north-west corner row by row, 3601 samples a side for one arc
+ * second (SRTM1) or 1201 for three (SRTM3). The edge rows and columns repeat those of the
+ * neighbouring tiles. A lookup reads the four samples around a position straight from the
+ * mapping.
+ */
+public class HgtTile {
+
+    // marks a sample the survey has no height for
+    public static final short VOID = -32768;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    // south-west corner
+    private final int latitude;
+    private final int longitude;
+    private final int size;
+    private final double samplesPerDegree;
+
+    private HgtTile(File file, ByteBuffer buffer, int latitude, int longitude, int size) {
+        this.file = file;
+        this.buffer = buffer;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.size = size;
+        samplesPerDegree = size - 1;
+    }
+
+    /**
+     * Maps a tile read-only.
+     *
+     * @param latitude  latitude of the tile's south edge
+     * @param longitude longitude of the tile's west edge
+     */
+    public static HgtTile open(File file, int latitude, int longitude) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            int size = (int) Math.round(Math.sqrt(length / 2.0));
+            if ((long) size * size * 2 != length || size < 2) {
+                throw new IOException(file + " is not an SRTM tile");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            // the mapping stays valid after the file is closed
+            return new HgtTile(file, mapped, latitude, longitude, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Name of the tile whose south-west corner is at the given degrees, e.g. N52E013.hgt.
+     */
+    public static String nameFor(int latitude, int longitude) {
+        StringBuilder sb = new StringBuilder(11);
+        sb.append(latitude < 0 ? 'S' : 'N');
+        appendDigits(sb, Math.abs(latitude), 2);
+        sb.append(longitude < 0 ? 'W' : 'E');
+        appendDigits(sb, Math.abs(longitude), 3);
+        return sb.append(".hgt").toString();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getLatitude() {
+        return latitude;
+    }
+
+    public int getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Samples per side.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Height in meters at a position within the tile, interpolated bilinearly between the four
+     * samples around it. Void samples are left out of the interpolation; NaN if all four are
+     * void.
+     */
+    public double elevationAt(double lat, double lng) {
+        double y = (lat - latitude) * samplesPerDegree;
+        double x = (lng - longitude) * samplesPerDegree;
+        int row = clamp((int) y, size - 2);
+        int column = clamp((int) x, size - 2);
+        double fy = Math.max(0.0, Math.min(1.0, y - row));
+        double fx = Math.max(0.0, Math.min(1.0, x - column));
+
+        // rows are stored from the north, so the sample south-west of the position is here
+        int southWest = ((size - 1 - row) * size + column) * 2;
+        int northWest = southWest - size * 2;
+        short sw = buffer.getShort(southWest);
+        short se = buffer.getShort(southWest + 2);
+        short nw = buffer.getShort(northWest);
+        short ne = buffer.getShort(northWest + 2);
+
+        if (sw != VOID && se != VOID && nw != VOID && ne != VOID) {
+            double south = sw + (se - sw) * fx;
+            double north = nw + (ne - nw) * fx;
+            return south + (north - south) * fy;
+        }
+        return interpolateAroundVoids(sw, se, nw, ne, fx, fy);
+    }
+
+    private static double interpolateAroundVoids(short sw, short se, short nw, short ne,
+                                                 double fx, double fy) {
+        double sum = 0;
+        double weights = 0;
+        double w = (1 - fx) * (1 - fy);
+        if (sw != VOID) {
+            sum += sw * w;
+            weights += w;
+        }
+        w = fx * (1 - fy);
+        if (se != VOID) {
+            sum += se * w;
+            weights += w;
+        }
+        w = (1 - fx) * fy;
+        if (nw != VOID) {
+            sum += nw * w;
+            weights += w;
+        }
+        w = fx * fy;
+        if (ne != VOID) {
+            sum += ne * w;
+            weights += w;
+        }
+        if (weights > 0) {
+            return sum / weights;
+        }
+        // right on a void sample: the mean of the others, if there are any
+        int count = 0;
+        sum = 0;
+        if (sw != VOID) {
+            sum += sw;
+            count++;
+        }
+        if (se != VOID) {
+            sum += se;
+            count++;
+        }
+        if (nw != VOID) {
+            sum += nw;
+            count++;
+        }
+        if (ne != VOID) {
+            sum += ne;
+            count++;
+        }
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    private static int clamp(int index, int max) {
+        return index < 0 ? 0 : index > max ? max : index;
+    }
+
+    private static void appendDigits(StringBuilder sb, int value, int digits) {
+        String s = Integer.toString(value);
+        for (int i = s.length(); i < digits; i++) {
+            sb.append('0');
+        }
+        sb.append(s);
+    }
+
+    @Override
+    public String toString() {
+        return file.getName() + "(" + size + "x" + size + ")";
+    }
+}
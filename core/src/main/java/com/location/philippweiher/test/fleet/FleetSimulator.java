@@ -0,0 +1,299 @@
+package com.location.philippweiher.test.fleet;
+
+import com.location.philippweiher.test.inject.LogLinearHistogram;
+import com.location.philippweiher.test.inject.TickScheduler;
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.Track;
+import com.location.philippweiher.test.track.TrackFormat;
+import com.location.philippweiher.test.track.TrackReader;
+import com.location.philippweiher.test.track.Trajectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless load generator for a tracking backend: many virtual devices, each following one of a
+ * few routes with its own start point, offset and noise, report a fix every tick as NDJSON to a
+ * {@link FleetSink}. It runs on any JVM:
+ *
+ * <pre>
+ * java -cp core.jar:kxml2.jar com.location.philippweiher.test.fleet.FleetSimulator \
+ *     --devices 10000 --track route.gpx --out http://localhost:8080/fixes
+ * </pre>
+ *
+ * Devices are split into shards that a fork-join pool runs in parallel; every shard encodes its
+ * devices into a batch of its own and hands it to the sink, so the workers only meet at the
+ * sink. Ticks are kept on an absolute timeline, and a tick that overruns makes the missed ones
+ * be skipped rather than run back to back, so the fix rate never exceeds the configured one.
+ * A tick allocates nothing per device.
+ */
+public class FleetSimulator {
+
+    // shards per worker thread, so a slow shard doesn't hold up a whole core's worth of devices
+    private static final int SHARDS_PER_THREAD = 4;
+    // how often progress is reported on stderr
+    private static final long REPORT_INTERVAL = 10000;
+
+    private final FleetSink sink;
+    private final int deviceCount;
+    private final long interval;
+    private final ForkJoinPool pool;
+    private final List<Shard> shards = new ArrayList<Shard>();
+
+    // microseconds per tick, from the first device to the last batch written
+    private final LogLinearHistogram tickDurations = new LogLinearHistogram();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean stopped;
+    // of the last or current run
+    private volatile long tickCount;
+    private volatile long skippedTicks;
+
+    /**
+     * @param routes the devices are spread over these round robin
+     * @param rate fixes per device and second
+     * @param spread standard deviation of each device's fixed offset from its route, in meters
+     * @param noise standard deviation of the error on every fix, in meters
+     */
+    public FleetSimulator(List<Track> routes, int deviceCount, double rate, double spread,
+                          double noise, long seed, int threads, FleetSink sink) {
+        if (routes.isEmpty() || deviceCount <= 0 || !(rate > 0) || threads <= 0) {
+            throw new IllegalArgumentException("need routes, devices, a rate and threads");
+        }
+        this.sink = sink;
+        this.deviceCount = deviceCount;
+        interval = Math.max(1, Math.round(1000.0 / rate));
+        pool = new ForkJoinPool(threads);
+
+        List<Trajectory> trajectories = new ArrayList<Trajectory>(routes.size());
+        for (Track route : routes) {
+            trajectories.add(new Trajectory(route));
+        }
+        int shardCount = Math.min(deviceCount, threads * SHARDS_PER_THREAD);
+        for (int s = 0; s < shardCount; s++) {
+            int from = (int) ((long) deviceCount * s / shardCount);
+            int to = (int) ((long) deviceCount * (s + 1) / shardCount);
+            VirtualDevice[] devices = new VirtualDevice[to - from];
+            for (int i = from; i < to; i++) {
+                Trajectory route = trajectories.get(i % trajectories.size()).share();
+                devices[i - from] = new VirtualDevice("sim-" + i, route, spread, noise, seed * 31 + i);
+            }
+            shards.add(new Shard(devices));
+        }
+    }
+
+    /**
+     * Runs ticks until {@code duration} milliseconds have passed on the tick timeline, or until
+     * {@link #stop()} if the duration is 0. Closes the sink when it returns.
+     */
+    public void run(long duration) throws IOException, InterruptedException {
+        TickScheduler scheduler = new TickScheduler(interval, TickScheduler.LatePolicy.SKIP);
+        long wallStart = System.currentTimeMillis();
+        scheduler.start(clock());
+        tickCount = 0;
+        skippedTicks = 0;
+        long nextReport = REPORT_INTERVAL;
+        try {
+            while (!stopped && (duration <= 0 || scheduler.getElapsed() < duration)) {
+                long delay = scheduler.getNextTick() - clock();
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                long start = System.nanoTime();
+                long elapsed = scheduler.getElapsed();
+                for (int i = 0; i < shards.size(); i++) {
+                    shards.get(i).prepare(elapsed, wallStart + elapsed);
+                }
+                for (Future<Void> result : pool.invokeAll(shards)) {
+                    try {
+                        result.get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof IOException) {
+                            throw (IOException) e.getCause();
+                        }
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+                sink.flush();
+                tickDurations.record((System.nanoTime() - start) / 1000);
+                scheduler.advance(clock());
+                tickCount = scheduler.getTickCount();
+                skippedTicks = scheduler.getSkippedTicks();
+
+                if (scheduler.getElapsed() >= nextReport) {
+                    System.err.println(report(scheduler));
+                    nextReport += REPORT_INTERVAL;
+                }
+            }
+            System.err.println(report(scheduler));
+        } finally {
+            pool.shutdown();
+            sink.close();
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Ends {@link #run} after the current tick and waits a while for it to close the sink.
+     */
+    public void stop() throws InterruptedException {
+        stopped = true;
+        finished.await(interval + 5000, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ticks run so far by the last or current {@link #run}.
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Ticks left out so far because an earlier one overran.
+     */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    private String report(TickScheduler scheduler) {
+        return deviceCount + " devices, " + scheduler.getTickCount() * deviceCount + " fixes, "
+                + scheduler + ", tick us p50:" + tickDurations.getPercentile(0.5)
+                + " p99:" + tickDurations.getPercentile(0.99)
+                + " max:" + tickDurations.getMax();
+    }
+
+    // milliseconds on the System.nanoTime() clock, see TickScheduler
+    private static long clock() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /*
+     * A fixed slice of the fleet, encoded into its own reusable batch.
+     */
+    private final class Shard implements Callable<Void> {
+
+        private final VirtualDevice[] devices;
+        private final NdjsonEncoder encoder;
+        private long elapsed;
+        private long time;
+
+        Shard(VirtualDevice[] devices) {
+            this.devices = devices;
+            encoder = new NdjsonEncoder(devices.length * 160);
+        }
+
+        void prepare(long elapsed, long time) {
+            this.elapsed = elapsed;
+            this.time = time;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            encoder.reset();
+            for (VirtualDevice device : devices) {
+                device.update(elapsed);
+                encoder.fix(device.idPrefix, time, device.fix);
+            }
+            sink.write(encoder.buffer(), encoder.length());
+            return null;
+        }
+    }
+
+    /**
+     * Reads a GPX, KML or NMEA file into memory, dropping points that go back in time.
+     */
+    public static Track readTrack(File file) throws IOException {
+        TrackReader reader = TrackFormat.open(file, null);
+        try {
+            Track track = new Track();
+            Fix fix = new Fix();
+            long lastTime = Long.MIN_VALUE;
+            while (reader.next(fix)) {
+                if (fix.time >= lastTime) {
+                    track.add(fix.time, fix.latitude, fix.longitude, fix.altitude, fix.accuracy);
+                    lastTime = fix.time;
+                }
+            }
+            if (track.isEmpty()) {
+                throw new IOException(file + " has no points");
+            }
+            return track;
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int devices = 1000;
+        double rate = 1.0;
+        double spread = 200.0;
+        double noise = 5.0;
+        long seed = 1;
+        long duration = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String out = "-";
+        List<Track> routes = new ArrayList<Track>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage("missing value for " + arg);
+            }
+            String value = args[++i];
+            if ("--devices".equals(arg)) {
+                devices = Integer.parseInt(value);
+            } else if ("--track".equals(arg)) {
+                routes.add(readTrack(new File(value)));
+            } else if ("--rate".equals(arg)) {
+                rate = Double.parseDouble(value);
+            } else if ("--spread".equals(arg)) {
+                spread = Double.parseDouble(value);
+            } else if ("--noise".equals(arg)) {
+                noise = Double.parseDouble(value);
+            } else if ("--seed".equals(arg)) {
+                seed = Long.parseLong(value);
+            } else if ("--duration".equals(arg)) {
+                duration = Long.parseLong(value) * 1000L;
+            } else if ("--threads".equals(arg)) {
+                threads = Integer.parseInt(value);
+            } else if ("--out".equals(arg)) {
+                out = value;
+            } else {
+                usage("unknown option " + arg);
+            }
+        }
+        if (routes.isEmpty()) {
+            usage("at least one --track is needed");
+        }
+
+        final FleetSimulator simulator = new FleetSimulator(routes, devices, rate, spread, noise,
+                seed, threads, FleetSinks.open(out));
+        // Ctrl-C ends the run cleanly, so the sink is flushed and closed
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    simulator.stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }));
+        simulator.run(duration);
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("usage: FleetSimulator --track FILE [--track FILE ...] [--devices N]"
+                + " [--rate HZ] [--spread M] [--noise M] [--seed N] [--duration S] [--threads N]"
+                + " [--out -|FILE|tcp://HOST:PORT|http://HOST:PORT/PATH]");
+        System.exit(2);
+    }
+}
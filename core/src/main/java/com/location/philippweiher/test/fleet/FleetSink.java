@@ -0,0 +1,16 @@
+package com.location.philippweiher.test.fleet;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where the fleet simulator sends its fixes, as batches of NDJSON lines. {@link #write} is
+ * called from several worker threads at once, each time with complete lines; {@link #flush} is
+ * called once per tick after all batches of the tick are written.
+ */
+public interface FleetSink extends Closeable {
+
+    void write(byte[] batch, int length) throws IOException;
+
+    void flush() throws IOException;
+}
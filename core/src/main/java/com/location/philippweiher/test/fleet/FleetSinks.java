@@ -0,0 +1,143 @@
+package com.location.philippweiher.test.fleet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+
+/**
+ * The sinks the fleet simulator can write to, picked by a target string:
+ *
+ * <ul>
+ * <li>{@code -} writes to standard output</li>
+ * <li>{@code tcp://host:port} streams lines over one TCP connection</li>
+ * <li>{@code http://host:port/path} POSTs every batch as {@code application/x-ndjson}</li>
+ * <li>anything else is a file, which is overwritten</li>
+ * </ul>
+ */
+public final class FleetSinks {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 10000;
+
+    private FleetSinks() {
+    }
+
+    public static FleetSink open(String target) throws IOException {
+        if ("-".equals(target)) {
+            return new StreamSink(System.out, false);
+        }
+        if (target.startsWith("tcp://")) {
+            URI uri = URI.create(target);
+            if (uri.getHost() == null || uri.getPort() < 0) {
+                throw new IOException("TCP target needs a host and a port: " + target);
+            }
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort()), CONNECT_TIMEOUT);
+                return new StreamSink(socket.getOutputStream(), true);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+        if (target.startsWith("http://") || target.startsWith("https://")) {
+            return new HttpSink(new URL(target));
+        }
+        return new StreamSink(new FileOutputStream(new File(target)), true);
+    }
+
+    /**
+     * Lines into one byte stream. Writes are serialized so batches never interleave.
+     */
+    private static final class StreamSink implements FleetSink {
+
+        private final OutputStream out;
+        private final boolean closeStream;
+
+        StreamSink(OutputStream stream, boolean closeStream) {
+            out = new BufferedOutputStream(stream, BUFFER_SIZE);
+            this.closeStream = closeStream;
+        }
+
+        @Override
+        public synchronized void write(byte[] batch, int length) throws IOException {
+            out.write(batch, 0, length);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closeStream) {
+                out.close();
+            } else {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * One POST per batch. Batches go out in parallel; HttpURLConnection keeps the connections
+     * alive between requests as long as every response is read to the end.
+     */
+    private static final class HttpSink implements FleetSink {
+
+        private final URL url;
+
+        HttpSink(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public void write(byte[] batch, int length) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/x-ndjson");
+            connection.setFixedLengthStreamingMode(length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(batch, 0, length);
+            } finally {
+                out.close();
+            }
+            int code = connection.getResponseCode();
+            InputStream in = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (in != null) {
+                try {
+                    // read to the end so the connection can be reused
+                    byte[] discard = new byte[4096];
+                    while (in.read(discard) >= 0) {
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            if (code / 100 != 2) {
+                throw new IOException("POST " + url + " answered " + code);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
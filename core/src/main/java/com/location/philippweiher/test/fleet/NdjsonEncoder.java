@@ -0,0 +1,157 @@
+package com.location.philippweiher.test.fleet;
+
+import com.location.philippweiher.test.track.Fix;
+
+import java.util.Arrays;
+
+/**
+ * Formats fixes as newline-delimited JSON straight into a reusable byte array, one object per
+ * line:
+ *
+ * <pre>
+ * {"id":"sim-42","time":1406851200000,"lat":52.5200000,"lng":13.4000000,"alt":35.0,
+ *  "accuracy":5.0,"speed":14.99,"bearing":45.0}
+ * </pre>
+ *
+ * Altitude is left out when it is unknown. Numbers are written digit by digit instead of going
+ * through String, so encoding a fix allocates nothing once the buffer has grown to the batch
+ * size.
+ */
+final class NdjsonEncoder {
+
+    private static final byte[] TIME = ascii(",\"time\":");
+    private static final byte[] LATITUDE = ascii(",\"lat\":");
+    private static final byte[] LONGITUDE = ascii(",\"lng\":");
+    private static final byte[] ALTITUDE = ascii(",\"alt\":");
+    private static final byte[] ACCURACY = ascii(",\"accuracy\":");
+    private static final byte[] SPEED = ascii(",\"speed\":");
+    private static final byte[] BEARING = ascii(",\"bearing\":");
+    private static final byte[] END = ascii("}\n");
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L
+    };
+
+    private byte[] buffer;
+    private int length;
+
+    NdjsonEncoder(int capacity) {
+        buffer = new byte[Math.max(64, capacity)];
+    }
+
+    /**
+     * The start of a device's line, the opening brace and the escaped id field, to pass to
+     * {@link #fix}.
+     */
+    static byte[] idPrefix(String id) {
+        StringBuilder sb = new StringBuilder("{\"id\":\"");
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return ascii(sb.append('"').toString());
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Appends one line for a fix, stamped with {@code time} rather than the fix's track time.
+     */
+    void fix(byte[] idPrefix, long time, Fix fix) {
+        // the longest number is well under 24 bytes
+        ensure(idPrefix.length + 160);
+        append(idPrefix);
+        append(TIME);
+        integer(time);
+        append(LATITUDE);
+        decimal(fix.latitude, 7);
+        append(LONGITUDE);
+        decimal(fix.longitude, 7);
+        if (fix.hasAltitude()) {
+            append(ALTITUDE);
+            decimal(fix.altitude, 1);
+        }
+        append(ACCURACY);
+        decimal(fix.hasAccuracy() ? fix.accuracy : 0.0, 1);
+        append(SPEED);
+        decimal(fix.speed, 2);
+        append(BEARING);
+        decimal(fix.bearing, 1);
+        append(END);
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private void append(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void integer(long value) {
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        digits(value, 1);
+    }
+
+    /**
+     * Writes a fixed-point number rounded to the given number of decimals. Values that aren't
+     * finite have no JSON form and are written as 0.
+     */
+    private void decimal(double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            value = 0.0;
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) {
+            buffer[length++] = '-';
+        }
+        digits(scaled / scale, 1);
+        buffer[length++] = '.';
+        digits(scaled % scale, decimals);
+    }
+
+    // writes a non-negative number with at least minDigits digits, zero padded
+    private void digits(long value, int minDigits) {
+        int count = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            count++;
+        }
+        count = Math.max(count, minDigits);
+        for (int i = length + count - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += count;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,63 @@
+package com.location.philippweiher.test.fleet;
+
+import com.location.philippweiher.test.inject.FastRandom;
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.Trajectory;
+import com.location.philippweiher.test.utils.GeoMath;
+
+/**
+ * One simulated device. It drives its route in a loop, starting at its own point on the route,
+ * displaced by a fixed offset so devices on the same route don't stack up, with independent
+ * Gaussian noise on every fix. A route that doesn't end where it starts jumps back to the start
+ * when it loops.
+ */
+final class VirtualDevice {
+
+    final byte[] idPrefix;
+    final Fix fix = new Fix();
+
+    private final Trajectory route;
+    private final long routeStart;
+    private final long routeDuration;
+    private final long startOffset;
+    private final double northOffset;
+    private final double eastOffset;
+    private final double noise;
+    private final FastRandom random;
+
+    /**
+     * @param route a view of its own, see {@link Trajectory#share()}
+     * @param spread standard deviation of the fixed offset, in meters
+     * @param noise standard deviation of the error on each fix, in meters
+     */
+    VirtualDevice(String id, Trajectory route, double spread, double noise, long seed) {
+        idPrefix = NdjsonEncoder.idPrefix(id);
+        this.route = route;
+        routeStart = route.getStartTime();
+        routeDuration = route.getDuration();
+        this.noise = noise;
+        random = new FastRandom(seed);
+        startOffset = (long) (random.nextDouble() * routeDuration);
+        northOffset = random.nextGaussian() * spread;
+        eastOffset = random.nextGaussian() * spread;
+    }
+
+    /**
+     * Moves the device to where it is {@code elapsed} milliseconds into the simulation.
+     */
+    void update(long elapsed) {
+        long offset = routeDuration > 0 ? (startOffset + elapsed) % routeDuration : 0;
+        route.positionAt(routeStart + offset, fix);
+
+        double north = northOffset + random.nextGaussian() * noise;
+        double east = eastOffset + random.nextGaussian() * noise;
+        double latitude = fix.latitude + Math.toDegrees(north / GeoMath.EARTH_RADIUS_METERS);
+        fix.latitude = Math.max(-90.0, Math.min(90.0, latitude));
+        double cos = Math.max(1e-6, Math.cos(Math.toRadians(fix.latitude)));
+        fix.longitude = GeoMath.normalizeLongitude(
+                fix.longitude + Math.toDegrees(east / (GeoMath.EARTH_RADIUS_METERS * cos)));
+        if (!fix.hasAccuracy()) {
+            fix.accuracy = (float) Math.max(1.0, noise);
+        }
+    }
+}
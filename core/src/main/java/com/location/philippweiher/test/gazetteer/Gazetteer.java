@@ -0,0 +1,238 @@
+package com.location.philippweiher.test.gazetteer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.Normalizer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prefix search over place names, read straight from a memory-mapped index file written by
+ * {@link GazetteerBuilder}. A search is a binary search over the sorted keys followed by a scan
+ * of the keys sharing the prefix; only the places returned are copied onto the heap.
+ *
+ * <pre>
+ * header       32 bytes, see the OFFSET_ constants
+ * key index    keyCount x (int key offset, int place number), sorted by key bytes
+ * place table  placeCount x (int name offset, int latitude E7, int longitude E7)
+ * key pool     per key: unsigned short length, normalized UTF-8 bytes
+ * name pool    per place: unsigned short length, UTF-8 display name
+ * </pre>
+ *
+ * Every place is indexed under its whole normalized name and under each later word of it, so
+ * "mitte" finds "Berlin Mitte". All values are little endian.
+ */
+public class Gazetteer {
+
+    static final int MAGIC = 'M' | 'G' << 8 | 'A' << 16 | 'Z' << 24;
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int KEY_ENTRY_SIZE = 8;
+    static final int PLACE_ENTRY_SIZE = 12;
+
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_KEY_COUNT = 8;
+    static final int OFFSET_PLACE_COUNT = 12;
+    static final int OFFSET_PLACES = 16;
+    // opaque to the gazetteer; lets whoever built the file tell whether its sources changed
+    static final int OFFSET_SOURCE_STAMP = 24;
+
+    static final double DEGREES_SCALE = 1e7;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int keyCount;
+    private final int placeCount;
+    private final int placesOffset;
+    private final long sourceStamp;
+
+    private Gazetteer(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(OFFSET_MAGIC) != MAGIC) {
+            throw new IOException(file + " is not a gazetteer");
+        }
+        if (buffer.getInt(OFFSET_VERSION) != VERSION) {
+            throw new IOException(file + " has an unsupported version");
+        }
+        keyCount = buffer.getInt(OFFSET_KEY_COUNT);
+        placeCount = buffer.getInt(OFFSET_PLACE_COUNT);
+        placesOffset = buffer.getInt(OFFSET_PLACES);
+        sourceStamp = buffer.getLong(OFFSET_SOURCE_STAMP);
+        if (keyCount < 0 || placeCount < 0
+                || HEADER_SIZE + (long) keyCount * KEY_ENTRY_SIZE > placesOffset
+                || placesOffset + (long) placeCount * PLACE_ENTRY_SIZE > buffer.capacity()) {
+            throw new IOException(file + " is truncated");
+        }
+    }
+
+    public static Gazetteer open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            // the mapping stays valid after the file is closed
+            return new Gazetteer(file, mapped);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getPlaceCount() {
+        return placeCount;
+    }
+
+    public long getSourceStamp() {
+        return sourceStamp;
+    }
+
+    /**
+     * Lower case, accents stripped, punctuation turned into spaces, whitespace collapsed. Keys
+     * are stored in this form and queries are brought into it before searching.
+     */
+    public static String normalize(String name) {
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean space = true;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        int length = sb.length();
+        if (length > 0 && sb.charAt(length - 1) == ' ') {
+            sb.setLength(length - 1);
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds up to {@code max} places whose name, or a word in it, starts with {@code prefix}.
+     * Places whose key matches the prefix exactly come first; a place is listed only once.
+     *
+     * @return the number of places added
+     */
+    public int search(String prefix, int max, List<Place> out) {
+        byte[] key = utf8(normalize(prefix));
+        if (key.length == 0 || max <= 0) {
+            return 0;
+        }
+        int[] seen = new int[max];
+        int found = 0;
+        for (int i = lowerBound(key); i < keyCount && found < max; i++) {
+            int keyOffset = buffer.getInt(HEADER_SIZE + i * KEY_ENTRY_SIZE);
+            if (!startsWith(keyOffset, key)) {
+                break;
+            }
+            int place = buffer.getInt(HEADER_SIZE + i * KEY_ENTRY_SIZE + 4);
+            if (contains(seen, found, place)) {
+                continue;
+            }
+            seen[found++] = place;
+            out.add(place(place));
+        }
+        return found;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Place place(int index) {
+        int entry = placesOffset + index * PLACE_ENTRY_SIZE;
+        int nameOffset = buffer.getInt(entry);
+        int latitude = buffer.getInt(entry + 4);
+        int longitude = buffer.getInt(entry + 8);
+        return new Place(string(nameOffset), latitude / DEGREES_SCALE, longitude / DEGREES_SCALE);
+    }
+
+    /*
+     * First key that is not less than the given bytes.
+     */
+    private int lowerBound(byte[] key) {
+        int low = 0;
+        int high = keyCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(buffer.getInt(HEADER_SIZE + mid * KEY_ENTRY_SIZE), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int keyOffset, byte[] key) {
+        int length = buffer.getShort(keyOffset) & 0xFFFF;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int a = buffer.get(keyOffset + 2 + i) & 0xFF;
+            int b = key[i] & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - key.length;
+    }
+
+    private boolean startsWith(int keyOffset, byte[] prefix) {
+        int length = buffer.getShort(keyOffset) & 0xFFFF;
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(keyOffset + 2 + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(int offset) {
+        int length = buffer.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.location.philippweiher.test.gazetteer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects places and writes them as a {@link Gazetteer} index file.
+ */
+public class GazetteerBuilder {
+
+    // longest name that fits the unsigned short length prefix, with room for multi-byte chars
+    private static final int MAX_NAME_LENGTH = 4096;
+    // words after the first under which a place is indexed as well
+    private static final int MAX_WORD_KEYS = 4;
+
+    private final List<String> names = new ArrayList<String>();
+    private final List<int[]> positions = new ArrayList<int[]>();
+    private final List<Key> keys = new ArrayList<Key>();
+    private final Set<String> unique = new HashSet<String>();
+
+    private static final class Key {
+        final byte[] bytes;
+        final int place;
+
+        Key(byte[] bytes, int place) {
+            this.bytes = bytes;
+            this.place = place;
+        }
+    }
+
+    private static final Comparator<Key> KEY_ORDER = new Comparator<Key>() {
+        @Override
+        public int compare(Key a, Key b) {
+            int n = Math.min(a.bytes.length, b.bytes.length);
+            for (int i = 0; i < n; i++) {
+                int d = (a.bytes[i] & 0xFF) - (b.bytes[i] & 0xFF);
+                if (d != 0) {
+                    return d;
+                }
+            }
+            int d = a.bytes.length - b.bytes.length;
+            return d != 0 ? d : a.place - b.place;
+        }
+    };
+
+    public int getPlaceCount() {
+        return names.size();
+    }
+
+    /**
+     * Adds a place. Blank names, positions outside the valid range and exact duplicates are
+     * ignored.
+     *
+     * @return whether the place was added
+     */
+    public boolean add(String name, double latitude, double longitude) {
+        if (name == null || Double.isNaN(latitude) || Double.isNaN(longitude)
+                || Math.abs(latitude) > 90.0 || Math.abs(longitude) > 180.0) {
+            return false;
+        }
+        name = name.trim();
+        if (name.length() > MAX_NAME_LENGTH) {
+            name = name.substring(0, MAX_NAME_LENGTH);
+        }
+        String normalized = Gazetteer.normalize(name);
+        if (normalized.isEmpty()) {
+            return false;
+        }
+        int lat = (int) Math.round(latitude * Gazetteer.DEGREES_SCALE);
+        int lng = (int) Math.round(longitude * Gazetteer.DEGREES_SCALE);
+        if (!unique.add(normalized + '|' + lat + '|' + lng)) {
+            return false;
+        }
+
+        int place = names.size();
+        names.add(name);
+        positions.add(new int[]{lat, lng});
+        keys.add(new Key(Gazetteer.utf8(normalized), place));
+        int words = 0;
+        for (int i = normalized.indexOf(' '); i >= 0 && words < MAX_WORD_KEYS;
+             i = normalized.indexOf(' ', i + 1)) {
+            keys.add(new Key(Gazetteer.utf8(normalized.substring(i + 1)), place));
+            words++;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a tab separated place list: either "name, latitude, longitude" lines or a GeoNames
+     * dump (id, name, ascii name, alternate names, latitude, longitude, ...). Lines starting with
+     * '#' and lines that don't parse are skipped.
+     *
+     * @return the number of places added
+     */
+    public int addPlaceList(Reader input) throws IOException {
+        BufferedReader reader = new BufferedReader(input);
+        int added = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            String[] fields = line.split("\t", 7);
+            try {
+                if (fields.length >= 6) {
+                    if (add(fields[1], Double.parseDouble(fields[4]), Double.parseDouble(fields[5]))) {
+                        added++;
+                    }
+                } else if (fields.length >= 3) {
+                    if (add(fields[0], Double.parseDouble(fields[1]), Double.parseDouble(fields[2]))) {
+                        added++;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // header or broken line
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Writes the index. The file is written under a temporary name and renamed, so a reader
+     * never maps a half written index.
+     *
+     * @param sourceStamp stored in the header for {@link Gazetteer#getSourceStamp()}
+     */
+    public void write(File output, long sourceStamp) throws IOException {
+        Key[] sorted = keys.toArray(new Key[keys.size()]);
+        Arrays.sort(sorted, KEY_ORDER);
+        byte[][] nameBytes = new byte[names.size()][];
+        for (int i = 0; i < nameBytes.length; i++) {
+            nameBytes[i] = Gazetteer.utf8(names.get(i));
+            if (nameBytes[i].length > 0xFFFF) {
+                nameBytes[i] = Arrays.copyOf(nameBytes[i], 0xFFFF);
+            }
+        }
+
+        long keyIndex = Gazetteer.HEADER_SIZE;
+        long placeTable = keyIndex + (long) sorted.length * Gazetteer.KEY_ENTRY_SIZE;
+        long keyPool = placeTable + (long) nameBytes.length * Gazetteer.PLACE_ENTRY_SIZE;
+        long namePool = keyPool;
+        for (Key key : sorted) {
+            namePool += 2 + key.bytes.length;
+        }
+        long end = namePool;
+        for (byte[] name : nameBytes) {
+            end += 2 + name.length;
+        }
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("gazetteer too large: " + end + " bytes");
+        }
+
+        File temp = new File(output.getPath() + ".tmp");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024);
+        try {
+            writeInt(out, Gazetteer.MAGIC);
+            writeInt(out, Gazetteer.VERSION);
+            writeInt(out, sorted.length);
+            writeInt(out, nameBytes.length);
+            writeInt(out, (int) placeTable);
+            writeInt(out, 0);
+            writeInt(out, (int) sourceStamp);
+            writeInt(out, (int) (sourceStamp >>> 32));
+
+            int offset = (int) keyPool;
+            for (Key key : sorted) {
+                writeInt(out, offset);
+                writeInt(out, key.place);
+                offset += 2 + key.bytes.length;
+            }
+            offset = (int) namePool;
+            for (int i = 0; i < nameBytes.length; i++) {
+                int[] position = positions.get(i);
+                writeInt(out, offset);
+                writeInt(out, position[0]);
+                writeInt(out, position[1]);
+                offset += 2 + nameBytes[i].length;
+            }
+            for (Key key : sorted) {
+                writeShort(out, key.bytes.length);
+                out.write(key.bytes);
+            }
+            for (byte[] name : nameBytes) {
+                writeShort(out, name.length);
+                out.write(name);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(output)) {
+            temp.delete();
+            throw new IOException("Can't rename " + temp + " to " + output);
+        }
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+    }
+}
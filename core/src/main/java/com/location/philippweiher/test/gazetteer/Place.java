@@ -0,0 +1,22 @@
+package com.location.philippweiher.test.gazetteer;
+
+/**
+ * A named position found in the gazetteer.
+ */
+public class Place {
+
+    public final String name;
+    public final double latitude;
+    public final double longitude;
+
+    public Place(String name, double latitude, double longitude) {
+        this.name = name;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + latitude + ", " + longitude + ")";
+    }
+}
@@ -0,0 +1,62 @@
+package com.location.philippweiher.test.inject;
+
+/**
+ * Small xorshift64* generator for noise on the injection path. Unlike java.util.Random it has no
+ * synchronization and no per-call allocation, and a given seed always yields the same sequence.
+ * Not thread safe; every user keeps its own instance.
+ */
+public class FastRandom {
+
+    private long state;
+
+    // second Gaussian of the last Box-Muller pair
+    private double spareGaussian;
+    private boolean hasSpare;
+
+    public FastRandom(long seed) {
+        setSeed(seed);
+    }
+
+    public void setSeed(long seed) {
+        // splitmix64 step so that small or similar seeds still give unrelated sequences
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        state = (z ^ (z >>> 31)) | 1L;
+        hasSpare = false;
+    }
+
+    public long nextLong() {
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+        return state * 0x2545F4914F6CDD1DL;
+    }
+
+    /**
+     * Uniform in [0, 1).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Standard normal, using the Box-Muller transform.
+     */
+    public double nextGaussian() {
+        if (hasSpare) {
+            hasSpare = false;
+            return spareGaussian;
+        }
+        double u1;
+        do {
+            u1 = nextDouble();
+        } while (u1 == 0.0);
+        double u2 = nextDouble();
+        double radius = Math.sqrt(-2.0 * Math.log(u1));
+        double angle = 2.0 * Math.PI * u2;
+        spareGaussian = radius * Math.sin(angle);
+        hasSpare = true;
+        return radius * Math.cos(angle);
+    }
+}
@@ -0,0 +1,237 @@
+package com.location.philippweiher.test.inject;
+
+import com.location.philippweiher.test.track.Fix;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue of fixes between exactly one producer thread and one consumer thread.
+ * Slots are preallocated parallel primitive arrays, so neither side allocates or boxes.
+ *
+ * The producer publishes a slot by advancing {@code tail}. The consumer claims a slot by moving
+ * {@code head} past it with a CAS after copying it out; with {@link OverflowPolicy#DROP_OLDEST}
+ * the producer may move {@code head} first to overwrite the oldest slot, in which case the
+ * consumer's CAS fails and it discards what it copied and moves on to the next slot.
+ */
+public class FixRingBuffer {
+
+    /**
+     * What the producer does when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        // overwrite the oldest fix that hasn't been consumed
+        DROP_OLDEST,
+        // reject the fix being offered
+        DROP_NEWEST,
+        // wait until the consumer makes room
+        BLOCK
+    }
+
+    // how long a blocked producer sleeps between looks at the consumer
+    private static final long BLOCK_PARK_NANOS = 50 * 1000;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] times;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] altitudes;
+    private final float[] accuracies;
+
+    // next slot to consume
+    private final AtomicLong head = new AtomicLong();
+    // next slot to fill; only the producer writes it
+    private final AtomicLong tail = new AtomicLong();
+
+    // producer side
+    private long headCache;
+    private volatile long acceptedTotal;
+    private volatile long rejectedTotal;
+    private volatile long overwrittenTotal;
+
+    // consumer side
+    private long tailCache;
+    private volatile long consumedTotal;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public FixRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("bad capacity: " + capacity);
+        }
+        int rounded = Integer.highestOneBit(capacity);
+        this.capacity = rounded < capacity ? rounded << 1 : rounded;
+        this.mask = this.capacity - 1;
+        times = new long[this.capacity];
+        latitudes = new double[this.capacity];
+        longitudes = new double[this.capacity];
+        altitudes = new double[this.capacity];
+        accuracies = new float[this.capacity];
+    }
+
+    /**
+     * Producer only. Adds one fix.
+     *
+     * @return false if the fix was rejected: the buffer was full under
+     *         {@link OverflowPolicy#DROP_NEWEST}, or the thread was interrupted while blocked
+     */
+    public boolean offer(long time, double latitude, double longitude, double altitude,
+                         float accuracy, OverflowPolicy policy) {
+        long t = tail.get();
+        if (t - headCache >= capacity) {
+            headCache = head.get();
+            if (t - headCache >= capacity && !makeRoom(t, policy)) {
+                rejectedTotal++;
+                return false;
+            }
+        }
+        int slot = (int) t & mask;
+        times[slot] = time;
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        altitudes[slot] = altitude;
+        accuracies[slot] = accuracy;
+        // publish; an ordered store is enough, the consumer reads tail before the slot
+        tail.lazySet(t + 1);
+        acceptedTotal++;
+        return true;
+    }
+
+    /**
+     * Producer only. Adds a batch from parallel arrays, stopping at the first rejected fix.
+     * Optional arrays may be null or shorter than the batch; missing values are 0 for times and
+     * NaN otherwise.
+     *
+     * @return the number of fixes added, from the start of the batch
+     */
+    public int offer(long[] batchTimes, double[] batchLatitudes, double[] batchLongitudes,
+                     double[] batchAltitudes, float[] batchAccuracies, OverflowPolicy policy) {
+        int count = Math.min(batchLatitudes.length, batchLongitudes.length);
+        for (int i = 0; i < count; i++) {
+            boolean added = offer(
+                    batchTimes != null && i < batchTimes.length ? batchTimes[i] : 0,
+                    batchLatitudes[i], batchLongitudes[i],
+                    batchAltitudes != null && i < batchAltitudes.length ? batchAltitudes[i] : Double.NaN,
+                    batchAccuracies != null && i < batchAccuracies.length ? batchAccuracies[i] : Float.NaN,
+                    policy);
+            if (!added) {
+                // the rejected fix is already counted
+                rejectedTotal += count - i - 1;
+                return i;
+            }
+        }
+        return count;
+    }
+
+    private boolean makeRoom(long t, OverflowPolicy policy) {
+        switch (policy) {
+            case DROP_OLDEST:
+                while (true) {
+                    long h = head.get();
+                    if (t - h < capacity) {
+                        headCache = h;
+                        return true;
+                    }
+                    if (head.compareAndSet(h, h + 1)) {
+                        overwrittenTotal++;
+                        headCache = h + 1;
+                        return true;
+                    }
+                }
+            case BLOCK:
+                while (true) {
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    if (Thread.currentThread().isInterrupted()) {
+                        return false;
+                    }
+                    long h = head.get();
+                    if (t - h < capacity) {
+                        headCache = h;
+                        return true;
+                    }
+                }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Consumer only. Moves the oldest fix into {@code out}; speed and bearing are cleared.
+     *
+     * @return false if the buffer is empty
+     */
+    public boolean poll(Fix out) {
+        while (true) {
+            long h = head.get();
+            if (h >= tailCache) {
+                tailCache = tail.get();
+                if (h >= tailCache) {
+                    return false;
+                }
+            }
+            int slot = (int) h & mask;
+            long time = times[slot];
+            double latitude = latitudes[slot];
+            double longitude = longitudes[slot];
+            double altitude = altitudes[slot];
+            float accuracy = accuracies[slot];
+            if (!head.compareAndSet(h, h + 1)) {
+                // the producer overwrote this slot while it was being read
+                continue;
+            }
+            out.time = time;
+            out.latitude = latitude;
+            out.longitude = longitude;
+            out.altitude = altitude;
+            out.accuracy = accuracy;
+            out.speed = 0;
+            out.bearing = 0;
+            consumedTotal++;
+            return true;
+        }
+    }
+
+    /**
+     * Producer only. Discards everything that hasn't been consumed.
+     */
+    public void clear() {
+        long t = tail.get();
+        while (true) {
+            long h = head.get();
+            if (h >= t || head.compareAndSet(h, t)) {
+                headCache = t;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Number of fixes waiting; exact only when neither side is busy.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, capacity);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long getAcceptedTotal() {
+        return acceptedTotal;
+    }
+
+    public long getRejectedTotal() {
+        return rejectedTotal;
+    }
+
+    public long getOverwrittenTotal() {
+        return overwrittenTotal;
+    }
+
+    public long getConsumedTotal() {
+        return consumedTotal;
+    }
+}
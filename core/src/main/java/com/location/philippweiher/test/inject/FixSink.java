@@ -0,0 +1,20 @@
+package com.location.philippweiher.test.inject;
+
+import com.location.philippweiher.test.track.Fix;
+
+/**
+ * Where generated fixes go. On a device that is the mock location providers; in benchmarks and
+ * simulations anything that consumes positions.
+ */
+public interface FixSink {
+
+    /**
+     * Consumes one fix. The fix is reused by the caller, so it must not be kept.
+     *
+     * @param elapsedRealtimeNanos timestamp on the monotonic clock including deep sleep
+     * @param time                 wall clock time in milliseconds
+     * @param deadlineNanos        when the fix was due on the {@link System#nanoTime()} clock; 0 if
+     *                             it had no deadline
+     */
+    void inject(Fix fix, long elapsedRealtimeNanos, long time, long deadlineNanos);
+}
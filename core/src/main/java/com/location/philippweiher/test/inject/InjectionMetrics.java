@@ -0,0 +1,174 @@
+package com.location.philippweiher.test.inject;
+
+import java.io.PrintWriter;
+
+/**
+ * How well the injector keeps its schedule. Per provider: how long after the tick's deadline its
+ * mock location was handed over, and how long that call took. Per tick: how long the handler
+ * ran, plus counts of ticks that ran late or were skipped. For pushed fixes: the push queue depth
+ * at every drain. Times are in microseconds; everything is kept in fixed-size histograms, so
+ * recording allocates nothing.
+ */
+public class InjectionMetrics {
+
+    // keys of a snapshot Bundle; histograms are long[] {count, p50, p90, p99, max}
+    public static final String KEY_TICKS = "ticks";
+    public static final String KEY_LATE_TICKS = "lateTicks";
+    public static final String KEY_DROPPED_TICKS = "droppedTicks";
+    public static final String KEY_HANDLER_TIME = "handlerTime";
+    public static final String KEY_QUEUE_DEPTH = "queueDepth";
+    public static final String KEY_PROVIDERS = "providers";
+    // followed by the provider name
+    public static final String KEY_DELAY_PREFIX = "delay.";
+    public static final String KEY_CALL_TIME_PREFIX = "callTime.";
+
+    public static class ProviderMetrics {
+
+        private final String name;
+        // from the tick's deadline to the call that injected into this provider
+        private final LogLinearHistogram delay = new LogLinearHistogram();
+        // duration of that call
+        private final LogLinearHistogram callTime = new LogLinearHistogram();
+
+        ProviderMetrics(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LogLinearHistogram getDelay() {
+            return delay;
+        }
+
+        public LogLinearHistogram getCallTime() {
+            return callTime;
+        }
+    }
+
+    private final LogLinearHistogram handlerTime = new LogLinearHistogram();
+    private final LogLinearHistogram queueDepth = new LogLinearHistogram();
+
+    // replaced as a whole when the providers change, read by other threads
+    private volatile ProviderMetrics[] providers = new ProviderMetrics[0];
+
+    // guarded by this
+    private long ticks;
+    private long lateTicks;
+    private long droppedTicks;
+
+    /**
+     * Sets the providers recorded by index; metrics of providers that stay are kept.
+     */
+    public void setProviders(String[] names) {
+        ProviderMetrics[] old = providers;
+        ProviderMetrics[] updated = new ProviderMetrics[names.length];
+        for (int i = 0; i < names.length; i++) {
+            for (ProviderMetrics metrics : old) {
+                if (metrics.name.equals(names[i])) {
+                    updated[i] = metrics;
+                    break;
+                }
+            }
+            if (updated[i] == null) {
+                updated[i] = new ProviderMetrics(names[i]);
+            }
+        }
+        providers = updated;
+    }
+
+    public ProviderMetrics[] getProviders() {
+        return providers;
+    }
+
+    /**
+     * @param delayMicros time from the deadline to the call, negative if there was no deadline
+     */
+    public void recordProvider(int index, long delayMicros, long callMicros) {
+        ProviderMetrics[] current = providers;
+        if (index >= current.length) {
+            return;
+        }
+        if (delayMicros >= 0) {
+            current[index].delay.record(delayMicros);
+        }
+        current[index].callTime.record(callMicros);
+    }
+
+    public void recordTick(long handlerMicros, boolean late, long skipped) {
+        handlerTime.record(handlerMicros);
+        synchronized (this) {
+            ticks++;
+            if (late) {
+                lateTicks++;
+            }
+            droppedTicks += skipped;
+        }
+    }
+
+    public void recordQueueDepth(int depth) {
+        queueDepth.record(depth);
+    }
+
+    public LogLinearHistogram getHandlerTime() {
+        return handlerTime;
+    }
+
+    public LogLinearHistogram getQueueDepth() {
+        return queueDepth;
+    }
+
+    public synchronized long getTicks() {
+        return ticks;
+    }
+
+    public synchronized long getLateTicks() {
+        return lateTicks;
+    }
+
+    public synchronized long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    public void reset() {
+        handlerTime.reset();
+        queueDepth.reset();
+        for (ProviderMetrics metrics : providers) {
+            metrics.delay.reset();
+            metrics.callTime.reset();
+        }
+        synchronized (this) {
+            ticks = 0;
+            lateTicks = 0;
+            droppedTicks = 0;
+        }
+    }
+
+    /**
+     * The summary stored for a histogram in a snapshot.
+     */
+    public static long[] summarize(LogLinearHistogram histogram) {
+        synchronized (histogram) {
+            return new long[] {
+                    histogram.getCount(),
+                    histogram.getPercentile(0.5),
+                    histogram.getPercentile(0.9),
+                    histogram.getPercentile(0.99),
+                    histogram.getMax()
+            };
+        }
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("ticks: " + getTicks() + " late: " + getLateTicks()
+                + " dropped: " + getDroppedTicks());
+        writer.println("handler time (us): " + handlerTime);
+        writer.println("push queue depth: " + queueDepth);
+        for (ProviderMetrics metrics : providers) {
+            writer.println("provider " + metrics.name + ":");
+            writer.println("  delay after deadline (us): " + metrics.delay);
+            writer.println("  injection call (us): " + metrics.callTime);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.location.philippweiher.test.inject;
+
+/**
+ * Histogram of non-negative long values in a fixed array of log-linear buckets: values below
+ * {@link #SUB_BUCKETS} get a bucket each, every power of two above that is split into
+ * {@link #SUB_BUCKETS} equal buckets, so any recorded value is known to within 1/8 of itself.
+ * Recording never allocates; values above {@link #MAX_VALUE} (about 25 days in microseconds) are
+ * recorded as {@link #MAX_VALUE}.
+ *
+ * Methods are synchronized so the injection thread can record while another thread reads.
+ */
+public class LogLinearHistogram {
+
+    private static final int SUB_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    // largest power of two with its own buckets
+    private static final int MAX_MAGNITUDE = 40;
+    public static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        if (value > MAX_VALUE) {
+            return BUCKET_COUNT - 1;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Smallest value that falls into the bucket.
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << shift;
+    }
+
+    /**
+     * Largest value that falls into the bucket.
+     */
+    static long upperBound(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+
+    /**
+     * Records a value; negative values count as 0.
+     */
+    public synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * The value below which the given fraction of the recorded values lie, as the upper end of
+     * the bucket it falls into (but no more than the largest value recorded).
+     *
+     * @param fraction between 0 and 1, 0.99 for the 99th percentile
+     */
+    public synchronized long getPercentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * One line: count, mean, percentiles and extremes.
+     */
+    @Override
+    public synchronized String toString() {
+        if (count == 0) {
+            return "n=0";
+        }
+        return "n=" + count
+                + " mean=" + Math.round(getMean())
+                + " p50=" + getPercentile(0.5)
+                + " p90=" + getPercentile(0.9)
+                + " p99=" + getPercentile(0.99)
+                + " min=" + getMin()
+                + " max=" + getMax();
+    }
+}
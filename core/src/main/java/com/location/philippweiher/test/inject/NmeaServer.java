@@ -0,0 +1,392 @@
+package com.location.philippweiher.test.inject;
+
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.NmeaSentences;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams every injected fix as {@code $GPRMC}/{@code $GPGGA} sentences to any number of TCP
+ * clients, for tools that read NMEA from a socket rather than from a location provider.
+ *
+ * The injecting thread encodes each fix once, into the next slot of a ring of preallocated
+ * buffers, and publishes it; that is all a tick pays, however many clients are connected. One
+ * selector thread does the networking. Every client has its own position in the ring and a
+ * ByteBuffer view on each slot, so it is sent the slots it hasn't seen yet in one gathering
+ * write, without copying. A client that falls more than {@link #MAX_CLIENT_BACKLOG} fixes behind
+ * skips ahead to the newest ones, or is disconnected if it is stuck in the middle of a sentence,
+ * so a slow client never holds up the others or the injection.
+ *
+ * {@link #inject} must only be called from one thread at a time.
+ */
+public class NmeaServer implements FixSink, Runnable {
+
+    // the port registered for NMEA 0183 over TCP
+    public static final int DEFAULT_PORT = 10110;
+
+    // clients beyond this are disconnected right after they connect
+    public static final int MAX_CLIENTS = 64;
+
+    private static final int SLOTS = 256;
+    private static final int MASK = SLOTS - 1;
+    // fixes a client may lag behind before it loses the oldest ones
+    public static final int MAX_CLIENT_BACKLOG = SLOTS / 2;
+    // slots handed to one gathering write
+    private static final int MAX_GATHER = 16;
+
+    private final InetSocketAddress address;
+    private final byte[][] slots = new byte[SLOTS][NmeaSentences.MAX_LENGTH];
+    private final int[] lengths = new int[SLOTS];
+
+    // sequence number of the next fix; only the injecting thread writes it
+    private final AtomicLong published = new AtomicLong();
+    // oldest slot a client still needs, published by the selector thread
+    private final AtomicLong oldestNeeded = new AtomicLong();
+    // set while a selector wakeup is on its way, so a burst of fixes wakes it once
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    private Selector selector;
+    // wakes the selector thread up; Selector.wakeup() allocates on Android, this doesn't
+    private Pipe wakeupPipe;
+    private final ByteBuffer wakeupByte = ByteBuffer.allocate(1);
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean closed;
+    private volatile int clientCount;
+    private volatile IOException failure;
+
+    // selector thread only
+    private final List<Client> clients = new ArrayList<Client>();
+    private final ByteBuffer discard = ByteBuffer.allocate(512);
+
+    private volatile long droppedTotal;
+    private volatile long skippedTotal;
+    private volatile long disconnectedTotal;
+
+    public NmeaServer(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Binds the port and starts the selector thread.
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("already started");
+        }
+        selector = Selector.open();
+        try {
+            wakeupPipe = Pipe.open();
+            wakeupPipe.sink().configureBlocking(false);
+            wakeupPipe.source().configureBlocking(false);
+            wakeupPipe.source().register(selector, SelectionKey.OP_READ);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            if (wakeupPipe != null) {
+                wakeupPipe.sink().close();
+                wakeupPipe.source().close();
+            }
+            selector.close();
+            throw e;
+        }
+        thread = new Thread(this, "NmeaServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The port that was bound, which differs from the requested one if that was 0.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    /**
+     * Fixes not published because the selector thread fell a whole ring behind.
+     */
+    public long getDroppedTotal() {
+        return droppedTotal;
+    }
+
+    /**
+     * Fixes slow clients skipped to catch up.
+     */
+    public long getSkippedTotal() {
+        return skippedTotal;
+    }
+
+    public long getDisconnectedTotal() {
+        return disconnectedTotal;
+    }
+
+    /**
+     * Why the selector thread stopped, or null while it runs or after a normal close.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Publishes a fix to every client, stamped with {@code time}. Doesn't block and allocates
+     * nothing; without clients it returns right away.
+     */
+    @Override
+    public void inject(Fix fix, long elapsedRealtimeNanos, long time, long deadlineNanos) {
+        if (clientCount == 0 || closed) {
+            return;
+        }
+        long sequence = published.get();
+        if (sequence - oldestNeeded.get() >= SLOTS) {
+            droppedTotal++;
+            return;
+        }
+        int slot = (int) sequence & MASK;
+        lengths[slot] = NmeaSentences.encode(fix, time, slots[slot], 0);
+        // publish; the selector thread reads the sequence before the slot
+        published.lazySet(sequence + 1);
+        if (wakeupPending.compareAndSet(false, true)) {
+            wakeUp();
+        }
+    }
+
+    private void wakeUp() {
+        wakeupByte.clear();
+        try {
+            // a full pipe has a wakeup waiting already
+            wakeupPipe.sink().write(wakeupByte);
+        } catch (IOException e) {
+            // the selector thread has stopped, there is nothing to wake
+        }
+    }
+
+    /**
+     * Disconnects all clients, releases the port and ends the selector thread.
+     */
+    public synchronized void close() {
+        if (closed || thread == null) {
+            closed = true;
+            return;
+        }
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                drainWakeups();
+                // cleared after the pipe is drained and before reading the sequence, so a fix
+                // published after that wakes us again
+                wakeupPending.set(false);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    // the wakeup pipe is drained above
+                    if (!key.isValid() || key.channel() == wakeupPipe.source()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read((Client) key.attachment());
+                    }
+                }
+
+                long head = published.get();
+                long oldest = head;
+                for (int i = clients.size() - 1; i >= 0; i--) {
+                    Client client = clients.get(i);
+                    if (pump(client, head)) {
+                        oldest = Math.min(oldest, client.position);
+                    } else {
+                        disconnect(i);
+                    }
+                }
+                oldestNeeded.lazySet(oldest);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                disconnect(i);
+            }
+            try {
+                serverChannel.close();
+                wakeupPipe.sink().close();
+                wakeupPipe.source().close();
+                selector.close();
+            } catch (IOException e) {
+                // nothing left to do with them
+            }
+            closed = true;
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        if (clients.size() >= MAX_CLIENTS) {
+            channel.close();
+            return;
+        }
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel, published.get());
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+            clients.add(client);
+            clientCount = clients.size();
+        } catch (IOException e) {
+            channel.close();
+        }
+    }
+
+    private void drainWakeups() throws IOException {
+        int read;
+        do {
+            discard.clear();
+            read = wakeupPipe.source().read(discard);
+        } while (read > 0);
+    }
+
+    /*
+     * Clients have nothing to say; whatever they send is thrown away. End of stream or an error
+     * closes the channel, which the next pump notices.
+     */
+    private void read(Client client) {
+        try {
+            int read;
+            do {
+                discard.clear();
+                read = client.channel.read(discard);
+            } while (read > 0);
+            if (read < 0) {
+                client.channel.close();
+            }
+        } catch (IOException e) {
+            closeQuietly(client);
+        }
+    }
+
+    /*
+     * Sends a client what it hasn't seen yet, as far as its socket takes it, and asks for
+     * OP_WRITE if something is left over.
+     *
+     * Returns false if the client should be disconnected.
+     */
+    private boolean pump(Client client, long head) {
+        if (!client.channel.isOpen()) {
+            return false;
+        }
+        long backlog = head - client.position;
+        if (backlog > MAX_CLIENT_BACKLOG) {
+            if (client.offset > 0) {
+                // skipping now would cut a sentence in half
+                return false;
+            }
+            skippedTotal += backlog - MAX_CLIENT_BACKLOG;
+            client.position = head - MAX_CLIENT_BACKLOG;
+        }
+
+        int count = (int) Math.min(head - client.position, MAX_GATHER);
+        if (count > 0) {
+            for (int i = 0; i < count; i++) {
+                int slot = (int) (client.position + i) & MASK;
+                ByteBuffer view = client.views[slot];
+                view.limit(lengths[slot]);
+                view.position(i == 0 ? client.offset : 0);
+                client.gather[i] = view;
+            }
+            try {
+                client.channel.write(client.gather, 0, count);
+            } catch (IOException e) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (client.gather[i].hasRemaining()) {
+                    client.offset = client.gather[i].position();
+                    break;
+                }
+                client.position++;
+                client.offset = 0;
+            }
+        }
+
+        int interest = client.position < head
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (client.key.interestOps() != interest) {
+            client.key.interestOps(interest);
+        }
+        return true;
+    }
+
+    private void disconnect(int index) {
+        Client client = clients.remove(index);
+        closeQuietly(client);
+        clientCount = clients.size();
+        disconnectedTotal++;
+    }
+
+    private static void closeQuietly(Client client) {
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    private final class Client {
+
+        final SocketChannel channel;
+        // views on the shared slots with this client's own position and limit
+        final ByteBuffer[] views = new ByteBuffer[SLOTS];
+        final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        SelectionKey key;
+        // sequence of the next fix to send, and how much of it went out already
+        long position;
+        int offset;
+
+        Client(SocketChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+            for (int i = 0; i < SLOTS; i++) {
+                views[i] = ByteBuffer.wrap(slots[i]);
+            }
+        }
+    }
+}
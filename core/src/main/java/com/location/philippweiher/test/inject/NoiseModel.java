@@ -0,0 +1,156 @@
+package com.location.philippweiher.test.inject;
+
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.utils.GeoMath;
+
+/**
+ * Adds the error described by a {@link NoiseProfile} to the fixes of one provider. Keeps the
+ * state that makes the error realistic from one fix to the next:
+ *
+ * <ul>
+ * <li>a first-order Gauss-Markov walk per axis, {@code e = a * e + sqrt(1 - a^2) * sigma * w}
+ * with {@code a = exp(-dt / correlationTime)}, so the error drifts instead of jumping;</li>
+ * <li>multipath episodes that start and end at random, each with an offset of its own that the
+ * position moves towards and, once it is over, away from again;</li>
+ * <li>a reported accuracy that grows with the size of the error.</li>
+ * </ul>
+ *
+ * A step costs a few multiplications, table lookups and a square root. The walk coefficients
+ * are kept for the interval they were computed for and reused while the time between fixes
+ * stays within {@link #INTERVAL_TOLERANCE} of it, so the jitter of live timestamps doesn't cost
+ * an exp per fix; only a real change of the tick rate does. Nothing is allocated. A given seed and sequence of timestamps always
+ * yields the same errors. Not thread safe; every provider has its own model.
+ */
+public class NoiseModel {
+
+    // seconds a multipath offset takes to build up or fade away
+    private static final double CANYON_ONSET = 2.0;
+
+    // share of the interval by which the time between fixes may move before the walk
+    // coefficients are computed again; the correlation is off by at most that much, the walk's
+    // spread not at all
+    static final double INTERVAL_TOLERANCE = 1.0 / 64;
+
+    private final NoiseProfile profile;
+    private final FastRandom random;
+
+    private boolean started;
+    private long lastElapsedRealtimeNanos;
+
+    // random walk in meters north and east
+    private double north;
+    private double east;
+
+    // walk coefficients and the interval they were computed for
+    private double lastInterval = -1;
+    private double decay;
+    private double innovation;
+
+    // multipath episode and the offset it is moving towards
+    private boolean inCanyon;
+    private double canyonNorth;
+    private double canyonEast;
+    private double biasNorth;
+    private double biasEast;
+
+    public NoiseModel(NoiseProfile profile, long seed) {
+        this.profile = profile;
+        random = new FastRandom(seed);
+    }
+
+    public NoiseProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Starts over as if no fix had been seen, with the given seed.
+     */
+    public void reset(long seed) {
+        random.setSeed(seed);
+        started = false;
+        lastInterval = -1;
+        inCanyon = false;
+        biasNorth = 0;
+        biasEast = 0;
+    }
+
+    /**
+     * Current error in meters, north and east.
+     */
+    public double getNorthError() {
+        return north + biasNorth;
+    }
+
+    public double getEastError() {
+        return east + biasEast;
+    }
+
+    /**
+     * Moves the error on to the given time and adds it to the fix; sets the fix's accuracy if
+     * the profile has an accuracy model.
+     *
+     * @param latPerMeter degrees of latitude per meter
+     * @param lngPerMeter degrees of longitude per meter at the fix's latitude
+     */
+    public void apply(Fix fix, long elapsedRealtimeNanos, double latPerMeter, double lngPerMeter) {
+        if (profile.isNone()) {
+            return;
+        }
+        double sigma = profile.getSigma();
+        if (!started) {
+            // start somewhere in the walk's steady state rather than at zero error
+            started = true;
+            north = sigma * GaussianTable.draw(random);
+            east = sigma * GaussianTable.draw(random);
+            lastElapsedRealtimeNanos = elapsedRealtimeNanos;
+        } else {
+            double dt = Math.max(0, elapsedRealtimeNanos - lastElapsedRealtimeNanos) * 1e-9;
+            lastElapsedRealtimeNanos = elapsedRealtimeNanos;
+            step(sigma, dt);
+        }
+
+        double errorNorth = north + biasNorth;
+        double errorEast = east + biasEast;
+        fix.latitude = Math.max(-90.0, Math.min(90.0, fix.latitude + errorNorth * latPerMeter));
+        fix.longitude = GeoMath.normalizeLongitude(fix.longitude + errorEast * lngPerMeter);
+
+        if (profile.hasAccuracy()) {
+            double error = Math.sqrt(errorNorth * errorNorth + errorEast * errorEast);
+            double scatter = Math.max(0.0, 1.0 + profile.getAccuracyScatter() * GaussianTable.draw(random));
+            fix.accuracy = profile.getAccuracyFloor() + (float) (profile.getAccuracyScale() * error * scatter);
+        }
+    }
+
+    private void step(double sigma, double dt) {
+        float correlationTime = profile.getCorrelationTime();
+        if (correlationTime <= 0) {
+            north = sigma * GaussianTable.draw(random);
+            east = sigma * GaussianTable.draw(random);
+        } else if (dt > 0) {
+            if (Math.abs(dt - lastInterval) > lastInterval * INTERVAL_TOLERANCE) {
+                lastInterval = dt;
+                decay = Math.exp(-dt / correlationTime);
+                innovation = sigma * Math.sqrt(1.0 - decay * decay);
+            }
+            north = decay * north + innovation * GaussianTable.draw(random);
+            east = decay * east + innovation * GaussianTable.draw(random);
+        }
+
+        float canyonInterval = profile.getCanyonInterval();
+        if (canyonInterval > 0 && dt > 0) {
+            // per-step chance of a change, fine while ticks are much shorter than the episodes
+            if (inCanyon) {
+                inCanyon = random.nextDouble() >= dt / profile.getCanyonDuration();
+            } else if (random.nextDouble() < dt / canyonInterval) {
+                inCanyon = true;
+                double magnitude = profile.getCanyonBias() * (0.5 + random.nextDouble());
+                double angle = 2.0 * Math.PI * random.nextDouble();
+                canyonNorth = magnitude * Math.cos(angle);
+                canyonEast = magnitude * Math.sin(angle);
+            }
+            double k = Math.min(1.0, dt / CANYON_ONSET);
+            biasNorth += ((inCanyon ? canyonNorth : 0) - biasNorth) * k;
+            biasEast += ((inCanyon ? canyonEast : 0) - biasEast) * k;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.location.philippweiher.test.inject;
+
+/**
+ * Parameters of the error a {@link NoiseModel} adds to a provider's positions: a random walk
+ * that wanders off and comes back like the error of a real receiver, multipath episodes that
+ * pull the position off to one side for a while, and a reported accuracy that follows the actual
+ * error. The presets roughly match a phone under open sky, in a suburb and between high rises.
+ */
+public class NoiseProfile {
+
+    public static final String NONE = "none";
+    public static final String OPEN_SKY = "open_sky";
+    public static final String SUBURBAN = "suburban";
+    public static final String URBAN_CANYON = "urban_canyon";
+
+    // standard deviation of the random walk per axis in meters
+    private final float sigma;
+    // seconds after which the walk has forgotten most of where it was, 0 for white noise
+    private final float correlationTime;
+    // mean seconds between multipath episodes, 0 for none
+    private final float canyonInterval;
+    // mean seconds a multipath episode lasts
+    private final float canyonDuration;
+    // typical offset during an episode in meters
+    private final float canyonBias;
+    // reported accuracy: floor + scale * error, NaN to leave the accuracy alone
+    private final float accuracyFloor;
+    private final float accuracyScale;
+    // relative standard deviation of the reported accuracy around that
+    private final float accuracyScatter;
+
+    public NoiseProfile(float sigma, float correlationTime, float canyonInterval,
+                        float canyonDuration, float canyonBias, float accuracyFloor,
+                        float accuracyScale, float accuracyScatter) {
+        this.sigma = Math.max(0f, sigma);
+        this.correlationTime = Math.max(0f, correlationTime);
+        this.canyonInterval = Math.max(0f, canyonInterval);
+        this.canyonDuration = Math.max(0.1f, canyonDuration);
+        this.canyonBias = Math.max(0f, canyonBias);
+        this.accuracyFloor = accuracyFloor;
+        this.accuracyScale = Math.max(0f, accuracyScale);
+        this.accuracyScatter = Math.max(0f, accuracyScatter);
+    }
+
+    /**
+     * Independent Gaussian error on every fix and no say in the accuracy.
+     */
+    public static NoiseProfile white(float sigma) {
+        return new NoiseProfile(sigma, 0f, 0f, 0f, 0f, Float.NaN, 0f, 0f);
+    }
+
+    /**
+     * The named preset, or null for an unknown name.
+     */
+    public static NoiseProfile forName(String name) {
+        if (NONE.equals(name)) {
+            return white(0f);
+        } else if (OPEN_SKY.equals(name)) {
+            return new NoiseProfile(2.5f, 30f, 0f, 0f, 0f, 3f, 0.8f, 0.15f);
+        } else if (SUBURBAN.equals(name)) {
+            return new NoiseProfile(4f, 20f, 120f, 5f, 8f, 4f, 0.8f, 0.2f);
+        } else if (URBAN_CANYON.equals(name)) {
+            // receivers don't see their own multipath, so the accuracy claims less than the error
+            return new NoiseProfile(8f, 15f, 20f, 8f, 25f, 5f, 0.6f, 0.25f);
+        }
+        return null;
+    }
+
+    public float getSigma() {
+        return sigma;
+    }
+
+    public float getCorrelationTime() {
+        return correlationTime;
+    }
+
+    public float getCanyonInterval() {
+        return canyonInterval;
+    }
+
+    public float getCanyonDuration() {
+        return canyonDuration;
+    }
+
+    public float getCanyonBias() {
+        return canyonBias;
+    }
+
+    public float getAccuracyFloor() {
+        return accuracyFloor;
+    }
+
+    public float getAccuracyScale() {
+        return accuracyScale;
+    }
+
+    public float getAccuracyScatter() {
+        return accuracyScatter;
+    }
+
+    /**
+     * Whether the model reports an accuracy of its own.
+     */
+    public boolean hasAccuracy() {
+        return !Float.isNaN(accuracyFloor);
+    }
+
+    /**
+     * Whether the model leaves fixes exactly as they are.
+     */
+    public boolean isNone() {
+        return sigma == 0f && (canyonInterval == 0f || canyonBias == 0f) && !hasAccuracy();
+    }
+
+    @Override
+    public String toString() {
+        return "noise " + sigma + "m/" + correlationTime + "s"
+                + (canyonInterval > 0 ? ", multipath " + canyonBias + "m every " + canyonInterval + "s" : "")
+                + (hasAccuracy() ? ", accuracy " + accuracyFloor + "m+" + accuracyScale + "x" : "");
+    }
+}
@@ -0,0 +1,121 @@
+package com.location.philippweiher.test.inject;
+
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.PositionSource;
+
+/**
+ * Plays a {@link PositionSource} into a {@link FixSink} on the timeline of a
+ * {@link TickScheduler}: every tick looks up the position for the tick's deadline, hands it to
+ * the sink and returns the next deadline. Keeping time is up to the caller, which makes the loop
+ * the same on a device (driven by a Handler) and in a benchmark (driven by a plain loop).
+ *
+ * The scheduler's clock has to be {@link System#nanoTime()} in milliseconds, which is what
+ * {@code SystemClock.uptimeMillis()} is on Android; deadlines are passed on to the sink in
+ * nanoseconds on that clock. A tick allocates nothing.
+ *
+ * Playback can run faster or slower than the track was recorded. The ticks keep their real
+ * interval and each one jumps {@code speed} times as far along the track, so the number of fixes
+ * per second doesn't depend on the speed and a fast replay coalesces the points between ticks.
+ * Warped fixes are stamped on the warped timeline, starting from the clocks of the first tick.
+ * Stamps never go backwards, including across a switch from one playback to the next; a playback
+ * at normal speed that follows one which ran ahead of the live clocks stays on a timeline of its
+ * own too.
+ */
+public class Playback {
+
+    private final PositionSource source;
+    private final TickScheduler scheduler;
+    private final FixSink sink;
+    private final double speed;
+    private final Fix fix = new Fix();
+
+    // whether fixes are stamped on a timeline of their own rather than with the live clocks,
+    // decided by the first tick
+    private boolean started;
+    private boolean synthesized;
+    // clocks of that timeline at track elapsed zero
+    private long anchorElapsedRealtimeNanos;
+    private long anchorTime;
+
+    // stamps of the last fix sent
+    private long lastElapsedRealtimeNanos = Long.MIN_VALUE;
+    private long lastTime = Long.MIN_VALUE;
+
+    public Playback(PositionSource source, TickScheduler scheduler, FixSink sink) {
+        this(source, scheduler, sink, 1.0);
+    }
+
+    /**
+     * @param speed how much faster than recorded the track plays, e.g. 0.5 or 100
+     */
+    public Playback(PositionSource source, TickScheduler scheduler, FixSink sink, double speed) {
+        if (!(speed > 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("playback speed must be positive: " + speed);
+        }
+        this.source = source;
+        this.scheduler = scheduler;
+        this.sink = sink;
+        this.speed = speed;
+    }
+
+    /**
+     * Takes over from a playback that is being replaced, so the stamps of this one continue
+     * after the last fix it sent instead of jumping back to the live clocks.
+     */
+    public void continueAfter(Playback previous) {
+        lastElapsedRealtimeNanos = previous.lastElapsedRealtimeNanos;
+        lastTime = previous.lastTime;
+    }
+
+    public PositionSource getSource() {
+        return source;
+    }
+
+    public TickScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Sends the position due at the pending deadline.
+     *
+     * @param now the scheduler's clock when the tick runs
+     * @param elapsedRealtimeNanos the live elapsed realtime clock; at normal speed the fix is
+     *                             stamped with it, otherwise only the first tick's is used
+     * @param time the live wall clock, used the same way
+     * @return the deadline of the next tick
+     */
+    public long tick(long now, long elapsedRealtimeNanos, long time) {
+        long deadline = scheduler.getNextTick();
+        long elapsed = scheduler.getElapsed();
+        long trackElapsed = speed == 1.0 ? elapsed : (long) (elapsed * speed);
+        long warpedNanos = speed == 1.0 ? elapsed * 1000000L : (long) (elapsed * 1000000.0 * speed);
+        if (!started) {
+            started = true;
+            synthesized = speed != 1.0
+                    || elapsedRealtimeNanos <= lastElapsedRealtimeNanos || time < lastTime;
+            anchorElapsedRealtimeNanos = Math.max(elapsedRealtimeNanos, lastElapsedRealtimeNanos)
+                    - warpedNanos;
+            anchorTime = Math.max(time, lastTime) - trackElapsed;
+        }
+        if (synthesized) {
+            elapsedRealtimeNanos = anchorElapsedRealtimeNanos + warpedNanos;
+            time = anchorTime + trackElapsed;
+        }
+        if (lastElapsedRealtimeNanos != Long.MIN_VALUE && elapsedRealtimeNanos <= lastElapsedRealtimeNanos) {
+            elapsedRealtimeNanos = lastElapsedRealtimeNanos + 1;
+        }
+        if (time < lastTime) {
+            time = lastTime;
+        }
+        lastElapsedRealtimeNanos = elapsedRealtimeNanos;
+        lastTime = time;
+
+        source.positionAt(source.getStartTime() + trackElapsed, fix);
+        sink.inject(fix, elapsedRealtimeNanos, time, deadline * 1000000L);
+        return scheduler.advance(now);
+    }
+}
@@ -0,0 +1,76 @@
+package com.location.philippweiher.test.inject;
+
+/**
+ * How the mock position looks to one location provider: the accuracy it reports and the
+ * {@link NoiseProfile} of the horizontal error added to the shared position.
+ */
+public class ProviderProfile {
+
+    public static final String FUSED = "fused";
+    public static final String GPS = "gps";
+    public static final String NETWORK = "network";
+
+    private final String name;
+    // meters, NaN to report the accuracy of the fix itself
+    private final float accuracy;
+    private final NoiseProfile noise;
+
+    /**
+     * @param noise standard deviation of an independent error on every fix in meters, 0 for the
+     *              exact position
+     */
+    public ProviderProfile(String name, float accuracy, float noise) {
+        this(name, accuracy, NoiseProfile.white(noise));
+    }
+
+    /**
+     * @param accuracy meters, NaN to report the accuracy of the fix itself; a noise profile with
+     *                 an accuracy model of its own overrides it
+     */
+    public ProviderProfile(String name, float accuracy, NoiseProfile noise) {
+        this.name = name;
+        this.accuracy = accuracy;
+        this.noise = noise;
+    }
+
+    /**
+     * Profile with the usual accuracy and error of the named provider. Unknown names get the
+     * fix's own accuracy and no error.
+     */
+    public static ProviderProfile forName(String name) {
+        if (GPS.equals(name)) {
+            return new ProviderProfile(GPS, 5f, 3f);
+        } else if (NETWORK.equals(name)) {
+            return new ProviderProfile(NETWORK, 30f, 20f);
+        }
+        return new ProviderProfile(name, Float.NaN, 0f);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * Standard deviation of the random part of the error in meters.
+     */
+    public float getNoise() {
+        return noise.getSigma();
+    }
+
+    public NoiseProfile getNoiseProfile() {
+        return noise;
+    }
+
+    public boolean isFused() {
+        return FUSED.equals(name);
+    }
+
+    @Override
+    public String toString() {
+        return name + "(accuracy " + accuracy + "m, " + noise + ")";
+    }
+}
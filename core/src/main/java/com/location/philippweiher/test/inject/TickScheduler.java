@@ -0,0 +1,139 @@
+package com.location.philippweiher.test.inject;
+
+/**
+ * Computes tick deadlines on an absolute timeline (start + n * interval) instead of sleeping a
+ * fixed amount after each tick, so the time spent handling a tick never shifts the ticks after
+ * it. The caller posts each tick for {@link #getNextTick()} and calls {@link #advance(long)} when
+ * it runs.
+ *
+ * All times are in milliseconds on whatever clock the caller uses, normally
+ * {@code SystemClock.uptimeMillis()} to match {@code Handler.sendMessageAtTime}.
+ */
+public class TickScheduler {
+
+    /**
+     * What to do with ticks whose deadline already passed when the previous tick finished.
+     */
+    public enum LatePolicy {
+        // run the missed ticks back to back (up to a limit) to keep the tick count exact
+        CATCH_UP,
+        // drop the missed ticks and continue with the next deadline in the future
+        SKIP
+    }
+
+    // never run more than this many overdue ticks in a row, skip the rest
+    public static final int MAX_CATCH_UP_TICKS = 5;
+
+    private final long interval;
+    private final LatePolicy policy;
+
+    private long startTime;
+    private long nextTick;
+    private long tickCount;
+    private long skippedTicks;
+
+    // lateness of the most recent tick and the worst one so far
+    private long lastLateness;
+    private long maxLateness;
+    private long totalLateness;
+
+    public TickScheduler(long interval, LatePolicy policy) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("tick interval must be positive: " + interval);
+        }
+        this.interval = interval;
+        this.policy = policy;
+    }
+
+    /**
+     * Starts the timeline; the first tick is due at {@code firstTick}.
+     */
+    public void start(long firstTick) {
+        startTime = firstTick;
+        nextTick = firstTick;
+        tickCount = 0;
+        skippedTicks = 0;
+        lastLateness = 0;
+        maxLateness = 0;
+        totalLateness = 0;
+    }
+
+    /**
+     * Deadline of the tick that should run next.
+     */
+    public long getNextTick() {
+        return nextTick;
+    }
+
+    /**
+     * Records that the pending tick ran at {@code now} and moves on to the next deadline, which
+     * is returned. Under {@link LatePolicy#CATCH_UP} the returned deadline may already be in the
+     * past, meaning the next tick should run right away.
+     *
+     * @return the deadline of the next tick
+     */
+    public long advance(long now) {
+        lastLateness = now - nextTick;
+        if (lastLateness > maxLateness) {
+            maxLateness = lastLateness;
+        }
+        totalLateness += Math.max(0, lastLateness);
+        tickCount++;
+
+        nextTick += interval;
+        if (nextTick <= now) {
+            long missed = (now - nextTick) / interval + 1;
+            if (policy == LatePolicy.CATCH_UP) {
+                missed = Math.max(0, missed - MAX_CATCH_UP_TICKS);
+            }
+            nextTick += missed * interval;
+            skippedTicks += missed;
+        }
+        return nextTick;
+    }
+
+    /**
+     * Time elapsed on the timeline at the pending tick, i.e. its deadline minus the start.
+     */
+    public long getElapsed() {
+        return nextTick - startTime;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public LatePolicy getPolicy() {
+        return policy;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    public long getLastLateness() {
+        return lastLateness;
+    }
+
+    public long getMaxLateness() {
+        return maxLateness;
+    }
+
+    public long getAverageLateness() {
+        return tickCount == 0 ? 0 : totalLateness / tickCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ticks:").append(tickCount);
+        sb.append(", skipped:").append(skippedTicks);
+        sb.append(", avg late:").append(getAverageLateness()).append("ms");
+        sb.append(", max late:").append(maxLateness).append("ms");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,71 @@
+package com.location.philippweiher.test.scenario;
+
+/**
+ * A compiled scenario: a flat program of primitive instructions that a {@link ScenarioPlayer}
+ * steps through without parsing or allocating. Instruction {@code i} is the opcode
+ * {@code opcodes[i]} with up to {@link #STRIDE} operands starting at {@code operands[i * STRIDE]};
+ * loops are jumps back to an instruction index with a counter in a loop register.
+ *
+ * Instances are immutable and can be played any number of times, by several players at once.
+ * See {@link ScenarioCompiler} for the language.
+ */
+public final class Scenario {
+
+    static final int STRIDE = 3;
+
+    // jump to a position: latitude, longitude
+    static final int TELEPORT = 1;
+    // stay put: milliseconds
+    static final int HOLD = 2;
+    // straight line to a position: latitude, longitude, meters per second
+    static final int MOVE = 3;
+    // follow the route: milliseconds of scenario time, route time per scenario time
+    static final int TRACK = 4;
+    // Gaussian position error from now on: standard deviation in meters, milliseconds
+    static final int JITTER = 5;
+    // no fixes from now on: milliseconds
+    static final int LOSS = 6;
+    // reported accuracy from now on: meters at the start, meters at the end, milliseconds
+    static final int ACCURACY = 7;
+    // set a loop register: count, register
+    static final int REPEAT = 8;
+    // count a loop register down and jump while it isn't zero: target instruction, register
+    static final int END = 9;
+
+    final int[] opcodes;
+    final double[] operands;
+    final int registers;
+    final long seed;
+    final boolean usesRoute;
+
+    Scenario(int[] opcodes, double[] operands, int registers, long seed, boolean usesRoute) {
+        this.opcodes = opcodes;
+        this.operands = operands;
+        this.registers = registers;
+        this.seed = seed;
+        this.usesRoute = usesRoute;
+    }
+
+    public int getInstructionCount() {
+        return opcodes.length;
+    }
+
+    /**
+     * Seed of the noise generator, so every run of the scenario adds the same errors.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Whether the scenario follows the route it is played on; otherwise it only starts there.
+     */
+    public boolean usesRoute() {
+        return usesRoute;
+    }
+
+    @Override
+    public String toString() {
+        return "Scenario[" + opcodes.length + " instructions, seed " + seed + "]";
+    }
+}
@@ -0,0 +1,317 @@
+package com.location.philippweiher.test.scenario;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Compiles the scenario language into a {@link Scenario}. A scenario is a list of instructions,
+ * one per line; {@code #} starts a comment.
+ *
+ * <pre>
+ * seed 42                      # noise seed, so every run is the same
+ * teleport 52.5200 13.4050     # jump there
+ * hold 5s                      # stay for 5 seconds
+ * move 52.5300 13.4200 50km/h  # straight there at 50 km/h
+ * track 2min                   # follow the route for 2 minutes
+ * track 30s x4                 # and on at four times its speed
+ * repeat 3                     # the block up to "end" three times
+ *     jitter 25m 10s           # 25 m of Gaussian error for the next 10 seconds
+ *     loss 8s                  # no fixes at all for the next 8 seconds
+ *     hold 10s
+ * end
+ * accuracy 5m 50m 30s          # report an accuracy going from 5 to 50 m over 30 seconds
+ * accuracy 10m                 # and from then on 10 m
+ * </pre>
+ *
+ * hold, move and track take time and run one after the other on the scenario timeline.
+ * jitter, loss and accuracy take none; they change the fixes of whatever runs during the time
+ * they name, and the last accuracy stays in effect. Every repeat block must contain something
+ * that takes time.
+ *
+ * Durations are in ms, s, min or h, distances in m or km, speeds in m/s, km/h or kn; a bare
+ * number means seconds, meters or meters per second.
+ */
+public final class ScenarioCompiler {
+
+    private static final String[] DURATION_UNITS = {"ms", "s", "min", "h"};
+    private static final double[] DURATION_FACTORS = {1, 1000, 60 * 1000, 3600 * 1000};
+    private static final String[] DISTANCE_UNITS = {"m", "km"};
+    private static final double[] DISTANCE_FACTORS = {1, 1000};
+    private static final String[] SPEED_UNITS = {"m/s", "km/h", "kn"};
+    private static final double[] SPEED_FACTORS = {1, 1 / 3.6, 1852.0 / 3600.0};
+
+    // a year, far more than any test runs, and safely within a long once in milliseconds
+    private static final double MAX_DURATION = 365 * 24 * 3600 * 1000.0;
+    private static final int MAX_REPEAT = 1000000;
+
+    private int[] opcodes = new int[16];
+    private double[] operands = new double[16 * Scenario.STRIDE];
+    private int count;
+    private int registers;
+    private long seed;
+    private boolean usesRoute;
+
+    // open repeat blocks: their instruction, and whether they contain something that takes time
+    private int[] openRepeats = new int[4];
+    private boolean[] openTimed = new boolean[4];
+    private int depth;
+
+    private int line;
+
+    private ScenarioCompiler() {
+    }
+
+    public static Scenario compile(String source) throws IOException {
+        return compile(new StringReader(source));
+    }
+
+    public static Scenario compile(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            return compile(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @throws IOException if the source can't be read or isn't a valid scenario; the message
+     *                     names the line
+     */
+    public static Scenario compile(Reader source) throws IOException {
+        ScenarioCompiler compiler = new ScenarioCompiler();
+        BufferedReader reader = new BufferedReader(source);
+        String text;
+        while ((text = reader.readLine()) != null) {
+            compiler.line++;
+            int comment = text.indexOf('#');
+            if (comment >= 0) {
+                text = text.substring(0, comment);
+            }
+            text = text.trim();
+            if (text.length() > 0) {
+                compiler.statement(text.split("\\s+"));
+            }
+        }
+        return compiler.finish();
+    }
+
+    private void statement(String[] words) throws IOException {
+        String keyword = words[0];
+        if ("seed".equals(keyword)) {
+            arguments(words, 1, 1);
+            try {
+                seed = Long.parseLong(words[1]);
+            } catch (NumberFormatException e) {
+                throw error("seed must be an integer: " + words[1]);
+            }
+        } else if ("teleport".equals(keyword)) {
+            arguments(words, 2, 2);
+            emit(Scenario.TELEPORT, latitude(words[1]), longitude(words[2]), 0);
+        } else if ("hold".equals(keyword)) {
+            arguments(words, 1, 1);
+            emitTimed(Scenario.HOLD, duration(words[1]), 0, 0);
+        } else if ("move".equals(keyword)) {
+            arguments(words, 3, 3);
+            double speed = quantity(words[3], SPEED_UNITS, SPEED_FACTORS, 1, "speed");
+            if (speed <= 0) {
+                throw error("speed must be positive: " + words[3]);
+            }
+            emitTimed(Scenario.MOVE, latitude(words[1]), longitude(words[2]), speed);
+        } else if ("track".equals(keyword)) {
+            arguments(words, 1, 2);
+            emitTimed(Scenario.TRACK, duration(words[1]),
+                    words.length > 2 ? multiplier(words[2]) : 1.0, 0);
+            usesRoute = true;
+        } else if ("jitter".equals(keyword)) {
+            arguments(words, 2, 2);
+            emit(Scenario.JITTER, distance(words[1]), duration(words[2]), 0);
+        } else if ("loss".equals(keyword)) {
+            arguments(words, 1, 1);
+            emit(Scenario.LOSS, duration(words[1]), 0, 0);
+        } else if ("accuracy".equals(keyword)) {
+            if (words.length == 2) {
+                double accuracy = accuracy(words[1]);
+                emit(Scenario.ACCURACY, accuracy, accuracy, 0);
+            } else {
+                arguments(words, 3, 3);
+                emit(Scenario.ACCURACY, accuracy(words[1]), accuracy(words[2]), duration(words[3]));
+            }
+        } else if ("repeat".equals(keyword)) {
+            arguments(words, 1, 1);
+            int times;
+            try {
+                times = Integer.parseInt(words[1]);
+            } catch (NumberFormatException e) {
+                times = 0;
+            }
+            if (times < 1 || times > MAX_REPEAT) {
+                throw error("repeat count must be between 1 and " + MAX_REPEAT + ": " + words[1]);
+            }
+            if (depth == openRepeats.length) {
+                int[] repeats = new int[depth * 2];
+                boolean[] timed = new boolean[depth * 2];
+                System.arraycopy(openRepeats, 0, repeats, 0, depth);
+                System.arraycopy(openTimed, 0, timed, 0, depth);
+                openRepeats = repeats;
+                openTimed = timed;
+            }
+            openRepeats[depth] = count;
+            openTimed[depth] = false;
+            depth++;
+            emit(Scenario.REPEAT, times, registers++, 0);
+        } else if ("end".equals(keyword)) {
+            arguments(words, 0, 0);
+            if (depth == 0) {
+                throw error("end without repeat");
+            }
+            depth--;
+            if (!openTimed[depth]) {
+                throw error("repeat block without a hold, move or track that takes time");
+            }
+            if (depth > 0) {
+                openTimed[depth - 1] = true;
+            }
+            int repeat = openRepeats[depth];
+            emit(Scenario.END, repeat + 1, operands[repeat * Scenario.STRIDE + 1], 0);
+        } else {
+            throw error("unknown instruction " + keyword);
+        }
+    }
+
+    private Scenario finish() throws IOException {
+        if (depth > 0) {
+            throw error("repeat without end");
+        }
+        int[] code = new int[count];
+        double[] args = new double[count * Scenario.STRIDE];
+        System.arraycopy(opcodes, 0, code, 0, count);
+        System.arraycopy(operands, 0, args, 0, args.length);
+        return new Scenario(code, args, registers, seed, usesRoute);
+    }
+
+    private void emitTimed(int opcode, double a, double b, double c) {
+        // a hold or track of no time doesn't get a loop anywhere, a move usually does
+        if (depth > 0 && (opcode == Scenario.MOVE || a > 0)) {
+            openTimed[depth - 1] = true;
+        }
+        emit(opcode, a, b, c);
+    }
+
+    private void emit(int opcode, double a, double b, double c) {
+        if (count == opcodes.length) {
+            int[] code = new int[count * 2];
+            double[] args = new double[count * 2 * Scenario.STRIDE];
+            System.arraycopy(opcodes, 0, code, 0, count);
+            System.arraycopy(operands, 0, args, 0, operands.length);
+            opcodes = code;
+            operands = args;
+        }
+        opcodes[count] = opcode;
+        int base = count * Scenario.STRIDE;
+        operands[base] = a;
+        operands[base + 1] = b;
+        operands[base + 2] = c;
+        count++;
+    }
+
+    private void arguments(String[] words, int min, int max) throws IOException {
+        int given = words.length - 1;
+        if (given < min || given > max) {
+            throw error(words[0] + " takes " + (min == max ? String.valueOf(min) : min + " to " + max)
+                    + " arguments, not " + given);
+        }
+    }
+
+    private double latitude(String word) throws IOException {
+        double value = number(word, "latitude");
+        if (value < -90 || value > 90) {
+            throw error("latitude out of range: " + word);
+        }
+        return value;
+    }
+
+    private double longitude(String word) throws IOException {
+        double value = number(word, "longitude");
+        if (value < -180 || value > 180) {
+            throw error("longitude out of range: " + word);
+        }
+        return value;
+    }
+
+    private double duration(String word) throws IOException {
+        double value = quantity(word, DURATION_UNITS, DURATION_FACTORS, 1000, "duration");
+        if (value < 0 || value > MAX_DURATION) {
+            throw error("duration out of range: " + word);
+        }
+        return Math.rint(value);
+    }
+
+    private double distance(String word) throws IOException {
+        double value = quantity(word, DISTANCE_UNITS, DISTANCE_FACTORS, 1, "distance");
+        if (value < 0) {
+            throw error("distance must not be negative: " + word);
+        }
+        return value;
+    }
+
+    private double accuracy(String word) throws IOException {
+        double value = distance(word);
+        if (value == 0 || value > Float.MAX_VALUE) {
+            throw error("accuracy out of range: " + word);
+        }
+        return value;
+    }
+
+    // x4 or 4x
+    private double multiplier(String word) throws IOException {
+        String digits = word.startsWith("x") ? word.substring(1)
+                : word.endsWith("x") ? word.substring(0, word.length() - 1) : null;
+        double value = digits == null ? Double.NaN : number(digits, "speed factor");
+        if (!(value > 0) || Double.isInfinite(value)) {
+            throw error("speed factor must look like x4: " + word);
+        }
+        return value;
+    }
+
+    // a number followed by one of the units, or by nothing for bareFactor
+    private double quantity(String word, String[] units, double[] factors, double bareFactor,
+                            String what) throws IOException {
+        int end = 0;
+        while (end < word.length() && "0123456789.+-".indexOf(word.charAt(end)) >= 0) {
+            end++;
+        }
+        double value = number(word.substring(0, end), what);
+        if (end == word.length()) {
+            return value * bareFactor;
+        }
+        String unit = word.substring(end);
+        for (int i = 0; i < units.length; i++) {
+            if (units[i].equals(unit)) {
+                return value * factors[i];
+            }
+        }
+        throw error("unknown unit for " + what + ": " + word);
+    }
+
+    private double number(String word, String what) throws IOException {
+        try {
+            double value = Double.parseDouble(word);
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw error(what + " is not a number: " + word);
+    }
+
+    private IOException error(String message) {
+        return new IOException("line " + line + ": " + message);
+    }
+}
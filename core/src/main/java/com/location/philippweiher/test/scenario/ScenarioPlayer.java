@@ -0,0 +1,293 @@
+package com.location.philippweiher.test.scenario;
+
+import com.location.philippweiher.test.inject.FastRandom;
+import com.location.philippweiher.test.inject.FixSink;
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.PositionSource;
+import com.location.philippweiher.test.utils.GeoMath;
+
+/**
+ * Runs a {@link Scenario} as a {@link PositionSource}, so it plays through a
+ * {@link com.location.philippweiher.test.inject.Playback} like any track: the scenario timeline
+ * starts at 0 and every lookup steps the program up to the time asked for. The scenario starts at
+ * the first position of the route it is played on, and its track instructions follow that route.
+ *
+ * Instructions are timed on the scenario timeline, not by the ticks that look at it, so a step
+ * ends exactly where it should and the next starts there, however coarse the ticks. Lookups only
+ * read the program and preallocated state; nothing is parsed or allocated. Looking back in time
+ * starts the scenario over, noise included, which makes runs at the same tick rate identical.
+ *
+ * Signal loss can't be expressed as a position, so it takes the sink returned by {@link #filter}
+ * to drop the fixes that fall into it.
+ */
+public class ScenarioPlayer implements PositionSource {
+
+    private static final double DEGREES_PER_METER = 180.0 / (Math.PI * GeoMath.EARTH_RADIUS_METERS);
+
+    private final Scenario scenario;
+    private final PositionSource route;
+    private final FastRandom random;
+    private final int[] counters;
+    private final Fix routeFix = new Fix();
+
+    private boolean started;
+    private long lastTime;
+
+    // the instruction being run, and whether it is a step that takes time and when that ends
+    private int pc;
+    private boolean stepping;
+    private long stepStart;
+    private long stepEnd;
+
+    // where the last step ended
+    private double latitude;
+    private double longitude;
+    private double altitude;
+    private float bearing;
+
+    // the move being made
+    private double fromLatitude;
+    private double fromLongitude;
+    private float moveBearing;
+
+    // route time used up by the track steps so far
+    private long routeOffset;
+
+    // effects and when they end
+    private double jitter;
+    private long jitterEnd;
+    private long lossEnd;
+    private double accuracyFrom;
+    private double accuracyTo;
+    private long accuracyStart;
+    private long accuracyEnd;
+
+    // whether the fix of the last lookup falls into a signal loss
+    private boolean lost;
+
+    public ScenarioPlayer(Scenario scenario, PositionSource route) {
+        this.scenario = scenario;
+        this.route = route;
+        random = new FastRandom(scenario.seed);
+        counters = new int[scenario.registers];
+    }
+
+    public Scenario getScenario() {
+        return scenario;
+    }
+
+    public PositionSource getRoute() {
+        return route;
+    }
+
+    /**
+     * Whether the last lookup was past the end of the program; the last position is then held.
+     */
+    public boolean isFinished() {
+        return started && pc >= scenario.opcodes.length;
+    }
+
+    /**
+     * A sink that passes fixes on to {@code downstream} unless they fall into a signal loss.
+     * Has to be fed by the playback of this player.
+     */
+    public FixSink filter(final FixSink downstream) {
+        return new FixSink() {
+            @Override
+            public void inject(Fix fix, long elapsedRealtimeNanos, long time, long deadlineNanos) {
+                if (!lost) {
+                    downstream.inject(fix, elapsedRealtimeNanos, time, deadlineNanos);
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean isReady() {
+        return route.isReady();
+    }
+
+    @Override
+    public boolean hasFailed() {
+        return route.hasFailed();
+    }
+
+    @Override
+    public long getStartTime() {
+        return 0;
+    }
+
+    @Override
+    public void positionAt(long time, Fix out) {
+        if (!started || time < lastTime) {
+            restart();
+        }
+        lastTime = time;
+        run(time);
+
+        int base = pc * Scenario.STRIDE;
+        double[] operands = scenario.operands;
+        out.time = time;
+        out.accuracy = Float.NaN;
+        if (!stepping) {
+            setHeld(out);
+        } else {
+            switch (scenario.opcodes[pc]) {
+                case Scenario.MOVE:
+                    double f = stepEnd > stepStart ? (double) (time - stepStart) / (stepEnd - stepStart) : 1.0;
+                    out.latitude = fromLatitude + (operands[base] - fromLatitude) * f;
+                    out.longitude = GeoMath.normalizeLongitude(fromLongitude
+                            + GeoMath.deltaLongitude(fromLongitude, operands[base + 1]) * f);
+                    out.altitude = altitude;
+                    out.speed = (float) operands[base + 2];
+                    out.bearing = moveBearing;
+                    break;
+                case Scenario.TRACK:
+                    double multiplier = operands[base + 1];
+                    route.positionAt(route.getStartTime() + routeOffset
+                            + (long) ((time - stepStart) * multiplier), out);
+                    out.time = time;
+                    out.speed *= multiplier;
+                    break;
+                default:
+                    setHeld(out);
+                    break;
+            }
+        }
+
+        if (accuracyEnd >= 0) {
+            double f = time >= accuracyEnd || accuracyEnd == accuracyStart
+                    ? 1.0 : (double) (time - accuracyStart) / (accuracyEnd - accuracyStart);
+            out.accuracy = (float) (accuracyFrom + (accuracyTo - accuracyFrom) * f);
+        }
+        if (time < jitterEnd && jitter > 0) {
+            out.latitude = Math.max(-90.0, Math.min(90.0,
+                    out.latitude + random.nextGaussian() * jitter * DEGREES_PER_METER));
+            out.longitude = GeoMath.normalizeLongitude(out.longitude + random.nextGaussian() * jitter
+                    * DEGREES_PER_METER / Math.max(0.01, Math.cos(Math.toRadians(out.latitude))));
+        }
+        lost = time < lossEnd;
+    }
+
+    @Override
+    public void close() {
+        route.close();
+    }
+
+    private void setHeld(Fix out) {
+        out.latitude = latitude;
+        out.longitude = longitude;
+        out.altitude = altitude;
+        out.speed = 0f;
+        out.bearing = bearing;
+    }
+
+    private void restart() {
+        started = true;
+        pc = 0;
+        stepping = false;
+        stepStart = 0;
+        routeOffset = 0;
+        route.positionAt(route.getStartTime(), routeFix);
+        latitude = routeFix.latitude;
+        longitude = routeFix.longitude;
+        altitude = routeFix.altitude;
+        bearing = routeFix.bearing;
+        jitter = 0;
+        jitterEnd = 0;
+        lossEnd = 0;
+        accuracyEnd = -1;
+        random.setSeed(scenario.seed);
+    }
+
+    /*
+     * Runs the program until the step that is in progress at the given time, or to its end.
+     */
+    private void run(long time) {
+        int[] opcodes = scenario.opcodes;
+        double[] operands = scenario.operands;
+        while (pc < opcodes.length) {
+            int base = pc * Scenario.STRIDE;
+            if (stepping) {
+                if (time < stepEnd) {
+                    return;
+                }
+                finishStep(opcodes[pc], base);
+                stepping = false;
+                stepStart = stepEnd;
+                pc++;
+                continue;
+            }
+            switch (opcodes[pc]) {
+                case Scenario.TELEPORT:
+                    latitude = operands[base];
+                    longitude = operands[base + 1];
+                    altitude = Double.NaN;
+                    pc++;
+                    break;
+                case Scenario.HOLD:
+                case Scenario.TRACK:
+                    beginStep((long) operands[base]);
+                    break;
+                case Scenario.MOVE:
+                    fromLatitude = latitude;
+                    fromLongitude = longitude;
+                    double distance = GeoMath.distance(latitude, longitude, operands[base], operands[base + 1]);
+                    moveBearing = distance > 0 ? (float) GeoMath.bearing(latitude, longitude,
+                            operands[base], operands[base + 1]) : bearing;
+                    beginStep(Math.round(distance / operands[base + 2] * 1000.0));
+                    break;
+                case Scenario.JITTER:
+                    jitter = operands[base];
+                    jitterEnd = stepStart + (long) operands[base + 1];
+                    pc++;
+                    break;
+                case Scenario.LOSS:
+                    lossEnd = stepStart + (long) operands[base];
+                    pc++;
+                    break;
+                case Scenario.ACCURACY:
+                    accuracyFrom = operands[base];
+                    accuracyTo = operands[base + 1];
+                    accuracyStart = stepStart;
+                    accuracyEnd = stepStart + (long) operands[base + 2];
+                    pc++;
+                    break;
+                case Scenario.REPEAT:
+                    counters[(int) operands[base + 1]] = (int) operands[base];
+                    pc++;
+                    break;
+                case Scenario.END:
+                    if (--counters[(int) operands[base + 1]] > 0) {
+                        pc = (int) operands[base];
+                    } else {
+                        pc++;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("bad opcode " + opcodes[pc] + " at " + pc);
+            }
+        }
+    }
+
+    private void beginStep(long duration) {
+        stepping = true;
+        stepEnd = stepStart + duration;
+    }
+
+    private void finishStep(int opcode, int base) {
+        double[] operands = scenario.operands;
+        if (opcode == Scenario.MOVE) {
+            latitude = operands[base];
+            longitude = operands[base + 1];
+            bearing = moveBearing;
+        } else if (opcode == Scenario.TRACK) {
+            routeOffset += (long) ((stepEnd - stepStart) * operands[base + 1]);
+            route.positionAt(route.getStartTime() + routeOffset, routeFix);
+            latitude = routeFix.latitude;
+            longitude = routeFix.longitude;
+            altitude = routeFix.altitude;
+            bearing = routeFix.bearing;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.location.philippweiher.test.track;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the compact binary track format ({@code .mtrk}) written by {@link BinaryTrackWriter}
+ * and played back by {@link MappedTrack}. All numbers are little endian.
+ *
+ * <pre>
+ * header   (48 bytes)  magic "MTRK", version, block size, point count, block count,
+ *                      start time, end time, offset of the block index
+ * blocks               per block of up to BLOCK_SIZE points: the first point in full
+ *                      (time, lat, lng, altitude, accuracy = 8 + 4 * 4 bytes), then every
+ *                      further point as zigzag varint deltas to the point before it
+ * index                per block: time of its first point and its file offset (8 + 8 bytes)
+ * </pre>
+ *
+ * Coordinates are stored as 1e-7 degrees, altitude and accuracy as centimeters, with
+ * {@link #UNKNOWN} for missing values. A typical recorded drive needs 5-8 bytes per point, and
+ * any timestamp is reached by a binary search over the index plus decoding at most one block.
+ */
+final class BinaryTrack {
+
+    static final int MAGIC = 'M' | 'T' << 8 | 'R' << 16 | 'K' << 24;
+    static final int VERSION = 1;
+
+    static final int BLOCK_SIZE = 256;
+
+    static final int HEADER_SIZE = 48;
+    static final int KEYFRAME_SIZE = 24;
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    // header field offsets
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_BLOCK_SIZE = 6;
+    static final int OFFSET_POINT_COUNT = 8;
+    static final int OFFSET_BLOCK_COUNT = 12;
+    static final int OFFSET_START_TIME = 16;
+    static final int OFFSET_END_TIME = 24;
+    static final int OFFSET_INDEX = 32;
+
+    // marks a missing altitude or accuracy
+    static final int UNKNOWN = Integer.MIN_VALUE;
+
+    static final double DEGREES_SCALE = 1e7;
+    static final double METERS_SCALE = 100.0;
+
+    private BinaryTrack() {
+    }
+
+    static int encodeDegrees(double degrees) {
+        return (int) Math.round(degrees * DEGREES_SCALE);
+    }
+
+    static double decodeDegrees(int value) {
+        return value / DEGREES_SCALE;
+    }
+
+    static int encodeMeters(double meters) {
+        return Double.isNaN(meters) ? UNKNOWN : (int) Math.round(meters * METERS_SCALE);
+    }
+
+    static double decodeMeters(int value) {
+        return value == UNKNOWN ? Double.NaN : value / METERS_SCALE;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes an unsigned varint into the buffer at the given position.
+     *
+     * @return the position after the varint
+     */
+    static int putVarLong(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Reads an unsigned varint at {@code cursor[0]} from the buffer, advancing the cursor.
+     */
+    static long getVarLong(ByteBuffer buffer, int[] cursor) {
+        int pos = cursor[0];
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(pos++);
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        cursor[0] = pos;
+        return result;
+    }
+}
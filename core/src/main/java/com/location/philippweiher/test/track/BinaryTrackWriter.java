@@ -0,0 +1,150 @@
+package com.location.philippweiher.test.track;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Writes the compact binary track format described in {@link BinaryTrack}, one point at a
+ * time. Only the block index (16 bytes per 256 points) is kept in memory; the header is filled
+ * in when the writer is closed.
+ */
+public class BinaryTrackWriter implements Closeable {
+
+    private final File file;
+    private final OutputStream out;
+
+    // one encoded point never needs more than 5 varints of 10 bytes
+    private final byte[] scratch = new byte[Math.max(BinaryTrack.KEYFRAME_SIZE, 50)];
+    private final ByteBuffer keyframe =
+            ByteBuffer.wrap(scratch, 0, BinaryTrack.KEYFRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private long[] blockTimes = new long[64];
+    private long[] blockOffsets = new long[64];
+    private int blockCount;
+
+    private long offset;
+    private int pointCount;
+    private long startTime;
+
+    // previous point, the base for the next delta
+    private long lastTime;
+    private int lastLatitude;
+    private int lastLongitude;
+    private int lastAltitude;
+    private int lastAccuracy;
+
+    private boolean closed;
+
+    public BinaryTrackWriter(File file) throws IOException {
+        this.file = file;
+        out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        // room for the header, written for real in close()
+        out.write(new byte[BinaryTrack.HEADER_SIZE]);
+        offset = BinaryTrack.HEADER_SIZE;
+    }
+
+    /**
+     * Appends a point. Points must be added in time order.
+     */
+    public void add(Fix fix) throws IOException {
+        if (pointCount > 0 && fix.time < lastTime) {
+            throw new IllegalArgumentException("track time went backwards: " + fix.time + " < " + lastTime);
+        }
+        int latitude = BinaryTrack.encodeDegrees(fix.latitude);
+        int longitude = BinaryTrack.encodeDegrees(fix.longitude);
+        int altitude = BinaryTrack.encodeMeters(fix.altitude);
+        int accuracy = BinaryTrack.encodeMeters(fix.accuracy);
+
+        if (pointCount % BinaryTrack.BLOCK_SIZE == 0) {
+            startBlock(fix.time);
+            keyframe.clear();
+            keyframe.putLong(fix.time).putInt(latitude).putInt(longitude).putInt(altitude).putInt(accuracy);
+            write(scratch, BinaryTrack.KEYFRAME_SIZE);
+        } else {
+            int pos = 0;
+            pos = BinaryTrack.putVarLong(scratch, pos, BinaryTrack.zigzag(fix.time - lastTime));
+            pos = BinaryTrack.putVarLong(scratch, pos, BinaryTrack.zigzag((long) latitude - lastLatitude));
+            pos = BinaryTrack.putVarLong(scratch, pos, BinaryTrack.zigzag((long) longitude - lastLongitude));
+            pos = BinaryTrack.putVarLong(scratch, pos, BinaryTrack.zigzag((long) altitude - lastAltitude));
+            pos = BinaryTrack.putVarLong(scratch, pos, BinaryTrack.zigzag((long) accuracy - lastAccuracy));
+            write(scratch, pos);
+        }
+
+        if (pointCount == 0) {
+            startTime = fix.time;
+        }
+        pointCount++;
+        lastTime = fix.time;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastAltitude = altitude;
+        lastAccuracy = accuracy;
+    }
+
+    private void startBlock(long time) {
+        if (blockCount == blockTimes.length) {
+            blockTimes = Arrays.copyOf(blockTimes, blockCount * 2);
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+        }
+        blockTimes[blockCount] = time;
+        blockOffsets[blockCount] = offset;
+        blockCount++;
+    }
+
+    private void write(byte[] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        offset += length;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * Writes the block index and the header. The file is only valid after this.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        long indexOffset = offset;
+        ByteBuffer entry = ByteBuffer.allocate(BinaryTrack.INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            for (int i = 0; i < blockCount; i++) {
+                entry.clear();
+                entry.putLong(blockTimes[i]).putLong(blockOffsets[i]);
+                out.write(entry.array());
+            }
+        } finally {
+            out.close();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(BinaryTrack.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(BinaryTrack.OFFSET_MAGIC, BinaryTrack.MAGIC);
+        header.putShort(BinaryTrack.OFFSET_VERSION, (short) BinaryTrack.VERSION);
+        header.putShort(BinaryTrack.OFFSET_BLOCK_SIZE, (short) BinaryTrack.BLOCK_SIZE);
+        header.putInt(BinaryTrack.OFFSET_POINT_COUNT, pointCount);
+        header.putInt(BinaryTrack.OFFSET_BLOCK_COUNT, blockCount);
+        header.putLong(BinaryTrack.OFFSET_START_TIME, startTime);
+        header.putLong(BinaryTrack.OFFSET_END_TIME, lastTime);
+        header.putLong(BinaryTrack.OFFSET_INDEX, indexOffset);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(header.array());
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.location.philippweiher.test.track;
+
+/**
+ * Mutable holder for one generated position. The trajectory engine fills it in place, so a
+ * single instance can be reused for every tick.
+ */
+public class Fix {
+
+    public double latitude;
+    public double longitude;
+    // meters, NaN if unknown
+    public double altitude = Double.NaN;
+    // time of the fix on the track timeline in milliseconds
+    public long time;
+    // meters per second
+    public float speed;
+    // degrees east of true north, [0, 360)
+    public float bearing;
+    // meters, NaN if unknown
+    public float accuracy = Float.NaN;
+
+    public boolean hasAltitude() {
+        return !Double.isNaN(altitude);
+    }
+
+    public boolean hasAccuracy() {
+        return !Float.isNaN(accuracy);
+    }
+
+    public void set(Fix other) {
+        latitude = other.latitude;
+        longitude = other.longitude;
+        altitude = other.altitude;
+        time = other.time;
+        speed = other.speed;
+        bearing = other.bearing;
+        accuracy = other.accuracy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Fix[").append(latitude).append(',').append(longitude);
+        sb.append(" t=").append(time);
+        sb.append(" v=").append(speed).append(" b=").append(bearing).append(']');
+        return sb.toString();
+    }
+}
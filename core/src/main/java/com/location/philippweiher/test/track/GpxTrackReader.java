@@ -0,0 +1,71 @@
+package com.location.philippweiher.test.track;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the track and route points of a GPX 1.1 (or 1.0) file. Points without a time are
+ * placed one second after the point before them.
+ */
+public class GpxTrackReader extends XmlTrackReader {
+
+    private long lastTime = -1000;
+
+    public GpxTrackReader(InputStream in) throws IOException {
+        super(in);
+    }
+
+    @Override
+    protected boolean readNext(Fix out) throws XmlPullParserException, IOException {
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.START_TAG) {
+                String name = parser.getName();
+                if ("trkpt".equals(name) || "rtept".equals(name)) {
+                    readPoint(name, out);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void readPoint(String pointTag, Fix out) throws XmlPullParserException, IOException {
+        out.latitude = parseDouble(parser.getAttributeValue(null, "lat"));
+        out.longitude = parseDouble(parser.getAttributeValue(null, "lon"));
+        if (Double.isNaN(out.latitude) || Double.isNaN(out.longitude)) {
+            throw new XmlPullParserException("Point without lat/lon");
+        }
+        out.altitude = Double.NaN;
+        out.accuracy = Float.NaN;
+        out.speed = 0f;
+        out.bearing = 0f;
+        long time = Long.MIN_VALUE;
+
+        int depth = parser.getDepth();
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+                break;
+            }
+            // only the direct children of the point, extensions may reuse the names
+            if (event != XmlPullParser.START_TAG || parser.getDepth() != depth + 1) {
+                continue;
+            }
+            String name = parser.getName();
+            if ("ele".equals(name)) {
+                out.altitude = parseDouble(parser.nextText());
+            } else if ("time".equals(name)) {
+                time = Iso8601.parse(parser.nextText());
+            } else if ("hdop".equals(name)) {
+                out.accuracy = (float) parseDouble(parser.nextText()) * TrackFormat.METERS_PER_HDOP;
+            }
+        }
+
+        out.time = time != Long.MIN_VALUE ? time : lastTime + 1000;
+        lastTime = out.time;
+    }
+}
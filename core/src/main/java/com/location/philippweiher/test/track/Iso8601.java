@@ -0,0 +1,108 @@
+package com.location.philippweiher.test.track;
+
+/**
+ * Parser for the ISO 8601 timestamps used in GPX and KML ({@code 2014-07-31T12:34:56.789Z},
+ * optionally with a {@code +hh:mm} offset instead of Z). Much faster than SimpleDateFormat and
+ * doesn't allocate, which matters when a track has millions of points.
+ */
+final class Iso8601 {
+
+    private Iso8601() {
+    }
+
+    /**
+     * @return milliseconds since the epoch
+     * @throws IllegalArgumentException if the text isn't a timestamp in the expected form
+     */
+    static long parse(CharSequence text) {
+        int length = text.length();
+        int start = 0;
+        while (start < length && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (length > start && text.charAt(length - 1) <= ' ') {
+            length--;
+        }
+        if (length - start < 19 || text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-'
+                || text.charAt(start + 13) != ':' || text.charAt(start + 16) != ':') {
+            throw new IllegalArgumentException("Not an ISO 8601 time: " + text);
+        }
+
+        int year = digits(text, start, 4, length);
+        int month = digits(text, start + 5, 2, length);
+        int day = digits(text, start + 8, 2, length);
+        int hour = digits(text, start + 11, 2, length);
+        int minute = digits(text, start + 14, 2, length);
+        int second = digits(text, start + 17, 2, length);
+
+        int pos = start + 19;
+        int millis = 0;
+        if (pos < length && (text.charAt(pos) == '.' || text.charAt(pos) == ',')) {
+            pos++;
+            int scale = 100;
+            while (pos < length && isDigit(text.charAt(pos))) {
+                millis += (text.charAt(pos) - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+        }
+
+        int offsetMinutes = 0;
+        if (pos < length) {
+            char sign = text.charAt(pos);
+            if (sign == '+' || sign == '-') {
+                int offsetHours = digits(text, pos + 1, 2, length);
+                int offsetPos = pos + 3;
+                if (offsetPos < length && text.charAt(offsetPos) == ':') {
+                    offsetPos++;
+                }
+                int offsetMins = offsetPos + 2 <= length ? digits(text, offsetPos, 2, length) : 0;
+                offsetMinutes = offsetHours * 60 + offsetMins;
+                if (sign == '-') {
+                    offsetMinutes = -offsetMinutes;
+                }
+            } else if (sign != 'Z' && sign != 'z') {
+                throw new IllegalArgumentException("Not an ISO 8601 time: " + text);
+            }
+        }
+
+        long days = daysFromCivil(year, month, day);
+        long seconds = days * 86400L + hour * 3600L + minute * 60L + second - offsetMinutes * 60L;
+        return seconds * 1000L + millis;
+    }
+
+    /**
+     * Days since 1970-01-01 for a proleptic Gregorian date.
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        // Howard Hinnant's days_from_civil
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /*
+     * The number in text[pos, pos + count); length is where the trimmed timestamp ends.
+     */
+    private static int digits(CharSequence text, int pos, int count, int length) {
+        if (pos + count > length) {
+            throw new IllegalArgumentException("Not an ISO 8601 time: " + text);
+        }
+        int value = 0;
+        for (int i = pos; i < pos + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                throw new IllegalArgumentException("Not an ISO 8601 time: " + text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,127 @@
+package com.location.philippweiher.test.track;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the points of the {@code gx:Track} elements in a KML file.
+ *
+ * A gx:Track lists its {@code <when>} elements and its {@code <gx:coord>} elements separately,
+ * usually all times first. The times that are still waiting for their coordinate are queued as
+ * primitive longs (8 bytes each); everything else is streamed.
+ */
+public class KmlTrackReader extends XmlTrackReader {
+
+    // times of the current gx:Track that haven't been paired with a coordinate yet
+    private long[] pendingTimes = new long[256];
+    private int pendingHead;
+    private int pendingCount;
+
+    // coordinates seen before their time, rare but allowed
+    private double[] pendingCoords = new double[3 * 16];
+    private int coordCount;
+
+    private boolean inTrack;
+
+    public KmlTrackReader(InputStream in) throws IOException {
+        super(in);
+    }
+
+    @Override
+    protected boolean readNext(Fix out) throws XmlPullParserException, IOException {
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            String name = parser.getName();
+            if (event == XmlPullParser.START_TAG) {
+                if ("Track".equals(name)) {
+                    inTrack = true;
+                    pendingHead = 0;
+                    pendingCount = 0;
+                    coordCount = 0;
+                } else if (inTrack && "when".equals(name)) {
+                    long time = Iso8601.parse(parser.nextText());
+                    if (coordCount > 0) {
+                        emitQueuedCoord(time, out);
+                        return true;
+                    }
+                    queueTime(time);
+                } else if (inTrack && "coord".equals(name)) {
+                    String coord = parser.nextText();
+                    if (pendingCount > 0) {
+                        long time = pendingTimes[pendingHead++];
+                        pendingCount--;
+                        parseCoord(coord, out);
+                        out.time = time;
+                        return true;
+                    }
+                    queueCoord(coord);
+                }
+            } else if (event == XmlPullParser.END_TAG && "Track".equals(name)) {
+                inTrack = false;
+            }
+        }
+        return false;
+    }
+
+    private void queueTime(long time) {
+        if (pendingHead > 0 && pendingCount == 0) {
+            pendingHead = 0;
+        }
+        int end = pendingHead + pendingCount;
+        if (end == pendingTimes.length) {
+            if (pendingHead > 0) {
+                System.arraycopy(pendingTimes, pendingHead, pendingTimes, 0, pendingCount);
+                pendingHead = 0;
+                end = pendingCount;
+            } else {
+                pendingTimes = Arrays.copyOf(pendingTimes, pendingTimes.length * 2);
+            }
+        }
+        pendingTimes[end] = time;
+        pendingCount++;
+    }
+
+    private void queueCoord(String coord) {
+        Fix fix = new Fix();
+        parseCoord(coord, fix);
+        if (3 * (coordCount + 1) > pendingCoords.length) {
+            pendingCoords = Arrays.copyOf(pendingCoords, pendingCoords.length * 2);
+        }
+        pendingCoords[3 * coordCount] = fix.latitude;
+        pendingCoords[3 * coordCount + 1] = fix.longitude;
+        pendingCoords[3 * coordCount + 2] = fix.altitude;
+        coordCount++;
+    }
+
+    private void emitQueuedCoord(long time, Fix out) {
+        out.latitude = pendingCoords[0];
+        out.longitude = pendingCoords[1];
+        out.altitude = pendingCoords[2];
+        out.accuracy = Float.NaN;
+        out.speed = 0f;
+        out.bearing = 0f;
+        out.time = time;
+        coordCount--;
+        System.arraycopy(pendingCoords, 3, pendingCoords, 0, 3 * coordCount);
+    }
+
+    /*
+     * gx:coord is "longitude latitude altitude", separated by spaces.
+     */
+    private static void parseCoord(String coord, Fix out) {
+        String[] parts = coord.trim().split("\\s+");
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Bad gx:coord " + coord);
+        }
+        out.longitude = Double.parseDouble(parts[0]);
+        out.latitude = Double.parseDouble(parts[1]);
+        out.altitude = parts.length > 2 ? Double.parseDouble(parts[2]) : Double.NaN;
+        out.accuracy = Float.NaN;
+        out.speed = 0f;
+        out.bearing = 0f;
+    }
+}
@@ -0,0 +1,117 @@
+package com.location.philippweiher.test.track;
+
+import com.location.philippweiher.test.utils.GeoMath;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A position that is moved while it is being played, e.g. by dragging a marker on the map. The
+ * mover {@link #publish}es as often as it likes into a single slot and the injector takes
+ * whatever is there when a tick looks it up, so any number of moves between two ticks cost the
+ * injector nothing and only the latest one is sent.
+ *
+ * The slot is one AtomicLong holding latitude and longitude in 1e-7 degrees (about a
+ * centimeter), so a lookup can't see half of a move and neither side allocates or locks. Speed
+ * and bearing are those of the move since the previous lookup.
+ *
+ * Publishing is safe from any thread; lookups come from one thread at a time as for every
+ * {@link PositionSource}. The slot outlives playback, so {@link #close} doesn't do anything;
+ * {@link #restart} makes the next playback start without the motion of the one before.
+ */
+public class LivePosition implements PositionSource {
+
+    private static final double E7 = 1e7;
+    // latitude -214.7 degrees, which no position packs to
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final AtomicLong packed = new AtomicLong(NONE);
+    // set by restart, cleared by the next lookup
+    private volatile boolean restarting;
+
+    // lookup thread only: what the previous lookup saw
+    private long lastPacked = NONE;
+    private long lastTime;
+    private double lastLatitude;
+    private double lastLongitude;
+    private float lastBearing;
+
+    /**
+     * Moves the position; the next lookup picks it up.
+     */
+    public void publish(double latitude, double longitude) {
+        packed.set(pack(latitude, longitude));
+    }
+
+    /**
+     * Forgets the motion seen by earlier lookups, so the next one reports no speed and no
+     * bearing instead of the move from where an earlier playback left off. Safe from any thread;
+     * the position itself stays.
+     */
+    public void restart() {
+        restarting = true;
+    }
+
+    /**
+     * Whether a position has been published yet.
+     */
+    @Override
+    public boolean isReady() {
+        return packed.get() != NONE;
+    }
+
+    @Override
+    public boolean hasFailed() {
+        return false;
+    }
+
+    @Override
+    public long getStartTime() {
+        return 0;
+    }
+
+    @Override
+    public void positionAt(long time, Fix out) {
+        if (restarting) {
+            restarting = false;
+            lastPacked = NONE;
+            lastBearing = 0f;
+        }
+        long current = packed.get();
+        out.time = time;
+        out.altitude = Double.NaN;
+        out.accuracy = Float.NaN;
+        out.speed = 0f;
+        if (current == NONE) {
+            out.latitude = 0;
+            out.longitude = 0;
+            out.bearing = 0f;
+            return;
+        }
+        if (current != lastPacked) {
+            double latitude = (int) (current >> 32) / E7;
+            double longitude = (int) current / E7;
+            if (lastPacked != NONE && time > lastTime) {
+                double distance = GeoMath.distance(lastLatitude, lastLongitude, latitude, longitude);
+                out.speed = (float) (distance * 1000.0 / (time - lastTime));
+                lastBearing = (float) GeoMath.bearing(lastLatitude, lastLongitude, latitude, longitude);
+            }
+            lastPacked = current;
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+        lastTime = time;
+        out.latitude = lastLatitude;
+        out.longitude = lastLongitude;
+        out.bearing = lastBearing;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static long pack(double latitude, double longitude) {
+        int lat = (int) Math.round(Math.max(-90.0, Math.min(90.0, latitude)) * E7);
+        int lng = (int) Math.round(GeoMath.normalizeLongitude(longitude) * E7);
+        return ((long) lat << 32) | (lng & 0xffffffffL);
+    }
+}
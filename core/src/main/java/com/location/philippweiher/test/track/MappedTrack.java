@@ -0,0 +1,297 @@
+package com.location.philippweiher.test.track;
+
+import com.location.philippweiher.test.utils.GeoMath;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back a binary track file (see {@link BinaryTrack}) straight from a memory mapping:
+ * points are decoded from the mapped pages as playback reaches them, nothing is copied onto the
+ * heap and opening a track costs the same no matter how long it is.
+ *
+ * Moving forward decodes one delta per point; any other jump binary searches the block index
+ * and decodes from the start of that block.
+ */
+public class MappedTrack implements PositionSource {
+
+    private final File file;
+    private final ByteBuffer buffer;
+
+    private final int pointCount;
+    private final int blockCount;
+    private final long startTime;
+    private final long endTime;
+    private final int indexOffset;
+
+    // decoder position, an array so the varint reader can advance it without allocating
+    private final int[] cursor = new int[1];
+    private int block = -1;
+    // points of the current block that haven't been decoded yet
+    private int remaining;
+
+    // current segment: point a is at or before the playback time, point b after it
+    private long timeA;
+    private int latA;
+    private int lngA;
+    private int altA;
+    private int accA;
+    private long timeB;
+    private int latB;
+    private int lngB;
+    private int altB;
+    private int accB;
+    private boolean hasB;
+
+    // speed and bearing of a to b, recomputed when the segment changes and a fix needs them
+    private boolean segmentDirty;
+    private float segmentSpeed;
+    private float segmentBearing;
+
+    private MappedTrack(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < BinaryTrack.HEADER_SIZE
+                || buffer.getInt(BinaryTrack.OFFSET_MAGIC) != BinaryTrack.MAGIC) {
+            throw new IOException(file + " is not a binary track");
+        }
+        if (buffer.getShort(BinaryTrack.OFFSET_VERSION) != BinaryTrack.VERSION
+                || buffer.getShort(BinaryTrack.OFFSET_BLOCK_SIZE) != BinaryTrack.BLOCK_SIZE) {
+            throw new IOException(file + " has an unsupported version");
+        }
+        pointCount = buffer.getInt(BinaryTrack.OFFSET_POINT_COUNT);
+        blockCount = buffer.getInt(BinaryTrack.OFFSET_BLOCK_COUNT);
+        startTime = buffer.getLong(BinaryTrack.OFFSET_START_TIME);
+        endTime = buffer.getLong(BinaryTrack.OFFSET_END_TIME);
+        long index = buffer.getLong(BinaryTrack.OFFSET_INDEX);
+        if (pointCount <= 0 || blockCount <= 0
+                || index + (long) blockCount * BinaryTrack.INDEX_ENTRY_SIZE > buffer.capacity()) {
+            throw new IOException(file + " is empty or truncated");
+        }
+        indexOffset = (int) index;
+
+        seek(startTime);
+    }
+
+    /**
+     * Maps a binary track file read-only.
+     */
+    public static MappedTrack open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            // the mapping stays valid after the file is closed
+            return new MappedTrack(file, mapped);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public boolean hasFailed() {
+        return false;
+    }
+
+    @Override
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public void positionAt(long time, Fix out) {
+        if (time < timeA || (hasB && time >= timeB && !stepTo(time))) {
+            seek(time);
+        }
+
+        if (segmentDirty) {
+            updateSegment();
+        }
+
+        out.time = time;
+        if (!hasB || time <= timeA) {
+            // before the start, at a point, or past the end
+            out.latitude = BinaryTrack.decodeDegrees(latA);
+            out.longitude = BinaryTrack.decodeDegrees(lngA);
+            out.altitude = BinaryTrack.decodeMeters(altA);
+            out.accuracy = (float) BinaryTrack.decodeMeters(accA);
+            out.speed = hasB && time == timeA ? segmentSpeed : 0f;
+            out.bearing = segmentBearing;
+            return;
+        }
+
+        double f = (double) (time - timeA) / (timeB - timeA);
+        double lat0 = BinaryTrack.decodeDegrees(latA);
+        double lng0 = BinaryTrack.decodeDegrees(lngA);
+        out.latitude = lat0 + (BinaryTrack.decodeDegrees(latB) - lat0) * f;
+        out.longitude = GeoMath.normalizeLongitude(
+                lng0 + GeoMath.deltaLongitude(lng0, BinaryTrack.decodeDegrees(lngB)) * f);
+        out.altitude = interpolate(altA, altB, f);
+        out.accuracy = (float) interpolate(accA, accB, f);
+        out.speed = segmentSpeed;
+        out.bearing = segmentBearing;
+    }
+
+    private static double interpolate(int a, int b, double f) {
+        if (a == BinaryTrack.UNKNOWN || b == BinaryTrack.UNKNOWN) {
+            return BinaryTrack.decodeMeters(a);
+        }
+        return (a + (b - a) * f) / BinaryTrack.METERS_SCALE;
+    }
+
+    /*
+     * Walks forward point by point until the segment contains the time. Gives up (returning
+     * false) once the walk would leave the next block, a seek is cheaper then.
+     */
+    private boolean stepTo(long time) {
+        int limit = block + 1;
+        while (hasB && time >= timeB) {
+            if (remaining == 0 && block >= limit) {
+                return false;
+            }
+            shiftAndDecode();
+        }
+        return true;
+    }
+
+    /*
+     * Positions the decoder on the segment containing the time, using the block index.
+     */
+    private void seek(long time) {
+        // last block whose first point is at or before the time
+        int low = 0;
+        int high = blockCount - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockTime(mid) <= time) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        loadKeyframe(found);
+        hasB = true;
+        decodeInto();
+        while (hasB && time >= timeB) {
+            shiftAndDecode();
+        }
+    }
+
+    private long blockTime(int index) {
+        return buffer.getLong(indexOffset + index * BinaryTrack.INDEX_ENTRY_SIZE);
+    }
+
+    private int blockOffset(int index) {
+        return (int) buffer.getLong(indexOffset + index * BinaryTrack.INDEX_ENTRY_SIZE + 8);
+    }
+
+    private void loadKeyframe(int index) {
+        int pos = blockOffset(index);
+        timeA = buffer.getLong(pos);
+        latA = buffer.getInt(pos + 8);
+        lngA = buffer.getInt(pos + 12);
+        altA = buffer.getInt(pos + 16);
+        accA = buffer.getInt(pos + 20);
+        cursor[0] = pos + BinaryTrack.KEYFRAME_SIZE;
+        block = index;
+        remaining = blockPointCount(index) - 1;
+    }
+
+    private int blockPointCount(int index) {
+        return index < blockCount - 1
+                ? BinaryTrack.BLOCK_SIZE
+                : pointCount - (blockCount - 1) * BinaryTrack.BLOCK_SIZE;
+    }
+
+    /*
+     * Point b becomes point a and the point after it is decoded into b.
+     */
+    private void shiftAndDecode() {
+        timeA = timeB;
+        latA = latB;
+        lngA = lngB;
+        altA = altB;
+        accA = accB;
+        decodeInto();
+    }
+
+    /*
+     * Decodes the point following a into b: the next delta of the block, or the first point of
+     * the next block.
+     */
+    private void decodeInto() {
+        if (remaining > 0) {
+            timeB = timeA + BinaryTrack.unzigzag(BinaryTrack.getVarLong(buffer, cursor));
+            latB = (int) (latA + BinaryTrack.unzigzag(BinaryTrack.getVarLong(buffer, cursor)));
+            lngB = (int) (lngA + BinaryTrack.unzigzag(BinaryTrack.getVarLong(buffer, cursor)));
+            altB = (int) (altA + BinaryTrack.unzigzag(BinaryTrack.getVarLong(buffer, cursor)));
+            accB = (int) (accA + BinaryTrack.unzigzag(BinaryTrack.getVarLong(buffer, cursor)));
+            remaining--;
+        } else if (block + 1 < blockCount) {
+            int pos = blockOffset(block + 1);
+            timeB = buffer.getLong(pos);
+            latB = buffer.getInt(pos + 8);
+            lngB = buffer.getInt(pos + 12);
+            altB = buffer.getInt(pos + 16);
+            accB = buffer.getInt(pos + 20);
+            cursor[0] = pos + BinaryTrack.KEYFRAME_SIZE;
+            block++;
+            remaining = blockPointCount(block) - 1;
+        } else {
+            hasB = false;
+            return;
+        }
+        segmentDirty = true;
+    }
+
+    private void updateSegment() {
+        segmentDirty = false;
+        if (!hasB) {
+            segmentSpeed = 0f;
+            return;
+        }
+        double lat1 = BinaryTrack.decodeDegrees(latA);
+        double lng1 = BinaryTrack.decodeDegrees(lngA);
+        double lat2 = BinaryTrack.decodeDegrees(latB);
+        double lng2 = BinaryTrack.decodeDegrees(lngB);
+        double meters = GeoMath.distance(lat1, lng1, lat2, lng2);
+        long dt = timeB - timeA;
+        segmentSpeed = dt > 0 ? (float) (meters * 1000.0 / dt) : 0f;
+        if (meters > 0) {
+            segmentBearing = (float) GeoMath.bearing(lat1, lng1, lat2, lng2);
+        }
+    }
+
+    @Override
+    public void close() {
+        // a mapping is released by the garbage collector, there is nothing to close
+    }
+
+    @Override
+    public String toString() {
+        return "MappedTrack[" + file + ", " + pointCount + " points]";
+    }
+}
@@ -0,0 +1,199 @@
+package com.location.philippweiher.test.track;
+
+/**
+ * Encodes fixes as NMEA 0183 sentences, the counterpart of {@link NmeaTrackReader}: a
+ * {@code $GPRMC} with position, speed, course and date followed by a {@code $GPGGA} with
+ * position, HDOP and altitude, each ending in CRLF. Everything is written as ASCII straight into
+ * a byte array, so encoding allocates nothing.
+ *
+ * HDOP is derived from the accuracy the same way the readers turn it back into an accuracy;
+ * an unknown accuracy or altitude leaves its field empty.
+ */
+public final class NmeaSentences {
+
+    /**
+     * Bytes needed for the two sentences of one fix; the standard limits a sentence to 82.
+     */
+    public static final int MAX_LENGTH = 2 * 82;
+
+    private static final long MILLIS_PER_DAY = 24L * 3600 * 1000;
+    private static final double KNOTS_PER_METER_PER_SECOND = 3600.0 / 1852.0;
+
+    // limits that keep every field, and so the sentences, within their maximum length
+    private static final double MAX_KNOTS = 9999.9;
+    private static final double MAX_ALTITUDE = 99999.9;
+
+    private static final byte[] RMC = {'$', 'G', 'P', 'R', 'M', 'C', ','};
+    private static final byte[] GGA = {'$', 'G', 'P', 'G', 'G', 'A', ','};
+    // fix quality GPS, 8 satellites
+    private static final byte[] GGA_QUALITY = {',', '1', ',', '0', '8', ','};
+    // geoid separation unknown, no differential data
+    private static final byte[] GGA_TAIL = {',', 'M', ',', '0', '.', '0', ',', 'M', ',', ','};
+    // no magnetic variation, autonomous mode
+    private static final byte[] RMC_TAIL = {',', ',', ',', 'A'};
+
+    private NmeaSentences() {
+    }
+
+    /**
+     * Writes the sentences for a fix into {@code out}, which needs {@link #MAX_LENGTH} bytes from
+     * {@code offset} on.
+     *
+     * @param time the UTC time to stamp the sentences with, in milliseconds
+     * @return the offset after the last byte written
+     */
+    public static int encode(Fix fix, long time, byte[] out, int offset) {
+        long day = floorDiv(time, MILLIS_PER_DAY);
+        long timeOfDay = time - day * MILLIS_PER_DAY;
+
+        int start = offset;
+        offset = put(RMC, out, offset);
+        offset = putTime(timeOfDay, out, offset);
+        out[offset++] = ',';
+        out[offset++] = 'A';
+        out[offset++] = ',';
+        offset = putPosition(fix, out, offset);
+        out[offset++] = ',';
+        offset = putDecimal(clamp(fix.speed * KNOTS_PER_METER_PER_SECOND, 0.0, MAX_KNOTS), 1, out, offset);
+        out[offset++] = ',';
+        offset = putDecimal(normalizeBearing(fix.bearing), 1, out, offset);
+        out[offset++] = ',';
+        offset = putDate(day, out, offset);
+        offset = put(RMC_TAIL, out, offset);
+        offset = finish(out, start, offset);
+
+        start = offset;
+        offset = put(GGA, out, offset);
+        offset = putTime(timeOfDay, out, offset);
+        out[offset++] = ',';
+        offset = putPosition(fix, out, offset);
+        offset = put(GGA_QUALITY, out, offset);
+        if (fix.hasAccuracy()) {
+            offset = putDecimal(clamp(fix.accuracy / TrackFormat.METERS_PER_HDOP, 0.1, 99.9), 1, out, offset);
+        }
+        out[offset++] = ',';
+        if (fix.hasAltitude()) {
+            offset = putDecimal(clamp(fix.altitude, -MAX_ALTITUDE, MAX_ALTITUDE), 1, out, offset);
+        }
+        offset = put(GGA_TAIL, out, offset);
+        return finish(out, start, offset);
+    }
+
+    // hhmmss.ss
+    private static int putTime(long timeOfDay, byte[] out, int offset) {
+        long centis = timeOfDay / 10;
+        offset = putDigits(centis / 360000, 2, out, offset);
+        offset = putDigits(centis / 6000 % 60, 2, out, offset);
+        offset = putDigits(centis / 100 % 60, 2, out, offset);
+        out[offset++] = '.';
+        return putDigits(centis % 100, 2, out, offset);
+    }
+
+    // ddmmyy, from days since 1970 (the proleptic Gregorian calendar, without allocating one)
+    private static int putDate(long days, byte[] out, int offset) {
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        offset = putDigits(day, 2, out, offset);
+        offset = putDigits(month, 2, out, offset);
+        return putDigits(year - floorDiv(year, 100) * 100, 2, out, offset);
+    }
+
+    // llll.lllll,N,yyyyy.yyyyy,E
+    private static int putPosition(Fix fix, byte[] out, int offset) {
+        offset = putCoordinate(fix.latitude, 2, out, offset);
+        out[offset++] = ',';
+        out[offset++] = (byte) (fix.latitude < 0 ? 'S' : 'N');
+        out[offset++] = ',';
+        offset = putCoordinate(fix.longitude, 3, out, offset);
+        out[offset++] = ',';
+        out[offset++] = (byte) (fix.longitude < 0 ? 'W' : 'E');
+        return offset;
+    }
+
+    // degrees and decimal minutes to 1e-5 minutes, about 2 cm
+    private static int putCoordinate(double degrees, int degreeDigits, byte[] out, int offset) {
+        long scaled = Math.round(Math.abs(degrees) * 60.0 * 100000.0);
+        long whole = scaled / (60L * 100000);
+        long minutes = scaled % (60L * 100000);
+        offset = putDigits(whole, degreeDigits, out, offset);
+        offset = putDigits(minutes / 100000, 2, out, offset);
+        out[offset++] = '.';
+        return putDigits(minutes % 100000, 5, out, offset);
+    }
+
+    private static int putDecimal(double value, int decimals, byte[] out, int offset) {
+        long scale = decimals == 1 ? 10 : 100;
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) {
+            out[offset++] = '-';
+        }
+        offset = putDigits(scaled / scale, 1, out, offset);
+        out[offset++] = '.';
+        return putDigits(scaled % scale, decimals, out, offset);
+    }
+
+    // a non-negative number, zero padded to at least minDigits
+    private static int putDigits(long value, int minDigits, byte[] out, int offset) {
+        int count = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            count++;
+        }
+        count = Math.max(count, minDigits);
+        for (int i = offset + count - 1; i >= offset; i--) {
+            out[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + count;
+    }
+
+    private static int put(byte[] bytes, byte[] out, int offset) {
+        System.arraycopy(bytes, 0, out, offset, bytes.length);
+        return offset + bytes.length;
+    }
+
+    // appends *hh and CRLF; the checksum covers everything between '$' and '*'
+    private static int finish(byte[] out, int start, int offset) {
+        int checksum = 0;
+        for (int i = start + 1; i < offset; i++) {
+            checksum ^= out[i];
+        }
+        out[offset++] = '*';
+        out[offset++] = hex(checksum >> 4);
+        out[offset++] = hex(checksum & 0xf);
+        out[offset++] = '\r';
+        out[offset++] = '\n';
+        return offset;
+    }
+
+    private static byte hex(int nibble) {
+        return (byte) (nibble < 10 ? '0' + nibble : 'A' + nibble - 10);
+    }
+
+    // [0, 360) after rounding to a tenth
+    private static double normalizeBearing(float bearing) {
+        if (Float.isNaN(bearing) || Float.isInfinite(bearing)) {
+            return 0.0;
+        }
+        double b = bearing % 360.0;
+        if (b < 0) {
+            b += 360.0;
+        }
+        return b >= 359.95 ? 0.0 : b;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Double.isNaN(value) ? min : Math.max(min, Math.min(max, value));
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+}
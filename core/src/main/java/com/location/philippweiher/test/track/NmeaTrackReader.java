@@ -0,0 +1,217 @@
+package com.location.philippweiher.test.track;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reads fixes from an NMEA 0183 log. {@code $GPRMC} supplies position and date, {@code $GPGGA}
+ * supplies position, altitude and HDOP; sentences with the same time of day are merged into one
+ * fix. Any talker id is accepted (GP, GN, GL, ...), sentences with a bad checksum or without a
+ * valid fix are skipped.
+ */
+public class NmeaTrackReader implements TrackReader {
+
+    private static final long MILLIS_PER_DAY = 24L * 3600 * 1000;
+
+    private final BufferedReader reader;
+
+    // fields of the sentence being parsed, reused for every line
+    private final String[] fields = new String[20];
+
+    // fix collected for the current time of day, not returned yet
+    private final Fix pending = new Fix();
+    private boolean hasPending;
+    private long pendingTimeOfDay = -1;
+
+    // UTC midnight of the current day; GGA has no date, so it comes from the last RMC
+    private long dayStart;
+    private long lastTimeOfDay = -1;
+
+    public NmeaTrackReader(InputStream in) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"), 64 * 1024);
+    }
+
+    @Override
+    public boolean next(Fix out) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int count = split(line);
+            if (count == 0) {
+                continue;
+            }
+            String type = fields[0];
+            if (type.length() != 6 || type.charAt(0) != '$') {
+                continue;
+            }
+            boolean rmc = type.endsWith("RMC");
+            boolean gga = type.endsWith("GGA");
+            if (!(rmc && count >= 10) && !(gga && count >= 10)) {
+                continue;
+            }
+
+            try {
+                long timeOfDay = parseTimeOfDay(fields[1]);
+                if (rmc && !"A".equals(fields[2])) {
+                    continue;
+                }
+                if (gga && (fields[6].length() == 0 || fields[6].charAt(0) == '0')) {
+                    continue;
+                }
+
+                // every field is parsed before any state changes, so a garbled sentence is
+                // dropped on its own and can't lose or corrupt the epoch around it
+                double latitude;
+                double longitude;
+                long date = 0;
+                float accuracy = Float.NaN;
+                double altitude = Double.NaN;
+                if (rmc) {
+                    date = parseDate(fields[9]);
+                    latitude = parseCoordinate(fields[3], fields[4]);
+                    longitude = parseCoordinate(fields[5], fields[6]);
+                } else {
+                    latitude = parseCoordinate(fields[2], fields[3]);
+                    longitude = parseCoordinate(fields[4], fields[5]);
+                    if (fields[8].length() > 0) {
+                        accuracy = Float.parseFloat(fields[8]) * TrackFormat.METERS_PER_HDOP;
+                    }
+                    if (fields[9].length() > 0) {
+                        altitude = Double.parseDouble(fields[9]);
+                    }
+                }
+
+                // the previous epoch is complete once a sentence for another time shows up
+                boolean emit = hasPending && timeOfDay != pendingTimeOfDay;
+                if (emit) {
+                    out.set(pending);
+                    hasPending = false;
+                }
+
+                if (rmc) {
+                    dayStart = date;
+                } else if (lastTimeOfDay >= 0 && timeOfDay < lastTimeOfDay - MILLIS_PER_DAY / 2) {
+                    // GGA only log crossing midnight
+                    dayStart += MILLIS_PER_DAY;
+                }
+                lastTimeOfDay = timeOfDay;
+
+                if (!hasPending) {
+                    pending.altitude = Double.NaN;
+                    pending.accuracy = Float.NaN;
+                    pending.speed = 0f;
+                    pending.bearing = 0f;
+                    hasPending = true;
+                    pendingTimeOfDay = timeOfDay;
+                }
+                pending.time = dayStart + timeOfDay;
+                pending.latitude = latitude;
+                pending.longitude = longitude;
+                if (gga) {
+                    if (!Float.isNaN(accuracy)) {
+                        pending.accuracy = accuracy;
+                    }
+                    if (!Double.isNaN(altitude)) {
+                        pending.altitude = altitude;
+                    }
+                }
+
+                if (emit) {
+                    return true;
+                }
+            } catch (NumberFormatException e) {
+                // garbled sentence, drop it
+            } catch (StringIndexOutOfBoundsException e) {
+                // truncated field, drop it
+            }
+        }
+
+        if (hasPending) {
+            out.set(pending);
+            hasPending = false;
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Splits a sentence into its comma separated fields after checking the checksum. Returns the
+     * number of fields, or 0 if the line isn't a valid sentence.
+     */
+    private int split(String line) {
+        int end = line.indexOf('*');
+        if (end < 0) {
+            end = line.length();
+        } else if (!checksumMatches(line, end)) {
+            return 0;
+        }
+        int start = line.indexOf('$');
+        if (start < 0 || start >= end) {
+            return 0;
+        }
+        int count = 0;
+        while (count < fields.length) {
+            int comma = line.indexOf(',', start);
+            if (comma < 0 || comma > end) {
+                fields[count++] = line.substring(start, end);
+                break;
+            }
+            fields[count++] = line.substring(start, comma);
+            start = comma + 1;
+        }
+        return count;
+    }
+
+    private static boolean checksumMatches(String line, int star) {
+        if (star + 3 > line.length()) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = line.indexOf('$') + 1; i < star; i++) {
+            sum ^= line.charAt(i);
+        }
+        int expected = Character.digit(line.charAt(star + 1), 16) * 16
+                + Character.digit(line.charAt(star + 2), 16);
+        return sum == expected;
+    }
+
+    /*
+     * hhmmss.sss -> milliseconds since midnight
+     */
+    private static long parseTimeOfDay(String value) {
+        int hours = Integer.parseInt(value.substring(0, 2));
+        int minutes = Integer.parseInt(value.substring(2, 4));
+        double seconds = Double.parseDouble(value.substring(4));
+        return (hours * 3600L + minutes * 60L) * 1000L + Math.round(seconds * 1000);
+    }
+
+    /*
+     * ddmmyy -> milliseconds of UTC midnight
+     */
+    private static long parseDate(String value) {
+        int day = Integer.parseInt(value.substring(0, 2));
+        int month = Integer.parseInt(value.substring(2, 4));
+        int year = Integer.parseInt(value.substring(4, 6));
+        year += year < 80 ? 2000 : 1900;
+        return Iso8601.daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+    }
+
+    /*
+     * (d)ddmm.mmmm plus hemisphere -> signed degrees
+     */
+    private static double parseCoordinate(String value, String hemisphere) {
+        double raw = Double.parseDouble(value);
+        int degrees = (int) (raw / 100);
+        double result = degrees + (raw - degrees * 100) / 60.0;
+        if ("S".equals(hemisphere) || "W".equals(hemisphere)) {
+            result = -result;
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
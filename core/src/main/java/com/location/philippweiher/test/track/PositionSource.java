@@ -0,0 +1,34 @@
+package com.location.philippweiher.test.track;
+
+/**
+ * Something the injector can ask for the position at a given time on a track timeline: an
+ * in-memory {@link Trajectory}, or a track that is still being read from a file.
+ */
+public interface PositionSource {
+
+    /**
+     * Whether the start time is known and positions can be looked up.
+     */
+    boolean isReady();
+
+    /**
+     * Whether the source gave up before becoming ready, e.g. because its file couldn't be read.
+     */
+    boolean hasFailed();
+
+    /**
+     * Time of the first position on the track timeline, in milliseconds.
+     */
+    long getStartTime();
+
+    /**
+     * Fills in the position at the given track time. Times outside of what is known hold the
+     * nearest known position. Only called from one thread at a time and must not allocate.
+     */
+    void positionAt(long time, Fix out);
+
+    /**
+     * Releases files or threads held by the source.
+     */
+    void close();
+}
@@ -0,0 +1,153 @@
+package com.location.philippweiher.test.track;
+
+import java.util.Arrays;
+
+/**
+ * An ordered list of timestamped positions, stored as parallel primitive arrays so that tracks
+ * with hundreds of thousands of points stay cheap to keep around and to search.
+ */
+public class Track {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private long[] times;
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] altitudes;
+    private float[] accuracies;
+    private int size;
+
+    public Track() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Track(int capacity) {
+        capacity = Math.max(1, capacity);
+        times = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        altitudes = new double[capacity];
+        accuracies = new float[capacity];
+    }
+
+    /**
+     * Builds a track from the arrays sent along with a start Intent. The times array may be null,
+     * in which case the points are spaced one second apart.
+     */
+    public static Track fromArrays(long[] times, double[] latitudes, double[] longitudes) {
+        if (latitudes == null || longitudes == null || latitudes.length != longitudes.length
+                || (times != null && times.length != latitudes.length)) {
+            throw new IllegalArgumentException("track arrays must have the same length");
+        }
+        Track track = new Track(latitudes.length);
+        for (int i = 0; i < latitudes.length; i++) {
+            long time = times != null ? times[i] : i * 1000L;
+            track.add(time, latitudes[i], longitudes[i]);
+        }
+        return track;
+    }
+
+    /**
+     * A track that holds a single position, which is what a long-press on the map produces.
+     */
+    public static Track singlePoint(double latitude, double longitude) {
+        Track track = new Track(1);
+        track.add(0, latitude, longitude);
+        return track;
+    }
+
+    public void add(long time, double latitude, double longitude) {
+        add(time, latitude, longitude, Double.NaN, Float.NaN);
+    }
+
+    /**
+     * Appends a point. Times must not go backwards, the trajectory lookups rely on it.
+     */
+    public void add(long time, double latitude, double longitude, double altitude, float accuracy) {
+        if (size > 0 && time < times[size - 1]) {
+            throw new IllegalArgumentException("track time went backwards at index " + size
+                    + ": " + time + " < " + times[size - 1]);
+        }
+        if (size == times.length) {
+            grow();
+        }
+        times[size] = time;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        altitudes[size] = altitude;
+        accuracies[size] = accuracy;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = times.length + (times.length >> 1) + 1;
+        times = Arrays.copyOf(times, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        altitudes = Arrays.copyOf(altitudes, capacity);
+        accuracies = Arrays.copyOf(accuracies, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    public double getAltitude(int index) {
+        return altitudes[index];
+    }
+
+    public float getAccuracy(int index) {
+        return accuracies[index];
+    }
+
+    public long getStartTime() {
+        return times[0];
+    }
+
+    public long getEndTime() {
+        return times[size - 1];
+    }
+
+    public long getDuration() {
+        return size == 0 ? 0 : times[size - 1] - times[0];
+    }
+
+    /**
+     * Index of the last point whose time is less than or equal to the given time, or -1 if the
+     * time lies before the first point.
+     */
+    public int floorIndex(long time) {
+        return floorIndex(time, 0, size - 1);
+    }
+
+    int floorIndex(long time, int low, int high) {
+        // binary search for the last index with times[index] <= time
+        int result = low - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+package com.location.philippweiher.test.track;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts imported GPX, KML or NMEA tracks into the compact binary format, so a route only
+ * has to be parsed once.
+ */
+public final class TrackConverter {
+
+    public static final String BINARY_EXTENSION = ".mtrk";
+
+    private TrackConverter() {
+    }
+
+    /**
+     * Converts a track file. The result is written to a temporary file first and renamed, so a
+     * half written output never looks like a valid track.
+     *
+     * @param format the input format, or null to guess it
+     * @return the number of points written
+     */
+    public static int convert(File input, TrackFormat format, File output) throws IOException {
+        TrackReader reader = TrackFormat.open(input, format);
+        File temp = new File(output.getPath() + ".tmp");
+        try {
+            BinaryTrackWriter writer = new BinaryTrackWriter(temp);
+            try {
+                copy(reader, writer);
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(output)) {
+                throw new IOException("Can't rename " + temp + " to " + output);
+            }
+            return writer.getPointCount();
+        } finally {
+            reader.close();
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Copies every point of the reader into the writer, dropping points that go back in time.
+     */
+    public static void copy(TrackReader reader, BinaryTrackWriter writer) throws IOException {
+        Fix fix = new Fix();
+        long lastTime = Long.MIN_VALUE;
+        while (reader.next(fix)) {
+            if (fix.time < lastTime) {
+                continue;
+            }
+            lastTime = fix.time;
+            writer.add(fix);
+        }
+    }
+
+    public static boolean isBinaryTrack(File file) {
+        return file.getName().endsWith(BINARY_EXTENSION);
+    }
+}
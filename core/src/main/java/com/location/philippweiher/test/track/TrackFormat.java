@@ -0,0 +1,104 @@
+package com.location.philippweiher.test.track;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * The track file formats that can be imported.
+ */
+public enum TrackFormat {
+
+    GPX {
+        @Override
+        public TrackReader newReader(InputStream in) throws IOException {
+            return new GpxTrackReader(in);
+        }
+    },
+    KML {
+        @Override
+        public TrackReader newReader(InputStream in) throws IOException {
+            return new KmlTrackReader(in);
+        }
+    },
+    NMEA {
+        @Override
+        public TrackReader newReader(InputStream in) throws IOException {
+            return new NmeaTrackReader(in);
+        }
+    };
+
+    // how far into a file we look for a telltale tag or sentence
+    private static final int SNIFF_LENGTH = 1024;
+
+    // rough user range error used to turn a horizontal dilution of precision into meters
+    static final float METERS_PER_HDOP = 5.0f;
+
+    public abstract TrackReader newReader(InputStream in) throws IOException;
+
+    /**
+     * Opens a reader for a track file.
+     *
+     * @param format the file format, or null to guess it from the name and content
+     */
+    public static TrackReader open(File file, TrackFormat format) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        try {
+            if (format == null) {
+                format = forFileName(file.getName());
+            }
+            if (format == null) {
+                format = sniff(in);
+            }
+            return format.newReader(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Guesses the format from a file name, or returns null if the extension is unknown.
+     */
+    public static TrackFormat forFileName(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        if (lower.endsWith(".gpx")) {
+            return GPX;
+        } else if (lower.endsWith(".kml")) {
+            return KML;
+        } else if (lower.endsWith(".nmea") || lower.endsWith(".nma")) {
+            return NMEA;
+        }
+        return null;
+    }
+
+    /**
+     * Guesses the format from the first bytes of a stream. The stream must support mark/reset,
+     * wrap it in a {@link BufferedInputStream} otherwise.
+     *
+     * @throws IOException if the content doesn't look like any known format
+     */
+    public static TrackFormat sniff(InputStream in) throws IOException {
+        byte[] head = new byte[SNIFF_LENGTH];
+        in.mark(SNIFF_LENGTH);
+        int length = 0;
+        int read;
+        while (length < head.length && (read = in.read(head, length, head.length - length)) > 0) {
+            length += read;
+        }
+        in.reset();
+
+        String text = new String(head, 0, length, "ISO-8859-1");
+        if (text.indexOf("<gpx") >= 0) {
+            return GPX;
+        } else if (text.indexOf("<kml") >= 0) {
+            return KML;
+        } else if (text.indexOf("$GP") >= 0 || text.indexOf("$GN") >= 0) {
+            return NMEA;
+        }
+        throw new IOException("Unknown track format");
+    }
+}
@@ -0,0 +1,19 @@
+package com.location.philippweiher.test.track;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Pulls the fixes of a recorded track one at a time, so a reader never holds more than the
+ * fix it is working on no matter how large the file is.
+ */
+public interface TrackReader extends Closeable {
+
+    /**
+     * Reads the next fix. Only latitude, longitude, time and, if the file has them, altitude and
+     * accuracy are filled in; fields the format doesn't provide are set to NaN.
+     *
+     * @return false once the end of the track is reached
+     */
+    boolean next(Fix out) throws IOException;
+}
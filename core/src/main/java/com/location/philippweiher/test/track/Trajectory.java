@@ -0,0 +1,185 @@
+package com.location.philippweiher.test.track;
+
+import com.location.philippweiher.test.utils.GeoMath;
+
+/**
+ * Plays back a {@link Track}: for any time on the track timeline it produces an interpolated
+ * position with speed and bearing filled in.
+ *
+ * Per-segment speed and bearing are computed once up front, so a lookup is a binary search over
+ * the point times (O(log n)) plus a constant amount of arithmetic. Playback normally moves forward
+ * a little each tick, so the segment found last time is checked first and the search is skipped
+ * entirely in the common case.
+ */
+public class Trajectory implements PositionSource {
+
+    private final Track track;
+
+    // segment i runs from point i to point i + 1
+    private float[] segmentSpeeds;
+    private float[] segmentBearings;
+    private int segmentCount;
+
+    // segment used for the previous lookup
+    private int lastSegment;
+
+    public Trajectory(Track track) {
+        if (track.isEmpty()) {
+            throw new IllegalArgumentException("cannot play back an empty track");
+        }
+        this.track = track;
+        buildSegments();
+    }
+
+    private Trajectory(Trajectory other) {
+        track = other.track;
+        segmentSpeeds = other.segmentSpeeds;
+        segmentBearings = other.segmentBearings;
+        segmentCount = other.segmentCount;
+    }
+
+    /**
+     * Another playback of the same track that shares the precomputed segments but remembers its
+     * own position, so many devices or threads can follow one track for the cost of a few fields
+     * each.
+     */
+    public Trajectory share() {
+        return new Trajectory(this);
+    }
+
+    private void buildSegments() {
+        int count = Math.max(0, track.size() - 1);
+        segmentSpeeds = new float[Math.max(1, count)];
+        segmentBearings = new float[Math.max(1, count)];
+        for (int i = 0; i < count; i++) {
+            double lat1 = track.getLatitude(i);
+            double lng1 = track.getLongitude(i);
+            double lat2 = track.getLatitude(i + 1);
+            double lng2 = track.getLongitude(i + 1);
+            long dt = track.getTime(i + 1) - track.getTime(i);
+
+            double meters = GeoMath.distance(lat1, lng1, lat2, lng2);
+            segmentSpeeds[i] = dt > 0 ? (float) (meters * 1000.0 / dt) : 0f;
+            // a standing segment keeps the heading of the one before it
+            segmentBearings[i] = meters > 0 || i == 0
+                    ? (float) GeoMath.bearing(lat1, lng1, lat2, lng2)
+                    : segmentBearings[i - 1];
+        }
+        segmentCount = count;
+    }
+
+    public Track getTrack() {
+        return track;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public boolean hasFailed() {
+        return false;
+    }
+
+    @Override
+    public long getStartTime() {
+        return track.getStartTime();
+    }
+
+    public long getEndTime() {
+        return track.getEndTime();
+    }
+
+    public long getDuration() {
+        return track.getDuration();
+    }
+
+    /**
+     * Index of the segment that contains the given time, clamped to the first and last segment.
+     */
+    int segmentAt(long time) {
+        if (segmentCount == 0) {
+            return 0;
+        }
+        int segment = lastSegment;
+        if (track.getTime(segment) <= time && time < track.getTime(segment + 1)) {
+            return segment;
+        }
+        // playback usually just stepped into the following segment
+        int next = segment + 1;
+        if (next < segmentCount && track.getTime(next) <= time && time < track.getTime(next + 1)) {
+            lastSegment = next;
+            return next;
+        }
+        segment = track.floorIndex(time);
+        if (segment < 0) {
+            segment = 0;
+        } else if (segment >= segmentCount) {
+            segment = segmentCount - 1;
+        }
+        lastSegment = segment;
+        return segment;
+    }
+
+    /**
+     * Fills in the position at the given track time. Times before the start or after the end of
+     * the track are clamped to the first and last point.
+     */
+    @Override
+    public void positionAt(long time, Fix out) {
+        int segment = segmentAt(time);
+        out.time = time;
+
+        if (segmentCount == 0) {
+            copyPoint(0, out);
+            out.speed = 0f;
+            out.bearing = 0f;
+            return;
+        }
+
+        long t0 = track.getTime(segment);
+        long t1 = track.getTime(segment + 1);
+        if (time <= t0) {
+            copyPoint(segment, out);
+        } else if (time >= t1) {
+            copyPoint(segment + 1, out);
+        } else {
+            double f = (double) (time - t0) / (t1 - t0);
+            double lat0 = track.getLatitude(segment);
+            double lng0 = track.getLongitude(segment);
+            out.latitude = lat0 + (track.getLatitude(segment + 1) - lat0) * f;
+            out.longitude = GeoMath.normalizeLongitude(
+                    lng0 + GeoMath.deltaLongitude(lng0, track.getLongitude(segment + 1)) * f);
+            out.altitude = lerp(track.getAltitude(segment), track.getAltitude(segment + 1), f);
+            out.accuracy = (float) lerp(track.getAccuracy(segment), track.getAccuracy(segment + 1), f);
+        }
+
+        // outside the track the device stands still at the first or last point
+        boolean moving = time >= track.getStartTime() && time < track.getEndTime();
+        out.speed = moving ? segmentSpeeds[segment] : 0f;
+        out.bearing = segmentBearings[segment];
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void copyPoint(int index, Fix out) {
+        out.latitude = track.getLatitude(index);
+        out.longitude = track.getLongitude(index);
+        out.altitude = track.getAltitude(index);
+        out.accuracy = track.getAccuracy(index);
+    }
+
+    private static double lerp(double a, double b, double f) {
+        // unknown values stay unknown instead of turning into NaN halfway
+        if (Double.isNaN(a)) {
+            return b;
+        }
+        if (Double.isNaN(b)) {
+            return a;
+        }
+        return a + (b - a) * f;
+    }
+}
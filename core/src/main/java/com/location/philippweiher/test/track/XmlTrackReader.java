@@ -0,0 +1,52 @@
+package com.location.philippweiher.test.track;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Base class for the XML track formats. Uses a pull parser, so the document is never held in
+ * memory as a whole; tag names are compared without their namespace prefix.
+ */
+abstract class XmlTrackReader implements TrackReader {
+
+    protected final InputStream in;
+    protected final XmlPullParser parser;
+
+    protected XmlTrackReader(InputStream in) throws IOException {
+        this.in = in;
+        try {
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            parser = factory.newPullParser();
+            parser.setInput(in, null);
+        } catch (XmlPullParserException e) {
+            throw new IOException("Can't create XML parser", e);
+        }
+    }
+
+    @Override
+    public boolean next(Fix out) throws IOException {
+        try {
+            return readNext(out);
+        } catch (XmlPullParserException e) {
+            throw new IOException("Malformed track at line " + parser.getLineNumber(), e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad value at line " + parser.getLineNumber(), e);
+        }
+    }
+
+    protected abstract boolean readNext(Fix out) throws XmlPullParserException, IOException;
+
+    protected static double parseDouble(String value) {
+        return value == null ? Double.NaN : Double.parseDouble(value.trim());
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
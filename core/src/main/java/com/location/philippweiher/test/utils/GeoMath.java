@@ -0,0 +1,65 @@
+package com.location.philippweiher.test.utils;
+
+/**
+ * Spherical earth helpers shared by the trajectory engine and the address queries.
+ */
+public final class GeoMath {
+
+    // mean earth radius in meters, good enough for mock positions
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    private GeoMath() {
+    }
+
+    /**
+     * Great circle distance between two points in meters (haversine formula).
+     */
+    public static double distance(double lat1, double lng1, double lat2, double lng2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(lng2 - lng1);
+
+        double sinPhi = Math.sin(dPhi / 2);
+        double sinLambda = Math.sin(dLambda / 2);
+        double a = sinPhi * sinPhi + Math.cos(phi1) * Math.cos(phi2) * sinLambda * sinLambda;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Initial bearing from the first to the second point in degrees, [0, 360).
+     */
+    public static double bearing(double lat1, double lng1, double lat2, double lng2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dLambda = Math.toRadians(lng2 - lng1);
+
+        double y = Math.sin(dLambda) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dLambda);
+        double degrees = Math.toDegrees(Math.atan2(y, x));
+        return degrees < 0 ? degrees + 360.0 : degrees;
+    }
+
+    /**
+     * Longitude difference lng2 - lng1 taking the short way around the antimeridian.
+     */
+    public static double deltaLongitude(double lng1, double lng2) {
+        double delta = lng2 - lng1;
+        if (delta > 180.0) {
+            delta -= 360.0;
+        } else if (delta < -180.0) {
+            delta += 360.0;
+        }
+        return delta;
+    }
+
+    /**
+     * Wraps a longitude back into [-180, 180).
+     */
+    public static double normalizeLongitude(double lng) {
+        if (lng >= 180.0 || lng < -180.0) {
+            lng = ((lng + 180.0) % 360.0 + 360.0) % 360.0 - 180.0;
+        }
+        return lng;
+    }
+}
@@ -0,0 +1,199 @@
+package com.location.philippweiher.test.utils;
+
+/**
+ * Z-order (Morton) codes for positions: latitude and longitude are quantized to 31 bits each
+ * and their bits interleaved, so points that are close on the map mostly have close codes and
+ * every quadtree cell is one contiguous range of codes. That turns "what is inside this box"
+ * into a handful of range scans over an ordinary index.
+ */
+public final class MortonCode {
+
+    // bits per axis; 2^31 cells around the world is about 2 cm at the equator
+    public static final int BITS = 31;
+
+    private static final long CELLS = 1L << BITS;
+    private static final long MAX_CELL = CELLS - 1;
+
+    // how many levels below the box-sized cell the cover is refined
+    private static final int REFINE_LEVELS = 3;
+
+    private MortonCode() {
+    }
+
+    public static long encode(double latitude, double longitude) {
+        return interleave(quantizeLongitude(longitude), quantizeLatitude(latitude));
+    }
+
+    public static double decodeLatitude(long code) {
+        return (compact(code >>> 1) + 0.5) * 180.0 / CELLS - 90.0;
+    }
+
+    public static double decodeLongitude(long code) {
+        return (compact(code) + 0.5) * 360.0 / CELLS - 180.0;
+    }
+
+    static long quantizeLatitude(double latitude) {
+        return clamp((long) Math.floor((latitude + 90.0) / 180.0 * CELLS));
+    }
+
+    static long quantizeLongitude(double longitude) {
+        return clamp((long) Math.floor((longitude + 180.0) / 360.0 * CELLS));
+    }
+
+    private static long clamp(long cell) {
+        return cell < 0 ? 0 : cell > MAX_CELL ? MAX_CELL : cell;
+    }
+
+    /*
+     * x goes to the even bits, y to the odd bits.
+     */
+    static long interleave(long x, long y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static long spread(long v) {
+        v &= 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    private static long compact(long v) {
+        v &= 0x5555555555555555L;
+        v = (v | (v >>> 1)) & 0x3333333333333333L;
+        v = (v | (v >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v >>> 4)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v >>> 8)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v >>> 16)) & 0x00000000FFFFFFFFL;
+        return v;
+    }
+
+    /**
+     * Computes code ranges that together cover a bounding box (west may be greater than east for
+     * a box across the antimeridian). The cover can contain codes outside the box, so matches
+     * still have to be checked against the box, but it never misses a code inside it.
+     *
+     * @param ranges receives {@code lo, hi} pairs (inclusive), sorted and non-overlapping; must
+     *               hold at least {@code 2 * maxRanges} values
+     * @return the number of ranges written
+     */
+    public static int cover(double south, double west, double north, double east, int maxRanges,
+                            long[] ranges) {
+        if (maxRanges < 2) {
+            throw new IllegalArgumentException("need room for at least two ranges");
+        }
+        long y0 = quantizeLatitude(Math.min(south, north));
+        long y1 = quantizeLatitude(Math.max(south, north));
+        long[] scratch = new long[2 * 512];
+        int count;
+        if (west <= east) {
+            count = coverCells(quantizeLongitude(west), y0, quantizeLongitude(east), y1, scratch, 0);
+        } else {
+            count = coverCells(quantizeLongitude(west), y0, MAX_CELL, y1, scratch, 0);
+            count = coverCells(0, y0, quantizeLongitude(east), y1, scratch, count);
+        }
+        return merge(scratch, count, maxRanges, ranges);
+    }
+
+    private static int coverCells(long x0, long y0, long x1, long y1, long[] out, int count) {
+        long span = Math.max(x1 - x0, y1 - y0) + 1;
+        // coarsest level whose cells are at least as large as the box: at most 2x2 of them touch it
+        int level = BITS - (64 - Long.numberOfLeadingZeros(span - 1));
+        level = Math.max(0, Math.min(BITS, level));
+        int maxLevel = Math.min(BITS, level + REFINE_LEVELS);
+
+        int shift = BITS - level;
+        for (long cy = y0 >>> shift; cy <= y1 >>> shift; cy++) {
+            for (long cx = x0 >>> shift; cx <= x1 >>> shift; cx++) {
+                count = coverCell(cx, cy, level, maxLevel, x0, y0, x1, y1, out, count);
+            }
+        }
+        return count;
+    }
+
+    private static int coverCell(long cx, long cy, int level, int maxLevel,
+                                 long x0, long y0, long x1, long y1, long[] out, int count) {
+        int shift = BITS - level;
+        long cellX0 = cx << shift;
+        long cellY0 = cy << shift;
+        long cellX1 = cellX0 + (1L << shift) - 1;
+        long cellY1 = cellY0 + (1L << shift) - 1;
+        if (cellX1 < x0 || cellX0 > x1 || cellY1 < y0 || cellY0 > y1) {
+            return count;
+        }
+        boolean inside = cellX0 >= x0 && cellX1 <= x1 && cellY0 >= y0 && cellY1 <= y1;
+        if (inside || level == maxLevel || count + 8 > out.length) {
+            long lo = interleave(cellX0, cellY0);
+            out[count++] = lo;
+            out[count++] = lo + (1L << (2 * shift)) - 1;
+            return count;
+        }
+        long childX = cx << 1;
+        long childY = cy << 1;
+        // children in Z order, so the ranges come out sorted
+        count = coverCell(childX, childY, level + 1, maxLevel, x0, y0, x1, y1, out, count);
+        count = coverCell(childX + 1, childY, level + 1, maxLevel, x0, y0, x1, y1, out, count);
+        count = coverCell(childX, childY + 1, level + 1, maxLevel, x0, y0, x1, y1, out, count);
+        count = coverCell(childX + 1, childY + 1, level + 1, maxLevel, x0, y0, x1, y1, out, count);
+        return count;
+    }
+
+    /*
+     * Sorts the ranges, joins touching ones and then closes the smallest gaps until at most
+     * maxRanges remain.
+     */
+    private static int merge(long[] scratch, int values, int maxRanges, long[] ranges) {
+        int n = values / 2;
+        if (n == 0) {
+            return 0;
+        }
+        // insertion sort on the pairs; the cells are mostly in order already
+        long[] sorted = scratch;
+        for (int i = 1; i < n; i++) {
+            long lo = sorted[2 * i];
+            long hi = sorted[2 * i + 1];
+            int j = i - 1;
+            while (j >= 0 && sorted[2 * j] > lo) {
+                sorted[2 * (j + 1)] = sorted[2 * j];
+                sorted[2 * (j + 1) + 1] = sorted[2 * j + 1];
+                j--;
+            }
+            sorted[2 * (j + 1)] = lo;
+            sorted[2 * (j + 1) + 1] = hi;
+        }
+
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            long lo = sorted[2 * i];
+            long hi = sorted[2 * i + 1];
+            if (count > 0 && lo <= sorted[2 * (count - 1) + 1] + 1) {
+                sorted[2 * (count - 1) + 1] = Math.max(hi, sorted[2 * (count - 1) + 1]);
+            } else {
+                sorted[2 * count] = lo;
+                sorted[2 * count + 1] = hi;
+                count++;
+            }
+        }
+
+        while (count > maxRanges) {
+            int best = 0;
+            long bestGap = Long.MAX_VALUE;
+            for (int i = 0; i + 1 < count; i++) {
+                long gap = sorted[2 * (i + 1)] - sorted[2 * i + 1];
+                if (gap < bestGap) {
+                    bestGap = gap;
+                    best = i;
+                }
+            }
+            sorted[2 * best + 1] = sorted[2 * (best + 1) + 1];
+            System.arraycopy(sorted, 2 * (best + 2), sorted, 2 * (best + 1), 2 * (count - best - 2));
+            count--;
+        }
+
+        System.arraycopy(sorted, 0, ranges, 0, 2 * count);
+        return count;
+    }
+}
@@ -0,0 +1,117 @@
+package com.location.philippweiher.test.utils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Box and nearest-neighbour queries over items stored with a {@link MortonCode} column. The
+ * query area is covered by a few code ranges, {@link #query} loads the items in those ranges and
+ * only they are checked exactly against the box or by haversine distance. Nearest-neighbour
+ * queries start with a small radius and widen it until the k nearest are certain.
+ *
+ * Subclasses say how the ranges are read, e.g. as BETWEEN clauses on an indexed column.
+ */
+public abstract class MortonSearch<T> {
+
+    // first search radius for nearest-neighbour queries
+    private static final double INITIAL_RADIUS_METERS = 500.0;
+    // half way around the world covers every point
+    private static final double MAX_RADIUS_METERS = Math.PI * GeoMath.EARTH_RADIUS_METERS;
+
+    private final int maxRanges;
+    private final long[] ranges;
+    private final double[] bounds = new double[4];
+
+    /**
+     * @param maxRanges upper bound on the ranges per {@link #query}; more ranges read fewer
+     *                  items outside the area
+     */
+    protected MortonSearch(int maxRanges) {
+        this.maxRanges = maxRanges;
+        this.ranges = new long[2 * maxRanges];
+    }
+
+    /**
+     * Every item whose code is in one of the ranges.
+     *
+     * @param ranges {@code lo, hi} pairs (inclusive), sorted and non-overlapping
+     * @param count  the number of pairs
+     */
+    protected abstract List<T> query(long[] ranges, int count) throws SQLException;
+
+    protected abstract double latitudeOf(T item);
+
+    protected abstract double longitudeOf(T item);
+
+    /**
+     * All items inside the box. West greater than east means the box crosses the antimeridian.
+     */
+    public synchronized List<T> findInBounds(double south, double west, double north, double east)
+            throws SQLException {
+        List<T> candidates = queryCover(south, west, north, east);
+        List<T> result = new ArrayList<T>(candidates.size());
+        for (T item : candidates) {
+            if (contains(south, west, north, east, latitudeOf(item), longitudeOf(item))) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The {@code k} items closest to the given position, nearest first. Fewer are returned only
+     * when fewer are stored.
+     */
+    public synchronized List<T> findNearest(double latitude, double longitude, int k)
+            throws SQLException {
+        NearestNeighbours nearest = new NearestNeighbours(k);
+        List<T> candidates;
+        double radius = INITIAL_RADIUS_METERS;
+        while (true) {
+            NearestNeighbours.boundsAround(latitude, longitude, radius, bounds);
+            candidates = queryCover(bounds[0], bounds[1], bounds[2], bounds[3]);
+            nearest.clear();
+            for (int i = 0; i < candidates.size(); i++) {
+                T item = candidates.get(i);
+                nearest.offer(i, GeoMath.distance(latitude, longitude,
+                        latitudeOf(item), longitudeOf(item)));
+            }
+            // everything within radius is inside the box, so k hits no farther than that are final
+            if (nearest.worstDistance() <= radius || radius >= MAX_RADIUS_METERS) {
+                break;
+            }
+            radius = nearest.isFull()
+                    ? Math.max(nearest.worstDistance(), 2 * radius) : 4 * radius;
+            radius = Math.min(radius, MAX_RADIUS_METERS);
+        }
+
+        int[] order = new int[nearest.size()];
+        int n = nearest.drainSorted(order);
+        List<T> result = new ArrayList<T>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(candidates.get(order[i]));
+        }
+        return result;
+    }
+
+    private List<T> queryCover(double south, double west, double north, double east)
+            throws SQLException {
+        int count = MortonCode.cover(south, west, north, east, maxRanges, ranges);
+        if (count == 0) {
+            return new ArrayList<T>();
+        }
+        return query(ranges, count);
+    }
+
+    static boolean contains(double south, double west, double north, double east,
+                            double latitude, double longitude) {
+        if (latitude < south || latitude > north) {
+            return false;
+        }
+        if (west <= east) {
+            return longitude >= west && longitude <= east;
+        }
+        return longitude >= west || longitude <= east;
+    }
+}
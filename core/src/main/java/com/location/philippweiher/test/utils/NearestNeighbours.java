@@ -0,0 +1,137 @@
+package com.location.philippweiher.test.utils;
+
+/**
+ * Keeps the {@code k} closest candidates seen so far in a bounded max-heap, so a search can feed
+ * it any number of candidates and always knows how far away the worst of the current k is.
+ * Candidates are plain int handles; the caller maps them back to its own objects.
+ */
+public final class NearestNeighbours {
+
+    private final int k;
+    private final double[] distances;
+    private final int[] handles;
+    private int size;
+
+    public NearestNeighbours(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.k = k;
+        this.distances = new double[k];
+        this.handles = new int[k];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == k;
+    }
+
+    /**
+     * Distance of the farthest of the current candidates, infinite until k have been offered.
+     */
+    public double worstDistance() {
+        return size < k ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    public void offer(int handle, double distance) {
+        if (size < k) {
+            int i = size++;
+            // sift up
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (distances[parent] >= distance) {
+                    break;
+                }
+                distances[i] = distances[parent];
+                handles[i] = handles[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            handles[i] = handle;
+        } else if (distance < distances[0]) {
+            siftDown(handle, distance, size);
+        }
+    }
+
+    private void siftDown(int handle, double distance, int n) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && distances[child + 1] > distances[child]) {
+                child++;
+            }
+            if (distances[child] <= distance) {
+                break;
+            }
+            distances[i] = distances[child];
+            handles[i] = handles[child];
+            i = child;
+        }
+        distances[i] = distance;
+        handles[i] = handle;
+    }
+
+    /**
+     * Empties the heap into {@code out}, nearest first.
+     *
+     * @return the number of handles written
+     */
+    public int drainSorted(int[] out) {
+        int n = size;
+        for (int last = n - 1; last >= 0; last--) {
+            int handle = handles[0];
+            // move the root behind the heap, re-insert the last element
+            int movedHandle = handles[last];
+            double movedDistance = distances[last];
+            out[last] = handle;
+            if (last > 0) {
+                siftDown(movedHandle, movedDistance, last);
+            }
+        }
+        size = 0;
+        return n;
+    }
+
+    /**
+     * Bounding box {south, west, north, east} containing every point within {@code radius}
+     * metres of the centre. West is greater than east when the box wraps the antimeridian, and
+     * the box spans all longitudes when it reaches a pole.
+     */
+    public static void boundsAround(double latitude, double longitude, double radius,
+                                    double[] out) {
+        double dLat = Math.toDegrees(radius / GeoMath.EARTH_RADIUS_METERS);
+        double south = latitude - dLat;
+        double north = latitude + dLat;
+        if (south <= -90.0 || north >= 90.0 || dLat >= 90.0) {
+            out[0] = Math.max(-90.0, south);
+            out[1] = -180.0;
+            out[2] = Math.min(90.0, north);
+            out[3] = 180.0;
+            return;
+        }
+        // widest at the latitude closest to the pole
+        double maxLat = Math.max(Math.abs(south), Math.abs(north));
+        double ratio = Math.sin(radius / GeoMath.EARTH_RADIUS_METERS)
+                / Math.cos(Math.toRadians(maxLat));
+        out[0] = south;
+        out[2] = north;
+        if (ratio >= 1.0) {
+            out[1] = -180.0;
+            out[3] = 180.0;
+        } else {
+            double dLng = Math.toDegrees(Math.asin(ratio));
+            out[1] = GeoMath.normalizeLongitude(longitude - dLng);
+            out[3] = GeoMath.normalizeLongitude(longitude + dLng);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.location.philippweiher.test.cluster;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares {@link GridClusterer#cluster} with binning every point of the box by hand.
+ */
+public class GridClustererTest {
+
+    private final Random random = new Random(25);
+
+    @Test
+    public void matchesBruteForceBinning() {
+        GridClusterer clusterer = new GridClusterer();
+        addTowns(clusterer, 30000);
+        Clusters out = new Clusters();
+        for (int q = 0; q < 200; q++) {
+            int from = random.nextInt(clusterer.size());
+            double size = Math.pow(10, -2 + random.nextDouble() * 3.5);
+            double south = Math.max(-90.0, clusterer.latitude(from) - size / 2);
+            double north = Math.min(90.0, south + size);
+            double west = clusterer.longitude(from) - size;
+            double east = Math.min(180.0, west + 2 * size);
+            west = Math.max(-180.0, west);
+            checkCluster(clusterer, south, west, north, east, random.nextInt(20), out);
+        }
+        checkCluster(clusterer, -90.0, -180.0, 90.0, 180.0, 0, out);
+        checkCluster(clusterer, -90.0, -180.0, 90.0, 180.0, 6, out);
+    }
+
+    @Test
+    public void pointsInOneSortKeyCellAreCheckedExactly() {
+        // sort keys keep only the top of the morton code, so points a few metres apart share
+        // it; the ones just outside the box must still be left out
+        GridClusterer clusterer = new GridClusterer();
+        for (int i = 0; i < 4000; i++) {
+            clusterer.add(47.0 + (random.nextDouble() - 0.5) * 1e-3,
+                    8.0 + (random.nextDouble() - 0.5) * 1e-3);
+        }
+        addTowns(clusterer, 2000);
+        Clusters out = new Clusters();
+        for (int q = 0; q < 50; q++) {
+            double south = 47.0 + (random.nextDouble() - 0.5) * 1e-3;
+            double west = 8.0 + (random.nextDouble() - 0.5) * 1e-3;
+            checkCluster(clusterer, south, west, south + 2e-4, west + 2e-4, 18 + q % 6, out);
+        }
+    }
+
+    @Test
+    public void overlappingRangesCountEveryPointOnce() {
+        // dense points and boxes that need many ranges: widened to whole sort keys, the ranges
+        // overlap and a point seen twice would show up in the counts
+        GridClusterer clusterer = new GridClusterer();
+        for (int i = 0; i < 20000; i++) {
+            clusterer.add(47.3 + random.nextDouble() * 0.3, 8.4 + random.nextDouble() * 0.4);
+        }
+        Clusters out = new Clusters();
+        for (int q = 0; q < 100; q++) {
+            double south = 47.3 + random.nextDouble() * 0.2;
+            double west = 8.4 + random.nextDouble() * 0.3;
+            double size = random.nextDouble() * 0.1;
+            checkCluster(clusterer, south, west, south + size, west + size, 8 + q % 10, out);
+        }
+    }
+
+    @Test
+    public void unsortedTailIsIncluded() {
+        GridClusterer clusterer = new GridClusterer();
+        addTowns(clusterer, 5000);
+        Clusters out = new Clusters();
+        // sorts the first 5000
+        checkCluster(clusterer, -90.0, -180.0, 90.0, 180.0, 4, out);
+        // fewer than trigger another sort; they are scanned one by one
+        for (int i = 0; i < 500; i++) {
+            clusterer.add(random.nextDouble() * 170.0 - 85.0, random.nextDouble() * 360.0 - 180.0);
+        }
+        checkCluster(clusterer, -90.0, -180.0, 90.0, 180.0, 4, out);
+        checkCluster(clusterer, -30.0, -60.0, 40.0, 30.0, 7, out);
+        // and before anything was ever sorted
+        GridClusterer fresh = new GridClusterer();
+        for (int i = 0; i < 100; i++) {
+            fresh.add(random.nextDouble() * 10.0, random.nextDouble() * 10.0);
+        }
+        checkCluster(fresh, 2.0, 2.0, 8.0, 8.0, 5, out);
+    }
+
+    @Test
+    public void boxesAcrossTheAntimeridian() {
+        GridClusterer clusterer = new GridClusterer();
+        for (int i = 0; i < 5000; i++) {
+            clusterer.add(-16.5 + random.nextGaussian(), normalize(180.0 + random.nextGaussian()));
+        }
+        addTowns(clusterer, 5000);
+        Clusters out = new Clusters();
+        checkCluster(clusterer, -20.0, 178.0, -13.0, -178.0, 10, out);
+        checkCluster(clusterer, -20.0, 179.9, -13.0, -179.9, 14, out);
+        checkCluster(clusterer, -90.0, 0.0, 90.0, -0.001, 3, out);
+        // both sides of the line are in different columns of the grid
+        clusterer.cluster(-20.0, 178.0, -13.0, -178.0, 1, out);
+        assertEquals(2, out.size());
+    }
+
+    @Test
+    public void singlePointsKeepTheirKeyAcrossZooms() {
+        GridClusterer clusterer = new GridClusterer();
+        addTowns(clusterer, 3000);
+        int alone = clusterer.add(-45.0, -30.0);
+        Clusters out = new Clusters();
+        for (int level = 4; level <= GridClusterer.MAX_LEVEL; level++) {
+            clusterer.cluster(-46.0, -31.0, -44.0, -29.0, level, out);
+            assertEquals("level " + level, 1, out.size());
+            assertEquals(-1L - alone, out.key(0));
+            assertEquals(alone, out.member(0));
+            assertEquals(-45.0, out.latitude(0), 0.0);
+        }
+        // a cluster's key does change with the level
+        clusterer.cluster(-90.0, -180.0, 90.0, 180.0, 1, out);
+        long coarse = out.key(0);
+        clusterer.cluster(-90.0, -180.0, 90.0, 180.0, 2, out);
+        for (int i = 0; i < out.size(); i++) {
+            assertTrue(out.key(i) != coarse);
+        }
+    }
+
+    @Test
+    public void levelIsChecked() {
+        GridClusterer clusterer = new GridClusterer();
+        try {
+            clusterer.cluster(0, 0, 1, 1, GridClusterer.MAX_LEVEL + 1, new Clusters());
+            fail("level above the maximum");
+        } catch (IllegalArgumentException expected) {
+            // the cell key has no room for it
+        }
+    }
+
+    private static class Expected {
+        int count;
+        double latitudeSum;
+        double longitudeSum;
+    }
+
+    /*
+     * Clusters the box and checks every entry against binning all points by hand: same keys,
+     * counts and mean positions, and a member that really is in the entry.
+     */
+    private static void checkCluster(GridClusterer clusterer, double south, double west,
+                                     double north, double east, int level, Clusters out) {
+        clusterer.cluster(south, west, north, east, level, out);
+
+        double cells = 1L << level;
+        Map<Long, Expected> expected = new HashMap<Long, Expected>();
+        Map<Long, Integer> loneMember = new HashMap<Long, Integer>();
+        for (int id = 0; id < clusterer.size(); id++) {
+            double latitude = clusterer.latitude(id);
+            double longitude = clusterer.longitude(id);
+            boolean inside = latitude >= south && latitude <= north
+                    && (west <= east ? longitude >= west && longitude <= east
+                    : longitude >= west || longitude <= east);
+            if (!inside) {
+                continue;
+            }
+            long cell = cellOf(latitude, longitude, level, cells);
+            Expected entry = expected.get(cell);
+            if (entry == null) {
+                entry = new Expected();
+                expected.put(cell, entry);
+                loneMember.put(cell, id);
+            }
+            entry.count++;
+            entry.latitudeSum += latitude;
+            entry.longitudeSum += longitude;
+        }
+
+        String box = "[" + south + ", " + west + ", " + north + ", " + east + "] at " + level;
+        assertEquals(box, expected.size(), out.size());
+        for (int i = 0; i < out.size(); i++) {
+            int member = out.member(i);
+            long cell = cellOf(clusterer.latitude(member), clusterer.longitude(member), level, cells);
+            Expected entry = expected.get(cell);
+            assertNotNull(box + " has no cell for " + member, entry);
+            assertEquals(box, entry.count, out.count(i));
+            long key = entry.count == 1 ? -1L - loneMember.get(cell) : cell;
+            assertEquals(box, key, out.key(i));
+            assertEquals(box, entry.latitudeSum / entry.count, out.latitude(i), 1e-9);
+            assertEquals(box, entry.longitudeSum / entry.count, out.longitude(i), 1e-9);
+        }
+    }
+
+    private static long cellOf(double latitude, double longitude, int level, double cells) {
+        long cx = (long) (GridClusterer.mercatorX(longitude) * cells);
+        long cy = (long) (GridClusterer.mercatorY(latitude) * cells);
+        return ((long) (level + 1) << 56) | (cx << 28) | cy;
+    }
+
+    // towns with points scattered around them, the way stored addresses bunch up
+    private void addTowns(GridClusterer clusterer, int n) {
+        double[][] towns = new double[100][2];
+        for (double[] town : towns) {
+            town[0] = random.nextDouble() * 140.0 - 70.0;
+            town[1] = random.nextDouble() * 360.0 - 180.0;
+        }
+        for (int i = 0; i < n; i++) {
+            double[] town = towns[random.nextInt(towns.length)];
+            clusterer.add(Math.max(-90.0, Math.min(90.0, town[0] + random.nextGaussian() * 0.2)),
+                    normalize(town[1] + random.nextGaussian() * 0.3));
+        }
+    }
+
+    private static double normalize(double longitude) {
+        return longitude > 180.0 ? longitude - 360.0 : longitude < -180.0 ? longitude + 360.0
+                : longitude;
+    }
+}
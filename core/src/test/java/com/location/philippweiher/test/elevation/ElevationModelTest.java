@@ -0,0 +1,205 @@
+package com.location.philippweiher.test.elevation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Lookups on small synthetic tiles, whose heights are a plane over the row counted from the
+ * north and the column, so bilinear interpolation gives them back exactly.
+ */
+public class ElevationModelTest {
+
+    // samples per side: four intervals of a quarter degree
+    private static final int SIZE = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // height of the sample in the given row from the north and column from the west
+    private static double height(int base, double rowFromNorth, double column) {
+        return base + 10 * rowFromNorth + column;
+    }
+
+    private File writeTile(File directory, int latitude, int longitude, int base, int[]... voids)
+            throws IOException {
+        File file = new File(directory, HgtTile.nameFor(latitude, longitude));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            for (int row = 0; row < SIZE; row++) {
+                for (int column = 0; column < SIZE; column++) {
+                    boolean isVoid = false;
+                    for (int[] v : voids) {
+                        isVoid |= v[0] == row && v[1] == column;
+                    }
+                    out.writeShort(isVoid ? HgtTile.VOID : (int) height(base, row, column));
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void namesFollowTheSouthWestCorner() {
+        assertEquals("N52E013.hgt", HgtTile.nameFor(52, 13));
+        assertEquals("S01W001.hgt", HgtTile.nameFor(-1, -1));
+        assertEquals("N00E000.hgt", HgtTile.nameFor(0, 0));
+        assertEquals("S90W180.hgt", HgtTile.nameFor(-90, -180));
+        assertEquals("N89E179.hgt", HgtTile.nameFor(89, 179));
+    }
+
+    @Test
+    public void cornersAndSamplesAreExact() throws IOException {
+        HgtTile tile = HgtTile.open(writeTile(folder.getRoot(), 47, 8, 1000), 47, 8);
+        assertEquals(SIZE, tile.getSize());
+        // rows are stored from the north: the south-west corner is the last row
+        assertEquals(height(1000, SIZE - 1, 0), tile.elevationAt(47.0, 8.0), 0.0);
+        assertEquals(height(1000, SIZE - 1, SIZE - 1), tile.elevationAt(47.0, 9.0), 0.0);
+        assertEquals(height(1000, 0, 0), tile.elevationAt(48.0, 8.0), 0.0);
+        assertEquals(height(1000, 0, SIZE - 1), tile.elevationAt(48.0, 9.0), 0.0);
+        for (int row = 0; row < SIZE; row++) {
+            for (int column = 0; column < SIZE; column++) {
+                double lat = 48.0 - row / (SIZE - 1.0);
+                double lng = 8.0 + column / (SIZE - 1.0);
+                assertEquals(height(1000, row, column), tile.elevationAt(lat, lng), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void betweenSamplesIsInterpolated() throws IOException {
+        HgtTile tile = HgtTile.open(writeTile(folder.getRoot(), 47, 8, 1000), 47, 8);
+        // half way between the four samples of a cell, and anywhere else on the plane
+        assertEquals(height(1000, 2.5, 1.5), tile.elevationAt(47.375, 8.375), 1e-9);
+        assertEquals(height(1000, 2.0, 2.0), tile.elevationAt(47.5, 8.5), 1e-9);
+        for (double lat = 47.0; lat <= 48.0; lat += 0.0371) {
+            for (double lng = 8.0; lng <= 9.0; lng += 0.0293) {
+                double rowFromNorth = (48.0 - lat) * (SIZE - 1);
+                double column = (lng - 8.0) * (SIZE - 1);
+                assertEquals(height(1000, rowFromNorth, column), tile.elevationAt(lat, lng), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void voidsAreLeftOut() throws IOException {
+        // sample at row 1, column 1 is void, and the whole cell south-east of row 3, column 3
+        HgtTile tile = HgtTile.open(writeTile(folder.getRoot(), 47, 8, 1000,
+                new int[]{1, 1}, new int[]{3, 3}, new int[]{3, 4}, new int[]{4, 3},
+                new int[]{4, 4}), 47, 8);
+        double voidLat = 48.0 - 0.25;
+        double voidLng = 8.25;
+        // right on the void: the mean of the other three of the cell north-east of it
+        double mean = (height(1000, 0, 1) + height(1000, 0, 2) + height(1000, 1, 2)) / 3;
+        assertEquals(mean, tile.elevationAt(voidLat, voidLng), 1e-9);
+        // half way to the next sample east: only that one counts
+        assertEquals(height(1000, 1, 2), tile.elevationAt(voidLat, voidLng + 0.125), 1e-9);
+        // in the middle of the cell, the other three weigh the same
+        assertEquals(mean, tile.elevationAt(voidLat + 0.125, voidLng + 0.125), 1e-9);
+        // a cell of voids only has no height
+        assertTrue(Double.isNaN(tile.elevationAt(47.125, 8.875)));
+        // samples away from the voids are as before
+        assertEquals(height(1000, 2, 0), tile.elevationAt(47.5, 8.0), 1e-9);
+    }
+
+    @Test
+    public void filesOfTheWrongSizeAreRejected() throws IOException {
+        File file = folder.newFile(HgtTile.nameFor(10, 10));
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[2 * SIZE * SIZE + 2]);
+        out.close();
+        try {
+            HgtTile.open(file, 10, 10);
+            fail("not a square of samples");
+        } catch (IOException expected) {
+            // not a tile
+        }
+        ElevationModel model = new ElevationModel(folder.getRoot());
+        assertTrue(Double.isNaN(model.elevationAt(10.5, 10.5)));
+        assertEquals(1, model.getFailedTotal());
+        assertEquals(0, model.getOpenedTotal());
+    }
+
+    @Test
+    public void modelPicksTheTileOfThePosition() throws IOException {
+        File directory = folder.getRoot();
+        writeTile(directory, 47, 8, 1000);
+        writeTile(directory, 47, 9, 2000);
+        writeTile(directory, -1, -1, 3000);
+        writeTile(directory, 89, 179, 4000);
+        ElevationModel model = new ElevationModel(directory);
+        assertEquals(height(1000, 2, 2), model.elevationAt(47.5, 8.5), 1e-9);
+        // on the boundary, the tile east of it
+        assertEquals(height(2000, 2, 0), model.elevationAt(47.5, 9.0), 1e-9);
+        assertEquals(height(3000, 2, 2), model.elevationAt(-0.5, -0.5), 1e-9);
+        // the pole and the antimeridian belong to the tile south and west of them
+        assertEquals(height(4000, 0, SIZE - 1), model.elevationAt(90.0, 180.0), 1e-9);
+        assertTrue(Double.isNaN(model.elevationAt(10.0, 10.0)));
+        assertTrue(Double.isNaN(model.elevationAt(91.0, 0.0)));
+        assertTrue(Double.isNaN(model.elevationAt(Double.NaN, 0.0)));
+        assertEquals(4, model.getOpenedTotal());
+        assertEquals(0, model.getFailedTotal());
+    }
+
+    @Test
+    public void crossingATileBoundaryOpensEachTileOnce() throws IOException {
+        File directory = folder.getRoot();
+        writeTile(directory, 47, 8, 1000);
+        writeTile(directory, 47, 9, 2000);
+        writeTile(directory, 48, 8, 3000);
+        writeTile(directory, 48, 9, 4000);
+        ElevationModel model = new ElevationModel(directory);
+        // a drive round and round the corner of four tiles
+        for (int i = 0; i < 1000; i++) {
+            double lat = 48.0 + (i % 7 - 3) * 0.001;
+            double lng = 9.0 + (i % 5 - 2) * 0.001;
+            assertTrue(model.elevationAt(lat, lng) >= 1000);
+        }
+        assertEquals(4, model.getOpenedTotal());
+
+        // with room for one tile every crossing maps the other one again
+        ElevationModel small = new ElevationModel(directory, 1);
+        for (int i = 0; i < 10; i++) {
+            small.elevationAt(47.5, 8.999);
+            small.elevationAt(47.5, 9.001);
+        }
+        assertEquals(20, small.getOpenedTotal());
+    }
+
+    @Test
+    public void leastRecentlyUsedTileIsEvicted() throws IOException {
+        File directory = folder.getRoot();
+        writeTile(directory, 47, 8, 1000);
+        writeTile(directory, 47, 9, 2000);
+        writeTile(directory, 47, 10, 3000);
+        ElevationModel model = new ElevationModel(directory, 2);
+        model.elevationAt(47.5, 8.5);
+        model.elevationAt(47.5, 9.5);
+        model.elevationAt(47.5, 8.5);
+        // evicts 9, used longer ago than 8
+        model.elevationAt(47.5, 10.5);
+        assertEquals(3, model.getOpenedTotal());
+        model.elevationAt(47.5, 8.5);
+        assertEquals(3, model.getOpenedTotal());
+        assertEquals(height(2000, 2, 2), model.elevationAt(47.5, 9.5), 1e-9);
+        assertEquals(4, model.getOpenedTotal());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCache() {
+        new ElevationModel(folder.getRoot(), 0);
+    }
+}
@@ -0,0 +1,193 @@
+package com.location.philippweiher.test.fleet;
+
+import com.location.philippweiher.test.track.Track;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs 10k devices through each kind of sink and checks that every tick delivers one valid
+ * line per device.
+ */
+public class FleetSimulatorTest {
+
+    private static final int DEVICES = 10000;
+    private static final double RATE = 2.0;
+    private static final long DURATION = 2000;
+
+    private static final Pattern LINE = Pattern.compile("\\{\"id\":\"sim-(\\d+)\",\"time\":(\\d+),"
+            + "\"lat\":(-?\\d+\\.\\d{7}),\"lng\":(-?\\d+\\.\\d{7}),(?:\"alt\":-?\\d+\\.\\d,)?"
+            + "\"accuracy\":\\d+\\.\\d,\"speed\":\\d+\\.\\d\\d,\"bearing\":-?\\d+\\.\\d\\}");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void tenThousandDevicesToAFile() throws Exception {
+        File file = folder.newFile("fleet.ndjson");
+        FleetSimulator simulator = simulator(FleetSinks.open(file.getPath()));
+        simulator.run(DURATION);
+
+        Lines lines = new Lines();
+        lines.read(new FileInputStream(file));
+        lines.check(simulator);
+    }
+
+    @Test
+    public void tenThousandDevicesOverTcp() throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        final Lines lines = new Lines();
+        Thread receiver = new Thread("tcp receiver") {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    lines.read(socket.getInputStream());
+                } catch (IOException e) {
+                    lines.error = e.toString();
+                }
+            }
+        };
+        receiver.start();
+        FleetSimulator simulator;
+        try {
+            simulator = simulator(FleetSinks.open("tcp://127.0.0.1:" + server.getLocalPort()));
+            simulator.run(DURATION);
+            receiver.join(10000);
+        } finally {
+            server.close();
+        }
+        lines.check(simulator);
+    }
+
+    @Test
+    public void tenThousandDevicesOverHttp() throws Exception {
+        final Lines lines = new Lines();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        server.createContext("/fixes", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (!"application/x-ndjson".equals(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+                    lines.error = "content type " + exchange.getRequestHeaders().getFirst("Content-Type");
+                }
+                lines.read(exchange.getRequestBody());
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        FleetSimulator simulator;
+        try {
+            simulator = simulator(FleetSinks.open(
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/fixes"));
+            simulator.run(DURATION);
+        } finally {
+            server.stop(0);
+        }
+        lines.check(simulator);
+    }
+
+    private static FleetSimulator simulator(FleetSink sink) {
+        // ten minutes east along a parallel at about 14 m/s
+        Track route = new Track();
+        for (int i = 0; i <= 600; i++) {
+            route.add(i * 1000L, 52.5, 13.4 + i * 2e-4, 35.0, 5f);
+        }
+        return new FleetSimulator(Collections.singletonList(route), DEVICES, RATE, 200.0, 5.0,
+                1, 2, sink);
+    }
+
+    /*
+     * Every line of every tick, by the time it is stamped with. The time is the same for all
+     * lines of a tick.
+     */
+    private static class Lines {
+
+        private final Map<Long, BitSet> ticks = new TreeMap<Long, BitSet>();
+        volatile String error;
+
+        void read(InputStream in) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        private synchronized void add(String line) {
+            Matcher matcher = LINE.matcher(line);
+            if (!matcher.matches()) {
+                error = "bad line " + line;
+                return;
+            }
+            double latitude = Double.parseDouble(matcher.group(3));
+            double longitude = Double.parseDouble(matcher.group(4));
+            // 200 m of spread is 0.0018 degrees, far from this
+            if (Math.abs(latitude - 52.5) > 0.02 || longitude < 13.38 || longitude > 13.54) {
+                error = "off the route: " + line;
+            }
+            Long time = Long.valueOf(matcher.group(2));
+            BitSet ids = ticks.get(time);
+            if (ids == null) {
+                ids = new BitSet(DEVICES);
+                ticks.put(time, ids);
+            }
+            int id = Integer.parseInt(matcher.group(1));
+            if (ids.get(id)) {
+                error = "sim-" + id + " twice at " + time;
+            }
+            ids.set(id);
+        }
+
+        synchronized void check(FleetSimulator simulator) {
+            assertNull(error);
+            // every tick of the timeline either ran and was received, or was skipped because
+            // one before it overran; SKIP never adds any, but the last overrun may skip past
+            // the end
+            long expected = (long) (DURATION * RATE / 1000);
+            String counts = ticks.size() + " ticks received, " + simulator.getTickCount() + " run, "
+                    + simulator.getSkippedTicks() + " skipped, " + expected + " on the timeline";
+            assertEquals(counts, simulator.getTickCount(), ticks.size());
+            assertTrue(counts, ticks.size() > 0 && ticks.size() <= expected);
+            assertTrue(counts, simulator.getTickCount() + simulator.getSkippedTicks() >= expected);
+            Long last = null;
+            for (Map.Entry<Long, BitSet> tick : ticks.entrySet()) {
+                assertEquals("devices at " + tick.getKey(), DEVICES, tick.getValue().cardinality());
+                // ticks stay on the timeline of the rate
+                assertTrue(last == null || (tick.getKey() - last) % (long) (1000 / RATE) == 0);
+                last = tick.getKey();
+            }
+        }
+    }
+}
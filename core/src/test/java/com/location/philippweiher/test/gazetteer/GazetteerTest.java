@@ -0,0 +1,267 @@
+package com.location.philippweiher.test.gazetteer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes indexes with GazetteerBuilder and searches them back.
+ */
+public class GazetteerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void prefixFindsWholeNamesInKeyOrder() throws IOException {
+        GazetteerBuilder builder = new GazetteerBuilder();
+        builder.add("Bern", 46.948, 7.447);
+        builder.add("Berlin Mitte", 52.52, 13.405);
+        builder.add("Berlin", 52.52, 13.405);
+        builder.add("Hamburg", 53.551, 9.993);
+        Gazetteer gazetteer = write(builder, 0);
+
+        assertNames(names("Berlin", "Berlin Mitte", "Bern"), search(gazetteer, "ber", 10));
+        assertNames(names("Berlin", "Berlin Mitte"), search(gazetteer, "Berlin", 10));
+        assertNames(names("Hamburg"), search(gazetteer, "hamburg", 10));
+        assertTrue(search(gazetteer, "hamburgo", 10).isEmpty());
+        assertTrue(search(gazetteer, "a", 10).isEmpty());
+        // past the last key
+        assertTrue(search(gazetteer, "zz", 10).isEmpty());
+        assertTrue(search(gazetteer, " -- ", 10).isEmpty());
+    }
+
+    @Test
+    public void laterWordsAreKeysToo() throws IOException {
+        GazetteerBuilder builder = new GazetteerBuilder();
+        builder.add("Berlin Mitte", 52.52, 13.405);
+        builder.add("Frankfurt am Main", 50.11, 8.682);
+        Gazetteer gazetteer = write(builder, 0);
+
+        assertNames(names("Berlin Mitte"), search(gazetteer, "mitte", 10));
+        assertNames(names("Frankfurt am Main"), search(gazetteer, "am m", 10));
+        assertNames(names("Frankfurt am Main"), search(gazetteer, "main", 10));
+    }
+
+    @Test
+    public void placeIsListedOnceAndMaxIsKept() throws IOException {
+        GazetteerBuilder builder = new GazetteerBuilder();
+        // keys "main main" and "main" both lead to it
+        builder.add("Main Main", 50.0, 8.0);
+        builder.add("Mainz", 50.0, 8.27);
+        builder.add("Mainburg", 48.64, 11.78);
+        Gazetteer gazetteer = write(builder, 0);
+
+        assertNames(names("Main Main", "Mainburg", "Mainz"), search(gazetteer, "main", 10));
+        assertNames(names("Main Main", "Mainburg"), search(gazetteer, "main", 2));
+        assertTrue(search(gazetteer, "main", 0).isEmpty());
+    }
+
+    @Test
+    public void accentsCaseAndPunctuationAreFolded() throws IOException {
+        assertEquals("saint etienne", Gazetteer.normalize("  Saint-\u00c9tienne! "));
+        assertEquals("zurich", Gazetteer.normalize("Z\u00dcRICH"));
+        assertEquals("", Gazetteer.normalize(" - "));
+
+        GazetteerBuilder builder = new GazetteerBuilder();
+        builder.add("Z\u00fcrich", 47.377, 8.541);
+        builder.add("Saint-\u00c9tienne", 45.434, 4.39);
+        Gazetteer gazetteer = write(builder, 0);
+
+        assertNames(names("Z\u00fcrich"), search(gazetteer, "zur", 10));
+        assertNames(names("Z\u00fcrich"), search(gazetteer, "Z\u00dcR", 10));
+        assertNames(names("Saint-\u00c9tienne"), search(gazetteer, "saint \u00e9tienne", 10));
+        assertNames(names("Saint-\u00c9tienne"), search(gazetteer, "etien", 10));
+    }
+
+    @Test
+    public void keysAreComparedAsUnsignedBytes() throws IOException {
+        GazetteerBuilder builder = new GazetteerBuilder();
+        // \u00d8 (O with stroke) doesn't decompose, so its key starts with the UTF-8 bytes 0xC3 0xB8, above any ASCII
+        builder.add("\u00d8rsta", 62.2, 6.13);
+        builder.add("Zagreb", 45.815, 15.982);
+        builder.add("Aachen", 50.776, 6.084);
+        Gazetteer gazetteer = write(builder, 0);
+
+        assertNames(names("\u00d8rsta"), search(gazetteer, "\u00f8", 10));
+        assertNames(names("Zagreb"), search(gazetteer, "z", 10));
+        assertNames(names("Aachen"), search(gazetteer, "a", 10));
+    }
+
+    @Test
+    public void binarySearchFindsEveryKeyOfALargeIndex() throws IOException {
+        GazetteerBuilder builder = new GazetteerBuilder();
+        int count = 5000;
+        for (int i = 0; i < count; i++) {
+            assertTrue(builder.add("Place " + i, i * 0.01 - 25, i * 0.02 - 50));
+        }
+        Gazetteer gazetteer = write(builder, 0);
+        assertEquals(count, gazetteer.getPlaceCount());
+
+        for (int i = 0; i < count; i++) {
+            List<Place> found = new ArrayList<Place>();
+            // "place 12" also matches 120..129 and 1200..1299, the exact key comes first
+            gazetteer.search("place " + i, 1, found);
+            assertEquals(1, found.size());
+            Place place = found.get(0);
+            assertEquals("Place " + i, place.name);
+            assertEquals(i * 0.01 - 25, place.latitude, 1e-7);
+            assertEquals(i * 0.02 - 50, place.longitude, 1e-7);
+        }
+        // the word key: "12" is the number of place 12 only
+        assertNames(names("Place 12", "Place 120"), search(gazetteer, "12", 2));
+    }
+
+    @Test
+    public void builderSkipsDuplicatesAndBadPositions() throws IOException {
+        GazetteerBuilder builder = new GazetteerBuilder();
+        assertTrue(builder.add("Berlin", 52.52, 13.405));
+        assertFalse(builder.add(" BERLIN ", 52.52, 13.405));
+        // same name, somewhere else
+        assertTrue(builder.add("Berlin", 44.469, -71.185));
+        assertFalse(builder.add("Nowhere", 91, 0));
+        assertFalse(builder.add("Nowhere", 0, -180.5));
+        assertFalse(builder.add("Nowhere", Double.NaN, 0));
+        assertFalse(builder.add("--", 0, 0));
+        assertFalse(builder.add(null, 0, 0));
+        assertEquals(2, builder.getPlaceCount());
+        assertEquals(2, search(write(builder, 0), "berlin", 10).size());
+    }
+
+    @Test
+    public void readsBothPlaceListFormats() throws IOException {
+        GazetteerBuilder builder = new GazetteerBuilder();
+        int added = builder.addPlaceList(new StringReader("# name, latitude, longitude\n"
+                + "Potsdam\t52.391\t13.065\n"
+                + "broken\tnorth\teast\n"
+                + "2950159\tBerlin\tBerlin\tBerlino,Berl\u00edn\t52.52437\t13.41053\tP\tPPLC\n"
+                + "\n"));
+        assertEquals(2, added);
+        Gazetteer gazetteer = write(builder, 0);
+        List<Place> berlin = search(gazetteer, "berlin", 10);
+        assertEquals(1, berlin.size());
+        assertEquals(52.52437, berlin.get(0).latitude, 1e-7);
+        assertEquals(13.41053, berlin.get(0).longitude, 1e-7);
+        assertNames(names("Potsdam"), search(gazetteer, "pots", 10));
+    }
+
+    @Test
+    public void sourceStampIsKept() throws IOException {
+        GazetteerBuilder builder = new GazetteerBuilder();
+        builder.add("Berlin", 52.52, 13.405);
+        assertEquals(0x123456789ABCDEFL, write(builder, 0x123456789ABCDEFL).getSourceStamp());
+        assertEquals(-1L, write(builder, -1L).getSourceStamp());
+    }
+
+    @Test
+    public void emptyIndexFindsNothing() throws IOException {
+        Gazetteer gazetteer = write(new GazetteerBuilder(), 0);
+        assertEquals(0, gazetteer.getPlaceCount());
+        assertTrue(search(gazetteer, "berlin", 10).isEmpty());
+    }
+
+    @Test
+    public void truncatedOrForeignFilesAreRejected() throws IOException {
+        GazetteerBuilder builder = new GazetteerBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.add("Place " + i, 0, i);
+        }
+        File file = folder.newFile("whole.gaz");
+        builder.write(file, 0);
+        long length = file.length();
+
+        // cut inside the header, the key index and the place table; every place has two keys
+        long placeTable = Gazetteer.HEADER_SIZE + 100 * 2 * Gazetteer.KEY_ENTRY_SIZE;
+        long[] cuts = {0, 10, Gazetteer.HEADER_SIZE + 4, placeTable - 1,
+                placeTable + 50 * Gazetteer.PLACE_ENTRY_SIZE};
+        for (long cut : cuts) {
+            assertTrue(cut < length);
+            File truncated = folder.newFile("cut-" + cut + ".gaz");
+            copy(file, truncated, cut);
+            assertNotOpened(truncated);
+        }
+
+        File foreign = folder.newFile("foreign.gaz");
+        FileOutputStream out = new FileOutputStream(foreign);
+        try {
+            out.write(new byte[64]);
+        } finally {
+            out.close();
+        }
+        assertNotOpened(foreign);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(Gazetteer.OFFSET_VERSION);
+            raf.write(Gazetteer.VERSION + 1);
+        } finally {
+            raf.close();
+        }
+        assertNotOpened(file);
+    }
+
+    private Gazetteer write(GazetteerBuilder builder, long stamp) throws IOException {
+        File file = new File(folder.getRoot(), "index-" + System.nanoTime() + ".gaz");
+        builder.write(file, stamp);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        return Gazetteer.open(file);
+    }
+
+    private static List<Place> search(Gazetteer gazetteer, String prefix, int max) {
+        List<Place> found = new ArrayList<Place>();
+        int count = gazetteer.search(prefix, max, found);
+        assertEquals(found.size(), count);
+        return found;
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<String>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+
+    private static void assertNames(List<String> names, List<Place> places) {
+        List<String> found = new ArrayList<String>();
+        for (Place place : places) {
+            found.add(place.name);
+        }
+        assertEquals(names, found);
+    }
+
+    private static void assertNotOpened(File file) {
+        try {
+            Gazetteer.open(file);
+            fail(file + " opened");
+        } catch (IOException expected) {
+            // rejected up front rather than failing in a search
+        }
+    }
+
+    private static void copy(File from, File to, long length) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(from, "r");
+        FileOutputStream out = new FileOutputStream(to);
+        try {
+            byte[] bytes = new byte[(int) length];
+            in.readFully(bytes);
+            out.write(bytes);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
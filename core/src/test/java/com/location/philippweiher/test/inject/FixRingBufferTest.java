@@ -0,0 +1,131 @@
+package com.location.philippweiher.test.inject;
+
+import com.location.philippweiher.test.inject.FixRingBuffer.OverflowPolicy;
+import com.location.philippweiher.test.track.Fix;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FixRingBufferTest {
+
+    @Test
+    public void dropOldestKeepsOrderAndCounts() throws InterruptedException {
+        Result result = run(OverflowPolicy.DROP_OLDEST, 2, 2000000);
+        assertEquals(0, result.buffer.getRejectedTotal());
+        // the newest fix is never the one overwritten
+        assertEquals(result.offered - 1, result.last);
+    }
+
+    @Test
+    public void dropNewestKeepsOrderAndCounts() throws InterruptedException {
+        Result result = run(OverflowPolicy.DROP_NEWEST, 16, 1000000);
+        assertEquals(0, result.buffer.getOverwrittenTotal());
+    }
+
+    @Test
+    public void blockDeliversEveryFix() throws InterruptedException {
+        Result result = run(OverflowPolicy.BLOCK, 16, 200000);
+        assertEquals(0, result.buffer.getRejectedTotal());
+        assertEquals(0, result.buffer.getOverwrittenTotal());
+        assertEquals(result.offered, result.received);
+    }
+
+    // the run the ring was checked with when it went in: 20M fixes through 1024 slots
+    @Test
+    public void stressEveryPolicy() throws InterruptedException {
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            run(policy, 1024, 20000000);
+        }
+    }
+
+    @Test
+    public void batchStopsAtTheFirstRejectedFix() {
+        FixRingBuffer buffer = new FixRingBuffer(3);
+        assertEquals(4, buffer.capacity());
+        double[] values = {1, 2, 3, 4, 5, 6};
+        assertEquals(4, buffer.offer(null, values, values, null, null, OverflowPolicy.DROP_NEWEST));
+        assertEquals(4, buffer.getAcceptedTotal());
+        assertEquals(2, buffer.getRejectedTotal());
+
+        Fix fix = new Fix();
+        assertTrue(buffer.poll(fix));
+        assertEquals(1.0, fix.latitude, 0);
+        assertEquals(0, fix.time);
+        assertTrue(Double.isNaN(fix.altitude));
+        assertTrue(Float.isNaN(fix.accuracy));
+    }
+
+    /*
+     * Offers fixes 0..count-1 from this thread while another thread polls. Every field of fix n
+     * is derived from n, so a torn fix shows up as fields that disagree.
+     */
+    private static Result run(final OverflowPolicy policy, int capacity, int count)
+            throws InterruptedException {
+        final Result result = new Result();
+        final FixRingBuffer buffer = new FixRingBuffer(capacity);
+        result.buffer = buffer;
+        Thread consumer = new Thread(policy + " consumer") {
+            @Override
+            public void run() {
+                Fix fix = new Fix();
+                long last = -1;
+                while (true) {
+                    boolean finished = result.producerDone;
+                    if (!buffer.poll(fix)) {
+                        if (finished) {
+                            break;
+                        }
+                        Thread.yield();
+                        continue;
+                    }
+                    long n = fix.time;
+                    if (n <= last) {
+                        result.error = policy + ": fix " + n + " after " + last;
+                        return;
+                    }
+                    if (fix.latitude != n || fix.longitude != -n || fix.altitude != n + 0.5
+                            || fix.accuracy != (float) n) {
+                        result.error = policy + ": torn fix " + n;
+                        return;
+                    }
+                    if (policy == OverflowPolicy.BLOCK && n != last + 1) {
+                        result.error = policy + ": lost fix " + (last + 1);
+                        return;
+                    }
+                    last = n;
+                    result.received++;
+                }
+                result.last = last;
+            }
+        };
+        consumer.start();
+        for (int n = 0; n < count; n++) {
+            buffer.offer(n, n, -n, n + 0.5, n, policy);
+        }
+        result.producerDone = true;
+        consumer.join();
+        result.offered = count;
+
+        assertNull(result.error);
+        assertEquals(policy.toString(), count,
+                buffer.getAcceptedTotal() + buffer.getRejectedTotal());
+        assertEquals(policy.toString(), buffer.getAcceptedTotal(),
+                buffer.getConsumedTotal() + buffer.getOverwrittenTotal());
+        assertEquals(policy.toString(), result.received, buffer.getConsumedTotal());
+        assertEquals(0, buffer.size());
+        return result;
+    }
+
+    private static class Result {
+        FixRingBuffer buffer;
+        volatile boolean producerDone;
+        // written by the consumer, read after join
+        String error;
+        long received;
+        long last = -1;
+        long offered;
+    }
+}
@@ -0,0 +1,144 @@
+package com.location.philippweiher.test.inject;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogLinearHistogramTest {
+
+    @Test
+    public void smallValuesHaveABucketEach() {
+        for (int value = 0; value < LogLinearHistogram.SUB_BUCKETS; value++) {
+            assertEquals(value, LogLinearHistogram.bucketOf(value));
+            assertEquals(value, LogLinearHistogram.lowerBound(value));
+            assertEquals(value, LogLinearHistogram.upperBound(value));
+        }
+        // 8..15 still have a bucket each, 16 and 17 share one
+        assertEquals(7, LogLinearHistogram.bucketOf(7));
+        assertEquals(8, LogLinearHistogram.bucketOf(8));
+        assertEquals(15, LogLinearHistogram.bucketOf(15));
+        assertEquals(16, LogLinearHistogram.bucketOf(16));
+        assertEquals(16, LogLinearHistogram.bucketOf(17));
+        assertEquals(17, LogLinearHistogram.bucketOf(18));
+        assertEquals(16, LogLinearHistogram.lowerBound(16));
+        assertEquals(17, LogLinearHistogram.upperBound(16));
+    }
+
+    @Test
+    public void bucketsTileTheRangeWithoutGaps() {
+        assertEquals(0, LogLinearHistogram.lowerBound(0));
+        for (int bucket = 1; bucket < LogLinearHistogram.BUCKET_COUNT; bucket++) {
+            long lower = LogLinearHistogram.lowerBound(bucket);
+            assertEquals("bucket " + bucket, LogLinearHistogram.upperBound(bucket - 1) + 1, lower);
+            assertEquals(bucket, LogLinearHistogram.bucketOf(lower));
+            assertEquals(bucket - 1, LogLinearHistogram.bucketOf(lower - 1));
+        }
+        int last = LogLinearHistogram.BUCKET_COUNT - 1;
+        assertEquals(last, LogLinearHistogram.bucketOf(LogLinearHistogram.MAX_VALUE));
+        assertTrue(LogLinearHistogram.lowerBound(last) <= LogLinearHistogram.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LogLinearHistogram.upperBound(last));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        assertEquals(0, LogLinearHistogram.bucketOf(-1));
+        assertEquals(0, LogLinearHistogram.bucketOf(Long.MIN_VALUE));
+        assertEquals(LogLinearHistogram.BUCKET_COUNT - 1,
+                LogLinearHistogram.bucketOf(LogLinearHistogram.MAX_VALUE + 1));
+        assertEquals(LogLinearHistogram.BUCKET_COUNT - 1, LogLinearHistogram.bucketOf(Long.MAX_VALUE));
+
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(LogLinearHistogram.MAX_VALUE, histogram.getMax());
+        assertEquals(LogLinearHistogram.MAX_VALUE, histogram.getPercentile(1.0));
+        assertEquals(LogLinearHistogram.MAX_VALUE / 2.0, histogram.getMean(), 1);
+    }
+
+    @Test
+    public void bucketsAreWithinAnEighthOfTheirValues() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            // spread evenly over the magnitudes
+            long value = random.nextLong() >>> (64 - 1 - random.nextInt(41));
+            if (value > LogLinearHistogram.MAX_VALUE) {
+                continue;
+            }
+            int bucket = LogLinearHistogram.bucketOf(value);
+            long lower = LogLinearHistogram.lowerBound(bucket);
+            // the last bucket also takes the clamped values, but none are recorded above MAX_VALUE
+            long upper = Math.min(LogLinearHistogram.upperBound(bucket),
+                    LogLinearHistogram.MAX_VALUE);
+            assertTrue(value + " below " + lower, lower <= value);
+            assertTrue(value + " above " + upper, value <= upper);
+            assertTrue(value + " in [" + lower + ", " + upper + "]",
+                    upper - lower <= value / LogLinearHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void percentilesOfAUniformDistribution() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000.5, histogram.getMean(), 1e-9);
+        double[] fractions = {0.01, 0.1, 0.5, 0.9, 0.99, 0.999};
+        for (double fraction : fractions) {
+            long exact = Math.round(fraction * 10000);
+            long percentile = histogram.getPercentile(fraction);
+            // the upper end of the bucket the exact value falls into
+            assertTrue(fraction + ": " + percentile, percentile >= exact);
+            assertTrue(fraction + ": " + percentile, percentile <= exact + exact / 8);
+        }
+        assertEquals(10000, histogram.getPercentile(1.0));
+        assertEquals(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void percentilesMatchASortedSample() {
+        Random random = new Random(7);
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        long[] values = new long[20000];
+        for (int i = 0; i < values.length; i++) {
+            // long tailed, like handler times
+            values[i] = (long) (Math.exp(random.nextGaussian() * 1.5 + 6));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        double[] fractions = {0.5, 0.9, 0.99, 0.999};
+        for (double fraction : fractions) {
+            long exact = values[(int) Math.ceil(fraction * values.length) - 1];
+            long percentile = histogram.getPercentile(fraction);
+            int bucket = LogLinearHistogram.bucketOf(exact);
+            assertEquals(fraction + " of " + exact,
+                    Math.min(LogLinearHistogram.upperBound(bucket), values[values.length - 1]),
+                    percentile);
+        }
+    }
+
+    @Test
+    public void emptyAndResetHistogramsReportZero() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        assertEquals("n=0", histogram.toString());
+        assertEquals(0, histogram.getPercentile(0.5));
+        histogram.record(100);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+        histogram.record(3);
+        assertEquals(3, histogram.getMin());
+        assertEquals(3, histogram.getPercentile(0.5));
+    }
+}
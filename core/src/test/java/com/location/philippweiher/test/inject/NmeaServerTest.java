@@ -0,0 +1,188 @@
+package com.location.philippweiher.test.inject;
+
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.NmeaTrackReader;
+import com.location.philippweiher.test.track.TrackReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs an NmeaServer on a loopback port with real socket clients that parse what they get
+ * with NmeaTrackReader, which skips sentences with a bad checksum.
+ */
+public class NmeaServerTest {
+
+    // 2014-07-31T12:34:56Z
+    private static final long BASE = 1406810096000L;
+    private static final int CLIENTS = 20;
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    private NmeaServer server;
+    private final List<Receiver> receivers = new ArrayList<Receiver>();
+    private Socket stalled;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new NmeaServer(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        server.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+        for (Receiver receiver : receivers) {
+            receiver.socket.close();
+        }
+        if (stalled != null) {
+            stalled.close();
+        }
+    }
+
+    @Test
+    public void everyClientGetsEveryFixAt50Hz() throws Exception {
+        connect(CLIENTS);
+        stream(100, 50);
+        for (Receiver receiver : receivers) {
+            assertEquals(receiver.getName(), 100, receiver.received);
+        }
+        assertEquals(0, server.getSkippedTotal());
+    }
+
+    /*
+     * On a machine with a core to spare for the selector thread every client gets every fix
+     * here too. Where it can't keep up, clients skip ahead to the newest fixes or the injector
+     * drops fixes, so what is checked is that nothing arrives torn or out of order, that the newest fix reaches everyone
+     * and that every fix a client missed is counted.
+     */
+    @Test
+    public void stalledClientDoesNotHoldUpTheOthersAt5kHz() throws Exception {
+        stalled = new Socket();
+        stalled.setReceiveBufferSize(1024);
+        stalled.connect(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), server.getPort()));
+        connect(CLIENTS);
+        stream(5000, 5000);
+        long missed = 0;
+        for (Receiver receiver : receivers) {
+            missed += 5000 - receiver.received;
+        }
+        // a dropped fix is missed by every client, the stalled one included
+        long counted = server.getSkippedTotal() + server.getDroppedTotal() * (CLIENTS + 1);
+        assertTrue(missed + " missed, " + server.getSkippedTotal() + " skipped, "
+                + server.getDroppedTotal() + " dropped", missed <= counted);
+    }
+
+    @Test
+    public void withoutClientsNothingIsPublished() {
+        Fix fix = new Fix();
+        for (int i = 0; i < 1000; i++) {
+            server.inject(fix, 0, BASE + i * 10L, 0);
+        }
+        assertEquals(0, server.getClientCount());
+        assertEquals(0, server.getDroppedTotal());
+        assertNull(server.getFailure());
+    }
+
+    private void connect(int count) throws Exception {
+        int expected = count + (stalled != null ? 1 : 0);
+        for (int i = 0; i < count; i++) {
+            Receiver receiver = new Receiver(new Socket(InetAddress.getByName("127.0.0.1"), server.getPort()));
+            receivers.add(receiver);
+            receiver.start();
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (server.getClientCount() < expected) {
+            assertTrue("clients not accepted", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /*
+     * Injects fixes on an absolute timeline at the given rate, then waits until every receiver
+     * has seen the last but one. A fix is only complete in the reader once the next one starts,
+     * so the last one is checked after the server closes the connections.
+     */
+    private void stream(int fixes, int hertz) throws Exception {
+        Fix fix = new Fix();
+        long start = System.nanoTime();
+        long period = TimeUnit.SECONDS.toNanos(1) / hertz;
+        for (int i = 0; i < fixes; i++) {
+            long wait = start + i * period - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            fix.latitude = i * 1e-3;
+            fix.longitude = -i * 1e-3;
+            fix.altitude = i;
+            fix.accuracy = 5f;
+            server.inject(fix, 0, BASE + i * 10L, 0);
+        }
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        for (Receiver receiver : receivers) {
+            while (receiver.last < fixes - 2 && receiver.error == null) {
+                assertTrue(receiver.getName() + " is at " + receiver.last + " of " + fixes,
+                        System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+        server.close();
+        for (Receiver receiver : receivers) {
+            receiver.join(TIMEOUT_MILLIS);
+            assertNull(receiver.error);
+            assertEquals(receiver.getName(), fixes - 1, receiver.last);
+        }
+        assertNull(server.getFailure());
+    }
+
+    private static class Receiver extends Thread {
+
+        final Socket socket;
+        // how many fixes arrived, and the index of the newest
+        volatile int received;
+        volatile int last = -1;
+        volatile String error;
+
+        Receiver(Socket socket) {
+            super("receiver " + socket.getLocalPort());
+            this.socket = socket;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Fix fix = new Fix();
+            try {
+                TrackReader reader = new NmeaTrackReader(socket.getInputStream());
+                while (reader.next(fix)) {
+                    // every field is derived from the index, so a torn fix can't pass
+                    int i = (int) ((fix.time - BASE) / 10);
+                    if (i <= last || Math.abs(fix.latitude - i * 1e-3) > 1e-6
+                            || Math.abs(fix.longitude + i * 1e-3) > 1e-6
+                            || Math.abs(fix.altitude - i) > 0.05) {
+                        error = "fix " + fix.time + " " + fix.latitude + " after " + last;
+                        return;
+                    }
+                    last = i;
+                    received++;
+                }
+            } catch (IOException e) {
+                error = e.toString();
+            }
+        }
+    }
+}
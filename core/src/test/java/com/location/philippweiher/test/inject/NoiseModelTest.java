@@ -0,0 +1,114 @@
+package com.location.philippweiher.test.inject;
+
+import com.location.philippweiher.test.track.Fix;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NoiseModelTest {
+
+    private static final long SECOND = 1000000000L;
+    private static final double LAT_PER_METER = 9e-6;
+    private static final double LNG_PER_METER = 1.3e-5;
+
+    @Test
+    public void sameSeedAndTimesGiveTheSameErrors() {
+        long[] times = jitteredTimes(2000, SECOND / 10, 3000000L, new Random(1));
+        NoiseProfile profile = NoiseProfile.forName(NoiseProfile.URBAN_CANYON);
+        double[] first = run(new NoiseModel(profile, 42), times);
+        double[] second = run(new NoiseModel(profile, 42), times);
+        assertArrayEquals(first, second, 0.0);
+        // and a different seed gives different ones
+        assertFalse(first[first.length - 1] == run(new NoiseModel(profile, 43), times)[first.length - 1]);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        long[] times = jitteredTimes(2000, SECOND / 10, 3000000L, new Random(2));
+        NoiseProfile profile = NoiseProfile.forName(NoiseProfile.URBAN_CANYON);
+        NoiseModel model = new NoiseModel(profile, 7);
+        double[] first = run(model, times);
+        // other seed in between, which leaves the walk and an episode somewhere else
+        model.reset(8);
+        run(model, times);
+        model.reset(7);
+        assertArrayEquals(first, run(model, times), 0.0);
+    }
+
+    @Test
+    public void jitterDoesNotChangeTheWalk() {
+        // without multipath episodes, only the walk coefficients see the interval; a few ms of
+        // jitter on a 1 s tick keeps the ones of the first interval
+        NoiseProfile profile = NoiseProfile.forName(NoiseProfile.OPEN_SKY);
+        long[] exact = jitteredTimes(500, SECOND, 0, null);
+        long[] jittered = jitteredTimes(500, SECOND, 5000000L, new Random(3));
+        // the coefficients come from the first interval, which has to be the same
+        jittered[0] = exact[0];
+        jittered[1] = exact[1];
+        assertArrayEquals(run(new NoiseModel(profile, 5), exact),
+                run(new NoiseModel(profile, 5), jittered), 0.0);
+        // a different tick rate does change it
+        long[] faster = jitteredTimes(500, SECOND / 2, 0, null);
+        double[] walk = run(new NoiseModel(profile, 5), exact);
+        double[] fasterWalk = run(new NoiseModel(profile, 5), faster);
+        assertFalse(walk[walk.length - 1] == fasterWalk[fasterWalk.length - 1]);
+    }
+
+    @Test
+    public void walkKeepsTheProfileSpread() {
+        NoiseProfile profile = NoiseProfile.forName(NoiseProfile.OPEN_SKY);
+        NoiseModel model = new NoiseModel(profile, 9);
+        long[] times = jitteredTimes(200000, SECOND, 20000000L, new Random(4));
+        double[] errors = run(model, times);
+        double sum = 0;
+        for (double error : errors) {
+            sum += error * error;
+        }
+        // north and east, so two values per fix
+        double sigma = Math.sqrt(sum / errors.length);
+        assertEquals(profile.getSigma(), sigma, 0.1 * profile.getSigma());
+    }
+
+    @Test
+    public void noneLeavesTheFixAlone() {
+        NoiseModel model = new NoiseModel(NoiseProfile.forName(NoiseProfile.NONE), 1);
+        Fix fix = new Fix();
+        fix.latitude = 47.0;
+        fix.longitude = 8.0;
+        model.apply(fix, SECOND, LAT_PER_METER, LNG_PER_METER);
+        assertEquals(47.0, fix.latitude, 0.0);
+        assertEquals(8.0, fix.longitude, 0.0);
+        assertTrue(Float.isNaN(fix.accuracy));
+    }
+
+    // fix times every interval, each moved by up to jitter either way
+    private static long[] jitteredTimes(int n, long interval, long jitter, Random random) {
+        long[] times = new long[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = 100 * SECOND + i * interval
+                    + (jitter == 0 ? 0 : (long) ((random.nextDouble() * 2 - 1) * jitter));
+        }
+        return times;
+    }
+
+    // north and east error after every fix
+    private static double[] run(NoiseModel model, long[] times) {
+        double[] errors = new double[2 * times.length];
+        Fix fix = new Fix();
+        for (int i = 0; i < times.length; i++) {
+            fix.latitude = 47.0;
+            fix.longitude = 8.0;
+            model.apply(fix, times[i], LAT_PER_METER, LNG_PER_METER);
+            errors[2 * i] = model.getNorthError();
+            errors[2 * i + 1] = model.getEastError();
+            assertEquals(47.0 + errors[2 * i] * LAT_PER_METER, fix.latitude, 1e-12);
+        }
+        return errors;
+    }
+}
@@ -0,0 +1,233 @@
+package com.location.philippweiher.test.inject;
+
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.PositionSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlaybackTest {
+
+    private static final long INTERVAL = 10;
+    private static final long TRACK_START = 1400000000000L;
+
+    // live clocks at scheduler time zero
+    private static final long BOOT_NANOS = 5000000000L;
+    private static final long WALL_CLOCK = 1500000000000L;
+
+    // reports the track time it was asked for, so the fixes show where playback is
+    private static class TimeSource implements PositionSource {
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public boolean hasFailed() {
+            return false;
+        }
+
+        @Override
+        public long getStartTime() {
+            return TRACK_START;
+        }
+
+        @Override
+        public void positionAt(long time, Fix out) {
+            out.time = time;
+            out.latitude = (time - TRACK_START) / 1e6;
+            out.longitude = 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class RecordingSink implements FixSink {
+        final List<long[]> fixes = new ArrayList<long[]>();
+
+        @Override
+        public void inject(Fix fix, long elapsedRealtimeNanos, long time, long deadlineNanos) {
+            fixes.add(new long[]{fix.time, elapsedRealtimeNanos, time, deadlineNanos});
+        }
+
+        long trackTime(int i) {
+            return fixes.get(i)[0];
+        }
+
+        long elapsedRealtimeNanos(int i) {
+            return fixes.get(i)[1];
+        }
+
+        long time(int i) {
+            return fixes.get(i)[2];
+        }
+
+        long deadlineNanos(int i) {
+            return fixes.get(i)[3];
+        }
+
+        long lastElapsedRealtimeNanos() {
+            return elapsedRealtimeNanos(fixes.size() - 1);
+        }
+
+        long lastTime() {
+            return time(fixes.size() - 1);
+        }
+    }
+
+    @Test
+    public void halfSpeed() {
+        checkSpeed(0.5);
+    }
+
+    @Test
+    public void normalSpeed() {
+        checkSpeed(1.0);
+    }
+
+    @Test
+    public void hundredTimesSpeed() {
+        checkSpeed(100.0);
+    }
+
+    /*
+     * 200 ticks, each a little late but none skipped: one fix per tick, the track advancing by
+     * speed times the interval, and stamps that only go forward.
+     */
+    private void checkSpeed(double speed) {
+        RecordingSink sink = new RecordingSink();
+        TickScheduler scheduler = new TickScheduler(INTERVAL, TickScheduler.LatePolicy.SKIP);
+        Playback playback = new Playback(new TimeSource(), scheduler, sink, speed);
+        scheduler.start(1000);
+        for (int i = 0; i < 200; i++) {
+            long deadline = scheduler.getNextTick();
+            long now = deadline + i % 3;
+            long next = run(playback, now);
+            assertEquals(deadline + INTERVAL, next);
+            assertEquals("one fix per tick", i + 1, sink.fixes.size());
+            assertEquals(deadline * 1000000L, sink.deadlineNanos(i));
+            assertEquals(TRACK_START + (long) (i * INTERVAL * speed), sink.trackTime(i));
+            if (i == 0) {
+                assertEquals(liveNanos(now), sink.elapsedRealtimeNanos(0));
+                assertEquals(liveTime(now), sink.time(0));
+                continue;
+            }
+            assertTrue(sink.elapsedRealtimeNanos(i) > sink.elapsedRealtimeNanos(i - 1));
+            assertTrue(sink.time(i) > sink.time(i - 1));
+            if (speed == 1.0) {
+                // the live clocks, jitter and all
+                assertEquals(liveNanos(now), sink.elapsedRealtimeNanos(i));
+                assertEquals(liveTime(now), sink.time(i));
+            } else {
+                // the warped timeline, evenly spaced whatever the jitter
+                assertEquals((double) INTERVAL * speed * 1000000.0,
+                        sink.elapsedRealtimeNanos(i) - sink.elapsedRealtimeNanos(i - 1), 1.0);
+                assertEquals(sink.trackTime(i) - sink.trackTime(i - 1),
+                        sink.time(i) - sink.time(i - 1));
+            }
+        }
+        assertEquals(200, scheduler.getTickCount());
+        assertEquals(0, scheduler.getSkippedTicks());
+    }
+
+    @Test
+    public void skippedTicksMoveTheTrackOnWithoutFixes() {
+        RecordingSink sink = new RecordingSink();
+        TickScheduler scheduler = new TickScheduler(INTERVAL, TickScheduler.LatePolicy.SKIP);
+        Playback playback = new Playback(new TimeSource(), scheduler, sink, 100.0);
+        scheduler.start(0);
+        run(playback, 0);
+        // the tick due at 10 runs at 35, the ones due at 20 and 30 are gone
+        run(playback, 35);
+        run(playback, scheduler.getNextTick());
+        assertEquals(3, sink.fixes.size());
+        assertEquals(2, scheduler.getSkippedTicks());
+        assertEquals(TRACK_START + 1000, sink.trackTime(1));
+        assertEquals(TRACK_START + 4000, sink.trackTime(2));
+        assertEquals(3000L * 1000000L, sink.elapsedRealtimeNanos(2) - sink.elapsedRealtimeNanos(1));
+    }
+
+    @Test
+    public void stampsContinueAfterAFastPlayback() {
+        RecordingSink sink = new RecordingSink();
+        TickScheduler fastScheduler = new TickScheduler(INTERVAL, TickScheduler.LatePolicy.SKIP);
+        Playback fast = new Playback(new TimeSource(), fastScheduler, sink, 100.0);
+        fastScheduler.start(0);
+        for (int i = 0; i < 50; i++) {
+            run(fast, fastScheduler.getNextTick());
+        }
+        // 500 ms of ticks stamped 49 s on: far ahead of the live clocks
+        long fastNanos = sink.lastElapsedRealtimeNanos();
+        long fastTime = sink.lastTime();
+        assertTrue(fastNanos > liveNanos(500) + 40000000000L);
+
+        TickScheduler scheduler = new TickScheduler(INTERVAL, TickScheduler.LatePolicy.SKIP);
+        Playback normal = new Playback(new TimeSource(), scheduler, sink, 1.0);
+        normal.continueAfter(fast);
+        scheduler.start(500);
+        for (int i = 0; i < 50; i++) {
+            long now = scheduler.getNextTick() + i % 2;
+            run(normal, now);
+            int fix = 50 + i;
+            assertTrue(sink.elapsedRealtimeNanos(fix) > sink.elapsedRealtimeNanos(fix - 1));
+            assertTrue(sink.time(fix) >= sink.time(fix - 1));
+            // a timeline of its own, going on from the last fast fix at the real pace; the
+            // first fix is a nanosecond after it
+            assertEquals(fastNanos + Math.max(1, i * INTERVAL * 1000000L),
+                    sink.elapsedRealtimeNanos(fix));
+            assertEquals(fastTime + i * INTERVAL, sink.time(fix));
+            assertEquals(TRACK_START + i * INTERVAL, sink.trackTime(fix));
+        }
+    }
+
+    @Test
+    public void liveClocksAfterASlowPlayback() {
+        RecordingSink sink = new RecordingSink();
+        TickScheduler slowScheduler = new TickScheduler(INTERVAL, TickScheduler.LatePolicy.SKIP);
+        Playback slow = new Playback(new TimeSource(), slowScheduler, sink, 0.5);
+        slowScheduler.start(0);
+        for (int i = 0; i < 50; i++) {
+            run(slow, slowScheduler.getNextTick());
+        }
+        // half speed stamps fall behind the live clocks, so the next playback can use them
+        assertTrue(sink.lastElapsedRealtimeNanos() < liveNanos(500));
+
+        TickScheduler scheduler = new TickScheduler(INTERVAL, TickScheduler.LatePolicy.SKIP);
+        Playback normal = new Playback(new TimeSource(), scheduler, sink, 1.0);
+        normal.continueAfter(slow);
+        scheduler.start(500);
+        for (int i = 0; i < 20; i++) {
+            long now = scheduler.getNextTick() + i % 2;
+            run(normal, now);
+            assertEquals(liveNanos(now), sink.lastElapsedRealtimeNanos());
+            assertEquals(liveTime(now), sink.lastTime());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroSpeed() {
+        new Playback(new TimeSource(), new TickScheduler(INTERVAL, TickScheduler.LatePolicy.SKIP),
+                new RecordingSink(), 0.0);
+    }
+
+    // runs the pending tick at scheduler time now, with live clocks that agree with it
+    private static long run(Playback playback, long now) {
+        return playback.tick(now, liveNanos(now), liveTime(now));
+    }
+
+    private static long liveNanos(long now) {
+        return BOOT_NANOS + now * 1000000L;
+    }
+
+    private static long liveTime(long now) {
+        return WALL_CLOCK + now;
+    }
+}
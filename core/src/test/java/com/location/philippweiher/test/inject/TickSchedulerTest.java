@@ -0,0 +1,56 @@
+package com.location.philippweiher.test.inject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TickSchedulerTest {
+
+    @Test
+    public void handlerTimeDoesNotShiftLaterTicks() {
+        TickScheduler scheduler = new TickScheduler(50, TickScheduler.LatePolicy.SKIP);
+        scheduler.start(1000);
+        // every tick starts 3 ms late, which a fixed delay after each tick would add up
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1000 + i * 50L, scheduler.getNextTick());
+            scheduler.advance(scheduler.getNextTick() + 3);
+        }
+        assertEquals(1500, scheduler.getNextTick());
+        assertEquals(500, scheduler.getElapsed());
+        assertEquals(10, scheduler.getTickCount());
+        assertEquals(0, scheduler.getSkippedTicks());
+        assertEquals(3, scheduler.getAverageLateness());
+    }
+
+    @Test
+    public void skipDropsOverdueTicks() {
+        TickScheduler scheduler = new TickScheduler(50, TickScheduler.LatePolicy.SKIP);
+        scheduler.start(0);
+        // the first tick runs 170 ms late: ticks at 50, 100 and 150 are gone
+        assertEquals(200, scheduler.advance(170));
+        assertEquals(3, scheduler.getSkippedTicks());
+        assertEquals(170, scheduler.getMaxLateness());
+        // exactly on a deadline that deadline is overdue too
+        assertEquals(300, scheduler.advance(250));
+        assertEquals(4, scheduler.getSkippedTicks());
+    }
+
+    @Test
+    public void catchUpRunsABoundedNumberOfOverdueTicks() {
+        TickScheduler scheduler = new TickScheduler(10, TickScheduler.LatePolicy.CATCH_UP);
+        scheduler.start(0);
+        // 100 ms late: ticks 10..100 are due, only the last MAX_CATCH_UP_TICKS of them run
+        long next = scheduler.advance(100);
+        assertEquals(100 - (TickScheduler.MAX_CATCH_UP_TICKS - 1) * 10L, next);
+        assertEquals(10 - TickScheduler.MAX_CATCH_UP_TICKS, scheduler.getSkippedTicks());
+        for (int i = 0; i < TickScheduler.MAX_CATCH_UP_TICKS; i++) {
+            next = scheduler.advance(100);
+        }
+        assertEquals(110, next);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyInterval() {
+        new TickScheduler(0, TickScheduler.LatePolicy.SKIP);
+    }
+}
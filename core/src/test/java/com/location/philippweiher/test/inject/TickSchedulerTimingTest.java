@@ -0,0 +1,67 @@
+package com.location.philippweiher.test.inject;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the scheduler against the real clock, so it needs a machine that isn't busy with other
+ * things; build.gradle runs it in its own task ({@code ./gradlew :core:timingTest}).
+ */
+public class TickSchedulerTimingTest {
+
+    // the jitter 20 Hz injection has to stay under
+    private static final long MAX_JITTER_MICROS = 2000;
+
+    /*
+     * The way UpdateHandler uses it: a thread waits for each deadline on the monotonic clock,
+     * advances as the tick starts and does its work. Work of up to 30 ms per 50 ms tick must not
+     * delay the ticks that follow, and one tick of 130 ms makes the next one late and skips at
+     * least one deadline, without shifting the timeline.
+     */
+    @Test
+    public void realTicksAt50msStayOnTheTimeline() throws InterruptedException {
+        long interval = 50;
+        int overrun = 30;
+        TickScheduler scheduler = new TickScheduler(interval, TickScheduler.LatePolicy.SKIP);
+        // every tick but the one after the overrun
+        LogLinearHistogram lateness = new LogLinearHistogram();
+        long start = millis() + interval;
+        scheduler.start(start);
+        int ticks = 60;
+        for (int i = 0; i < ticks; i++) {
+            long deadline = scheduler.getNextTick();
+            long wait = deadline - millis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+            long now = System.nanoTime();
+            if (i != overrun + 1) {
+                lateness.record(now / 1000 - TimeUnit.MILLISECONDS.toMicros(deadline));
+            }
+            scheduler.advance(now / 1000000L);
+            busy(i == overrun ? 130 : i % 3 * 15);
+        }
+        String summary = "lateness us " + lateness + ", " + scheduler;
+
+        // a sleep that overshoots by a whole interval skips more, but never leaves the timeline
+        assertTrue(summary, scheduler.getSkippedTicks() >= 1);
+        assertEquals(summary, start + (ticks + scheduler.getSkippedTicks()) * interval,
+                scheduler.getNextTick());
+        assertTrue(summary, lateness.getPercentile(0.9) < MAX_JITTER_MICROS);
+    }
+
+    private static long millis() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    private static void busy(long millis) {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (System.nanoTime() < end) {
+            // simulated handler work
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.location.philippweiher.test.scenario;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScenarioCompilerTest {
+
+    @Test
+    public void parsesDurationUnits() throws IOException {
+        Scenario scenario = ScenarioCompiler.compile(
+                "hold 250ms\nhold 2s\nhold 1.5min\nhold 1h\nhold 3\nhold 0.0004s");
+        assertEquals(250.0, operand(scenario, 0, 0), 0);
+        assertEquals(2000.0, operand(scenario, 1, 0), 0);
+        assertEquals(90000.0, operand(scenario, 2, 0), 0);
+        assertEquals(3600000.0, operand(scenario, 3, 0), 0);
+        // a bare duration is seconds
+        assertEquals(3000.0, operand(scenario, 4, 0), 0);
+        // durations are whole milliseconds
+        assertEquals(0.0, operand(scenario, 5, 0), 0);
+    }
+
+    @Test
+    public void parsesSpeedAndDistanceUnits() throws IOException {
+        Scenario scenario = ScenarioCompiler.compile("move 1 2 36km/h\nmove 1 2 10kn\nmove 1 2 3\n"
+                + "move 1 2 4m/s\njitter 2km 1s\njitter 25 1s\naccuracy 5m 0.5km 30s");
+        assertEquals(10.0, operand(scenario, 0, 2), 1e-12);
+        assertEquals(10 * 1852.0 / 3600, operand(scenario, 1, 2), 1e-12);
+        assertEquals(3.0, operand(scenario, 2, 2), 0);
+        assertEquals(4.0, operand(scenario, 3, 2), 0);
+        assertEquals(2000.0, operand(scenario, 4, 0), 0);
+        assertEquals(25.0, operand(scenario, 5, 0), 0);
+        assertEquals(5.0, operand(scenario, 6, 0), 0);
+        assertEquals(500.0, operand(scenario, 6, 1), 0);
+        assertEquals(30000.0, operand(scenario, 6, 2), 0);
+    }
+
+    @Test
+    public void parsesSpeedFactorsSeedAndComments() throws IOException {
+        Scenario scenario = ScenarioCompiler.compile("# a comment line\n"
+                + "seed -42   # trailing comment\n\n"
+                + "   track 30s x4\ntrack 30s 0.5x\ntrack 1min");
+        assertEquals(-42, scenario.getSeed());
+        assertEquals(3, scenario.getInstructionCount());
+        assertEquals(4.0, operand(scenario, 0, 1), 0);
+        assertEquals(0.5, operand(scenario, 1, 1), 0);
+        assertEquals(1.0, operand(scenario, 2, 1), 0);
+        assertTrue(scenario.usesRoute());
+        assertFalse(ScenarioCompiler.compile("hold 1s").usesRoute());
+    }
+
+    @Test
+    public void everyRepeatGetsItsOwnRegister() throws IOException {
+        Scenario scenario = ScenarioCompiler.compile("repeat 3\n"
+                + "  repeat 2\n"
+                + "    hold 1s\n"
+                + "  end\n"
+                + "end\n"
+                + "repeat 4\n"
+                + "  hold 1s\n"
+                + "end");
+        assertEquals(3, scenario.registers);
+        int[] expected = {Scenario.REPEAT, Scenario.REPEAT, Scenario.HOLD, Scenario.END,
+                Scenario.END, Scenario.REPEAT, Scenario.HOLD, Scenario.END};
+        assertEquals(expected.length, scenario.getInstructionCount());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("instruction " + i, expected[i], scenario.opcodes[i]);
+        }
+        // each end jumps to the instruction after its repeat and counts down the repeat's register
+        assertEquals(2.0, operand(scenario, 3, 0), 0);
+        assertEquals(operand(scenario, 1, 1), operand(scenario, 3, 1), 0);
+        assertEquals(1.0, operand(scenario, 4, 0), 0);
+        assertEquals(operand(scenario, 0, 1), operand(scenario, 4, 1), 0);
+        assertEquals(6.0, operand(scenario, 7, 0), 0);
+        assertEquals(operand(scenario, 5, 1), operand(scenario, 7, 1), 0);
+    }
+
+    @Test
+    public void errorsNameTheLine() {
+        assertError("hold 1s\n\n# comment\nfly 1 2", "line 4: unknown instruction fly");
+        assertError("hold 1s\nhold 5parsecs", "line 2: unknown unit for duration: 5parsecs");
+        assertError("move 1 2 0", "line 1: speed must be positive: 0");
+        assertError("teleport 91 0", "line 1: latitude out of range: 91");
+        assertError("teleport 0 east", "line 1: longitude is not a number: east");
+        assertError("hold", "line 1: hold takes 1 arguments, not 0");
+        assertError("track 1s x4 fast", "line 1: track takes 1 to 2 arguments, not 3");
+        assertError("track 1s 4", "line 1: speed factor must look like x4: 4");
+        assertError("hold -1s", "line 1: duration out of range: -1s");
+        assertError("accuracy 0", "line 1: accuracy out of range: 0");
+        assertError("seed 1.5", "line 1: seed must be an integer: 1.5");
+        assertError("repeat 0\nhold 1s\nend", "line 1: repeat count must be between 1 and 1000000: 0");
+    }
+
+    @Test
+    public void errorsForUnbalancedOrUntimedRepeats() {
+        assertError("hold 1s\nend", "line 2: end without repeat");
+        assertError("repeat 2\nhold 1s\n", "line 2: repeat without end");
+        assertError("repeat 2\njitter 5m 1s\nhold 0s\nend",
+                "line 4: repeat block without a hold, move or track that takes time");
+        // an inner block with time makes the outer one timed too
+        try {
+            ScenarioCompiler.compile("repeat 2\nrepeat 2\nhold 1s\nend\nend");
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    private static double operand(Scenario scenario, int instruction, int index) {
+        return scenario.operands[instruction * Scenario.STRIDE + index];
+    }
+
+    private static void assertError(String source, String message) {
+        try {
+            ScenarioCompiler.compile(source);
+            fail("compiled " + source);
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.location.philippweiher.test.scenario;
+
+import com.location.philippweiher.test.inject.FixSink;
+import com.location.philippweiher.test.track.Fix;
+import com.location.philippweiher.test.track.PositionSource;
+import com.location.philippweiher.test.track.Track;
+import com.location.philippweiher.test.track.Trajectory;
+import com.location.philippweiher.test.utils.GeoMath;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScenarioPlayerTest {
+
+    // one minute due north from 52.0 13.0, starting at one second on the track timeline
+    private static final long ROUTE_START = 1000;
+
+    private final Fix fix = new Fix();
+
+    @Test
+    public void startsAtTheStartOfTheRoute() throws IOException {
+        ScenarioPlayer player = player("hold 5s");
+        player.positionAt(0, fix);
+        assertEquals(52.0, fix.latitude, 1e-12);
+        assertEquals(13.0, fix.longitude, 1e-12);
+        assertFalse(player.isFinished());
+        player.positionAt(5000, fix);
+        assertTrue(player.isFinished());
+        assertEquals(52.0, fix.latitude, 1e-12);
+    }
+
+    @Test
+    public void innerRepeatStartsOverOnEveryOuterPass() throws IOException {
+        ScenarioPlayer player = player("repeat 3\n"
+                + "  repeat 2\n"
+                + "    teleport 1 1\n"
+                + "    hold 1s\n"
+                + "    teleport 2 2\n"
+                + "    hold 1s\n"
+                + "  end\n"
+                + "  hold 10s\n"
+                + "end");
+        // every outer pass is 4 s of alternating positions and then 10 s of holding the second
+        for (int pass = 0; pass < 3; pass++) {
+            long start = pass * 14000L;
+            for (int second = 0; second < 4; second++) {
+                assertLatitude(player, start + second * 1000 + 500, second % 2 == 0 ? 1 : 2);
+            }
+            assertLatitude(player, start + 13999, 2);
+            assertFalse(player.isFinished());
+        }
+        player.positionAt(42000, fix);
+        assertTrue(player.isFinished());
+    }
+
+    @Test
+    public void moveEndsExactlyWhereItShould() throws IOException {
+        ScenarioPlayer player = player("teleport 52.0 13.0\nmove 52.001 13.0 2m/s\nhold 5s\n"
+                + "teleport 0 0");
+        long duration = Math.round(GeoMath.distance(52.0, 13.0, 52.001, 13.0) / 2 * 1000);
+
+        player.positionAt(duration / 2, fix);
+        assertEquals(52.0005, fix.latitude, 1e-6);
+        assertEquals(2f, fix.speed, 0f);
+        assertEquals(0f, fix.bearing, 1e-3f);
+
+        player.positionAt(duration - 1, fix);
+        assertTrue(fix.latitude < 52.001);
+        assertEquals(2f, fix.speed, 0f);
+
+        // the hold starts when the move ends, not when a tick notices
+        player.positionAt(duration, fix);
+        assertEquals(52.001, fix.latitude, 1e-12);
+        assertEquals(0f, fix.speed, 0f);
+        player.positionAt(duration + 4999, fix);
+        assertEquals(52.001, fix.latitude, 1e-12);
+        player.positionAt(duration + 5000, fix);
+        assertEquals(0.0, fix.latitude, 0);
+    }
+
+    @Test
+    public void coarseTicksDoNotStretchSteps() throws IOException {
+        String source = "move 52.01 13.0 100m/s\nhold 3s\nmove 52.0 13.0 100m/s\nhold 60s";
+        ScenarioPlayer fine = player(source);
+        ScenarioPlayer coarse = player(source);
+        Fix other = new Fix();
+        for (long time = 0; time < 40000; time += 10) {
+            fine.positionAt(time, fix);
+            if (time % 7000 == 0) {
+                coarse.positionAt(time, other);
+                assertEquals("at " + time, fix.latitude, other.latitude, 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void trackStepsFollowTheRouteAtTheirSpeed() throws IOException {
+        ScenarioPlayer player = player("track 10s\ntrack 10s x2\nhold 5s\ntrack 5s");
+        Trajectory route = route();
+        Fix expected = new Fix();
+
+        player.positionAt(5000, fix);
+        route.positionAt(ROUTE_START + 5000, expected);
+        assertEquals(expected.latitude, fix.latitude, 1e-12);
+        assertEquals(expected.speed, fix.speed, 1e-6f);
+
+        // the x2 step starts where the first one ended and covers twice the route time
+        player.positionAt(10000, fix);
+        route.positionAt(ROUTE_START + 10000, expected);
+        assertEquals(expected.latitude, fix.latitude, 1e-12);
+        player.positionAt(15000, fix);
+        route.positionAt(ROUTE_START + 20000, expected);
+        assertEquals(expected.latitude, fix.latitude, 1e-12);
+        assertEquals(expected.speed * 2, fix.speed, 1e-6f);
+
+        // the hold keeps the position the track ended at, and the next track goes on from there
+        player.positionAt(22000, fix);
+        route.positionAt(ROUTE_START + 30000, expected);
+        assertEquals(expected.latitude, fix.latitude, 1e-12);
+        assertEquals(0f, fix.speed, 0f);
+        player.positionAt(27000, fix);
+        route.positionAt(ROUTE_START + 32000, expected);
+        assertEquals(expected.latitude, fix.latitude, 1e-12);
+        assertEquals(27000, fix.time);
+    }
+
+    @Test
+    public void seededRunsAreReproducible() throws IOException {
+        String source = "seed 7\njitter 20m 30s\nhold 60s";
+        ScenarioPlayer first = player(source);
+        ScenarioPlayer second = player(source);
+        ScenarioPlayer reseeded = player(source.replace("seed 7", "seed 8"));
+        Fix other = new Fix();
+        double[] latitudes = new double[300];
+        boolean differs = false;
+        for (int i = 0; i < latitudes.length; i++) {
+            first.positionAt(i * 200L, fix);
+            second.positionAt(i * 200L, other);
+            assertEquals(fix.latitude, other.latitude, 0);
+            assertEquals(fix.longitude, other.longitude, 0);
+            latitudes[i] = fix.latitude;
+            reseeded.positionAt(i * 200L, other);
+            differs |= fix.latitude != other.latitude;
+        }
+        assertTrue(differs);
+        // the jitter ends with its 30 s
+        assertEquals(52.0, latitudes[200], 0);
+
+        // looking back in time plays the scenario again from the start, noise included
+        for (int i = 0; i < latitudes.length; i++) {
+            first.positionAt(i * 200L, fix);
+            assertEquals(latitudes[i], fix.latitude, 0);
+        }
+    }
+
+    @Test
+    public void accuracyRampsAndStays() throws IOException {
+        ScenarioPlayer player = player("hold 10s\naccuracy 5m 50m 30s\nhold 60s");
+        player.positionAt(5000, fix);
+        assertTrue(Float.isNaN(fix.accuracy));
+        player.positionAt(25000, fix);
+        assertEquals(27.5f, fix.accuracy, 1e-4f);
+        player.positionAt(65000, fix);
+        assertEquals(50f, fix.accuracy, 0f);
+    }
+
+    @Test
+    public void filterDropsFixesDuringLoss() throws IOException {
+        ScenarioPlayer player = player("hold 2s\nloss 3s\nhold 10s");
+        final int[] injected = new int[1];
+        FixSink sink = player.filter(new FixSink() {
+            @Override
+            public void inject(Fix fix, long elapsedRealtimeNanos, long time, long deadlineNanos) {
+                injected[0]++;
+            }
+        });
+        for (long time = 0; time < 10000; time += 1000) {
+            player.positionAt(time, fix);
+            sink.inject(fix, 0, time, 0);
+        }
+        // 2, 3 and 4 s fall into the loss
+        assertEquals(7, injected[0]);
+    }
+
+    private static Trajectory route() {
+        return new Trajectory(Track.fromArrays(new long[]{ROUTE_START, ROUTE_START + 60000},
+                new double[]{52.0, 52.01}, new double[]{13.0, 13.0}));
+    }
+
+    private static ScenarioPlayer player(String source) throws IOException {
+        PositionSource route = route();
+        return new ScenarioPlayer(ScenarioCompiler.compile(source), route);
+    }
+
+    private void assertLatitude(ScenarioPlayer player, long time, double latitude) {
+        player.positionAt(time, fix);
+        assertEquals("at " + time, latitude, fix.latitude, 0);
+    }
+}
@@ -0,0 +1,141 @@
+package com.location.philippweiher.test.track;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GpxTrackReaderTest {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<gpx version=\"1.1\" creator=\"test\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n"
+            + "<trk><trkseg>\n";
+    private static final String FOOTER = "</trkseg></trk></gpx>\n";
+
+    @Test
+    public void readsTrackPoints() throws IOException {
+        List<Fix> fixes = readAll(HEADER
+                + "<trkpt lat=\"52.5\" lon=\"13.4\"><ele>34.5</ele>"
+                + "<time>2014-07-31T12:34:56Z</time><hdop>1.2</hdop></trkpt>\n"
+                + "<trkpt lat=\"52.501\" lon=\"-13.401\"><time>2014-07-31T12:34:57.500Z</time></trkpt>\n"
+                + FOOTER);
+
+        assertEquals(2, fixes.size());
+        Fix first = fixes.get(0);
+        assertEquals(52.5, first.latitude, 0);
+        assertEquals(13.4, first.longitude, 0);
+        assertEquals(34.5, first.altitude, 0);
+        assertEquals(1406810096000L, first.time);
+        assertEquals(1.2f * TrackFormat.METERS_PER_HDOP, first.accuracy, 1e-6f);
+
+        Fix second = fixes.get(1);
+        assertEquals(-13.401, second.longitude, 0);
+        assertEquals(1406810097500L, second.time);
+        assertFalse(second.hasAltitude());
+        assertFalse(second.hasAccuracy());
+    }
+
+    @Test
+    public void readsRoutePointsAndFillsInMissingTimes() throws IOException {
+        List<Fix> fixes = readAll("<gpx version=\"1.0\"><rte>"
+                + "<rtept lat=\"1\" lon=\"2\"><time>2014-07-31T12:34:56Z</time></rtept>"
+                + "<rtept lat=\"3\" lon=\"4\"/>"
+                + "<rtept lat=\"5\" lon=\"6\"></rtept>"
+                + "</rte></gpx>");
+
+        assertEquals(3, fixes.size());
+        assertEquals(1406810096000L, fixes.get(0).time);
+        assertEquals(1406810097000L, fixes.get(1).time);
+        assertEquals(1406810098000L, fixes.get(2).time);
+        assertEquals(5.0, fixes.get(2).latitude, 0);
+    }
+
+    @Test
+    public void ignoresNamesInsideExtensions() throws IOException {
+        List<Fix> fixes = readAll(HEADER
+                + "<trkpt lat=\"52.5\" lon=\"13.4\"><time>2014-07-31T12:34:56Z</time>"
+                + "<extensions><x:data xmlns:x=\"urn:x\"><x:time>garbage</x:time>"
+                + "<x:ele>9999</x:ele></x:data></extensions></trkpt>\n"
+                + FOOTER);
+
+        assertEquals(1, fixes.size());
+        assertEquals(1406810096000L, fixes.get(0).time);
+        assertFalse(fixes.get(0).hasAltitude());
+    }
+
+    @Test
+    public void emptyTrackHasNoFixes() throws IOException {
+        assertTrue(readAll(HEADER + FOOTER).isEmpty());
+    }
+
+    @Test
+    public void truncatedFileKeepsWhatWasReadAndFailsCleanly() throws IOException {
+        TrackReader reader = reader(HEADER
+                + "<trkpt lat=\"52.5\" lon=\"13.4\"><time>2014-07-31T12:34:56Z</time></trkpt>\n"
+                + "<trkpt lat=\"52.501\" lon=\"13.40");
+        Fix fix = new Fix();
+        assertTrue(reader.next(fix));
+        assertEquals(52.5, fix.latitude, 0);
+        assertFailsWithIOException(reader);
+    }
+
+    @Test
+    public void truncatedTimeOffsetIsAnIOException() throws IOException {
+        assertFailsWithIOException(reader(HEADER
+                + "<trkpt lat=\"52.5\" lon=\"13.4\"><time>2014-07-31T12:34:56+0</time></trkpt>\n"
+                + FOOTER));
+    }
+
+    @Test
+    public void garbledValuesAreIOExceptions() throws IOException {
+        assertFailsWithIOException(reader(HEADER
+                + "<trkpt lat=\"52.5\" lon=\"13.4\"><time>yesterday</time></trkpt>\n" + FOOTER));
+        assertFailsWithIOException(reader(HEADER
+                + "<trkpt lat=\"north\" lon=\"13.4\"></trkpt>\n" + FOOTER));
+        assertFailsWithIOException(reader(HEADER
+                + "<trkpt lon=\"13.4\"></trkpt>\n" + FOOTER));
+        assertFailsWithIOException(reader(HEADER
+                + "<trkpt lat=\"52.5\" lon=\"13.4\"><ele>high</ele></trkpt>\n" + FOOTER));
+        assertFailsWithIOException(reader(HEADER
+                + "<trkpt lat=\"52.5\" lon=\"13.4\"></trkseg>\n" + FOOTER));
+    }
+
+    private static void assertFailsWithIOException(TrackReader reader) {
+        Fix fix = new Fix();
+        try {
+            while (reader.next(fix)) {
+                // read up to the bad part
+            }
+            fail("no error for a broken file");
+        } catch (IOException expected) {
+            // a bad file is an I/O error, never an unchecked exception on the reading thread
+        }
+    }
+
+    private static TrackReader reader(String gpx) throws IOException {
+        return new GpxTrackReader(new ByteArrayInputStream(gpx.getBytes("UTF-8")));
+    }
+
+    private static List<Fix> readAll(String gpx) throws IOException {
+        TrackReader reader = reader(gpx);
+        List<Fix> fixes = new ArrayList<Fix>();
+        try {
+            Fix fix = new Fix();
+            while (reader.next(fix)) {
+                Fix copy = new Fix();
+                copy.set(fix);
+                fixes.add(copy);
+            }
+        } finally {
+            reader.close();
+        }
+        return fixes;
+    }
+}
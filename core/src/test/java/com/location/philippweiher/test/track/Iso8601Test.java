@@ -0,0 +1,84 @@
+package com.location.philippweiher.test.track;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Iso8601Test {
+
+    // 2014-07-31T12:34:56Z
+    private static final long BASE = 1406810096000L;
+
+    @Test
+    public void parsesUtc() {
+        assertEquals(BASE, Iso8601.parse("2014-07-31T12:34:56Z"));
+        assertEquals(BASE, Iso8601.parse("2014-07-31T12:34:56z"));
+        assertEquals(BASE, Iso8601.parse("2014-07-31T12:34:56"));
+    }
+
+    @Test
+    public void parsesFractionsToMilliseconds() {
+        assertEquals(BASE + 789, Iso8601.parse("2014-07-31T12:34:56.789Z"));
+        assertEquals(BASE + 500, Iso8601.parse("2014-07-31T12:34:56,5Z"));
+        // digits past milliseconds are dropped
+        assertEquals(BASE + 123, Iso8601.parse("2014-07-31T12:34:56.123456Z"));
+    }
+
+    @Test
+    public void appliesOffsets() {
+        long hour = 3600 * 1000L;
+        assertEquals(BASE - 2 * hour, Iso8601.parse("2014-07-31T12:34:56+02:00"));
+        assertEquals(BASE - 2 * hour, Iso8601.parse("2014-07-31T12:34:56+0200"));
+        assertEquals(BASE - 2 * hour, Iso8601.parse("2014-07-31T12:34:56+02"));
+        assertEquals(BASE + 5 * hour + 30 * 60 * 1000L, Iso8601.parse("2014-07-31T12:34:56-05:30"));
+        assertEquals(BASE + 250 - hour, Iso8601.parse("2014-07-31T12:34:56.25+01:00"));
+    }
+
+    @Test
+    public void ignoresSurroundingWhitespace() {
+        assertEquals(BASE, Iso8601.parse("\n    2014-07-31T12:34:56Z\n  "));
+    }
+
+    @Test
+    public void handlesDatesAroundTheEpochAndLeapDays() {
+        assertEquals(0L, Iso8601.parse("1970-01-01T00:00:00Z"));
+        assertEquals(-1000L, Iso8601.parse("1969-12-31T23:59:59Z"));
+        assertEquals(951782400000L, Iso8601.parse("2000-02-29T00:00:00Z"));
+        assertEquals(951868800000L, Iso8601.parse("2000-03-01T00:00:00Z"));
+    }
+
+    @Test
+    public void rejectsTruncatedOffsets() {
+        assertRejected("2014-07-31T12:34:56+0");
+        assertRejected("2014-07-31T12:34:56+");
+        assertRejected("2014-07-31T12:34:56-");
+        assertRejected("2014-07-31T12:34:56+0 ");
+    }
+
+    @Test
+    public void rejectsTruncatedTimestamps() {
+        assertRejected("");
+        assertRejected("2014-07-31");
+        assertRejected("2014-07-31T12:34");
+        assertRejected("2014-07-31T12:34:5");
+    }
+
+    @Test
+    public void rejectsGarbledTimestamps() {
+        assertRejected("2014-07-31T12-34:56Z");
+        assertRejected("2014/07/31T12:34:56Z");
+        assertRejected("2014-0x-31T12:34:56Z");
+        assertRejected("2014-07-31T12:34:56Q");
+        assertRejected("2014-07-31T12:34:56+ab:00");
+    }
+
+    private static void assertRejected(String text) {
+        try {
+            Iso8601.parse(text);
+            fail("accepted " + text);
+        } catch (IllegalArgumentException expected) {
+            // what the XML readers turn into a bad value
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.location.philippweiher.test.track;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KmlTrackReaderTest {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\">\n"
+            + "<Document><Placemark><gx:Track>\n";
+    private static final String FOOTER = "</gx:Track></Placemark></Document></kml>\n";
+
+    // 2014-07-31T12:34:56Z
+    private static final long BASE = 1406810096000L;
+
+    @Test
+    public void pairsTimesListedBeforeCoordinates() throws IOException {
+        StringBuilder kml = new StringBuilder(HEADER);
+        // more than the initial queue of 256 times
+        int points = 600;
+        for (int i = 0; i < points; i++) {
+            kml.append("<when>").append(time(i)).append("</when>\n");
+        }
+        for (int i = 0; i < points; i++) {
+            kml.append("<gx:coord>").append(13.0 + i * 1e-4).append(' ')
+                    .append(52.0 + i * 1e-4).append(" 40</gx:coord>\n");
+        }
+        List<Fix> fixes = readAll(kml.append(FOOTER).toString());
+
+        assertEquals(points, fixes.size());
+        for (int i = 0; i < points; i++) {
+            Fix fix = fixes.get(i);
+            assertEquals(BASE + i * 1000L, fix.time);
+            assertEquals(52.0 + i * 1e-4, fix.latitude, 1e-12);
+            assertEquals(13.0 + i * 1e-4, fix.longitude, 1e-12);
+            assertEquals(40.0, fix.altitude, 0);
+        }
+    }
+
+    @Test
+    public void pairsInterleavedAndCoordinateFirstPoints() throws IOException {
+        List<Fix> fixes = readAll(HEADER
+                + "<when>" + time(0) + "</when><gx:coord>13.4 52.5</gx:coord>\n"
+                + "<gx:coord>13.5 52.6 12</gx:coord><gx:coord>13.6 52.7</gx:coord>\n"
+                + "<when>" + time(1) + "</when><when>" + time(2) + "</when>\n"
+                + FOOTER);
+
+        assertEquals(3, fixes.size());
+        assertEquals(BASE, fixes.get(0).time);
+        assertFalse(fixes.get(0).hasAltitude());
+        assertEquals(52.6, fixes.get(1).latitude, 0);
+        assertEquals(12.0, fixes.get(1).altitude, 0);
+        assertEquals(BASE + 1000, fixes.get(1).time);
+        assertEquals(52.7, fixes.get(2).latitude, 0);
+        assertEquals(BASE + 2000, fixes.get(2).time);
+    }
+
+    @Test
+    public void readsEveryTrackAndIgnoresOtherCoordinates() throws IOException {
+        List<Fix> fixes = readAll(HEADER
+                + "<when>" + time(0) + "</when><gx:coord>13.4 52.5</gx:coord>\n"
+                + "</gx:Track></Placemark><Placemark><Point><coordinates>1,2</coordinates></Point>"
+                + "<when>" + time(9) + "</when></Placemark><Placemark><gx:Track>\n"
+                + "<when>" + time(5) + "</when><gx:coord>13.5 52.6</gx:coord>\n"
+                + FOOTER);
+
+        assertEquals(2, fixes.size());
+        assertEquals(BASE + 5000, fixes.get(1).time);
+        assertEquals(52.6, fixes.get(1).latitude, 0);
+    }
+
+    @Test
+    public void truncatedFileKeepsWhatWasReadAndFailsCleanly() throws IOException {
+        TrackReader reader = reader(HEADER
+                + "<when>" + time(0) + "</when><gx:coord>13.4 52.5</gx:coord>\n"
+                + "<when>" + time(1) + "</when><gx:coord>13.5 5");
+        Fix fix = new Fix();
+        assertTrue(reader.next(fix));
+        assertEquals(BASE, fix.time);
+        assertFailsWithIOException(reader);
+    }
+
+    @Test
+    public void garbledValuesAreIOExceptions() throws IOException {
+        assertFailsWithIOException(reader(HEADER
+                + "<when>2014-07-31T12:34:56+0</when><gx:coord>13.4 52.5</gx:coord>" + FOOTER));
+        assertFailsWithIOException(reader(HEADER
+                + "<when>" + time(0) + "</when><gx:coord>13.4</gx:coord>" + FOOTER));
+        assertFailsWithIOException(reader(HEADER
+                + "<when>" + time(0) + "</when><gx:coord>east north</gx:coord>" + FOOTER));
+        assertFailsWithIOException(reader(HEADER
+                + "<when>soon</when><gx:coord>13.4 52.5</gx:coord>" + FOOTER));
+    }
+
+    // BASE plus the given seconds, for under 25 minutes
+    private static String time(int seconds) {
+        int minute = 34 + (56 + seconds) / 60;
+        int second = (56 + seconds) % 60;
+        return "2014-07-31T12:" + minute + ":" + (second < 10 ? "0" : "") + second + "Z";
+    }
+
+    private static void assertFailsWithIOException(TrackReader reader) {
+        Fix fix = new Fix();
+        try {
+            while (reader.next(fix)) {
+                // read up to the bad part
+            }
+            fail("no error for a broken file");
+        } catch (IOException expected) {
+            // a bad file is an I/O error, never an unchecked exception on the reading thread
+        }
+    }
+
+    private static TrackReader reader(String kml) throws IOException {
+        return new KmlTrackReader(new ByteArrayInputStream(kml.getBytes("UTF-8")));
+    }
+
+    private static List<Fix> readAll(String kml) throws IOException {
+        TrackReader reader = reader(kml);
+        List<Fix> fixes = new ArrayList<Fix>();
+        try {
+            Fix fix = new Fix();
+            while (reader.next(fix)) {
+                Fix copy = new Fix();
+                copy.set(fix);
+                fixes.add(copy);
+            }
+        } finally {
+            reader.close();
+        }
+        return fixes;
+    }
+}
@@ -0,0 +1,63 @@
+package com.location.philippweiher.test.track;
+
+import com.location.philippweiher.test.utils.GeoMath;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LivePositionTest {
+
+    @Test
+    public void lookupsSeeTheLatestMove() {
+        LivePosition live = new LivePosition();
+        Fix fix = new Fix();
+        assertFalse(live.isReady());
+        live.publish(52.5, 13.4);
+        assertTrue(live.isReady());
+        live.positionAt(1000, fix);
+        assertEquals(52.5, fix.latitude, 1e-7);
+        assertEquals(13.4, fix.longitude, 1e-7);
+        assertEquals(0f, fix.speed, 0f);
+
+        // only the last of several moves counts, over the time since the previous lookup
+        live.publish(52.6, 13.4);
+        live.publish(52.5, 13.5);
+        live.positionAt(2000, fix);
+        assertEquals(13.5, fix.longitude, 1e-7);
+        assertEquals(GeoMath.distance(52.5, 13.4, 52.5, 13.5), fix.speed, 0.01);
+        assertEquals(GeoMath.bearing(52.5, 13.4, 52.5, 13.5), fix.bearing, 1e-3);
+
+        // holding still keeps the heading but not the speed
+        live.positionAt(3000, fix);
+        assertEquals(0f, fix.speed, 0f);
+        assertEquals(GeoMath.bearing(52.5, 13.4, 52.5, 13.5), fix.bearing, 1e-3);
+    }
+
+    @Test
+    public void restartForgetsTheMotionOfTheLastPlayback() {
+        LivePosition live = new LivePosition();
+        Fix fix = new Fix();
+        live.publish(52.5, 13.4);
+        live.positionAt(1000, fix);
+        live.publish(52.5, 13.5);
+        live.positionAt(2000, fix);
+        assertTrue(fix.speed > 0);
+
+        // the next drag starts far away, much later
+        live.publish(48.1, 11.6);
+        live.restart();
+        live.positionAt(60000, fix);
+        assertEquals(48.1, fix.latitude, 1e-7);
+        assertEquals(0f, fix.speed, 0f);
+        assertEquals(0f, fix.bearing, 0f);
+
+        // and measures its own moves from there
+        live.publish(48.2, 11.6);
+        live.positionAt(61000, fix);
+        assertEquals(GeoMath.distance(48.1, 11.6, 48.2, 11.6), fix.speed, 0.01);
+        assertEquals(0f, fix.bearing, 1e-3);
+    }
+}
@@ -0,0 +1,160 @@
+package com.location.philippweiher.test.track;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes tracks with BinaryTrackWriter and plays them back with MappedTrack.
+ */
+public class MappedTrackTest {
+
+    // three full blocks and a partial one
+    private static final int POINTS = 3 * BinaryTrack.BLOCK_SIZE + 100;
+    private static final long BASE = 1406810096000L;
+
+    // what the encoding keeps of degrees and meters
+    private static final double DEGREES = 1e-7;
+    private static final double METERS = 0.01;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedTrack track;
+
+    @Before
+    public void writeTrack() throws IOException {
+        File file = folder.newFile("track.bin");
+        BinaryTrackWriter writer = new BinaryTrackWriter(file);
+        try {
+            for (int i = 0; i < POINTS; i++) {
+                writer.add(point(i));
+            }
+        } finally {
+            writer.close();
+        }
+        track = MappedTrack.open(file);
+    }
+
+    @Test
+    public void headerDescribesTheTrack() {
+        assertEquals(POINTS, track.getPointCount());
+        assertEquals(time(0), track.getStartTime());
+        assertEquals(time(POINTS - 1), track.getEndTime());
+    }
+
+    @Test
+    public void everyPointReadsBackInOrder() {
+        Fix fix = new Fix();
+        for (int i = 0; i < POINTS; i++) {
+            track.positionAt(time(i), fix);
+            assertPoint(i, fix);
+        }
+    }
+
+    @Test
+    public void blockBoundariesInAnyOrder() {
+        Fix fix = new Fix();
+        // backwards from the end, so every lookup has to seek
+        for (int block = POINTS / BinaryTrack.BLOCK_SIZE; block > 0; block--) {
+            int first = block * BinaryTrack.BLOCK_SIZE;
+            track.positionAt(time(first), fix);
+            assertPoint(first, fix);
+            track.positionAt(time(first - 1), fix);
+            assertPoint(first - 1, fix);
+            track.positionAt(time(first + 1), fix);
+            assertPoint(first + 1, fix);
+        }
+    }
+
+    @Test
+    public void interpolatesAcrossBlockBoundaries() {
+        Fix fix = new Fix();
+        for (int i = 0; i < POINTS - 1; i++) {
+            long middle = (time(i) + time(i + 1)) / 2;
+            track.positionAt(middle, fix);
+            Fix a = point(i);
+            Fix b = point(i + 1);
+            double f = (double) (middle - a.time) / (b.time - a.time);
+            assertEquals(middle, fix.time);
+            assertEquals(a.latitude + (b.latitude - a.latitude) * f, fix.latitude, 2 * DEGREES);
+            assertEquals(a.longitude + (b.longitude - a.longitude) * f, fix.longitude, 2 * DEGREES);
+            assertTrue(fix.speed > 0);
+        }
+    }
+
+    @Test
+    public void holdsTheEndsOutsideTheTrack() {
+        Fix fix = new Fix();
+        track.positionAt(time(POINTS - 1) + 60000, fix);
+        assertEquals(time(POINTS - 1) + 60000, fix.time);
+        assertEquals(point(POINTS - 1).latitude, fix.latitude, DEGREES);
+        assertEquals(point(POINTS - 1).longitude, fix.longitude, DEGREES);
+        assertEquals(0f, fix.speed, 0f);
+
+        track.positionAt(time(0) - 60000, fix);
+        assertEquals(time(0) - 60000, fix.time);
+        assertEquals(point(0).latitude, fix.latitude, DEGREES);
+        assertEquals(point(0).longitude, fix.longitude, DEGREES);
+        assertEquals(0f, fix.speed, 0f);
+    }
+
+    @Test
+    public void singlePointTrack() throws IOException {
+        File file = folder.newFile("single.bin");
+        BinaryTrackWriter writer = new BinaryTrackWriter(file);
+        writer.add(point(0));
+        writer.close();
+
+        MappedTrack single = MappedTrack.open(file);
+        Fix fix = new Fix();
+        single.positionAt(time(5), fix);
+        assertEquals(1, single.getPointCount());
+        assertEquals(point(0).latitude, fix.latitude, DEGREES);
+        assertEquals(0f, fix.speed, 0f);
+    }
+
+    @Test(expected = IOException.class)
+    public void emptyTrackIsRejected() throws IOException {
+        File file = folder.newFile("empty.bin");
+        new BinaryTrackWriter(file).close();
+        MappedTrack.open(file);
+    }
+
+    // uneven spacing, so a lookup can't get away with arithmetic on the index
+    private static long time(int i) {
+        return BASE + i * 1000L + (i % 4) * 10;
+    }
+
+    // latitude goes up and down, so the deltas have both signs
+    private static Fix point(int i) {
+        Fix fix = new Fix();
+        fix.time = time(i);
+        fix.latitude = 52.5 + Math.sin(i / 10.0) * 0.01;
+        fix.longitude = 13.4 + i * 1e-4;
+        // a stretch without altitude in the third block
+        fix.altitude = i >= 600 && i < 620 ? Double.NaN : 30 + i % 50 * 0.25;
+        fix.accuracy = 5 + i % 7;
+        return fix;
+    }
+
+    private static void assertPoint(int i, Fix fix) {
+        Fix expected = point(i);
+        assertEquals(expected.time, fix.time);
+        assertEquals(expected.latitude, fix.latitude, DEGREES);
+        assertEquals(expected.longitude, fix.longitude, DEGREES);
+        if (Double.isNaN(expected.altitude)) {
+            assertTrue("altitude of point " + i, Double.isNaN(fix.altitude));
+        } else {
+            assertEquals(expected.altitude, fix.altitude, METERS);
+        }
+        assertEquals(expected.accuracy, fix.accuracy, METERS);
+    }
+}
@@ -0,0 +1,121 @@
+package com.location.philippweiher.test.track;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NmeaSentencesTest {
+
+    // 2014-07-31T12:34:56Z
+    private static final long BASE = 1406810096000L;
+    // 2014-07-31T00:00:00Z
+    private static final long DAY = 1406764800000L;
+
+    // half of the last digit written: 1e-5 minutes, 0.1 HDOP and 0.1 m
+    private static final double DEGREES = 0.5e-5 / 60 + 1e-12;
+    private static final double ACCURACY = 0.05 * TrackFormat.METERS_PER_HDOP + 1e-4;
+    private static final double ALTITUDE = 0.05 + 1e-9;
+
+    @Test
+    public void randomFixesRoundTripThroughTheReader() throws IOException {
+        Random random = new Random(20);
+        int count = 5000;
+        Fix[] fixes = new Fix[count];
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        byte[] buffer = new byte[NmeaSentences.MAX_LENGTH];
+        long time = BASE;
+        for (int i = 0; i < count; i++) {
+            // whole centiseconds, all the sentences keep; sometimes more than a day apart
+            time += 10 * (1 + random.nextInt(i % 100 == 0 ? 20000000 : 100000));
+            Fix fix = new Fix();
+            fix.time = time;
+            fix.latitude = (random.nextDouble() * 2 - 1) * 89.99;
+            fix.longitude = (random.nextDouble() * 2 - 1) * 179.99;
+            fix.altitude = i % 7 == 0 ? Double.NaN : random.nextDouble() * 9400 - 400;
+            fix.accuracy = i % 5 == 0 ? Float.NaN : 1 + random.nextFloat() * 400;
+            fix.speed = random.nextFloat() * 100;
+            fix.bearing = random.nextFloat() * 720 - 360;
+            fixes[i] = fix;
+            log.write(buffer, 0, NmeaSentences.encode(fix, fix.time, buffer, 0));
+        }
+
+        TrackReader reader = new NmeaTrackReader(new ByteArrayInputStream(log.toByteArray()));
+        Fix fix = new Fix();
+        try {
+            for (int i = 0; i < count; i++) {
+                assertTrue("only " + i + " fixes", reader.next(fix));
+                Fix expected = fixes[i];
+                assertEquals(expected.time, fix.time);
+                assertEquals(expected.latitude, fix.latitude, DEGREES);
+                assertEquals(expected.longitude, fix.longitude, DEGREES);
+                if (expected.hasAltitude()) {
+                    assertEquals(expected.altitude, fix.altitude, ALTITUDE);
+                } else {
+                    assertFalse(fix.hasAltitude());
+                }
+                if (expected.hasAccuracy()) {
+                    assertEquals(expected.accuracy, fix.accuracy, ACCURACY);
+                } else {
+                    assertFalse(fix.hasAccuracy());
+                }
+            }
+            assertFalse(reader.next(fix));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void extremeValuesStayWithinTheSentenceLength() {
+        Fix fix = new Fix();
+        fix.latitude = -89.9999999;
+        fix.longitude = -179.9999999;
+        fix.altitude = -1e9;
+        fix.accuracy = 1e9f;
+        fix.speed = 1e9f;
+        fix.bearing = -0.01f;
+        byte[] out = new byte[NmeaSentences.MAX_LENGTH];
+        String text = ascii(out, NmeaSentences.encode(fix, DAY + 86399990L, out, 0));
+
+        String[] sentences = text.split("\r\n");
+        assertEquals(2, sentences.length);
+        for (String sentence : sentences) {
+            // the standard's 82 include the CRLF
+            assertTrue(sentence, sentence.length() + 2 <= 82);
+            int star = sentence.indexOf('*');
+            int sum = 0;
+            for (int i = 1; i < star; i++) {
+                sum ^= sentence.charAt(i);
+            }
+            assertEquals(sentence, sum, Integer.parseInt(sentence.substring(star + 1), 16));
+        }
+        assertTrue(sentences[0], sentences[0].startsWith("$GPRMC,235959.99,A,8959.99999,S,17959.99999,W,9999.9,0.0,310714,"));
+        assertTrue(sentences[1], sentences[1].startsWith("$GPGGA,235959.99,8959.99999,S,17959.99999,W,1,08,99.9,-99999.9,M,"));
+    }
+
+    @Test
+    public void datesBeforeTheEpochAndAcrossCenturies() {
+        Fix fix = new Fix();
+        byte[] out = new byte[NmeaSentences.MAX_LENGTH];
+        // 1969-12-31T23:59:59.50Z
+        assertTrue(ascii(out, NmeaSentences.encode(fix, -500, out, 0)).startsWith("$GPRMC,235959.50,A,"));
+        assertTrue(ascii(out, NmeaSentences.encode(fix, -500, out, 0)).contains(",311269,"));
+        // 2000-02-29T00:00:00Z
+        assertTrue(ascii(out, NmeaSentences.encode(fix, 951782400000L, out, 0)).contains(",290200,"));
+    }
+
+    private static String ascii(byte[] bytes, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) bytes[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package com.location.philippweiher.test.track;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NmeaTrackReaderTest {
+
+    // 2014-07-31T00:00:00Z
+    private static final long DAY = 1406764800000L;
+    private static final long HOUR = 3600 * 1000L;
+
+    // 48 07.038' N, 11 31.000' E
+    private static final double LATITUDE = 48 + 7.038 / 60;
+    private static final double LONGITUDE = 11 + 31.0 / 60;
+
+    @Test
+    public void mergesSentencesOfOneEpoch() throws IOException {
+        List<Fix> fixes = readAll(
+                rmc("123519.00", "A", "4807.038", "N", "01131.000", "E", "310714"),
+                gga("123519.00", "4807.038", "N", "01131.000", "E", "1", "0.9", "545.4"),
+                rmc("123520.50", "A", "4807.040", "S", "01131.000", "W", "310714"));
+
+        assertEquals(2, fixes.size());
+        Fix first = fixes.get(0);
+        assertEquals(DAY + 12 * HOUR + 35 * 60000L + 19000L, first.time);
+        assertEquals(LATITUDE, first.latitude, 1e-9);
+        assertEquals(LONGITUDE, first.longitude, 1e-9);
+        assertEquals(545.4, first.altitude, 1e-9);
+        assertEquals(0.9f * TrackFormat.METERS_PER_HDOP, first.accuracy, 1e-6f);
+
+        Fix second = fixes.get(1);
+        assertEquals(first.time + 1500, second.time);
+        assertTrue(second.latitude < 0);
+        assertTrue(second.longitude < 0);
+        assertFalse(second.hasAltitude());
+        assertFalse(second.hasAccuracy());
+    }
+
+    @Test
+    public void acceptsAnyTalker() throws IOException {
+        List<Fix> fixes = readAll(
+                sentence("GNRMC,123519,A,4807.038,N,01131.000,E,0.0,0.0,310714,,"),
+                sentence("GLGGA,123520,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,"));
+        assertEquals(2, fixes.size());
+    }
+
+    @Test
+    public void skipsBadChecksumsAndInvalidFixes() throws IOException {
+        String good = rmc("123519", "A", "4807.038", "N", "01131.000", "E", "310714");
+        String corrupted = good.substring(0, 10) + "9" + good.substring(11);
+        List<Fix> fixes = readAll(
+                corrupted,
+                rmc("123520", "V", "4807.038", "N", "01131.000", "E", "310714"),
+                gga("123521", "4807.038", "N", "01131.000", "E", "0", "0.9", "545.4"),
+                "not a sentence",
+                "",
+                rmc("123522", "A", "4807.038", "N", "01131.000", "E", "310714"));
+
+        assertEquals(1, fixes.size());
+        assertEquals(DAY + 12 * HOUR + 35 * 60000L + 22000L, fixes.get(0).time);
+    }
+
+    @Test
+    public void garbledSentenceDoesNotLoseOrCorruptTheEpochsAroundIt() throws IOException {
+        List<Fix> fixes = readAll(
+                rmc("120000", "A", "4807.038", "N", "01131.000", "E", "310714"),
+                gga("120000", "4807.038", "N", "01131.000", "E", "1", "0.9", "545.4"),
+                // the next epoch starts with a sentence that fails half way through parsing
+                gga("120001", "4808.000", "N", "01132.000", "E", "1", "0.9", "high"),
+                rmc("120001", "A", "4808.000", "N", "01132.000", "E", "31x714"),
+                gga("120001", "48x8.000", "N", "01132.000", "E", "1", "0.9", "546.0"),
+                rmc("120002", "A", "4809.000", "N", "01133.000", "E", "310714"));
+
+        assertEquals(2, fixes.size());
+        Fix first = fixes.get(0);
+        assertEquals(DAY + 12 * HOUR, first.time);
+        assertEquals(LATITUDE, first.latitude, 1e-9);
+        assertEquals(545.4, first.altitude, 1e-9);
+
+        Fix second = fixes.get(1);
+        assertEquals(DAY + 12 * HOUR + 2000, second.time);
+        assertEquals(48 + 9.0 / 60, second.latitude, 1e-9);
+        assertEquals(11 + 33.0 / 60, second.longitude, 1e-9);
+    }
+
+    @Test
+    public void skipsTruncatedSentences() throws IOException {
+        String whole = rmc("120001", "A", "4808.000", "N", "01132.000", "E", "310714");
+        List<Fix> fixes = readAll(
+                rmc("120000", "A", "4807.038", "N", "01131.000", "E", "310714"),
+                whole.substring(0, whole.indexOf('*') - 12),
+                sentence("GPRMC,12,A,4808.000,N,01132.000,E,0.0,0.0,310714,,"),
+                sentence("GPGGA,120001,4808.000,N,01132.000,E,1,08,0.9"),
+                rmc("120002", "A", "4809.000", "N", "01133.000", "E", "310714"),
+                whole.substring(0, 20));
+
+        assertEquals(2, fixes.size());
+        assertEquals(DAY + 12 * HOUR, fixes.get(0).time);
+        assertEquals(DAY + 12 * HOUR + 2000, fixes.get(1).time);
+    }
+
+    @Test
+    public void ggaOnlyLogCrossesMidnight() throws IOException {
+        List<Fix> fixes = readAll(
+                rmc("235959", "A", "4807.038", "N", "01131.000", "E", "310714"),
+                gga("235959", "4807.038", "N", "01131.000", "E", "1", "0.9", "545.4"),
+                gga("000000", "4807.038", "N", "01131.000", "E", "1", "0.9", "545.4"),
+                gga("000001", "4807.038", "N", "01131.000", "E", "1", "0.9", "545.4"));
+
+        assertEquals(3, fixes.size());
+        assertEquals(DAY + 24 * HOUR - 1000, fixes.get(0).time);
+        assertEquals(DAY + 24 * HOUR, fixes.get(1).time);
+        assertEquals(DAY + 24 * HOUR + 1000, fixes.get(2).time);
+    }
+
+    @Test
+    public void emptyLogHasNoFixes() throws IOException {
+        assertTrue(readAll().isEmpty());
+    }
+
+    private static String rmc(String time, String status, String latitude, String north,
+                              String longitude, String east, String date) {
+        return sentence("GPRMC," + time + "," + status + "," + latitude + "," + north + ","
+                + longitude + "," + east + ",0.0,0.0," + date + ",,");
+    }
+
+    private static String gga(String time, String latitude, String north, String longitude,
+                              String east, String quality, String hdop, String altitude) {
+        return sentence("GPGGA," + time + "," + latitude + "," + north + "," + longitude + ","
+                + east + "," + quality + ",08," + hdop + "," + altitude + ",M,46.9,M,,");
+    }
+
+    private static String sentence(String body) {
+        int sum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            sum ^= body.charAt(i);
+        }
+        String hex = Integer.toHexString(sum).toUpperCase();
+        return "$" + body + "*" + (hex.length() < 2 ? "0" : "") + hex;
+    }
+
+    private static List<Fix> readAll(String... lines) throws IOException {
+        StringBuilder log = new StringBuilder();
+        for (String line : lines) {
+            log.append(line).append("\r\n");
+        }
+        TrackReader reader = new NmeaTrackReader(
+                new ByteArrayInputStream(log.toString().getBytes("US-ASCII")));
+        List<Fix> fixes = new ArrayList<Fix>();
+        try {
+            Fix fix = new Fix();
+            while (reader.next(fix)) {
+                Fix copy = new Fix();
+                copy.set(fix);
+                fixes.add(copy);
+            }
+        } finally {
+            reader.close();
+        }
+        return fixes;
+    }
+}
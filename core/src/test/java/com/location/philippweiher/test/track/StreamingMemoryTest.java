@@ -0,0 +1,183 @@
+package com.location.philippweiher.test.track;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streams 200 MB track files that are generated on the fly through the readers. The readers
+ * hold one fix at a time, so this has to pass in a 16 MB heap; build.gradle runs it in its own
+ * task with that heap ({@code ./gradlew :core:streamingMemoryTest}).
+ */
+public class StreamingMemoryTest {
+
+    private static final long FILE_SIZE = 200L * 1024 * 1024;
+    private static final long MAX_HEAP = 16L * 1024 * 1024;
+
+    // 2014-07-31T00:00:00Z
+    private static final long DAY = 1406764800000L;
+
+    @Test
+    public void streamsLargeGpxInSmallHeap() throws IOException {
+        assertSmallHeap();
+        GeneratedTrack gpx = new GeneratedTrack(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\"><trk><trkseg>\n",
+                "</trkseg></trk></gpx>\n") {
+            @Override
+            void point(int i, StringBuilder sb) {
+                sb.append("<trkpt lat=\"").append(latitude(i)).append("\" lon=\"13.4\"><ele>")
+                        .append(i % 500).append("</ele><time>").append(isoTime(i))
+                        .append("</time></trkpt>\n");
+            }
+        };
+        checkAllRead(TrackFormat.GPX.newReader(gpx), gpx);
+    }
+
+    @Test
+    public void streamsLargeNmeaInSmallHeap() throws IOException {
+        assertSmallHeap();
+        GeneratedTrack nmea = new GeneratedTrack("", "") {
+            @Override
+            void point(int i, StringBuilder sb) {
+                // one RMC per second, a GGA-only log would work the same way
+                int seconds = i % 86400;
+                String body = "GPRMC," + twoDigits(seconds / 3600) + twoDigits(seconds / 60 % 60)
+                        + twoDigits(seconds % 60) + ",A,52" + minutes(i) + ",N,01324.000,E,0.0,0.0,"
+                        + date(i) + ",,";
+                int sum = 0;
+                for (int c = 0; c < body.length(); c++) {
+                    sum ^= body.charAt(c);
+                }
+                sb.append('$').append(body).append('*')
+                        .append(Character.toUpperCase(Character.forDigit(sum >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(sum & 15, 16)))
+                        .append("\r\n");
+            }
+        };
+        checkAllRead(TrackFormat.NMEA.newReader(nmea), nmea);
+    }
+
+    private static void assertSmallHeap() {
+        assertTrue("run with a 16 MB heap: ./gradlew :core:streamingMemoryTest",
+                Runtime.getRuntime().maxMemory() <= MAX_HEAP);
+    }
+
+    private static void checkAllRead(TrackReader reader, GeneratedTrack track) throws IOException {
+        Fix fix = new Fix();
+        int count = 0;
+        long lastTime = Long.MIN_VALUE;
+        try {
+            while (reader.next(fix)) {
+                assertTrue("time went backwards at point " + count, fix.time > lastTime);
+                lastTime = fix.time;
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        assertTrue("only " + track.bytes + " bytes generated", track.bytes >= FILE_SIZE);
+        assertEquals(track.points, count);
+        assertEquals(DAY + (count - 1) * 1000L, lastTime);
+    }
+
+    // between 52.1 and 52.19 degrees
+    static String latitude(int i) {
+        return "52." + (100000 + i % 90000);
+    }
+
+    // mm.mmm, the minutes of an NMEA latitude
+    static String minutes(int i) {
+        int thousandths = i % 60000;
+        return twoDigits(thousandths / 1000) + "." + (1000 + thousandths % 1000 + "").substring(1);
+    }
+
+    static String isoTime(int i) {
+        int seconds = i % 86400;
+        return "2014-" + date(i).substring(2, 4) + "-" + date(i).substring(0, 2) + "T"
+                + twoDigits(seconds / 3600) + ":" + twoDigits(seconds / 60 % 60) + ":"
+                + twoDigits(seconds % 60) + "Z";
+    }
+
+    // ddmmyy, starting on 2014-07-31 and going on through August and September
+    static String date(int i) {
+        int day = 31 + i / 86400;
+        int month = 7;
+        if (day > 31) {
+            day -= 31;
+            month = 8;
+            if (day > 31) {
+                day -= 31;
+                month = 9;
+            }
+        }
+        return twoDigits(day) + twoDigits(month) + "14";
+    }
+
+    static String twoDigits(int value) {
+        return (value < 10 ? "0" : "") + value;
+    }
+
+    /*
+     * A track file that is only ever produced one point at a time, until it is at least
+     * FILE_SIZE long.
+     */
+    abstract static class GeneratedTrack extends InputStream {
+
+        private final String footer;
+        private final StringBuilder sb = new StringBuilder(256);
+        private byte[] chunk;
+        private int pos;
+        private boolean done;
+        long bytes;
+        int points;
+
+        GeneratedTrack(String header, String footer) {
+            this.footer = footer;
+            chunk = ascii(header);
+        }
+
+        abstract void point(int i, StringBuilder sb);
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            while (pos == chunk.length) {
+                if (done) {
+                    return -1;
+                }
+                sb.setLength(0);
+                if (bytes >= FILE_SIZE) {
+                    sb.append(footer);
+                    done = true;
+                } else {
+                    point(points++, sb);
+                }
+                chunk = ascii(sb);
+                pos = 0;
+            }
+            int n = Math.min(length, chunk.length - pos);
+            System.arraycopy(chunk, pos, buffer, offset, n);
+            pos += n;
+            bytes += n;
+            return n;
+        }
+
+        private static byte[] ascii(CharSequence text) {
+            byte[] out = new byte[text.length()];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = (byte) text.charAt(i);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.location.philippweiher.test.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MortonCodeTest {
+
+    // one cell of 2^31 per axis, in degrees
+    private static final double LATITUDE_CELL = 180.0 / (1L << MortonCode.BITS);
+    private static final double LONGITUDE_CELL = 360.0 / (1L << MortonCode.BITS);
+
+    private final Random random = new Random(11);
+
+    @Test
+    public void decodesToTheCentreOfTheCell() {
+        for (int i = 0; i < 10000; i++) {
+            double latitude = random.nextDouble() * 180.0 - 90.0;
+            double longitude = random.nextDouble() * 360.0 - 180.0;
+            long code = MortonCode.encode(latitude, longitude);
+            assertEquals(latitude, MortonCode.decodeLatitude(code), LATITUDE_CELL);
+            assertEquals(longitude, MortonCode.decodeLongitude(code), LONGITUDE_CELL);
+            assertEquals(code, MortonCode.encode(MortonCode.decodeLatitude(code),
+                    MortonCode.decodeLongitude(code)));
+        }
+    }
+
+    @Test
+    public void edgesOfTheWorldAreClamped() {
+        long max = (1L << MortonCode.BITS) - 1;
+        assertEquals(0, MortonCode.encode(-90.0, -180.0));
+        assertEquals(MortonCode.interleave(max, max), MortonCode.encode(90.0, 180.0));
+        assertEquals(MortonCode.encode(90.0, 180.0), MortonCode.encode(95.0, 200.0));
+        assertEquals(0, MortonCode.encode(-95.0, -200.0));
+        // 62 bits, never negative
+        assertTrue(MortonCode.encode(90.0, 180.0) > 0);
+        assertTrue(MortonCode.encode(90.0, 180.0) < 1L << 62);
+    }
+
+    @Test
+    public void bitsAreInterleavedLongitudeFirst() {
+        assertEquals(1, MortonCode.interleave(1, 0));
+        assertEquals(2, MortonCode.interleave(0, 1));
+        assertEquals(0xF, MortonCode.interleave(3, 3));
+        assertEquals(0x15, MortonCode.interleave(7, 0));
+        // every quadrant of the world is a quarter of the codes, in Z order
+        long quarter = 1L << (2 * MortonCode.BITS - 2);
+        assertEquals(0, MortonCode.encode(-45, -90) / quarter);
+        assertEquals(1, MortonCode.encode(-45, 90) / quarter);
+        assertEquals(2, MortonCode.encode(45, -90) / quarter);
+        assertEquals(3, MortonCode.encode(45, 90) / quarter);
+    }
+
+    @Test
+    public void coverContainsEveryPointOfSmallBoxes() {
+        for (int i = 0; i < 500; i++) {
+            double size = Math.pow(10, -4 + random.nextDouble() * 4);
+            double south = random.nextDouble() * (180.0 - size) - 90.0;
+            double west = random.nextDouble() * (360.0 - size) - 180.0;
+            checkCover(south, west, south + size, west + size, 16);
+        }
+    }
+
+    @Test
+    public void coverContainsEveryPointOfLargeBoxes() {
+        for (int i = 0; i < 100; i++) {
+            double south = random.nextDouble() * 170.0 - 90.0;
+            double north = south + random.nextDouble() * (90.0 - south);
+            double west = random.nextDouble() * 300.0 - 180.0;
+            double east = west + random.nextDouble() * (180.0 - west);
+            checkCover(south, west, north, east, 2 + random.nextInt(15));
+        }
+        checkCover(-90, -180, 90, 180, 16);
+    }
+
+    @Test
+    public void coverAcrossTheAntimeridian() {
+        long[] ranges = checkCover(-17.5, 179.0, -16.0, -179.0, 16);
+        // the two sides are far apart in code order, so they stay separate ranges
+        assertTrue(ranges.length >= 4);
+        assertFalse(covered(ranges, MortonCode.encode(-17.0, 0.0)));
+        // and still with only two ranges allowed
+        checkCover(-17.5, 179.0, -16.0, -179.0, 2);
+        checkCover(60.0, 170.0, 70.0, -170.0, 3);
+    }
+
+    @Test
+    public void coverAtThePoles() {
+        long[] north = checkCover(89.5, -180.0, 90.0, 180.0, 16);
+        assertTrue(covered(north, MortonCode.encode(90.0, 0.0)));
+        assertTrue(covered(north, MortonCode.encode(90.0, 180.0)));
+        assertFalse(covered(north, MortonCode.encode(0.0, 0.0)));
+        long[] south = checkCover(-90.0, -180.0, -89.9, 180.0, 16);
+        assertTrue(covered(south, MortonCode.encode(-90.0, -180.0)));
+        // the box of a search around the pole, see NearestNeighbours.boundsAround
+        double[] bounds = new double[4];
+        NearestNeighbours.boundsAround(89.99, 45.0, 5000.0, bounds);
+        checkCover(bounds[0], bounds[1], bounds[2], bounds[3], 16);
+    }
+
+    @Test
+    public void rangeCountIsCapped() {
+        long[] unlimited = checkCover(47.3, 8.4, 47.5, 8.7, 256);
+        int needed = unlimited.length / 2;
+        assertTrue("a box not aligned to cells needs several ranges: " + needed, needed > 4);
+        for (int maxRanges = 2; maxRanges <= needed; maxRanges++) {
+            long[] capped = checkCover(47.3, 8.4, 47.5, 8.7, maxRanges);
+            assertEquals(maxRanges, capped.length / 2);
+            // closing gaps only adds codes
+            for (int i = 0; i < unlimited.length; i += 2) {
+                assertTrue(covered(capped, unlimited[i]));
+                assertTrue(covered(capped, unlimited[i + 1]));
+            }
+        }
+    }
+
+    @Test
+    public void coverNeedsRoomForTwoRanges() {
+        try {
+            MortonCode.cover(0, 0, 1, 1, 1, new long[2]);
+            fail("one range can't hold an antimeridian box");
+        } catch (IllegalArgumentException expected) {
+            // the two sides of the antimeridian are two ranges at least
+        }
+    }
+
+    /*
+     * Checks the cover of the box: within the cap, sorted, not overlapping, and containing
+     * every point inside the box, its corners and edges included. Returns the ranges.
+     */
+    private long[] checkCover(double south, double west, double north, double east,
+                              int maxRanges) {
+        long[] ranges = new long[2 * maxRanges];
+        int count = MortonCode.cover(south, west, north, east, maxRanges, ranges);
+        String box = "[" + south + ", " + west + ", " + north + ", " + east + "] in "
+                + maxRanges + " ranges";
+        assertTrue(box, count >= 1 && count <= maxRanges);
+        for (int i = 0; i < count; i++) {
+            assertTrue(box, ranges[2 * i] <= ranges[2 * i + 1]);
+            if (i > 0) {
+                assertTrue(box, ranges[2 * i] > ranges[2 * i - 1] + 1);
+            }
+        }
+        long[] used = new long[2 * count];
+        System.arraycopy(ranges, 0, used, 0, used.length);
+
+        double width = west <= east ? east - west : 360.0 - west + east;
+        double[][] edges = {{south, west}, {south, east}, {north, west}, {north, east}};
+        for (double[] corner : edges) {
+            assertTrue(box + " misses corner " + corner[0] + ", " + corner[1],
+                    covered(used, MortonCode.encode(corner[0], corner[1])));
+        }
+        for (int i = 0; i < 2000; i++) {
+            double latitude = south + random.nextDouble() * (north - south);
+            double longitude = GeoMath.normalizeLongitude(west + random.nextDouble() * width);
+            if (i % 4 == 0) {
+                latitude = i % 8 == 0 ? south : north;
+            } else if (i % 4 == 1) {
+                longitude = i % 8 == 1 ? west : east;
+            }
+            assertTrue(box + " misses " + latitude + ", " + longitude,
+                    covered(used, MortonCode.encode(latitude, longitude)));
+        }
+        return used;
+    }
+
+    private static boolean covered(long[] ranges, long code) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (code >= ranges[i] && code <= ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,254 @@
+package com.location.philippweiher.test.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs box and nearest-neighbour queries over points kept sorted by code, the way the indexed
+ * column keeps them, and checks them against a brute-force haversine scan of the same points.
+ */
+public class MortonSearchTest {
+
+    private final Random random = new Random(5);
+
+    /*
+     * Points sorted by morton code; a range is read with two binary searches, like an index
+     * seek. Items are indexes into the arrays.
+     */
+    static class SortedPoints extends MortonSearch<Integer> {
+
+        final double[] latitudes;
+        final double[] longitudes;
+        final long[] codes;
+        // rows read by the last query, to see that the cover narrows things down
+        int rowsRead;
+
+        SortedPoints(double[] lat, double[] lng, int maxRanges) {
+            super(maxRanges);
+            int n = lat.length;
+            final long[] unsorted = new long[n];
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                unsorted[i] = MortonCode.encode(lat[i], lng[i]);
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(unsorted[a], unsorted[b]);
+                }
+            });
+            latitudes = new double[n];
+            longitudes = new double[n];
+            codes = new long[n];
+            for (int i = 0; i < n; i++) {
+                latitudes[i] = lat[order[i]];
+                longitudes[i] = lng[order[i]];
+                codes[i] = unsorted[order[i]];
+            }
+        }
+
+        @Override
+        protected List<Integer> query(long[] ranges, int count) {
+            List<Integer> rows = new ArrayList<Integer>();
+            for (int r = 0; r < count; r++) {
+                int end = firstAbove(ranges[2 * r + 1]);
+                for (int i = firstAbove(ranges[2 * r] - 1); i < end; i++) {
+                    rows.add(i);
+                }
+            }
+            rowsRead = rows.size();
+            return rows;
+        }
+
+        @Override
+        protected double latitudeOf(Integer item) {
+            return latitudes[item];
+        }
+
+        @Override
+        protected double longitudeOf(Integer item) {
+            return longitudes[item];
+        }
+
+        private int firstAbove(long code) {
+            int low = 0;
+            int high = codes.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (codes[mid] <= code) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    @Test
+    public void nearestMatchesBruteForce() throws Exception {
+        SortedPoints points = clusteredPoints(20000);
+        int[] ks = {1, 5, 50};
+        for (int q = 0; q < 300; q++) {
+            double latitude;
+            double longitude;
+            if (q % 3 == 0) {
+                // anywhere, often far from every point
+                latitude = random.nextDouble() * 180.0 - 90.0;
+                longitude = random.nextDouble() * 360.0 - 180.0;
+            } else {
+                int near = random.nextInt(points.latitudes.length);
+                latitude = points.latitudes[near] + random.nextGaussian() * 0.01;
+                longitude = GeoMath.normalizeLongitude(points.longitudes[near]
+                        + random.nextGaussian() * 0.01);
+                latitude = Math.max(-90.0, Math.min(90.0, latitude));
+            }
+            int k = ks[q % ks.length];
+            checkNearest(points, latitude, longitude, k);
+        }
+    }
+
+    @Test
+    public void nearestAcrossTheAntimeridianAndAtThePoles() throws Exception {
+        SortedPoints points = clusteredPoints(5000);
+        checkNearest(points, -16.5, 179.999, 10);
+        checkNearest(points, -16.5, -179.999, 10);
+        checkNearest(points, 89.9999, 0.0, 10);
+        checkNearest(points, 90.0, 123.0, 3);
+        checkNearest(points, -90.0, 0.0, 3);
+    }
+
+    @Test
+    public void nearestReturnsEverythingWhenThereIsLittle() throws Exception {
+        double[] lat = {52.5, -33.9, 35.7};
+        double[] lng = {13.4, 151.2, 139.7};
+        SortedPoints points = new SortedPoints(lat, lng, 16);
+        List<Integer> found = points.findNearest(0.0, 0.0, 10);
+        assertEquals(3, found.size());
+        checkNearest(points, 0.0, 0.0, 10);
+
+        SortedPoints empty = new SortedPoints(new double[0], new double[0], 16);
+        assertTrue(empty.findNearest(52.5, 13.4, 5).isEmpty());
+    }
+
+    @Test
+    public void nearestReadsOnlyTheNeighbourhood() throws Exception {
+        SortedPoints points = clusteredPoints(20000);
+        int near = 1234;
+        points.findNearest(points.latitudes[near], points.longitudes[near], 10);
+        assertTrue("read " + points.rowsRead + " rows", points.rowsRead < 2000);
+    }
+
+    @Test
+    public void boundsMatchBruteForce() throws Exception {
+        SortedPoints points = clusteredPoints(20000);
+        for (int q = 0; q < 300; q++) {
+            double size = Math.pow(10, -2 + random.nextDouble() * 3);
+            int from = random.nextInt(points.latitudes.length);
+            double south = Math.max(-90.0, points.latitudes[from] - size / 2);
+            double north = Math.min(90.0, south + size);
+            double west = GeoMath.normalizeLongitude(points.longitudes[from] - size);
+            double east = GeoMath.normalizeLongitude(west + 2 * size);
+            checkBounds(points, south, west, north, east);
+        }
+        checkBounds(points, -20.0, 175.0, -10.0, -175.0);
+        checkBounds(points, 80.0, -180.0, 90.0, 180.0);
+        checkBounds(points, -90.0, -180.0, 90.0, 180.0);
+    }
+
+    @Test
+    public void boxAroundHoldsTheWholeCircle() {
+        double[][] centres = {{47.4, 8.5}, {-16.5, 179.99}, {-16.5, -179.99}, {89.9, 10.0},
+                {-89.95, -100.0}, {0.0, 0.0}};
+        double[] radii = {50.0, 500.0, 20000.0, 1e6};
+        double[] bounds = new double[4];
+        for (double[] centre : centres) {
+            for (double radius : radii) {
+                NearestNeighbours.boundsAround(centre[0], centre[1], radius, bounds);
+                double spread = Math.toDegrees(2 * radius / GeoMath.EARTH_RADIUS_METERS);
+                for (int i = 0; i < 2000; i++) {
+                    double latitude = Math.max(-90.0, Math.min(90.0,
+                            centre[0] + (random.nextDouble() * 2 - 1) * spread));
+                    double longitude = GeoMath.normalizeLongitude(
+                            centre[1] + (random.nextDouble() * 2 - 1) * spread * 50);
+                    if (GeoMath.distance(centre[0], centre[1], latitude, longitude) <= radius) {
+                        assertTrue(latitude + ", " + longitude + " within " + radius + " m of "
+                                        + centre[0] + ", " + centre[1],
+                                MortonSearch.contains(bounds[0], bounds[1], bounds[2], bounds[3],
+                                        latitude, longitude));
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Towns around the world with points scattered around them, and some right at the
+     * antimeridian (Fiji) and near both poles.
+     */
+    private SortedPoints clusteredPoints(int n) {
+        double[] townLatitudes = new double[200];
+        double[] townLongitudes = new double[200];
+        for (int i = 0; i < townLatitudes.length; i++) {
+            townLatitudes[i] = random.nextDouble() * 140.0 - 70.0;
+            townLongitudes[i] = random.nextDouble() * 360.0 - 180.0;
+        }
+        townLatitudes[0] = -16.5;
+        townLongitudes[0] = 180.0;
+        townLatitudes[1] = 89.95;
+        townLatitudes[2] = -89.95;
+        double[] lat = new double[n];
+        double[] lng = new double[n];
+        for (int i = 0; i < n; i++) {
+            int town = random.nextInt(townLatitudes.length);
+            lat[i] = Math.max(-90.0, Math.min(90.0, townLatitudes[town] + random.nextGaussian() * 0.05));
+            lng[i] = GeoMath.normalizeLongitude(townLongitudes[town] + random.nextGaussian() * 0.08);
+        }
+        return new SortedPoints(lat, lng, 16);
+    }
+
+    private static void checkNearest(SortedPoints points, double latitude, double longitude, int k)
+            throws Exception {
+        List<Integer> found = points.findNearest(latitude, longitude, k);
+
+        int n = points.latitudes.length;
+        Double[] distances = new Double[n];
+        for (int i = 0; i < n; i++) {
+            distances[i] = GeoMath.distance(latitude, longitude,
+                    points.latitudes[i], points.longitudes[i]);
+        }
+        List<Double> sorted = new ArrayList<Double>(Arrays.asList(distances));
+        Collections.sort(sorted);
+
+        String query = k + " nearest to " + latitude + ", " + longitude;
+        assertEquals(query, Math.min(k, n), found.size());
+        for (int i = 0; i < found.size(); i++) {
+            // compared by distance, so ties can come in any order
+            assertEquals(query + " #" + i, sorted.get(i), distances[found.get(i)], 1e-6);
+        }
+    }
+
+    private static void checkBounds(SortedPoints points, double south, double west,
+                                    double north, double east) throws Exception {
+        List<Integer> found = points.findInBounds(south, west, north, east);
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < points.latitudes.length; i++) {
+            if (MortonSearch.contains(south, west, north, east,
+                    points.latitudes[i], points.longitudes[i])) {
+                expected.add(i);
+            }
+        }
+        Collections.sort(found);
+        assertEquals("[" + south + ", " + west + ", " + north + ", " + east + "]", expected, found);
+    }
+}